@@ -24,14 +24,16 @@ import java.util.Map;
 import javax.annotation.Nullable;
 
 import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.plugin.adyen.dao.AdditionalDataCodec;
 import org.killbill.billing.plugin.api.PluginProperties;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.google.common.collect.ImmutableMap;
 
 public abstract class AdyenModelPluginBase {
 
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectReader additionalDataReader = new ObjectMapper().readerFor(Map.class);
 
     protected static Map toMap(@Nullable final String additionalData) {
         if (additionalData == null) {
@@ -39,7 +41,7 @@ public abstract class AdyenModelPluginBase {
         }
 
         try {
-            return objectMapper.readValue(additionalData, Map.class);
+            return additionalDataReader.readValue(AdditionalDataCodec.decode(additionalData));
         } catch (final IOException e) {
             return ImmutableMap.of();
         }
@@ -21,10 +21,14 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.net.URLDecoder;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -52,6 +56,7 @@ import org.killbill.billing.payment.plugin.api.PaymentMethodInfoPlugin;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.adyen.api.mapping.IndexedPluginProperties;
 import org.killbill.billing.plugin.adyen.api.mapping.PaymentInfoMappingService;
 import org.killbill.billing.plugin.adyen.client.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.client.model.HppCompletedResult;
@@ -66,6 +71,8 @@ import org.killbill.billing.plugin.adyen.client.model.UserData;
 import org.killbill.billing.plugin.adyen.client.model.paymentinfo.WebPaymentFrontend;
 import org.killbill.billing.plugin.adyen.client.notification.AdyenNotificationHandler;
 import org.killbill.billing.plugin.adyen.client.notification.AdyenNotificationService;
+import org.killbill.billing.plugin.adyen.client.notification.NotificationAdmissionController;
+import org.killbill.billing.plugin.adyen.client.notification.NotificationMetrics;
 import org.killbill.billing.plugin.adyen.client.payment.exception.SignatureGenerationException;
 import org.killbill.billing.plugin.adyen.client.payment.service.AdyenPaymentServiceProviderHostedPaymentPagePort;
 import org.killbill.billing.plugin.adyen.client.payment.service.AdyenPaymentServiceProviderPort;
@@ -76,7 +83,9 @@ import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
 import org.killbill.billing.plugin.adyen.core.AdyenHostedPaymentPageConfigurationHandler;
 import org.killbill.billing.plugin.adyen.core.AdyenRecurringConfigurationHandler;
 import org.killbill.billing.plugin.adyen.core.KillbillAdyenNotificationHandler;
+import org.killbill.billing.plugin.adyen.core.WriteBehindNotificationRecorder;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UnitOfWork;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord;
@@ -181,6 +190,9 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
     public static final String PROPERTY_HPP_TARGET = "hppTarget";
     public static final String PROPERTY_LOOKUP_DIRECTORY = "lookupDirectory";
 
+    // Retention
+    public static final String PROPERTY_INCLUDE_ARCHIVED = "includeArchived";
+
     public static final String ADDITIONAL_DATA_ITEM = "additionalDataItem";
 
     // Internals
@@ -211,6 +223,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
     private final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler;
     private final AdyenDao dao;
     private final AdyenNotificationService adyenNotificationService;
+    private final KillbillLookupCache killbillLookupCache;
 
     public AdyenPaymentPluginApi(final AdyenConfigurationHandler adyenConfigurationHandler,
                                  final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler,
@@ -221,23 +234,86 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
                                  final OSGIKillbillLogService logService,
                                  final Clock clock,
                                  final AdyenDao dao) throws JAXBException {
+        this(adyenConfigurationHandler, adyenConfigPropertiesConfigurationHandler, adyenHppConfigurationHandler, adyenRecurringConfigurationHandler, killbillApi, osgiConfigPropertiesService, logService, clock, dao, null);
+    }
+
+
+    public AdyenPaymentPluginApi(final AdyenConfigurationHandler adyenConfigurationHandler,
+                                 final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler,
+                                 final AdyenHostedPaymentPageConfigurationHandler adyenHppConfigurationHandler,
+                                 final AdyenRecurringConfigurationHandler adyenRecurringConfigurationHandler,
+                                 final OSGIKillbillAPI killbillApi,
+                                 final OSGIConfigPropertiesService osgiConfigPropertiesService,
+                                 final OSGIKillbillLogService logService,
+                                 final Clock clock,
+                                 final AdyenDao dao,
+                                 @Nullable final WriteBehindNotificationRecorder notificationRecorder) throws JAXBException {
+        this(adyenConfigurationHandler, adyenConfigPropertiesConfigurationHandler, adyenHppConfigurationHandler, adyenRecurringConfigurationHandler, killbillApi, osgiConfigPropertiesService, logService, clock, dao, notificationRecorder, new KillbillLookupCache(0, 0), new NotificationMetrics());
+    }
+
+    public AdyenPaymentPluginApi(final AdyenConfigurationHandler adyenConfigurationHandler,
+                                 final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler,
+                                 final AdyenHostedPaymentPageConfigurationHandler adyenHppConfigurationHandler,
+                                 final AdyenRecurringConfigurationHandler adyenRecurringConfigurationHandler,
+                                 final OSGIKillbillAPI killbillApi,
+                                 final OSGIConfigPropertiesService osgiConfigPropertiesService,
+                                 final OSGIKillbillLogService logService,
+                                 final Clock clock,
+                                 final AdyenDao dao,
+                                 @Nullable final WriteBehindNotificationRecorder notificationRecorder,
+                                 final KillbillLookupCache killbillLookupCache,
+                                 final NotificationMetrics notificationMetrics) throws JAXBException {
         super(killbillApi, osgiConfigPropertiesService, logService, clock, dao);
         this.adyenConfigurationHandler = adyenConfigurationHandler;
         this.adyenHppConfigurationHandler = adyenHppConfigurationHandler;
         this.adyenRecurringConfigurationHandler = adyenRecurringConfigurationHandler;
         this.adyenConfigPropertiesConfigurationHandler = adyenConfigPropertiesConfigurationHandler;
         this.dao = dao;
+        this.killbillLookupCache = killbillLookupCache;
 
-        final AdyenNotificationHandler adyenNotificationHandler = new KillbillAdyenNotificationHandler(adyenConfigPropertiesConfigurationHandler, killbillApi, dao, clock);
+        final AdyenNotificationHandler adyenNotificationHandler = new KillbillAdyenNotificationHandler(adyenConfigPropertiesConfigurationHandler, killbillApi, dao, clock, notificationRecorder);
         //noinspection RedundantTypeArguments
-        this.adyenNotificationService = new AdyenNotificationService(ImmutableList.<AdyenNotificationHandler>of(adyenNotificationHandler));
+        this.adyenNotificationService = new AdyenNotificationService(ImmutableList.<AdyenNotificationHandler>of(adyenNotificationHandler),
+                                                                     buildNotificationAdmissionController(osgiConfigPropertiesService),
+                                                                     notificationMetrics);
+    }
+
+    // Admission control is per node, hence only configurable globally (not per tenant)
+    private static NotificationAdmissionController buildNotificationAdmissionController(final OSGIConfigPropertiesService osgiConfigPropertiesService) {
+        final Properties globalProperties = osgiConfigPropertiesService == null ? null : osgiConfigPropertiesService.getProperties();
+        final AdyenConfigProperties globalConfigProperties = new AdyenConfigProperties(MoreObjects.firstNonNull(globalProperties, new Properties()));
+        return new NotificationAdmissionController(globalConfigProperties.getNotificationMaxConcurrentBatches(),
+                                                   globalConfigProperties.getNotificationMaxInFlightItems());
     }
 
     @Override
     public List<PaymentTransactionInfoPlugin> getPaymentInfo(final UUID kbAccountId, final UUID kbPaymentId, final Iterable<PluginProperty> properties, final TenantContext context) throws PaymentPluginApiException {
-        final List<PaymentTransactionInfoPlugin> transactions = super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
+        final boolean includeArchived = Boolean.valueOf(PluginProperties.findPluginPropertyValue(PROPERTY_INCLUDE_ARCHIVED, properties));
+        // Outside of a unit of work, for the reads to be served by the read replica
+        final List<PaymentTransactionInfoPlugin> transactions = getPaymentTransactionInfoPlugins(kbPaymentId, includeArchived, context);
+        if (transactions.isEmpty() || !expiredPaymentPolicy(context).isExpired(transactions)) {
+            // We don't know about this payment (maybe it was aborted in a control plugin) or it isn't expired
+            return transactions;
+        }
+
+        try {
+            // The replica may be stale: the janitor only acts on the primary rows. Database calls only (responses, HPP requests, janitor update): borrow a single connection
+            return dao.inUnitOfWork(false,
+                                    new UnitOfWork<List<PaymentTransactionInfoPlugin>, PaymentPluginApiException>() {
+                                        @Override
+                                        public List<PaymentTransactionInfoPlugin> execute() throws PaymentPluginApiException {
+                                            return cancelIfExpired(kbPaymentId, includeArchived, context);
+                                        }
+                                    });
+        } catch (final SQLException e) {
+            throw new PaymentPluginApiException("Unable to retrieve payment information for kbPaymentId " + kbPaymentId, e);
+        }
+    }
+
+    // Within a unit of work, the reads go to the primary
+    private List<PaymentTransactionInfoPlugin> cancelIfExpired(final UUID kbPaymentId, final boolean includeArchived, final TenantContext context) throws PaymentPluginApiException {
+        final List<PaymentTransactionInfoPlugin> transactions = getPaymentTransactionInfoPlugins(kbPaymentId, includeArchived, context);
         if (transactions.isEmpty()) {
-            // We don't know about this payment (maybe it was aborted in a control plugin)
             return transactions;
         }
 
@@ -245,7 +321,51 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         if (expiredPaymentPolicy.isExpired(transactions)) {
             cancelExpiredPayment(expiredPaymentPolicy.latestTransaction(transactions), context);
             // reload payment
-            return super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
+            return getPaymentTransactionInfoPlugins(kbPaymentId, includeArchived, context);
+        }
+        return transactions;
+    }
+
+    // Same as super.getPaymentInfo, but the HPP requests are fetched with a single query, instead of one per transaction (both reads may be served by the read replica)
+    private List<PaymentTransactionInfoPlugin> getPaymentTransactionInfoPlugins(final UUID kbPaymentId, final boolean includeArchived, final TenantContext context) throws PaymentPluginApiException {
+        final List<AdyenResponsesRecord> adyenResponsesRecords;
+        try {
+            adyenResponsesRecords = dao.inReadOnlyUnitOfWork(kbPaymentId,
+                                                             new UnitOfWork<List<AdyenResponsesRecord>, SQLException>() {
+                                                                 @Override
+                                                                 public List<AdyenResponsesRecord> execute() throws SQLException {
+                                                                     return dao.getResponses(kbPaymentId, context.getTenantId(), includeArchived);
+                                                                 }
+                                                             });
+        } catch (final SQLException e) {
+            throw new PaymentPluginApiException("Unable to retrieve payments for kbPaymentId " + kbPaymentId, e);
+        }
+
+        if (adyenResponsesRecords.isEmpty()) {
+            return ImmutableList.<PaymentTransactionInfoPlugin>of();
+        }
+
+        final Set<UUID> kbPaymentTransactionIds = new HashSet<UUID>();
+        for (final AdyenResponsesRecord adyenResponsesRecord : adyenResponsesRecords) {
+            kbPaymentTransactionIds.add(UUID.fromString(adyenResponsesRecord.getKbPaymentTransactionId()));
+        }
+
+        Map<String, AdyenHppRequestsRecord> hppRequestsRecords = ImmutableMap.<String, AdyenHppRequestsRecord>of();
+        try {
+            hppRequestsRecords = dao.inReadOnlyUnitOfWork(kbPaymentId,
+                                                          new UnitOfWork<Map<String, AdyenHppRequestsRecord>, SQLException>() {
+                                                              @Override
+                                                              public Map<String, AdyenHppRequestsRecord> execute() throws SQLException {
+                                                                  return dao.getHppRequests(kbPaymentTransactionIds);
+                                                              }
+                                                          });
+        } catch (final SQLException e) {
+            logger.warn("Unable to retrieve HPP requests for kbPaymentId='{}'", kbPaymentId, e);
+        }
+
+        final List<PaymentTransactionInfoPlugin> transactions = new ArrayList<PaymentTransactionInfoPlugin>(adyenResponsesRecords.size());
+        for (final AdyenResponsesRecord adyenResponsesRecord : adyenResponsesRecords) {
+            transactions.add(new AdyenPaymentTransactionInfoPlugin(adyenResponsesRecord, hppRequestsRecords.get(adyenResponsesRecord.getKbPaymentTransactionId())));
         }
         return transactions;
     }
@@ -299,6 +419,18 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         return paymentMethodsRecord.getKbPaymentMethodId();
     }
 
+    @Override
+    public void addPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final PaymentMethodPlugin paymentMethodProps, final boolean setDefault, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
+        super.addPaymentMethod(kbAccountId, kbPaymentMethodId, paymentMethodProps, setDefault, properties, context);
+        killbillLookupCache.invalidateAccount(kbAccountId, context.getTenantId());
+    }
+
+    @Override
+    public void resetPaymentMethods(final UUID kbAccountId, final List<PaymentMethodInfoPlugin> paymentMethods, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
+        super.resetPaymentMethods(kbAccountId, paymentMethods, properties, context);
+        killbillLookupCache.invalidateAccount(kbAccountId, context.getTenantId());
+    }
+
     @Override
     public void deletePaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
         // Retrieve our currently known payment method
@@ -316,8 +448,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
             final String countryCode = pluginPropertyCountry == null ? account.getCountry() : pluginPropertyCountry;
             final String merchantAccount = getMerchantAccount(countryCode, properties, context);
 
-            final Map additionalData = AdyenDao.fromAdditionalData(adyenPaymentMethodsRecord.getAdditionalData());
-            Object customerId = additionalData.get(PROPERTY_CUSTOMER_ID);
+            Object customerId = AdyenDao.getCustomerId(adyenPaymentMethodsRecord);
             if (customerId == null) {
                 customerId = MoreObjects.firstNonNull(account.getExternalKey(), account.getId());
             }
@@ -331,13 +462,24 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         }
 
         super.deletePaymentMethod(kbAccountId, kbPaymentMethodId, properties, context);
+        killbillLookupCache.invalidateAccount(kbAccountId, context.getTenantId());
     }
 
     @Override
     public List<PaymentMethodInfoPlugin> getPaymentMethods(final UUID kbAccountId, final boolean refreshFromGateway, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
-        // If refreshFromGateway isn't set, simply read our tables
+        // If refreshFromGateway isn't set, simply read our tables (may be served by the read replica)
         if (!refreshFromGateway) {
-            return super.getPaymentMethods(kbAccountId, refreshFromGateway, properties, context);
+            try {
+                return dao.inReadOnlyUnitOfWork(kbAccountId,
+                                                new UnitOfWork<List<PaymentMethodInfoPlugin>, PaymentPluginApiException>() {
+                                                    @Override
+                                                    public List<PaymentMethodInfoPlugin> execute() throws PaymentPluginApiException {
+                                                        return AdyenPaymentPluginApi.super.getPaymentMethods(kbAccountId, refreshFromGateway, properties, context);
+                                                    }
+                                                });
+            } catch (final SQLException e) {
+                throw new PaymentPluginApiException("Unable to retrieve payment methods for kbAccountId " + kbAccountId, e);
+            }
         }
 
         // Retrieve our currently known payment methods
@@ -359,20 +501,20 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         final String countryCode = pluginPropertyCountry == null ? account.getCountry() : pluginPropertyCountry;
         final String merchantAccount = getMerchantAccount(countryCode, properties, context);
 
+        // The recurring details of the shopper are listed for each of their payment methods: look up each former payment only once
+        final Map<UUID, UUID> paymentMethodIdsByPayment = new HashMap<UUID, UUID>();
         for (final AdyenPaymentMethodsRecord record : Lists.<AdyenPaymentMethodsRecord>reverse(existingPaymentMethods)) {
             if (record.getToken() != null) {
                 // Immutable in Adyen -- nothing to do
                 continue;
             }
 
-            final Map additionalData = AdyenDao.fromAdditionalData(record.getAdditionalData());
-
-            Object customerId = additionalData.get(PROPERTY_CUSTOMER_ID);
+            Object customerId = AdyenDao.getCustomerId(record);
             if (customerId == null) {
                 customerId = MoreObjects.firstNonNull(account.getExternalKey(), account.getId());
             }
 
-            Object recurringType = additionalData.get(PROPERTY_RECURRING_TYPE);
+            Object recurringType = AdyenDao.getRecurringType(record);
             if (recurringType == null) {
                 recurringType = MoreObjects.firstNonNull(PluginProperties.findPluginPropertyValue(PROPERTY_RECURRING_TYPE, properties), "RECURRING");
             }
@@ -398,14 +540,24 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
                     continue;
                 }
 
-                final Payment payment;
-                try {
-                    payment = killbillAPI.getPaymentApi().getPayment(UUID.fromString(formerResponse.getKbPaymentId()), false, false, properties, context);
-                } catch (final PaymentApiException e) {
-                    logService.log(LogService.LOG_ERROR, "Unable to retrieve Payment for externalKey " + recurringDetail.getFirstPspReference(), e);
-                    continue;
+                final UUID kbPaymentId = UUID.fromString(formerResponse.getKbPaymentId());
+                UUID paymentMethodId = paymentMethodIdsByPayment.get(kbPaymentId);
+                if (paymentMethodId == null) {
+                    paymentMethodId = killbillLookupCache.getPaymentMethodId(kbPaymentId, context.getTenantId());
                 }
-                if (payment.getPaymentMethodId().toString().equals(record.getKbPaymentMethodId())) {
+                if (paymentMethodId == null) {
+                    final Payment payment;
+                    try {
+                        payment = killbillAPI.getPaymentApi().getPayment(kbPaymentId, false, false, properties, context);
+                    } catch (final PaymentApiException e) {
+                        logService.log(LogService.LOG_ERROR, "Unable to retrieve Payment for externalKey " + recurringDetail.getFirstPspReference(), e);
+                        continue;
+                    }
+                    killbillLookupCache.putPayment(payment, context.getTenantId());
+                    paymentMethodId = payment.getPaymentMethodId();
+                }
+                paymentMethodIdsByPayment.put(kbPaymentId, paymentMethodId);
+                if (paymentMethodId.toString().equals(record.getKbPaymentMethodId())) {
                     try {
                         dao.setPaymentMethodToken(record.getKbPaymentMethodId(), recurringDetail.getRecurringDetailReference(), context.getTenantId().toString());
                     } catch (final SQLException e) {
@@ -428,7 +580,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
             throw new PaymentPluginApiException("HPP notification came through, but we encountered a database error", e);
         }
 
-        final boolean isHPPCompletion = adyenResponsesRecord != null && Boolean.valueOf(MoreObjects.firstNonNull(AdyenDao.fromAdditionalData(adyenResponsesRecord.getAdditionalData()).get(PROPERTY_FROM_HPP), false).toString());
+        final boolean isHPPCompletion = adyenResponsesRecord != null && AdyenDao.isFromHpp(adyenResponsesRecord);
         if (!isHPPCompletion) {
             // We don't have any record for that payment: we want to trigger an actual authorization call (or complete a 3D-S authorization)
             return executeInitialTransaction(TransactionType.AUTHORIZE, kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId, amount, currency, properties, context);
@@ -531,29 +683,30 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
     // HPP
 
     @Override
-    public HostedPaymentPageFormDescriptor buildFormDescriptor(final UUID kbAccountId, final Iterable<PluginProperty> customFields, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
+    public HostedPaymentPageFormDescriptor buildFormDescriptor(final UUID kbAccountId, final Iterable<PluginProperty> customFields, final Iterable<PluginProperty> pluginProperties, final CallContext context) throws PaymentPluginApiException {
         //noinspection unchecked
-        final Iterable<PluginProperty> mergedProperties = PluginProperties.merge(customFields, properties);
+        final IndexedPluginProperties mergedProperties = IndexedPluginProperties.of(PluginProperties.merge(customFields, pluginProperties));
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
 
         final Account account = getAccount(kbAccountId, context);
         final String countryCode = getCountryCode(account, null, properties);
         final String merchantAccount = getMerchantAccount(countryCode, properties, context);
 
-        final String amountString = PluginProperties.findPluginPropertyValue(PROPERTY_AMOUNT, mergedProperties);
+        final String amountString = mergedProperties.findPluginPropertyValue(PROPERTY_AMOUNT);
         Preconditions.checkState(!Strings.isNullOrEmpty(amountString), "amount not specified");
         final BigDecimal amount = new BigDecimal(amountString);
-        final String currencyString = PluginProperties.findPluginPropertyValue(PROPERTY_CURRENCY, properties);
+        final String currencyString = properties.findPluginPropertyValue(PROPERTY_CURRENCY);
         final Currency currency = currencyString == null ? account.getCurrency() : Currency.valueOf(currencyString);
         Preconditions.checkState(currency != null, "currency not specified");
 
         final PaymentData paymentData = buildPaymentData(merchantAccount, countryCode, account, amount, currency, mergedProperties, context);
         final UserData userData = toUserData(account, mergedProperties);
 
-        final boolean shouldCreatePendingPayment = Boolean.valueOf(PluginProperties.findPluginPropertyValue(PROPERTY_CREATE_PENDING_PAYMENT, mergedProperties));
+        final boolean shouldCreatePendingPayment = Boolean.valueOf(mergedProperties.findPluginPropertyValue(PROPERTY_CREATE_PENDING_PAYMENT));
         Payment pendingPayment = null;
         if (shouldCreatePendingPayment) {
-            final boolean authMode = Boolean.valueOf(PluginProperties.findPluginPropertyValue(PROPERTY_AUTH_MODE, mergedProperties));
-            final String paymentMethodIdString = PluginProperties.findPluginPropertyValue(PROPERTY_PAYMENT_METHOD_ID, mergedProperties);
+            final boolean authMode = Boolean.valueOf(mergedProperties.findPluginPropertyValue(PROPERTY_AUTH_MODE));
+            final String paymentMethodIdString = mergedProperties.findPluginPropertyValue(PROPERTY_PAYMENT_METHOD_ID);
             final UUID paymentMethodId = paymentMethodIdString == null ? null : UUID.fromString(paymentMethodIdString);
             pendingPayment = createPendingPayment(authMode, account, paymentMethodId, paymentData, context);
         }
@@ -587,7 +740,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         // Safe cast
         final WebPaymentFrontend webPaymentFrontend = (WebPaymentFrontend) paymentData.getPaymentInfo();
 
-        final boolean withDirectory = Boolean.valueOf(PluginProperties.findPluginPropertyValue(PROPERTY_LOOKUP_DIRECTORY, mergedProperties));
+        final boolean withDirectory = Boolean.valueOf(mergedProperties.findPluginPropertyValue(PROPERTY_LOOKUP_DIRECTORY));
         if (withDirectory) {
             final Map directory = hostedPaymentPagePort.getDirectory(merchantAccount,
                                                                      amount,
@@ -600,7 +753,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         }
 
         final String target = webPaymentFrontend.getBrandCode() != null && webPaymentFrontend.getIssuerId() != null ? getConfigProperties(context).getHppSkipDetailsTarget() : getConfigProperties(context).getHppTarget();
-        final String hppTarget = PluginProperties.getValue(PROPERTY_HPP_TARGET, target, properties);
+        final String hppTarget = properties.getValue(PROPERTY_HPP_TARGET, target);
         return new AdyenHostedPaymentPageFormDescriptor(kbAccountId, hppTarget, PluginProperties.buildPluginProperties(formParameter));
     }
 
@@ -610,6 +763,10 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         return new AdyenGatewayNotification(notificationResponse);
     }
 
+    public AdyenNotificationService getAdyenNotificationService() {
+        return adyenNotificationService;
+    }
+
     private abstract static class TransactionExecutor<T> {
 
         public T execute(final String merchantAccount, final PaymentData paymentData, final UserData userData, final SplitSettlementData splitSettlementData, final Map<String, String> additionalData) {
@@ -668,14 +825,15 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
                                                                    final UUID kbPaymentMethodId,
                                                                    final BigDecimal amount,
                                                                    final Currency currency,
-                                                                   final Iterable<PluginProperty> properties,
+                                                                   final Iterable<PluginProperty> pluginProperties,
                                                                    final TenantContext context) throws PaymentPluginApiException {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
         final Account account = getAccount(kbAccountId, context);
         final AdyenPaymentMethodsRecord nonNullPaymentMethodsRecord = getAdyenPaymentMethodsRecord(kbPaymentMethodId, context);
         final String countryCode = getCountryCode(account, nonNullPaymentMethodsRecord, properties);
         final String merchantAccount = getMerchantAccount(countryCode, properties, context);
 
-        final boolean fromHPP = Boolean.valueOf(PluginProperties.findPluginPropertyValue(PROPERTY_FROM_HPP, properties));
+        final boolean fromHPP = Boolean.valueOf(properties.findPluginPropertyValue(PROPERTY_FROM_HPP));
         if (fromHPP) {
             // We are either processing a notification (see KillbillAdyenNotificationHandler), creating a PENDING payment for HPP (see buildFormDescriptor) or recording a payment post HPP redirect
             return getPaymentTransactionInfoPluginForHPP(transactionType, kbAccountId, kbPaymentId, kbTransactionId, amount, currency, properties, context);
@@ -684,7 +842,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         // Pull extra properties from the payment method (such as the customerId)
         final Iterable<PluginProperty> additionalPropertiesFromRecord = buildPaymentMethodPlugin(nonNullPaymentMethodsRecord).getProperties();
         //noinspection unchecked
-        final Iterable<PluginProperty> mergedProperties = PluginProperties.merge(additionalPropertiesFromRecord, properties);
+        final IndexedPluginProperties mergedProperties = IndexedPluginProperties.of(PluginProperties.merge(additionalPropertiesFromRecord, properties));
         final PaymentData paymentData = buildPaymentData(merchantAccount, countryCode, account, kbPaymentId, kbTransactionId, nonNullPaymentMethodsRecord, amount, currency, mergedProperties, context);
         final UserData userData = toUserData(account, mergedProperties);
         final SplitSettlementData splitSettlementData = buildSplitSettlementData(currency, properties);
@@ -723,13 +881,14 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
                                                                     final UUID kbPaymentMethodId,
                                                                     @Nullable final BigDecimal amount,
                                                                     @Nullable final Currency currency,
-                                                                    final Iterable<PluginProperty> properties,
+                                                                    final Iterable<PluginProperty> pluginProperties,
                                                                     final TenantContext context) throws PaymentPluginApiException {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
         final Account account = getAccount(kbAccountId, context);
         final AdyenPaymentMethodsRecord nonNullPaymentMethodsRecord = getAdyenPaymentMethodsRecord(kbPaymentMethodId, context);
         final String countryCode = getCountryCode(account, nonNullPaymentMethodsRecord, properties);
 
-        final boolean fromHPP = Boolean.valueOf(PluginProperties.findPluginPropertyValue(PROPERTY_FROM_HPP, properties));
+        final boolean fromHPP = Boolean.valueOf(properties.findPluginPropertyValue(PROPERTY_FROM_HPP));
         if (fromHPP) {
             // We are processing a notification (see KillbillAdyenNotificationHandler)
             return getPaymentTransactionInfoPluginForHPP(transactionType, kbAccountId, kbPaymentId, kbTransactionId, amount, currency, properties, context);
@@ -778,50 +937,28 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         }
     }
 
-    private boolean shouldSkipAdyen(final Iterable<PluginProperty> properties) {
-        return "true".equals(PluginProperties.findPluginPropertyValue("skipGw", properties)) || "true".equals(PluginProperties.findPluginPropertyValue("skip_gw", properties));
+    private boolean shouldSkipAdyen(final IndexedPluginProperties properties) {
+        return "true".equals(properties.findPluginPropertyValue("skipGw")) || "true".equals(properties.findPluginPropertyValue("skip_gw"));
     }
 
-    private String getCountryCode(final AccountData account, @Nullable final AdyenPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
-        String country = PluginProperties.getValue(PROPERTY_COUNTRY, paymentMethodsRecord == null ? null : paymentMethodsRecord.getCountry(), properties);
+    private String getCountryCode(final AccountData account, @Nullable final AdyenPaymentMethodsRecord paymentMethodsRecord, final IndexedPluginProperties properties) {
+        String country = properties.getValue(PROPERTY_COUNTRY, paymentMethodsRecord == null ? null : paymentMethodsRecord.getCountry());
         if (country == null && account != null) {
             country = account.getCountry();
         }
         return country;
     }
 
-    private SplitSettlementData buildSplitSettlementData(final Currency currency, final Iterable<PluginProperty> pluginProperties) {
-        final Map<Short, BigDecimal> amounts = new HashMap<Short, BigDecimal>();
-        final Map<Short, String> groups = new HashMap<Short, String>();
-        final Map<Short, String> references = new HashMap<Short, String>();
-        final Map<Short, String> types = new HashMap<Short, String>();
-        for (final PluginProperty pluginProperty : pluginProperties) {
-            if (pluginProperty.getKey().startsWith(SPLIT_SETTLEMENT_DATA_ITEM) && pluginProperty.getValue() != null) {
-                final String[] parts = pluginProperty.getKey().split("\\.");
-                final Short itemNb = Short.parseShort(parts[1]);
-                final String suffix = parts[2];
-
-                final String value = pluginProperty.getValue().toString();
-                if ("amount".equals(suffix)) {
-                    // In major units
-                    amounts.put(itemNb, new BigDecimal(value));
-                } else if ("group".equals(suffix)) {
-                    groups.put(itemNb, value);
-                } else if ("reference".equals(suffix)) {
-                    references.put(itemNb, value);
-                } else if ("type".equals(suffix)) {
-                    types.put(itemNb, value);
-                }
-            }
-        }
-
+    private SplitSettlementData buildSplitSettlementData(final Currency currency, final IndexedPluginProperties pluginProperties) {
         final List<Item> items = new LinkedList<Item>();
-        for (final Short itemNb : amounts.keySet()) {
-            final String type = types.get(itemNb);
-            if (type != null) {
-                items.add(new SplitSettlementData.Item(KillBillMoney.toMinorUnits(currency.toString(), amounts.get(itemNb)),
-                                                       MoreObjects.firstNonNull(groups.get(itemNb), type),
-                                                       MoreObjects.firstNonNull(references.get(itemNb), type),
+        for (final Map<String, String> item : pluginProperties.getSplitSettlementDataItems().values()) {
+            final String amount = item.get("amount");
+            final String type = item.get("type");
+            if (amount != null && type != null) {
+                // Amount in major units
+                items.add(new SplitSettlementData.Item(KillBillMoney.toMinorUnits(currency.toString(), new BigDecimal(amount)),
+                                                       MoreObjects.firstNonNull(item.get("group"), type),
+                                                       MoreObjects.firstNonNull(item.get("reference"), type),
                                                        type));
             }
         }
@@ -833,27 +970,13 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
         }
     }
 
-    private Map<String, String> buildAdditionalData(final Iterable<PluginProperty> pluginProperties) {
-        final Map<Short, String> keys = new HashMap<Short, String>();
-        final Map<Short, String> values = new HashMap<Short, String>();
-        for (final PluginProperty pluginProperty : pluginProperties) {
-            if (pluginProperty.getKey().startsWith(ADDITIONAL_DATA_ITEM) && pluginProperty.getValue() != null) {
-                final String[] parts = pluginProperty.getKey().split("\\.");
-                final Short itemNb = Short.parseShort(parts[1]);
-                final String suffix = parts[2];
-
-                final String value = pluginProperty.getValue().toString();
-                if ("key".equals(suffix)) {
-                    keys.put(itemNb, value);
-                } else if ("value".equals(suffix)) {
-                    values.put(itemNb, value);
-                }
-            }
-        }
-
+    private Map<String, String> buildAdditionalData(final IndexedPluginProperties pluginProperties) {
         final Map<String, String> additionalData = new HashMap<String, String>();
-        for (final Short itemNb : keys.keySet()) {
-            additionalData.put(keys.get(itemNb), values.get(itemNb));
+        for (final Map<String, String> item : pluginProperties.getAdditionalDataItems().values()) {
+            final String key = item.get("key");
+            if (key != null) {
+                additionalData.put(key, item.get("value"));
+            }
         }
 
         return additionalData;
@@ -882,12 +1005,26 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
 
     // For API
     private PaymentData buildPaymentData(final String merchantAccount, final String countryCode, final AccountData account, final UUID kbPaymentId, final UUID kbTransactionId, final AdyenPaymentMethodsRecord paymentMethodsRecord, final BigDecimal amount, final Currency currency, final Iterable<PluginProperty> properties, final TenantContext context) throws PaymentPluginApiException {
+        final String paymentTransactionExternalKey = getPaymentTransactionExternalKey(kbPaymentId, kbTransactionId, properties, context);
+        final PaymentInfo paymentInfo = buildPaymentInfo(merchantAccount, countryCode, account, paymentMethodsRecord, properties, context);
+
+        return new PaymentData<PaymentInfo>(amount, currency, paymentTransactionExternalKey, paymentInfo);
+    }
+
+    // Immutable, hence cached: retries and follow-up calls for a known transaction don't need to fetch the whole payment
+    private String getPaymentTransactionExternalKey(final UUID kbPaymentId, final UUID kbTransactionId, final Iterable<PluginProperty> properties, final TenantContext context) throws PaymentPluginApiException {
+        final String cachedExternalKey = killbillLookupCache.getTransactionExternalKey(kbTransactionId, context.getTenantId());
+        if (cachedExternalKey != null) {
+            return cachedExternalKey;
+        }
+
         final Payment payment;
         try {
             payment = killbillAPI.getPaymentApi().getPayment(kbPaymentId, false, false, properties, context);
         } catch (final PaymentApiException e) {
             throw new PaymentPluginApiException(String.format("Unable to retrieve kbPaymentId='%s'", kbPaymentId), e);
         }
+        killbillLookupCache.putPayment(payment, context.getTenantId());
 
         final PaymentTransaction paymentTransaction = Iterables.<PaymentTransaction>find(payment.getTransactions(),
                                                                                          new Predicate<PaymentTransaction>() {
@@ -896,10 +1033,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
                                                                                                  return kbTransactionId.equals(input.getId());
                                                                                              }
                                                                                          });
-
-        final PaymentInfo paymentInfo = buildPaymentInfo(merchantAccount, countryCode, account, paymentMethodsRecord, properties, context);
-
-        return new PaymentData<PaymentInfo>(amount, currency, paymentTransaction.getExternalKey(), paymentInfo);
+        return paymentTransaction.getExternalKey();
     }
 
     // For HPP
@@ -932,7 +1066,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
 
         if (kbPaymentMethodId != null) {
             try {
-                paymentMethodsRecord = dao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
+                paymentMethodsRecord = dao.getCachedPaymentMethod(kbPaymentMethodId, context.getTenantId());
             } catch (final SQLException e) {
                 logService.log(LogService.LOG_WARNING, "Failed to retrieve payment method " + kbPaymentMethodId, e);
             }
@@ -982,14 +1116,37 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
 
     // Could be shared (see KillbillAdyenNotificationHandler)
     private UUID getAdyenKbPaymentMethodId(final UUID kbAccountId, final TenantContext context) throws PaymentApiException {
+        final UUID cachedKbPaymentMethodId = killbillLookupCache.getAdyenPaymentMethodId(kbAccountId, context.getTenantId());
+        if (cachedKbPaymentMethodId != null) {
+            return cachedKbPaymentMethodId;
+        }
+
         //noinspection RedundantTypeArguments
-        return Iterables.<PaymentMethod>find(killbillAPI.getPaymentApi().getAccountPaymentMethods(kbAccountId, false, false, ImmutableList.<PluginProperty>of(), context),
+        final UUID kbPaymentMethodId = Iterables.<PaymentMethod>find(killbillAPI.getPaymentApi().getAccountPaymentMethods(kbAccountId, false, false, ImmutableList.<PluginProperty>of(), context),
                               new Predicate<PaymentMethod>() {
                                   @Override
                                   public boolean apply(final PaymentMethod paymentMethod) {
                                       return AdyenActivator.PLUGIN_NAME.equals(paymentMethod.getPluginName());
                                   }
                               }).getId();
+        killbillLookupCache.putAdyenPaymentMethodId(kbAccountId, kbPaymentMethodId, context.getTenantId());
+        return kbPaymentMethodId;
+    }
+
+    @Override
+    protected Account getAccount(final UUID kbAccountId, final TenantContext context) {
+        final Account cachedAccount = killbillLookupCache.getAccount(kbAccountId, context.getTenantId());
+        if (cachedAccount != null) {
+            return cachedAccount;
+        }
+
+        final Account account = super.getAccount(kbAccountId, context);
+        killbillLookupCache.putAccount(account, context.getTenantId());
+        return account;
+    }
+
+    public KillbillLookupCache getKillbillLookupCache() {
+        return killbillLookupCache;
     }
 
     private AdyenResponsesRecord previousAdyenResponseRecord(final UUID kbPaymentId, final String kbPaymentTransactionId, final CallContext context) {
@@ -1007,11 +1164,11 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
     }
 
     private String getMerchantAccount(final String countryCode, final Iterable<PluginProperty> properties, final TenantContext context) {
-        return getMerchantAccount(countryCode, null, properties, context);
+        return getMerchantAccount(countryCode, null, IndexedPluginProperties.of(properties), context);
     }
 
-    private String getMerchantAccount(final String countryCode, @Nullable final AdyenResponsesRecord adyenResponsesRecord, final Iterable<PluginProperty> properties, final TenantContext context) {
-        final String pluginPropertyMerchantAccount = PluginProperties.findPluginPropertyValue(PROPERTY_PAYMENT_PROCESSOR_ACCOUNT_ID, properties);
+    private String getMerchantAccount(final String countryCode, @Nullable final AdyenResponsesRecord adyenResponsesRecord, final IndexedPluginProperties properties, final TenantContext context) {
+        final String pluginPropertyMerchantAccount = properties.findPluginPropertyValue(PROPERTY_PAYMENT_PROCESSOR_ACCOUNT_ID);
         if (pluginPropertyMerchantAccount != null) {
             return pluginPropertyMerchantAccount;
         }
@@ -1027,12 +1184,7 @@ public class AdyenPaymentPluginApi extends PluginPaymentPluginApi<AdyenResponses
     }
 
     private String getMerchantAccountFromRecord(final AdyenResponsesRecord adyenResponsesRecord) {
-        final Map additionalData = AdyenDao.fromAdditionalData(adyenResponsesRecord.getAdditionalData());
-        final Object merchantAccountCode = additionalData.get(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE);
-        if (merchantAccountCode != null) {
-            return merchantAccountCode.toString();
-        }
-        return null;
+        return AdyenDao.getMerchantAccountCode(adyenResponsesRecord);
     }
 
     private AdyenConfigProperties getConfigProperties(final TenantContext context) {
@@ -145,19 +145,24 @@ public class AdyenPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
     }
 
     public AdyenPaymentTransactionInfoPlugin(final AdyenResponsesRecord record, @Nullable final AdyenHppRequestsRecord adyenHppRequestsRecord) {
+        // Parse the additional data only once
+        this(record, AdyenDao.fromAdditionalData(record.getAdditionalData()), adyenHppRequestsRecord);
+    }
+
+    private AdyenPaymentTransactionInfoPlugin(final AdyenResponsesRecord record, final Map additionalData, @Nullable final AdyenHppRequestsRecord adyenHppRequestsRecord) {
         super(UUID.fromString(record.getKbPaymentId()),
               UUID.fromString(record.getKbPaymentTransactionId()),
               TransactionType.valueOf(record.getTransactionType()),
               record.getAmount(),
               Strings.isNullOrEmpty(record.getCurrency()) ? null : Currency.valueOf(record.getCurrency()),
-              getPaymentPluginStatus(record),
-              getGatewayError(record),
-              truncate(getGatewayErrorCode(record)),
+              getPaymentPluginStatus(record, additionalData),
+              getGatewayError(record, additionalData),
+              truncate(getGatewayErrorCode(additionalData)),
               record.getPspReference(),
               record.getAuthCode(),
               new DateTime(record.getCreatedDate(), DateTimeZone.UTC),
               new DateTime(record.getCreatedDate(), DateTimeZone.UTC),
-              buildProperties(record, adyenHppRequestsRecord));
+              buildProperties(additionalData, adyenHppRequestsRecord));
         adyenResponseRecord = Optional.of(record);
     }
 
@@ -208,8 +213,7 @@ public class AdyenPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
         }
     }
 
-    private static String getGatewayError(final AdyenResponsesRecord record) {
-        final Map additionalData = AdyenDao.fromAdditionalData(record.getAdditionalData());
+    private static String getGatewayError(final AdyenResponsesRecord record, final Map additionalData) {
         final String refusalResponseMessage = getGatewayError(additionalData);
         if (refusalResponseMessage != null) {
             return refusalResponseMessage;
@@ -261,10 +265,6 @@ public class AdyenPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
         return getGatewayErrorCode(paymentModificationResponse.getAdditionalData());
     }
 
-    private static String getGatewayErrorCode(final AdyenResponsesRecord record) {
-        return getGatewayErrorCode(AdyenDao.fromAdditionalData(record.getAdditionalData()));
-    }
-
     private static String getGatewayErrorCode(@Nullable final Map additionalData) {
         if (additionalData == null) {
             return null;
@@ -297,9 +297,9 @@ public class AdyenPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
         return (pspResult.isPresent()) ? pspResultToPaymentPluginStatus(pspResult.get()) : adyenCallErrorStatusToPaymentPluginStatus(AdyenCallErrorStatus.UNKNOWN_FAILURE);
     }
 
-    private static PaymentPluginStatus getPaymentPluginStatus(final AdyenResponsesRecord record) {
+    private static PaymentPluginStatus getPaymentPluginStatus(final AdyenResponsesRecord record, final Map additionalData) {
         if (Strings.isNullOrEmpty(record.getPspResult())) {
-            final String adyenCallErrorStatusString = toString(AdyenDao.fromAdditionalData(record.getAdditionalData()).get(PurchaseResult.ADYEN_CALL_ERROR_STATUS));
+            final String adyenCallErrorStatusString = toString(additionalData.get(PurchaseResult.ADYEN_CALL_ERROR_STATUS));
             final AdyenCallErrorStatus adyenCallErrorStatus;
             if (Strings.isNullOrEmpty(adyenCallErrorStatusString)) {
                 adyenCallErrorStatus = AdyenCallErrorStatus.UNKNOWN_FAILURE;
@@ -468,13 +468,13 @@ public class AdyenPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
         lengthArray[dotCount] = className.length() - dotArray[lastDotIndex];
     }
 
-    private static List<PluginProperty> buildProperties(final AdyenResponsesRecord adyenResponsesRecord, @Nullable final AdyenHppRequestsRecord adyenHppRequestsRecord) {
+    private static List<PluginProperty> buildProperties(final Map responseAdditionalData, @Nullable final AdyenHppRequestsRecord adyenHppRequestsRecord) {
         final Map mergedMap = new HashMap();
 
         if (adyenHppRequestsRecord != null) {
             mergedMap.putAll(toMap(adyenHppRequestsRecord.getAdditionalData()));
         }
-        mergedMap.putAll(toMap(adyenResponsesRecord.getAdditionalData()));
+        mergedMap.putAll(responseAdditionalData);
 
         return buildProperties(mergedMap);
     }
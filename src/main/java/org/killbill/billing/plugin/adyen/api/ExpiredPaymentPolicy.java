@@ -25,6 +25,7 @@ import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.adyen.client.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
 import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.clock.Clock;
@@ -93,7 +94,14 @@ public class ExpiredPaymentPolicy {
     }
 
     // paymentMethod comes from the notification, brandCode from the HPP request
-    private String getPaymentMethod(final PaymentTransactionInfoPlugin transaction) {
+    private String getPaymentMethod(final AdyenPaymentTransactionInfoPlugin transaction) {
+        if (transaction.getAdyenResponseRecord().isPresent()) {
+            final String paymentMethod = AdyenDao.getPaymentMethod(transaction.getAdyenResponseRecord().get());
+            if (paymentMethod != null) {
+                return paymentMethod;
+            }
+        }
+
         final String paymentMethod = PluginProperties.findPluginPropertyValue("paymentMethod", transaction.getProperties());
         return paymentMethod != null ? paymentMethod : PluginProperties.findPluginPropertyValue("brandCode", transaction.getProperties());
     }
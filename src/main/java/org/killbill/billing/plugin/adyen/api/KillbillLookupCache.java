@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.api;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillEventDispatcher.OSGIKillbillEventHandler;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentTransaction;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Short-TTL cache of the Kill Bill objects looked up on every payment call (see AdyenPaymentPluginApi)
+ * <ul>
+ * <li>accounts: mutable, invalidated on ACCOUNT_CHANGE events (received by one node only, the other nodes rely on the TTL)</li>
+ * <li>Adyen payment method of an account: invalidated when the plugin adds or deletes a payment method</li>
+ * <li>payment method of a payment and external keys of the transactions: immutable, only evicted to bound the size</li>
+ * </ul>
+ * All entries are keyed by tenant. A ttlMillis of 0 disables the cache.
+ */
+public class KillbillLookupCache implements OSGIKillbillEventHandler {
+
+    private final boolean enabled;
+    private final Cache<String, Account> accounts;
+    private final Cache<String, UUID> adyenPaymentMethodIds;
+    private final Cache<String, UUID> paymentMethodIdsByPayment;
+    private final Cache<String, String> transactionExternalKeys;
+
+    public KillbillLookupCache(final long maxSize, final long ttlMillis) {
+        this.enabled = maxSize > 0 && ttlMillis > 0;
+        this.accounts = newCache(maxSize, ttlMillis);
+        this.adyenPaymentMethodIds = newCache(maxSize, ttlMillis);
+        this.paymentMethodIdsByPayment = newCache(maxSize, ttlMillis);
+        this.transactionExternalKeys = newCache(maxSize, ttlMillis);
+    }
+
+    @Override
+    public void handleKillbillEvent(final ExtBusEvent killbillEvent) {
+        if (killbillEvent.getEventType() == ExtBusEventType.ACCOUNT_CHANGE && killbillEvent.getTenantId() != null) {
+            invalidateAccount(killbillEvent.getAccountId(), killbillEvent.getTenantId());
+        }
+    }
+
+    @Nullable
+    public Account getAccount(final UUID kbAccountId, final UUID kbTenantId) {
+        return get(accounts, key(kbAccountId, kbTenantId));
+    }
+
+    public void putAccount(final Account account, final UUID kbTenantId) {
+        put(accounts, key(account.getId(), kbTenantId), account);
+    }
+
+    @Nullable
+    public UUID getAdyenPaymentMethodId(final UUID kbAccountId, final UUID kbTenantId) {
+        return get(adyenPaymentMethodIds, key(kbAccountId, kbTenantId));
+    }
+
+    public void putAdyenPaymentMethodId(final UUID kbAccountId, final UUID kbPaymentMethodId, final UUID kbTenantId) {
+        put(adyenPaymentMethodIds, key(kbAccountId, kbTenantId), kbPaymentMethodId);
+    }
+
+    @Nullable
+    public UUID getPaymentMethodId(final UUID kbPaymentId, final UUID kbTenantId) {
+        return get(paymentMethodIdsByPayment, key(kbPaymentId, kbTenantId));
+    }
+
+    @Nullable
+    public String getTransactionExternalKey(final UUID kbTransactionId, final UUID kbTenantId) {
+        return get(transactionExternalKeys, key(kbTransactionId, kbTenantId));
+    }
+
+    // Only records the immutable parts of the payment
+    public void putPayment(final Payment payment, final UUID kbTenantId) {
+        put(paymentMethodIdsByPayment, key(payment.getId(), kbTenantId), payment.getPaymentMethodId());
+        for (final PaymentTransaction paymentTransaction : payment.getTransactions()) {
+            put(transactionExternalKeys, key(paymentTransaction.getId(), kbTenantId), paymentTransaction.getExternalKey());
+        }
+    }
+
+    public void invalidateAccount(final UUID kbAccountId, final UUID kbTenantId) {
+        accounts.invalidate(key(kbAccountId, kbTenantId));
+        adyenPaymentMethodIds.invalidate(key(kbAccountId, kbTenantId));
+    }
+
+    @Nullable
+    private <V> V get(final Cache<String, V> cache, final String key) {
+        if (!enabled) {
+            return null;
+        }
+        return cache.getIfPresent(key);
+    }
+
+    private <V> void put(final Cache<String, V> cache, final String key, @Nullable final V value) {
+        if (enabled && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    private static String key(final UUID id, final UUID kbTenantId) {
+        return kbTenantId + "/" + id;
+    }
+
+    private static <V> Cache<String, V> newCache(final long maxSize, final long ttlMillis) {
+        return CacheBuilder.newBuilder()
+                           .maximumSize(Math.max(maxSize, 0))
+                           .expireAfterWrite(Math.max(ttlMillis, 0), TimeUnit.MILLISECONDS)
+                           .build();
+    }
+}
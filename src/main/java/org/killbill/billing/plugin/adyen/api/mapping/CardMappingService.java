@@ -20,7 +20,6 @@ package org.killbill.billing.plugin.adyen.api.mapping;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.plugin.adyen.client.model.paymentinfo.Card;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
-import org.killbill.billing.plugin.api.PluginProperties;
 
 import static org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi.PROPERTY_CC_ENCRYPTED_JSON;
 import static org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi.PROPERTY_CC_ISSUER_COUNTRY;
@@ -36,36 +35,37 @@ import static org.killbill.billing.plugin.api.payment.PluginPaymentPluginApi.PRO
 // By convention, support the same keys as the Ruby plugins (https://github.com/killbill/killbill-plugin-framework-ruby/blob/master/lib/killbill/helpers/active_merchant/payment_plugin.rb)
 public abstract class CardMappingService {
 
-    public static Card toPaymentInfo(final AdyenPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
+    public static Card toPaymentInfo(final AdyenPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> pluginProperties) {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
         final Card card = new Card();
 
-        final String ccNumber = PluginProperties.getValue(PROPERTY_CC_NUMBER, paymentMethodsRecord.getCcNumber(), properties);
+        final String ccNumber = properties.getValue(PROPERTY_CC_NUMBER, paymentMethodsRecord.getCcNumber());
         card.setNumber(ccNumber);
 
-        final String ccFirstName = PluginProperties.getValue(PROPERTY_CC_FIRST_NAME, paymentMethodsRecord.getCcFirstName(), properties);
-        final String ccLastName = PluginProperties.getValue(PROPERTY_CC_LAST_NAME, paymentMethodsRecord.getCcLastName(), properties);
+        final String ccFirstName = properties.getValue(PROPERTY_CC_FIRST_NAME, paymentMethodsRecord.getCcFirstName());
+        final String ccLastName = properties.getValue(PROPERTY_CC_LAST_NAME, paymentMethodsRecord.getCcLastName());
         card.setHolderName(holderName(ccFirstName, ccLastName));
 
-        final String ccExpirationMonth = PluginProperties.getValue(PROPERTY_CC_EXPIRATION_MONTH, paymentMethodsRecord.getCcExpMonth(), properties);
+        final String ccExpirationMonth = properties.getValue(PROPERTY_CC_EXPIRATION_MONTH, paymentMethodsRecord.getCcExpMonth());
         if (ccExpirationMonth != null) {
             card.setExpiryMonth(Integer.valueOf(ccExpirationMonth));
         }
 
-        final String ccExpirationYear = PluginProperties.getValue(PROPERTY_CC_EXPIRATION_YEAR, paymentMethodsRecord.getCcExpYear(), properties);
+        final String ccExpirationYear = properties.getValue(PROPERTY_CC_EXPIRATION_YEAR, paymentMethodsRecord.getCcExpYear());
         if (ccExpirationYear != null) {
             card.setExpiryYear(Integer.valueOf(ccExpirationYear));
         }
 
-        final String ccVerificationValue = PluginProperties.getValue(PROPERTY_CC_VERIFICATION_VALUE, paymentMethodsRecord.getCcVerificationValue(), properties);
+        final String ccVerificationValue = properties.getValue(PROPERTY_CC_VERIFICATION_VALUE, paymentMethodsRecord.getCcVerificationValue());
         card.setCvc(ccVerificationValue);
 
-        final String issuerCountry = PluginProperties.findPluginPropertyValue(PROPERTY_CC_ISSUER_COUNTRY, properties);
+        final String issuerCountry = properties.findPluginPropertyValue(PROPERTY_CC_ISSUER_COUNTRY);
         card.setIssuerCountry(issuerCountry);
 
-        final String token = PluginProperties.findPluginPropertyValue(PROPERTY_TOKEN, properties);
+        final String token = properties.findPluginPropertyValue(PROPERTY_TOKEN);
         card.setToken(token);
 
-        final String encryptedJson = PluginProperties.findPluginPropertyValue(PROPERTY_CC_ENCRYPTED_JSON, properties);
+        final String encryptedJson = properties.findPluginPropertyValue(PROPERTY_CC_ENCRYPTED_JSON);
         if (encryptedJson != null) {
             card.setEncryptedJson(decode(encryptedJson));
         }
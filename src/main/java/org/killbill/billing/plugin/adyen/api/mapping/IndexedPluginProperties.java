@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.api.mapping;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.payment.api.PluginProperty;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import static org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi.ADDITIONAL_DATA_ITEM;
+import static org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi.SPLIT_SETTLEMENT_DATA_ITEM;
+
+/**
+ * Read-only view of the plugin properties of a single plugin call, indexed in one pass.
+ * <p>
+ * Lookups follow the semantics of {@link org.killbill.billing.plugin.api.PluginProperties}: {@link #findPluginPropertyValue(String)}
+ * returns the first property with that key, {@link #toStringMap()} lets the last one win.
+ */
+public class IndexedPluginProperties implements Iterable<PluginProperty> {
+
+    private final Iterable<PluginProperty> properties;
+    private final Map<String, Object> firstValues = new HashMap<String, Object>();
+    private final Map<String, String> lastStringValues = new HashMap<String, String>();
+    private final List<PluginProperty> splitSettlementDataItemProperties = new LinkedList<PluginProperty>();
+    private final List<PluginProperty> additionalDataItemProperties = new LinkedList<PluginProperty>();
+
+    // Grouped lazily, so that malformed items only fail the calls which use them
+    private Map<Short, Map<String, String>> splitSettlementDataItems;
+    private Map<Short, Map<String, String>> additionalDataItems;
+
+    public static IndexedPluginProperties of(@Nullable final Iterable<PluginProperty> properties) {
+        if (properties instanceof IndexedPluginProperties) {
+            return (IndexedPluginProperties) properties;
+        }
+        return new IndexedPluginProperties(properties == null ? ImmutableList.<PluginProperty>of() : properties);
+    }
+
+    private IndexedPluginProperties(final Iterable<PluginProperty> properties) {
+        this.properties = properties;
+
+        for (final PluginProperty pluginProperty : properties) {
+            final String key = pluginProperty.getKey();
+            if (key == null) {
+                continue;
+            }
+
+            if (!firstValues.containsKey(key)) {
+                firstValues.put(key, pluginProperty.getValue());
+            }
+
+            if (pluginProperty.getValue() != null) {
+                lastStringValues.put(key, pluginProperty.getValue().toString());
+
+                if (key.startsWith(SPLIT_SETTLEMENT_DATA_ITEM)) {
+                    splitSettlementDataItemProperties.add(pluginProperty);
+                } else if (key.startsWith(ADDITIONAL_DATA_ITEM)) {
+                    additionalDataItemProperties.add(pluginProperty);
+                }
+            }
+        }
+    }
+
+    public String findPluginPropertyValue(final String pluginPropertyName) {
+        final Object value = firstValues.get(pluginPropertyName);
+        if (value == null) {
+            return null;
+        }
+        final String pluginPropertyString = String.valueOf(value);
+        return Strings.isNullOrEmpty(pluginPropertyString) ? null : pluginPropertyString;
+    }
+
+    // Return the value from the plugin properties if it exists, or the fallback otherwise
+    public String getValue(final String pluginPropertyName, final String fallbackValue) {
+        final String pluginPropertyValue = findPluginPropertyValue(pluginPropertyName);
+        return pluginPropertyValue == null ? fallbackValue : pluginPropertyValue;
+    }
+
+    public Map<String, String> toStringMap() {
+        return lastStringValues;
+    }
+
+    // splitSettlementDataItem.<itemNb>.<suffix> properties, by item number then suffix
+    public Map<Short, Map<String, String>> getSplitSettlementDataItems() {
+        if (splitSettlementDataItems == null) {
+            splitSettlementDataItems = groupItems(splitSettlementDataItemProperties);
+        }
+        return splitSettlementDataItems;
+    }
+
+    // additionalDataItem.<itemNb>.<suffix> properties, by item number then suffix
+    public Map<Short, Map<String, String>> getAdditionalDataItems() {
+        if (additionalDataItems == null) {
+            additionalDataItems = groupItems(additionalDataItemProperties);
+        }
+        return additionalDataItems;
+    }
+
+    @Override
+    public Iterator<PluginProperty> iterator() {
+        return properties.iterator();
+    }
+
+    private static Map<Short, Map<String, String>> groupItems(final Iterable<PluginProperty> itemProperties) {
+        final Map<Short, Map<String, String>> items = new TreeMap<Short, Map<String, String>>();
+        for (final PluginProperty pluginProperty : itemProperties) {
+            final String key = pluginProperty.getKey();
+            final int itemNbStart = key.indexOf('.') + 1;
+            final int suffixStart = key.indexOf('.', itemNbStart) + 1;
+            if (itemNbStart == 0 || suffixStart == 0) {
+                throw new IllegalArgumentException("Invalid plugin property key " + key);
+            }
+            final int suffixEnd = key.indexOf('.', suffixStart);
+
+            final Short itemNb = Short.parseShort(key.substring(itemNbStart, suffixStart - 1));
+            final String suffix = key.substring(suffixStart, suffixEnd == -1 ? key.length() : suffixEnd);
+
+            Map<String, String> item = items.get(itemNb);
+            if (item == null) {
+                item = new HashMap<String, String>();
+                items.put(itemNb, item);
+            }
+            item.put(suffix, pluginProperty.getValue().toString());
+        }
+        return items;
+    }
+}
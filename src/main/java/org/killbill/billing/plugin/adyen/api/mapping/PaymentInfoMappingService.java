@@ -17,9 +17,6 @@
 
 package org.killbill.billing.plugin.adyen.api.mapping;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import javax.annotation.Nullable;
 
 import org.killbill.billing.account.api.AccountData;
@@ -30,7 +27,6 @@ import org.killbill.billing.plugin.adyen.client.model.PaymentInfo;
 import org.killbill.billing.plugin.adyen.client.model.paymentinfo.Card;
 import org.killbill.billing.plugin.adyen.client.model.paymentinfo.Recurring;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
-import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.clock.Clock;
 
 import com.google.common.base.Predicates;
@@ -74,17 +70,18 @@ public abstract class PaymentInfoMappingService {
                                             final Clock clock,
                                             @Nullable final AccountData account,
                                             @Nullable final AdyenPaymentMethodsRecord paymentMethodsRecord,
-                                            final Iterable<PluginProperty> properties) {
+                                            final Iterable<PluginProperty> pluginProperties) {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
         final PaymentInfo paymentInfo;
 
         if (paymentMethodsRecord == null) {
             paymentInfo = WebPaymentFrontendMappingService.toPaymentInfo(merchantAccount, configuration, clock, properties);
         } else {
-            final String recurringDetailReference = PluginProperties.getValue(PROPERTY_RECURRING_DETAIL_ID, paymentMethodsRecord.getToken(), properties);
+            final String recurringDetailReference = properties.getValue(PROPERTY_RECURRING_DETAIL_ID, paymentMethodsRecord.getToken());
             if (recurringDetailReference != null) {
                 paymentInfo = RecurringMappingService.toPaymentInfo(paymentMethodsRecord, properties);
             } else {
-                final String ddAccountNumber = PluginProperties.findPluginPropertyValue(PROPERTY_DD_ACCOUNT_NUMBER, properties);
+                final String ddAccountNumber = properties.findPluginPropertyValue(PROPERTY_DD_ACCOUNT_NUMBER);
                 if (ddAccountNumber != null) {
                     paymentInfo = SepaDirectDebitMappingService.toPaymentInfo(account, paymentMethodsRecord, properties);
                 } else {
@@ -105,83 +102,83 @@ public abstract class PaymentInfoMappingService {
         return paymentInfo;
     }
 
-    private static void set3DSecureFields(final PaymentInfo paymentInfo, final Iterable<PluginProperty> properties) {
-        final String ccUserAgent = PluginProperties.findPluginPropertyValue(PROPERTY_USER_AGENT, properties);
+    private static void set3DSecureFields(final PaymentInfo paymentInfo, final IndexedPluginProperties properties) {
+        final String ccUserAgent = properties.findPluginPropertyValue(PROPERTY_USER_AGENT);
         paymentInfo.setUserAgent(ccUserAgent);
 
-        final String ccAcceptHeader = PluginProperties.findPluginPropertyValue(PROPERTY_ACCEPT_HEADER, properties);
+        final String ccAcceptHeader = properties.findPluginPropertyValue(PROPERTY_ACCEPT_HEADER);
         paymentInfo.setAcceptHeader(ccAcceptHeader);
 
-        final String md = PluginProperties.findPluginPropertyValue(PROPERTY_MD, properties);
+        final String md = properties.findPluginPropertyValue(PROPERTY_MD);
         if (md != null) {
             paymentInfo.setMd(decode(md));
         }
 
-        final String paRes = PluginProperties.findPluginPropertyValue(PROPERTY_PA_RES, properties);
+        final String paRes = properties.findPluginPropertyValue(PROPERTY_PA_RES);
         if (paRes != null) {
             paymentInfo.setPaRes(decode(paRes));
         }
 
-        final String threeDThreshold = PluginProperties.findPluginPropertyValue(PROPERTY_THREE_D_THRESHOLD, properties);
+        final String threeDThreshold = properties.findPluginPropertyValue(PROPERTY_THREE_D_THRESHOLD);
         if (!Strings.isNullOrEmpty(threeDThreshold)) {
             // Expected in minor units
             paymentInfo.setThreeDThreshold(Long.valueOf(threeDThreshold));
         }
 
-        final String mpiDataDirectoryResponse = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_DATA_DIRECTORY_RESPONSE, properties);
+        final String mpiDataDirectoryResponse = properties.findPluginPropertyValue(PROPERTY_MPI_DATA_DIRECTORY_RESPONSE);
         paymentInfo.setMpiDataDirectoryResponse(mpiDataDirectoryResponse);
 
-        final String mpiDataAuthenticationResponse = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_DATA_AUTHENTICATION_RESPONSE, properties);
+        final String mpiDataAuthenticationResponse = properties.findPluginPropertyValue(PROPERTY_MPI_DATA_AUTHENTICATION_RESPONSE);
         paymentInfo.setMpiDataAuthenticationResponse(mpiDataAuthenticationResponse);
 
-        final String mpiDataCavv = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_DATA_CAVV, properties);
+        final String mpiDataCavv = properties.findPluginPropertyValue(PROPERTY_MPI_DATA_CAVV);
         paymentInfo.setMpiDataCavv(mpiDataCavv);
 
-        final String mpiDataCavvAlgorithm = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_DATA_CAVV_ALGORITHM, properties);
+        final String mpiDataCavvAlgorithm = properties.findPluginPropertyValue(PROPERTY_MPI_DATA_CAVV_ALGORITHM);
         paymentInfo.setMpiDataCavvAlgorithm(mpiDataCavvAlgorithm);
 
-        final String mpiDataXid = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_DATA_XID, properties);
+        final String mpiDataXid = properties.findPluginPropertyValue(PROPERTY_MPI_DATA_XID);
         paymentInfo.setMpiDataXid(mpiDataXid);
 
-        final String mpiDataEci = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_DATA_ECI, properties);
+        final String mpiDataEci = properties.findPluginPropertyValue(PROPERTY_MPI_DATA_ECI);
         paymentInfo.setMpiDataEci(mpiDataEci);
 
-        final String mpiImplementationType = PluginProperties.findPluginPropertyValue(PROPERTY_MPI_IMPLEMENTATION_TYPE, properties);
+        final String mpiImplementationType = properties.findPluginPropertyValue(PROPERTY_MPI_IMPLEMENTATION_TYPE);
         paymentInfo.setMpiImplementationType(mpiImplementationType);
         if (mpiImplementationType != null) {
-            paymentInfo.setMpiImplementationTypeValues(Maps.filterKeys(PluginProperties.toStringMap(properties), Predicates.containsPattern(mpiImplementationType + ".")));
+            paymentInfo.setMpiImplementationTypeValues(Maps.filterKeys(properties.toStringMap(), Predicates.containsPattern(mpiImplementationType + ".")));
         }
 
-        final String termUrl = PluginProperties.findPluginPropertyValue(PROPERTY_TERM_URL, properties);
+        final String termUrl = properties.findPluginPropertyValue(PROPERTY_TERM_URL);
         paymentInfo.setTermUrl(termUrl);
     }
 
-    private static void setBillingAddress(@Nullable final String countryCode, @Nullable final AccountData account, final PaymentInfo paymentInfo, @Nullable final AdyenPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
-        String street = PluginProperties.getValue(PROPERTY_ADDRESS1, paymentMethodsRecord == null ? null : paymentMethodsRecord.getAddress1(), properties);
+    private static void setBillingAddress(@Nullable final String countryCode, @Nullable final AccountData account, final PaymentInfo paymentInfo, @Nullable final AdyenPaymentMethodsRecord paymentMethodsRecord, final IndexedPluginProperties properties) {
+        String street = properties.getValue(PROPERTY_ADDRESS1, paymentMethodsRecord == null ? null : paymentMethodsRecord.getAddress1());
         if (street == null && account != null) {
             street = account.getAddress1();
         }
         paymentInfo.setStreet(street);
 
-        String houseNumberOrName = PluginProperties.getValue(PROPERTY_ADDRESS2, paymentMethodsRecord == null ? null : paymentMethodsRecord.getAddress2(), properties);
+        String houseNumberOrName = properties.getValue(PROPERTY_ADDRESS2, paymentMethodsRecord == null ? null : paymentMethodsRecord.getAddress2());
         if (houseNumberOrName == null && account != null) {
             houseNumberOrName = account.getAddress2();
         }
         paymentInfo.setHouseNumberOrName(houseNumberOrName);
 
-        String city = PluginProperties.getValue(PROPERTY_CITY, paymentMethodsRecord == null ? null : paymentMethodsRecord.getCity(), properties);
+        String city = properties.getValue(PROPERTY_CITY, paymentMethodsRecord == null ? null : paymentMethodsRecord.getCity());
         if (city == null && account != null) {
             city = account.getCity();
         }
         paymentInfo.setCity(city);
 
-        String postalCode = PluginProperties.getValue(PROPERTY_ZIP, paymentMethodsRecord == null ? null : paymentMethodsRecord.getZip(), properties);
+        String postalCode = properties.getValue(PROPERTY_ZIP, paymentMethodsRecord == null ? null : paymentMethodsRecord.getZip());
         if (postalCode == null && account != null) {
             postalCode = account.getPostalCode();
         }
         paymentInfo.setPostalCode(postalCode);
 
-        String stateOrProvince = PluginProperties.getValue(PROPERTY_STATE, paymentMethodsRecord == null ? null : paymentMethodsRecord.getState(), properties);
+        String stateOrProvince = properties.getValue(PROPERTY_STATE, paymentMethodsRecord == null ? null : paymentMethodsRecord.getState());
         if (stateOrProvince == null && account != null) {
             stateOrProvince = account.getStateOrProvince();
         }
@@ -190,22 +187,22 @@ public abstract class PaymentInfoMappingService {
         paymentInfo.setCountry(countryCode);
     }
 
-    private static void setCaptureDelayHours(final PaymentInfo paymentInfo, final Iterable<PluginProperty> mergedProperties) {
-        final String captureDelayHours = PluginProperties.findPluginPropertyValue(PROPERTY_CAPTURE_DELAY_HOURS, mergedProperties);
+    private static void setCaptureDelayHours(final PaymentInfo paymentInfo, final IndexedPluginProperties properties) {
+        final String captureDelayHours = properties.findPluginPropertyValue(PROPERTY_CAPTURE_DELAY_HOURS);
         if (captureDelayHours != null) {
             paymentInfo.setCaptureDelayHours(Integer.valueOf(captureDelayHours));
 
         }
     }
 
-    private static void setContractAndContinuousAuthentication(final PaymentInfo paymentInfo, final Iterable<PluginProperty> properties) {
-        String contract = PluginProperties.findPluginPropertyValue(PROPERTY_RECURRING_TYPE, properties);
+    private static void setContractAndContinuousAuthentication(final PaymentInfo paymentInfo, final IndexedPluginProperties properties) {
+        String contract = properties.findPluginPropertyValue(PROPERTY_RECURRING_TYPE);
         if (contract == null && paymentInfo instanceof Recurring) {
             contract = "RECURRING";
         }
         paymentInfo.setContract(contract);
 
-        final String contAuthProperty = PluginProperties.findPluginPropertyValue(PROPERTY_CONTINUOUS_AUTHENTICATION, properties);
+        final String contAuthProperty = properties.findPluginPropertyValue(PROPERTY_CONTINUOUS_AUTHENTICATION);
         final boolean contAuth;
         if (contAuthProperty != null) {
             contAuth = Boolean.parseBoolean(contAuthProperty);
@@ -229,62 +226,28 @@ public abstract class PaymentInfoMappingService {
         }
     }
 
-    private static void setInstallments(final PaymentInfo paymentInfo, final Iterable<PluginProperty> properties) {
-        final String installments = PluginProperties.findPluginPropertyValue(PROPERTY_INSTALLMENTS, properties);
+    private static void setInstallments(final PaymentInfo paymentInfo, final IndexedPluginProperties properties) {
+        final String installments = properties.findPluginPropertyValue(PROPERTY_INSTALLMENTS);
         if (installments != null) {
             paymentInfo.setInstallments(Integer.valueOf(installments));
         }
     }
 
-    private static void setSelectedBrand(final PaymentInfo paymentInfo, final Iterable<PluginProperty> properties) {
+    private static void setSelectedBrand(final PaymentInfo paymentInfo, final IndexedPluginProperties properties) {
         // For the MisterCash payment method, it can be set to maestro (default, to be processed like a Maestro card) or bcmc (to be processed like a MisterCash card)
         // It can also be set to specific values for DineroMail or to force recurring ELV contracts to be handled as SEPA
-        final String selectedBrand = PluginProperties.findPluginPropertyValue(PROPERTY_SELECTED_BRAND, properties);
+        final String selectedBrand = properties.findPluginPropertyValue(PROPERTY_SELECTED_BRAND);
         paymentInfo.setSelectedBrand(selectedBrand);
     }
 
-    private static void setAcquirer(final AdyenConfigProperties configuration, final PaymentInfo paymentInfo, final Iterable<PluginProperty> properties) {
-        final String acquirerName = PluginProperties.findPluginPropertyValue(PROPERTY_ACQUIRER, properties);
-        String acquirerMid = PluginProperties.findPluginPropertyValue(PROPERTY_ACQUIRER_MID, properties);
+    private static void setAcquirer(final AdyenConfigProperties configuration, final PaymentInfo paymentInfo, final IndexedPluginProperties properties) {
+        final String acquirerName = properties.findPluginPropertyValue(PROPERTY_ACQUIRER);
+        String acquirerMid = properties.findPluginPropertyValue(PROPERTY_ACQUIRER_MID);
         if (acquirerName != null && acquirerMid == null) {
-            final Acquirer acquirer = getAcquirers(configuration).get(acquirerName);
+            final Acquirer acquirer = configuration.getAcquirer(acquirerName);
             acquirerMid = acquirer.getMid();
         }
         paymentInfo.setAcquirer(acquirerName);
         paymentInfo.setAcquirerMID(acquirerMid);
     }
-
-    private static Map<String, Acquirer> getAcquirers(final AdyenConfigProperties configuration) {
-        final Map<String, Acquirer> acquirers = new HashMap<String, Acquirer>();
-        final String str = configuration.getAcquirersList();
-        // Is there an acquirer list?
-        if (!Strings.isNullOrEmpty(str)) {
-            // Parse the list of acquirers
-            final String[] acquirerList = str.split(",");
-            for (final String current : acquirerList) {
-                final Acquirer acquirer = parseAcquirer(current);
-                if (acquirer != null) {
-                    acquirers.put(acquirer.getName(), acquirer);
-                }
-            }
-        }
-        return acquirers;
-    }
-
-    private static Acquirer parseAcquirer(final String str) {
-        final Acquirer acquirer;
-        if (Strings.isNullOrEmpty(str)) {
-            return null;
-        }
-
-        // If the acquirer code is followed by a | and a second value, that value represents the MID.
-        final String[] keyValue = str.split("\\|");
-        if (keyValue.length > 1) {
-            acquirer = new Acquirer(keyValue[0], keyValue[1]);
-        } else {
-            acquirer = new Acquirer(keyValue[0]);
-        }
-
-        return acquirer;
-    }
 }
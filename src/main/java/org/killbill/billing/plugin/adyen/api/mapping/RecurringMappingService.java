@@ -20,20 +20,20 @@ package org.killbill.billing.plugin.adyen.api.mapping;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.plugin.adyen.client.model.paymentinfo.Recurring;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
-import org.killbill.billing.plugin.api.PluginProperties;
 
 import static org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi.PROPERTY_RECURRING_DETAIL_ID;
 import static org.killbill.billing.plugin.api.payment.PluginPaymentPluginApi.PROPERTY_CC_VERIFICATION_VALUE;
 
 public abstract class RecurringMappingService {
 
-    public static Recurring toPaymentInfo(final AdyenPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
+    public static Recurring toPaymentInfo(final AdyenPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> pluginProperties) {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
         final Recurring recurring = new Recurring();
 
-        final String recurringDetailReference = PluginProperties.getValue(PROPERTY_RECURRING_DETAIL_ID, paymentMethodsRecord.getToken(), properties);
+        final String recurringDetailReference = properties.getValue(PROPERTY_RECURRING_DETAIL_ID, paymentMethodsRecord.getToken());
         recurring.setRecurringDetailReference(recurringDetailReference);
 
-        final String ccVerificationValue = PluginProperties.getValue(PROPERTY_CC_VERIFICATION_VALUE, paymentMethodsRecord.getCcVerificationValue(), properties);
+        final String ccVerificationValue = properties.getValue(PROPERTY_CC_VERIFICATION_VALUE, paymentMethodsRecord.getCcVerificationValue());
         recurring.setCvc(ccVerificationValue);
 
         return recurring;
@@ -25,7 +25,6 @@ import org.killbill.billing.account.api.Account;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
 import org.killbill.billing.plugin.adyen.client.model.UserData;
-import org.killbill.billing.plugin.api.PluginProperties;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
@@ -33,41 +32,42 @@ import com.google.common.base.Optional;
 
 public abstract class UserDataMappingService {
 
-    public static UserData toUserData(@Nullable final Account account, final Iterable<PluginProperty> properties) {
+    public static UserData toUserData(@Nullable final Account account, final Iterable<PluginProperty> pluginProperties) {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
         final UserData userData = new UserData();
 
         // determine the customer id
-        final String customerIdProperty = PluginProperties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID, properties);
+        final String customerIdProperty = properties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID);
         final Optional<String> optionalCustomerId = toCustomerId(customerIdProperty, account);
         final String customerId = optionalCustomerId.isPresent() ? optionalCustomerId.get() : null;
         userData.setShopperReference(customerId);
 
         // determine the customer locale
-        final String propertyLocaleString = PluginProperties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_LOCALE, properties);
+        final String propertyLocaleString = properties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_LOCALE);
         final Optional<Locale> customerLocaleOptional = toCustomerLocale(propertyLocaleString, account);
         final Locale customerLocale = customerLocaleOptional.isPresent() ? customerLocaleOptional.get() : null;
         userData.setShopperLocale(customerLocale);
 
         // determine the email
-        final String propertyEmail = PluginProperties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_EMAIL, properties);
+        final String propertyEmail = properties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_EMAIL);
         final Optional<String> optionalEmail = toCustomerEmail(propertyEmail, account);
         final String email = optionalEmail.isPresent() ? optionalEmail.get() : null;
         userData.setShopperEmail(email);
 
         // determine first Name
-        final String propertyFirstName = PluginProperties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_FIRST_NAME, properties);
+        final String propertyFirstName = properties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_FIRST_NAME);
         final Optional<String> optionalFirstName = toFirstName(propertyFirstName, account);
         final String firstName = optionalFirstName.isPresent() ? optionalFirstName.get() : null;
         userData.setFirstName(firstName);
 
         // determine last Name
-        final String propertyLastName = PluginProperties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_LAST_NAME, properties);
+        final String propertyLastName = properties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_LAST_NAME);
         final Optional<String> optionalLastName = toLastName(propertyLastName, account);
         final String lastName = optionalLastName.isPresent() ? optionalLastName.get() : null;
         userData.setLastName(lastName);
 
         // set ip
-        userData.setShopperIP(PluginProperties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_IP, properties));
+        userData.setShopperIP(properties.findPluginPropertyValue(AdyenPaymentPluginApi.PROPERTY_IP));
 
         return userData;
     }
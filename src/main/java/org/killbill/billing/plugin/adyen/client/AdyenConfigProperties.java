@@ -28,10 +28,12 @@ import java.util.Set;
 import javax.annotation.Nullable;
 
 import org.joda.time.Period;
+import org.killbill.billing.plugin.adyen.client.model.Acquirer;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 public class AdyenConfigProperties {
@@ -58,6 +60,34 @@ public class AdyenConfigProperties {
     private static final String KEY_VALUE_DELIMITER = "#";
     private static final String DEFAULT_CONNECTION_TIMEOUT = "30000";
     private static final String DEFAULT_READ_TIMEOUT = "60000";
+    // Unbounded by default
+    private static final String DEFAULT_NOTIFICATION_MAX_CONCURRENT_BATCHES = "0";
+    private static final String DEFAULT_NOTIFICATION_MAX_IN_FLIGHT_ITEMS = "0";
+    // Should be (much) longer than the time it takes to process a single notification
+    private static final String DEFAULT_NOTIFICATION_LEASE_PERIOD = "PT5m";
+    private static final String DEFAULT_NOTIFICATION_LEASE_WAIT_TIMEOUT = "5000";
+    private static final String DEFAULT_NOTIFICATION_AUDIT_QUEUE_CAPACITY = "10000";
+    private static final String DEFAULT_NOTIFICATION_AUDIT_BATCH_SIZE = "100";
+    private static final String DEFAULT_NOTIFICATION_AUDIT_FLUSH_INTERVAL = "1000";
+    private static final String DEFAULT_PROMOTED_COLUMNS_BACKFILL_BATCH_SIZE = "500";
+    private static final String DEFAULT_BINARY_UUIDS_BACKFILL_BATCH_SIZE = "500";
+    private static final String DEFAULT_UUID_STORAGE = "CHAR";
+    // Retention job disabled by default
+    private static final String DEFAULT_RETENTION_BATCH_SIZE = "0";
+    private static final String DEFAULT_RETENTION_BATCH_DELAY = "1000";
+    // Should be longer than the usual replication lag
+    private static final String DEFAULT_READ_REPLICA_READ_YOUR_WRITES_WINDOW = "5000";
+    private static final String DEFAULT_READ_REPLICA_MAX_LAG = "2000";
+    private static final String DEFAULT_READ_REPLICA_LAG_PROBE_INTERVAL = "1000";
+    private static final String DEFAULT_RESPONSE_UPDATES_COMPACTION_INTERVAL = "60000";
+    private static final String DEFAULT_RESPONSE_UPDATES_COMPACTION_BATCH_SIZE = "500";
+    private static final String DEFAULT_PAYMENT_METHODS_CACHE_MAX_SIZE = "0";
+    private static final String DEFAULT_PAYMENT_METHODS_CACHE_TTL = "30000";
+    private static final String DEFAULT_PAYMENT_METHODS_CACHE_POLL_INTERVAL = "0";
+    private static final String DEFAULT_KILLBILL_LOOKUPS_CACHE_MAX_SIZE = "10000";
+    private static final String DEFAULT_KILLBILL_LOOKUPS_CACHE_TTL = "0";
+    private static final String DEFAULT_EXPORT_MAX_PAGE_SIZE = "1000";
+    private static final String DEFAULT_EXPORT_MAX_ROWS_PER_SECOND = "2000";
 
     private final Map<String, String> countryToMerchantAccountMap = new LinkedHashMap<String, String>();
     private final Map<String, String> merchantAccountToUsernameMap = new LinkedHashMap<String, String>();
@@ -93,6 +123,44 @@ public class AdyenConfigProperties {
     private final String paymentConnectionTimeout;
     private final String paymentReadTimeout;
     private final String fallBackMerchantAccount;
+    // Precompiled routing data, looked up on every payment
+    private final Map<String, String> merchantAccountByCountryCode;
+    private final String defaultMerchantAccount;
+    private final Map<String, Acquirer> acquirers;
+    private final String notificationMaxConcurrentBatches;
+    private final String notificationMaxInFlightItems;
+    private final String notificationLeasesEnabled;
+    private final String notificationLeaseWaitTimeout;
+    private final String notificationAuditWriteBehind;
+    private final String notificationAuditQueueCapacity;
+    private final String notificationAuditBatchSize;
+    private final String notificationAuditFlushInterval;
+    private final String promotedColumnsBackfillBatchSize;
+    private final String uuidStorage;
+    private final String binaryUUIDsBackfillBatchSize;
+    private final String additionalDataCompression;
+    private final String retentionBatchSize;
+    private final String retentionBatchDelay;
+    private final String readReplicaJndiName;
+    private final String readReplicaReadYourWritesWindow;
+    private final String readReplicaMaxLag;
+    private final String readReplicaLagProbeInterval;
+    private final String responseUpdatesLog;
+    private final String responseUpdatesCompactionInterval;
+    private final String responseUpdatesCompactionBatchSize;
+    private final String paymentMethodsCacheMaxSize;
+    private final String paymentMethodsCacheTtl;
+    private final String paymentMethodsCachePollInterval;
+    private final String killbillLookupsCacheMaxSize;
+    private final String killbillLookupsCacheTtl;
+    private final String exportMaxPageSize;
+    private final String exportMaxRowsPerSecond;
+    private final String notificationUsername;
+    private final String notificationPassword;
+
+    private final Period retentionPeriod;
+
+    private final Period notificationLeasePeriod;
 
     private final Period pendingPaymentExpirationPeriod;
 
@@ -142,6 +210,41 @@ public class AdyenConfigProperties {
         this.pending3DsPaymentExpirationPeriod = read3DsPendingExpirationProperty(properties);
 
         this.acquirersList = properties.getProperty(PROPERTY_PREFIX + "acquirersList");
+        this.acquirers = parseAcquirers(acquirersList);
+
+        this.notificationMaxConcurrentBatches = properties.getProperty(PROPERTY_PREFIX + "notificationMaxConcurrentBatches", DEFAULT_NOTIFICATION_MAX_CONCURRENT_BATCHES);
+        this.notificationMaxInFlightItems = properties.getProperty(PROPERTY_PREFIX + "notificationMaxInFlightItems", DEFAULT_NOTIFICATION_MAX_IN_FLIGHT_ITEMS);
+        this.notificationLeasesEnabled = properties.getProperty(PROPERTY_PREFIX + "notificationLeasesEnabled", "false");
+        this.notificationLeasePeriod = Period.parse(properties.getProperty(PROPERTY_PREFIX + "notificationLeasePeriod", DEFAULT_NOTIFICATION_LEASE_PERIOD));
+        this.notificationLeaseWaitTimeout = properties.getProperty(PROPERTY_PREFIX + "notificationLeaseWaitTimeout", DEFAULT_NOTIFICATION_LEASE_WAIT_TIMEOUT);
+        this.notificationAuditWriteBehind = properties.getProperty(PROPERTY_PREFIX + "notificationAuditWriteBehind", "false");
+        this.notificationAuditQueueCapacity = properties.getProperty(PROPERTY_PREFIX + "notificationAuditQueueCapacity", DEFAULT_NOTIFICATION_AUDIT_QUEUE_CAPACITY);
+        this.notificationAuditBatchSize = properties.getProperty(PROPERTY_PREFIX + "notificationAuditBatchSize", DEFAULT_NOTIFICATION_AUDIT_BATCH_SIZE);
+        this.notificationAuditFlushInterval = properties.getProperty(PROPERTY_PREFIX + "notificationAuditFlushInterval", DEFAULT_NOTIFICATION_AUDIT_FLUSH_INTERVAL);
+        this.promotedColumnsBackfillBatchSize = properties.getProperty(PROPERTY_PREFIX + "promotedColumnsBackfillBatchSize", DEFAULT_PROMOTED_COLUMNS_BACKFILL_BATCH_SIZE);
+        this.uuidStorage = properties.getProperty(PROPERTY_PREFIX + "uuidStorage", DEFAULT_UUID_STORAGE);
+        this.binaryUUIDsBackfillBatchSize = properties.getProperty(PROPERTY_PREFIX + "binaryUUIDsBackfillBatchSize", DEFAULT_BINARY_UUIDS_BACKFILL_BATCH_SIZE);
+        this.additionalDataCompression = properties.getProperty(PROPERTY_PREFIX + "additionalDataCompression", "false");
+        this.retentionBatchSize = properties.getProperty(PROPERTY_PREFIX + "retentionBatchSize", DEFAULT_RETENTION_BATCH_SIZE);
+        this.retentionBatchDelay = properties.getProperty(PROPERTY_PREFIX + "retentionBatchDelay", DEFAULT_RETENTION_BATCH_DELAY);
+        final String retentionPeriodString = properties.getProperty(PROPERTY_PREFIX + "retentionPeriod");
+        this.retentionPeriod = Strings.isNullOrEmpty(retentionPeriodString) ? null : Period.parse(retentionPeriodString);
+        this.readReplicaJndiName = properties.getProperty(PROPERTY_PREFIX + "readReplicaJndiName");
+        this.readReplicaReadYourWritesWindow = properties.getProperty(PROPERTY_PREFIX + "readReplicaReadYourWritesWindow", DEFAULT_READ_REPLICA_READ_YOUR_WRITES_WINDOW);
+        this.readReplicaMaxLag = properties.getProperty(PROPERTY_PREFIX + "readReplicaMaxLag", DEFAULT_READ_REPLICA_MAX_LAG);
+        this.readReplicaLagProbeInterval = properties.getProperty(PROPERTY_PREFIX + "readReplicaLagProbeInterval", DEFAULT_READ_REPLICA_LAG_PROBE_INTERVAL);
+        this.responseUpdatesLog = properties.getProperty(PROPERTY_PREFIX + "responseUpdatesLog", "false");
+        this.responseUpdatesCompactionInterval = properties.getProperty(PROPERTY_PREFIX + "responseUpdatesCompactionInterval", DEFAULT_RESPONSE_UPDATES_COMPACTION_INTERVAL);
+        this.responseUpdatesCompactionBatchSize = properties.getProperty(PROPERTY_PREFIX + "responseUpdatesCompactionBatchSize", DEFAULT_RESPONSE_UPDATES_COMPACTION_BATCH_SIZE);
+        this.paymentMethodsCacheMaxSize = properties.getProperty(PROPERTY_PREFIX + "paymentMethodsCacheMaxSize", DEFAULT_PAYMENT_METHODS_CACHE_MAX_SIZE);
+        this.paymentMethodsCacheTtl = properties.getProperty(PROPERTY_PREFIX + "paymentMethodsCacheTtl", DEFAULT_PAYMENT_METHODS_CACHE_TTL);
+        this.paymentMethodsCachePollInterval = properties.getProperty(PROPERTY_PREFIX + "paymentMethodsCachePollInterval", DEFAULT_PAYMENT_METHODS_CACHE_POLL_INTERVAL);
+        this.killbillLookupsCacheMaxSize = properties.getProperty(PROPERTY_PREFIX + "killbillLookupsCacheMaxSize", DEFAULT_KILLBILL_LOOKUPS_CACHE_MAX_SIZE);
+        this.killbillLookupsCacheTtl = properties.getProperty(PROPERTY_PREFIX + "killbillLookupsCacheTtl", DEFAULT_KILLBILL_LOOKUPS_CACHE_TTL);
+        this.exportMaxPageSize = properties.getProperty(PROPERTY_PREFIX + "exportMaxPageSize", DEFAULT_EXPORT_MAX_PAGE_SIZE);
+        this.exportMaxRowsPerSecond = properties.getProperty(PROPERTY_PREFIX + "exportMaxRowsPerSecond", DEFAULT_EXPORT_MAX_ROWS_PER_SECOND);
+        this.notificationUsername = properties.getProperty(PROPERTY_PREFIX + "notificationUsername");
+        this.notificationPassword = properties.getProperty(PROPERTY_PREFIX + "notificationPassword");
 
         this.merchantAccounts = properties.getProperty(PROPERTY_PREFIX + "merchantAccount");
         refillMap(countryToMerchantAccountMap, merchantAccounts);
@@ -152,6 +255,13 @@ public class AdyenConfigProperties {
         else {
             this.fallBackMerchantAccount = null;
         }
+        this.merchantAccountByCountryCode = buildMerchantAccountByCountryCode(countryToMerchantAccountMap);
+        if (countryToMerchantAccountMap.isEmpty()) {
+            this.defaultMerchantAccount = merchantAccounts;
+        } else {
+            // In case no country is specified, but the user configured the merchant accounts per country, take the fallback one if configured. Otherwise, take the first one.
+            this.defaultMerchantAccount = MoreObjects.firstNonNull(fallBackMerchantAccount, countryToMerchantAccountMap.values().iterator().next());
+        }
 
         this.userNames = properties.getProperty(PROPERTY_PREFIX + "username");
         final Map<String, String> countryOrMerchantAccountToUsernameMap = new LinkedHashMap<String, String>();
@@ -260,11 +370,13 @@ public class AdyenConfigProperties {
     }
 
     public String getMerchantAccount(final String countryIsoCode) {
-        if (countryToMerchantAccountMap.isEmpty()) {
-            return merchantAccounts;
-        } else if (countryIsoCode == null) {
-            // In case no country is specified, but the user configured the merchant accounts per country, take the fallback one if configured. Otherwise, take the first one.
-            return MoreObjects.firstNonNull(fallBackMerchantAccount, countryToMerchantAccountMap.values().iterator().next());
+        if (countryToMerchantAccountMap.isEmpty() || countryIsoCode == null) {
+            return defaultMerchantAccount;
+        }
+
+        final String merchantAccount = merchantAccountByCountryCode.get(countryIsoCode);
+        if (merchantAccount != null) {
+            return merchantAccount;
         } else {
             try {
                 return MoreObjects.firstNonNull(countryToMerchantAccountMap.get(adjustCountryCode(countryIsoCode)), fallBackMerchantAccount);
@@ -342,6 +454,141 @@ public class AdyenConfigProperties {
         return acquirersList;
     }
 
+    @Nullable
+    public Acquirer getAcquirer(final String acquirerName) {
+        return acquirers.get(acquirerName);
+    }
+
+    public Integer getNotificationMaxConcurrentBatches() {
+        return Integer.valueOf(notificationMaxConcurrentBatches);
+    }
+
+    public Integer getNotificationMaxInFlightItems() {
+        return Integer.valueOf(notificationMaxInFlightItems);
+    }
+
+    public boolean getNotificationLeasesEnabled() {
+        return Boolean.valueOf(notificationLeasesEnabled);
+    }
+
+    public Period getNotificationLeasePeriod() {
+        return notificationLeasePeriod;
+    }
+
+    public Integer getNotificationLeaseWaitTimeout() {
+        return Integer.valueOf(notificationLeaseWaitTimeout);
+    }
+
+    public boolean getNotificationAuditWriteBehind() {
+        return Boolean.valueOf(notificationAuditWriteBehind);
+    }
+
+    public Integer getNotificationAuditQueueCapacity() {
+        return Integer.valueOf(notificationAuditQueueCapacity);
+    }
+
+    public Integer getNotificationAuditBatchSize() {
+        return Integer.valueOf(notificationAuditBatchSize);
+    }
+
+    public Integer getNotificationAuditFlushInterval() {
+        return Integer.valueOf(notificationAuditFlushInterval);
+    }
+
+    public Integer getPromotedColumnsBackfillBatchSize() {
+        return Integer.valueOf(promotedColumnsBackfillBatchSize);
+    }
+
+    public String getUUIDStorage() {
+        return uuidStorage.toUpperCase();
+    }
+
+    public Integer getBinaryUUIDsBackfillBatchSize() {
+        return Integer.valueOf(binaryUUIDsBackfillBatchSize);
+    }
+
+    public boolean getAdditionalDataCompression() {
+        return Boolean.valueOf(additionalDataCompression);
+    }
+
+    public Integer getRetentionBatchSize() {
+        return Integer.valueOf(retentionBatchSize);
+    }
+
+    public Integer getRetentionBatchDelay() {
+        return Integer.valueOf(retentionBatchDelay);
+    }
+
+    // Null if rows should be kept forever
+    public Period getRetentionPeriod() {
+        return retentionPeriod;
+    }
+
+    // Null if all queries should go to the primary
+    public String getReadReplicaJndiName() {
+        return Strings.emptyToNull(readReplicaJndiName);
+    }
+
+    public Integer getReadReplicaReadYourWritesWindow() {
+        return Integer.valueOf(readReplicaReadYourWritesWindow);
+    }
+
+    public Integer getReadReplicaMaxLag() {
+        return Integer.valueOf(readReplicaMaxLag);
+    }
+
+    public Integer getReadReplicaLagProbeInterval() {
+        return Integer.valueOf(readReplicaLagProbeInterval);
+    }
+
+    public boolean getResponseUpdatesLog() {
+        return Boolean.valueOf(responseUpdatesLog);
+    }
+
+    public Integer getResponseUpdatesCompactionInterval() {
+        return Integer.valueOf(responseUpdatesCompactionInterval);
+    }
+
+    public Integer getResponseUpdatesCompactionBatchSize() {
+        return Integer.valueOf(responseUpdatesCompactionBatchSize);
+    }
+
+    public Integer getPaymentMethodsCacheMaxSize() {
+        return Integer.valueOf(paymentMethodsCacheMaxSize);
+    }
+
+    public Integer getPaymentMethodsCacheTtl() {
+        return Integer.valueOf(paymentMethodsCacheTtl);
+    }
+
+    public Integer getPaymentMethodsCachePollInterval() {
+        return Integer.valueOf(paymentMethodsCachePollInterval);
+    }
+
+    public Integer getKillbillLookupsCacheMaxSize() {
+        return Integer.valueOf(killbillLookupsCacheMaxSize);
+    }
+
+    public Integer getKillbillLookupsCacheTtl() {
+        return Integer.valueOf(killbillLookupsCacheTtl);
+    }
+
+    public Integer getExportMaxPageSize() {
+        return Integer.valueOf(exportMaxPageSize);
+    }
+
+    public Double getExportMaxRowsPerSecond() {
+        return Double.valueOf(exportMaxRowsPerSecond);
+    }
+
+    public String getNotificationUsername() {
+        return notificationUsername;
+    }
+
+    public String getNotificationPassword() {
+        return notificationPassword;
+    }
+
     public String getProxyServer() {
         return proxyServer;
     }
@@ -407,6 +654,53 @@ public class AdyenConfigProperties {
         }
     }
 
+    // Resolves the codes as passed (e.g. GB) to the same merchant account as #adjustCountryCode would: other codes
+    // (e.g. lower case, or without a configured merchant account) go through the slow path
+    private static Map<String, String> buildMerchantAccountByCountryCode(final Map<String, String> countryToMerchantAccountMap) {
+        final Map<String, String> merchantAccountByCountryCode = new HashMap<String, String>();
+        for (final Map.Entry<String, String> entry : countryToMerchantAccountMap.entrySet()) {
+            if (entry.getKey().equals(adjustCountryCode(entry.getKey()))) {
+                merchantAccountByCountryCode.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (final String countryCode : ImmutableList.<String>of("GB", "gb", "QC", "qc")) {
+            final String merchantAccount = countryToMerchantAccountMap.get(adjustCountryCode(countryCode));
+            if (merchantAccount != null) {
+                merchantAccountByCountryCode.put(countryCode, merchantAccount);
+            }
+        }
+        return ImmutableMap.<String, String>copyOf(merchantAccountByCountryCode);
+    }
+
+    private static Map<String, Acquirer> parseAcquirers(@Nullable final String acquirersList) {
+        final Map<String, Acquirer> acquirers = new HashMap<String, Acquirer>();
+        // Is there an acquirer list?
+        if (!Strings.isNullOrEmpty(acquirersList)) {
+            // Parse the list of acquirers
+            for (final String current : acquirersList.split(",")) {
+                final Acquirer acquirer = parseAcquirer(current);
+                if (acquirer != null) {
+                    acquirers.put(acquirer.getName(), acquirer);
+                }
+            }
+        }
+        return ImmutableMap.<String, Acquirer>copyOf(acquirers);
+    }
+
+    private static Acquirer parseAcquirer(final String str) {
+        if (Strings.isNullOrEmpty(str)) {
+            return null;
+        }
+
+        // If the acquirer code is followed by a | and a second value, that value represents the MID.
+        final String[] keyValue = str.split("\\|");
+        if (keyValue.length > 1) {
+            return new Acquirer(keyValue[0], keyValue[1]);
+        } else {
+            return new Acquirer(keyValue[0]);
+        }
+    }
+
     private synchronized void refillUrlMap(final Map<String, String> map, final Properties properties, final String suffix) {
         for (final Enumeration<?> e = properties.propertyNames(); e.hasMoreElements(); ) {
             final String key = e.nextElement().toString();
@@ -20,6 +20,7 @@ package org.killbill.billing.plugin.adyen.client.model;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
@@ -27,8 +28,47 @@ import org.joda.time.DateTime;
 import org.killbill.adyen.common.Amount;
 import org.killbill.adyen.notification.NotificationRequestItem;
 
+import com.google.common.collect.ImmutableSet;
+
 public class NotificationItem {
 
+    // Event codes documented by Adyen for the standard notifications
+    public static final Set<String> EVENT_CODES = ImmutableSet.<String>of("AUTHORISATION",
+                                                                          "AUTHORISATION_ADJUSTMENT",
+                                                                          "CANCELLATION",
+                                                                          "CANCEL_OR_REFUND",
+                                                                          "CAPTURE",
+                                                                          "CAPTURE_FAILED",
+                                                                          "CHARGEBACK",
+                                                                          "CHARGEBACK_REVERSED",
+                                                                          "EXPIRE",
+                                                                          "HANDLED_EXTERNALLY",
+                                                                          "MANUAL_REVIEW_ACCEPT",
+                                                                          "MANUAL_REVIEW_REJECT",
+                                                                          "NOTIFICATION_OF_CHARGEBACK",
+                                                                          "NOTIFICATION_OF_FRAUD",
+                                                                          "NOTIFYSHOPPER",
+                                                                          "OFFER_CLOSED",
+                                                                          "ORDER_CLOSED",
+                                                                          "ORDER_OPENED",
+                                                                          "PAIDOUT_REVERSED",
+                                                                          "PAYOUT_DECLINE",
+                                                                          "PAYOUT_EXPIRE",
+                                                                          "PAYOUT_THIRDPARTY",
+                                                                          "PENDING",
+                                                                          "POSTPONED_REFUND",
+                                                                          "PREARBITRATION_LOST",
+                                                                          "PREARBITRATION_WON",
+                                                                          "RECURRING_CONTRACT",
+                                                                          "REFUND",
+                                                                          "REFUND_FAILED",
+                                                                          "REFUND_WITH_DATA",
+                                                                          "REFUNDED_REVERSED",
+                                                                          "REPORT_AVAILABLE",
+                                                                          "REQUEST_FOR_INFORMATION",
+                                                                          "SECOND_CHARGEBACK",
+                                                                          "VOID_PENDING_REFUND");
+
     private final Map additionalData;
     private final BigDecimal amount;
     private final String currency;
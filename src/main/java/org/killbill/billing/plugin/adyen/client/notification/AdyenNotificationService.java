@@ -16,10 +16,10 @@
 
 package org.killbill.billing.plugin.adyen.client.notification;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.util.List;
 
 import javax.xml.bind.JAXBContext;
@@ -42,43 +42,101 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-import com.google.common.base.Charsets;
-
 public class AdyenNotificationService {
 
     private static final Logger logger = LoggerFactory.getLogger(AdyenNotificationService.class);
 
     private final List<AdyenNotificationHandler> notificationHandlers;
+    private final NotificationAdmissionController admissionController;
+    private final NotificationMetrics metrics;
     private final JAXBContext jaxbContext;
+    // The responses never change: build them once
+    private final String acceptedResponse;
+    private final String errorResponse;
+    private final byte[] acceptedResponseBytes;
+    private final byte[] errorResponseBytes;
 
     public AdyenNotificationService(final List<AdyenNotificationHandler> notificationHandlers) throws JAXBException {
+        this(notificationHandlers, new NotificationAdmissionController());
+    }
+
+    public AdyenNotificationService(final List<AdyenNotificationHandler> notificationHandlers, final NotificationAdmissionController admissionController) throws JAXBException {
+        this(notificationHandlers, admissionController, new NotificationMetrics());
+    }
+
+    public AdyenNotificationService(final List<AdyenNotificationHandler> notificationHandlers,
+                                    final NotificationAdmissionController admissionController,
+                                    final NotificationMetrics metrics) throws JAXBException {
         this.notificationHandlers = notificationHandlers;
+        this.admissionController = admissionController;
+        this.metrics = metrics;
         this.jaxbContext = JAXBContext.newInstance(SendNotification.class, SendNotificationResponse.class, ObjectFactory.class);
+        final ByteArrayOutputStream acceptedResponseStream = createSendNotificationResponse("[accepted]");
+        final ByteArrayOutputStream errorResponseStream = createSendNotificationResponse("error");
+        this.acceptedResponse = acceptedResponseStream.toString();
+        this.errorResponse = errorResponseStream.toString();
+        this.acceptedResponseBytes = acceptedResponseStream.toByteArray();
+        this.errorResponseBytes = errorResponseStream.toByteArray();
     }
 
+    /**
+     * Entry point for notifications forwarded by Kill Bill (processNotification)
+     */
     public String handleNotifications(final String input) {
-        final ByteArrayOutputStream outputStream = handleNotifications(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)));
-        return outputStream.toString();
+        // Parse the String directly, no need to re-encode it
+        return handleNotifications(new InputSource(new StringReader(input))) ? acceptedResponse : errorResponse;
+    }
+
+    /**
+     * Entry point for notifications sent directly to the plugin servlet
+     *
+     * @param inputStream raw request body
+     * @return the SOAP acknowledgement, to be written as-is (do not modify)
+     */
+    public byte[] handleNotifications(final InputStream inputStream) {
+        return handleNotifications(new InputSource(inputStream)) ? acceptedResponseBytes : errorResponseBytes;
+    }
+
+    public NotificationAdmissionController getAdmissionController() {
+        return admissionController;
     }
 
-    private ByteArrayOutputStream handleNotifications(final InputStream inputStream) {
+    public NotificationMetrics getMetrics() {
+        return metrics;
+    }
+
+    private boolean handleNotifications(final InputSource inputSource) {
         final SendNotification sendNotification;
         try {
-            sendNotification = parse(inputStream);
+            sendNotification = parse(inputSource);
         } catch (final Exception e) {
             logger.warn("Error parsing Adyen notification", e);
-            return createSendNotificationResponse("error");
+            return false;
         }
 
         final List<NotificationRequestItem> listOfNotifications = sendNotification.getNotification()
                                                                                   .getNotificationItems()
                                                                                   .getNotificationRequestItem();
-        for (final NotificationRequestItem item : listOfNotifications) {
-            handleNotification(item);
+        final int nbItems = listOfNotifications.size();
+        metrics.recordBatch(nbItems);
+        if (!admissionController.tryAcquire(nbItems)) {
+            // Have Adyen retry later
+            logger.warn("Too many notifications being processed, rejecting batch: nbItems={}, inFlightBatches={}, inFlightItems={}",
+                        nbItems, admissionController.getInFlightBatches(), admissionController.getInFlightItems());
+            return false;
+        }
+
+        try {
+            for (final NotificationRequestItem item : listOfNotifications) {
+                handleNotification(item);
+            }
+        } finally {
+            admissionController.release(nbItems);
         }
-        return createSendNotificationResponse("[accepted]");
+        return true;
     }
 
     private void handleNotification(final NotificationRequestItem item) {
@@ -98,25 +156,18 @@ public class AdyenNotificationService {
             duration = System.currentTimeMillis() - startTime;
             error = e;
         } finally {
-            final String message = String.format(
-                    "op='notificationHandling', eventCode='%s', pspReference='%s', originalReference='%s', success='%s', reason='%s', merchantReference='%s', merchantAccount='%s', duration=%d, error=%s",
-                    item.getEventCode(),
-                    item.getPspReference(),
-                    item.getOriginalReference(),
-                    item.isSuccess(),
-                    item.getReason(),
-                    item.getMerchantReference(),
-                    item.getMerchantAccountCode(),
-                    duration,
-                    error != null);
-
-            if (error == null) {
-                logger.info(message);
-            } else {
-                logger.warn(message, error);
+            final Long eventDate = item.getEventDate() == null ? null : item.getEventDate().toGregorianCalendar().getTimeInMillis();
+            metrics.recordItem(item.getEventCode(), duration, eventDate, startTime + duration, error);
+
+            if (error != null) {
+                logger.warn("op='notificationHandling', eventCode='{}', pspReference='{}', originalReference='{}', success='{}', reason='{}', merchantReference='{}', merchantAccount='{}', duration={}, error=true",
+                            item.getEventCode(), item.getPspReference(), item.getOriginalReference(), item.isSuccess(), item.getReason(), item.getMerchantReference(), item.getMerchantAccountCode(), duration, error);
+            } else if (logger.isInfoEnabled()) {
+                // Guarded: the varargs array would otherwise be allocated for each item
+                logger.info("op='notificationHandling', eventCode='{}', pspReference='{}', originalReference='{}', success='{}', reason='{}', merchantReference='{}', merchantAccount='{}', duration={}, error=false",
+                            item.getEventCode(), item.getPspReference(), item.getOriginalReference(), item.isSuccess(), item.getReason(), item.getMerchantReference(), item.getMerchantAccountCode(), duration);
             }
         }
-
     }
 
     private AdyenNotificationHandler getAdyenNotificationHandler(final NotificationRequestItem notificationRequestItem) {
@@ -128,11 +179,11 @@ public class AdyenNotificationService {
         return null;
     }
 
-    private SendNotification parse(final InputStream inputStream) throws ParserConfigurationException, IOException, SAXException, JAXBException {
+    private SendNotification parse(final InputSource inputSource) throws ParserConfigurationException, IOException, SAXException, JAXBException {
         final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
         builderFactory.setNamespaceAware(true);
         final DocumentBuilder builder = builderFactory.newDocumentBuilder();
-        final Document document = builder.parse(inputStream);
+        final Document document = builder.parse(inputSource);
         final Node sendNotificationNode = document.getElementsByTagNameNS("http://notification.services.adyen.com", "sendNotification").item(0);
 
         final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client.notification;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of notification batches (and items within these batches) processed concurrently on this node.
+ * When Kill Bill is degraded, rejecting a batch early lets Adyen back off and retry later, instead of piling up
+ * requests which all hold a database connection.
+ * <p>
+ * A limit lower or equal to zero means unbounded.
+ */
+public class NotificationAdmissionController {
+
+    private final int maxConcurrentBatches;
+    private final int maxInFlightItems;
+
+    private final AtomicInteger inFlightBatches = new AtomicInteger();
+    private final AtomicInteger inFlightItems = new AtomicInteger();
+    private final AtomicLong admittedBatches = new AtomicLong();
+    private final AtomicLong shedBatches = new AtomicLong();
+    private final AtomicLong shedItems = new AtomicLong();
+
+    public NotificationAdmissionController() {
+        this(0, 0);
+    }
+
+    public NotificationAdmissionController(final int maxConcurrentBatches, final int maxInFlightItems) {
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.maxInFlightItems = maxInFlightItems;
+    }
+
+    /**
+     * Try to admit a batch
+     *
+     * @param nbItems number of notification items in the batch
+     * @return true if the batch can be processed, false if it should be rejected. When true, release must be called once the batch has been processed
+     */
+    public boolean tryAcquire(final int nbItems) {
+        if (!tryIncrement(inFlightBatches, 1, maxConcurrentBatches)) {
+            shed(nbItems);
+            return false;
+        }
+
+        if (!tryIncrement(inFlightItems, nbItems, maxInFlightItems)) {
+            inFlightBatches.decrementAndGet();
+            shed(nbItems);
+            return false;
+        }
+
+        admittedBatches.incrementAndGet();
+        return true;
+    }
+
+    public void release(final int nbItems) {
+        inFlightItems.addAndGet(-nbItems);
+        inFlightBatches.decrementAndGet();
+    }
+
+    public int getMaxConcurrentBatches() {
+        return maxConcurrentBatches;
+    }
+
+    public int getMaxInFlightItems() {
+        return maxInFlightItems;
+    }
+
+    public int getInFlightBatches() {
+        return inFlightBatches.get();
+    }
+
+    public int getInFlightItems() {
+        return inFlightItems.get();
+    }
+
+    public long getAdmittedBatches() {
+        return admittedBatches.get();
+    }
+
+    public long getShedBatches() {
+        return shedBatches.get();
+    }
+
+    public long getShedItems() {
+        return shedItems.get();
+    }
+
+    private void shed(final int nbItems) {
+        shedBatches.incrementAndGet();
+        shedItems.addAndGet(nbItems);
+    }
+
+    private static boolean tryIncrement(final AtomicInteger counter, final int delta, final int max) {
+        if (max <= 0) {
+            counter.addAndGet(delta);
+            return true;
+        }
+
+        while (true) {
+            final int current = counter.get();
+            // Always let a single batch through, even if it is bigger than the limit, so that it cannot be starved
+            if (current > 0 && current + delta > max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + delta)) {
+                return true;
+            }
+        }
+    }
+}
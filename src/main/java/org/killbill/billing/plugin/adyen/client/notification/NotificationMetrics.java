@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client.notification;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * In-process notification processing metrics (per node, reset on restart)
+ * <ul>
+ * <li>items processed (total and over the last minute) and handler latency, by event code (unknown ones are grouped)</li>
+ * <li>lag between Adyen's eventDate and the time we processed the notification</li>
+ * <li>errors, by root cause exception type</li>
+ * <li>batch sizes</li>
+ * <li>adyen_notifications audit rows dropped by the write-behind recorder</li>
+ * </ul>
+ * Recording is lock-free, so that it can stay on the hot path.
+ */
+public class NotificationMetrics {
+
+    private static final String UNKNOWN_EVENT_CODE = "UNKNOWN";
+
+    // Milliseconds
+    private static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+    // Milliseconds, from one second to one day
+    private static final long[] LAG_BUCKETS = {1000, 5000, 15000, 60000, 300000, 900000, 3600000, 21600000, 86400000};
+    private static final long[] BATCH_SIZE_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500};
+
+    private final long startTimeMillis = System.currentTimeMillis();
+    private final ConcurrentMap<String, EventCodeMetrics> eventCodeMetrics = new ConcurrentHashMap<String, EventCodeMetrics>();
+    private final ConcurrentMap<String, LongAdder> errorsByType = new ConcurrentHashMap<String, LongAdder>();
+    private final Histogram lag = new Histogram(LAG_BUCKETS);
+    private final Histogram batchSizes = new Histogram(BATCH_SIZE_BUCKETS);
+    private final LongAdder droppedAuditRecords = new LongAdder();
+
+    public void recordBatch(final int nbItems) {
+        batchSizes.record(nbItems);
+    }
+
+    public void recordDroppedAuditRecord() {
+        droppedAuditRecords.increment();
+    }
+
+    public void recordItem(@Nullable final String eventCode,
+                           final long durationMillis,
+                           @Nullable final Long eventDateMillis,
+                           final long processedDateMillis,
+                           @Nullable final Throwable error) {
+        // The event code comes from the request body: only known ones get their own entry, to bound the number of entries
+        final EventCodeMetrics metrics = getEventCodeMetrics(eventCode != null && NotificationItem.EVENT_CODES.contains(eventCode) ? eventCode : UNKNOWN_EVENT_CODE);
+        metrics.lastMinute.increment(processedDateMillis);
+        metrics.latency.record(durationMillis);
+
+        if (eventDateMillis != null) {
+            // Clock skew between Adyen and us could make it negative
+            lag.record(Math.max(processedDateMillis - eventDateMillis, 0));
+        }
+
+        if (error != null) {
+            metrics.errors.increment();
+            final String errorType = Throwables.getRootCause(error).getClass().getName();
+            LongAdder counter = errorsByType.get(errorType);
+            if (counter == null) {
+                errorsByType.putIfAbsent(errorType, new LongAdder());
+                counter = errorsByType.get(errorType);
+            }
+            counter.increment();
+        }
+    }
+
+    public Map<String, Object> getSnapshot() {
+        final long now = System.currentTimeMillis();
+        final double uptimeSeconds = Math.max(now - startTimeMillis, 1) / 1000.0;
+
+        final Map<String, Object> eventCodes = new LinkedHashMap<String, Object>();
+        for (final Map.Entry<String, EventCodeMetrics> entry : eventCodeMetrics.entrySet()) {
+            final EventCodeMetrics metrics = entry.getValue();
+            final Map<String, Object> latencySnapshot = metrics.latency.getSnapshot();
+            eventCodes.put(entry.getKey(), ImmutableMap.<String, Object>of("count", latencySnapshot.get("count"),
+                                                                           "errors", metrics.errors.sum(),
+                                                                           "itemsPerSecond", ((Long) latencySnapshot.get("count")) / uptimeSeconds,
+                                                                           "itemsPerSecondLastMinute", metrics.lastMinute.getRatePerSecond(now),
+                                                                           "latencyMs", latencySnapshot));
+        }
+
+        final Map<String, Object> errors = new LinkedHashMap<String, Object>();
+        for (final Map.Entry<String, LongAdder> entry : errorsByType.entrySet()) {
+            errors.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        return ImmutableMap.<String, Object>builder().put("uptimeSeconds", uptimeSeconds)
+                                                     .put("eventCodes", eventCodes)
+                                                     .put("lagMs", lag.getSnapshot())
+                                                     .put("errors", errors)
+                                                     .put("batchSizes", batchSizes.getSnapshot())
+                                                     .put("droppedAuditRecords", droppedAuditRecords.sum())
+                                                     .build();
+    }
+
+    private EventCodeMetrics getEventCodeMetrics(final String eventCode) {
+        final EventCodeMetrics metrics = eventCodeMetrics.get(eventCode);
+        if (metrics != null) {
+            return metrics;
+        }
+        eventCodeMetrics.putIfAbsent(eventCode, new EventCodeMetrics());
+        return eventCodeMetrics.get(eventCode);
+    }
+
+    private static final class EventCodeMetrics {
+
+        private final Histogram latency = new Histogram(LATENCY_BUCKETS);
+        private final LongAdder errors = new LongAdder();
+        private final RateCounter lastMinute = new RateCounter(60);
+    }
+
+    // Fixed buckets: percentiles are reported as the upper bound of the bucket they fall in
+    static final class Histogram {
+
+        private final long[] upperBounds;
+        // Last one is the overflow bucket
+        private final AtomicLongArray counts;
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(final long[] upperBounds) {
+            this.upperBounds = upperBounds;
+            this.counts = new AtomicLongArray(upperBounds.length + 1);
+        }
+
+        void record(final long value) {
+            int i = 0;
+            while (i < upperBounds.length && value > upperBounds[i]) {
+                i++;
+            }
+            counts.incrementAndGet(i);
+            sum.add(value);
+
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        Map<String, Object> getSnapshot() {
+            final long[] snapshot = new long[counts.length()];
+            long count = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                count += snapshot[i];
+            }
+
+            final Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < upperBounds.length; i++) {
+                buckets.put("le_" + upperBounds[i], snapshot[i]);
+            }
+            buckets.put("gt_" + upperBounds[upperBounds.length - 1], snapshot[upperBounds.length]);
+
+            final Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("count", count);
+            result.put("mean", count == 0 ? 0 : sum.sum() / (double) count);
+            result.put("max", max.get());
+            result.put("p50", percentile(snapshot, count, 0.50));
+            result.put("p95", percentile(snapshot, count, 0.95));
+            result.put("p99", percentile(snapshot, count, 0.99));
+            result.put("buckets", buckets);
+            return result;
+        }
+
+        private long percentile(final long[] snapshot, final long count, final double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < upperBounds.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return upperBounds[i];
+                }
+            }
+            return max.get();
+        }
+    }
+
+    // Ring of one-second slots
+    static final class RateCounter {
+
+        private final int nbSeconds;
+        private final AtomicLongArray seconds;
+        private final AtomicLongArray counts;
+
+        RateCounter(final int nbSeconds) {
+            this.nbSeconds = nbSeconds;
+            this.seconds = new AtomicLongArray(nbSeconds);
+            this.counts = new AtomicLongArray(nbSeconds);
+        }
+
+        void increment(final long nowMillis) {
+            final long second = nowMillis / 1000;
+            final int slot = (int) (second % nbSeconds);
+            final long slotSecond = seconds.get(slot);
+            if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+                // Stale slot: we won the race to recycle it (a concurrent increment may be lost, good enough here)
+                counts.set(slot, 0);
+            }
+            counts.incrementAndGet(slot);
+        }
+
+        double getRatePerSecond(final long nowMillis) {
+            final long second = nowMillis / 1000;
+            long total = 0;
+            for (int i = 0; i < nbSeconds; i++) {
+                if (second - seconds.get(i) < nbSeconds) {
+                    total += counts.get(i);
+                }
+            }
+            return total / (double) nbSeconds;
+        }
+    }
+}
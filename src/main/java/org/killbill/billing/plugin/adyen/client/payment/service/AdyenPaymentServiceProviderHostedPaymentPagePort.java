@@ -45,13 +45,22 @@ public class AdyenPaymentServiceProviderHostedPaymentPagePort extends BaseAdyenP
     private final AdyenConfigProperties adyenConfigProperties;
     private final AdyenRequestFactory adyenRequestFactory;
     private final DirectoryClient directoryClient;
+    private final Signer signer;
 
     public AdyenPaymentServiceProviderHostedPaymentPagePort(final AdyenConfigProperties adyenConfigProperties,
                                                             final AdyenRequestFactory adyenRequestFactory,
                                                             @Nullable final DirectoryClient directoryClient) {
+        this(adyenConfigProperties, adyenRequestFactory, directoryClient, new Signer());
+    }
+
+    public AdyenPaymentServiceProviderHostedPaymentPagePort(final AdyenConfigProperties adyenConfigProperties,
+                                                            final AdyenRequestFactory adyenRequestFactory,
+                                                            @Nullable final DirectoryClient directoryClient,
+                                                            final Signer signer) {
         this.adyenConfigProperties = adyenConfigProperties;
         this.adyenRequestFactory = adyenRequestFactory;
         this.directoryClient = directoryClient;
+        this.signer = signer;
 
         this.logger = LoggerFactory.getLogger(AdyenPaymentServiceProviderHostedPaymentPagePort.class);
     }
@@ -92,7 +101,6 @@ public class AdyenPaymentServiceProviderHostedPaymentPagePort extends BaseAdyenP
             params.put("countryCode", countryIsoCode);
         }
 
-        final Signer signer = new Signer();
         final String hmacSecret = adyenConfigProperties.getHmacSecret(skinCode);
         final String hmacAlgorithm = adyenConfigProperties.getHmacAlgorithm(skinCode);
         params.put("merchantSig", signer.signFormParameters(params, hmacSecret, hmacAlgorithm));
@@ -112,7 +120,6 @@ public class AdyenPaymentServiceProviderHostedPaymentPagePort extends BaseAdyenP
 
         final String hmacSecret = adyenConfigProperties.getHmacSecret(hppCompletedResult.getSkinCode());
         final String hmacAlgorithm = adyenConfigProperties.getHmacAlgorithm(hppCompletedResult.getSkinCode());
-        final Signer signer = new Signer();
         final String expectedMerchantSignature;
         if ("HmacSHA1".equals(hmacAlgorithm)) {
             expectedMerchantSignature = signer.signFormParameters(hppCompletedResult.getAuthResult(),
@@ -136,7 +143,7 @@ public class AdyenPaymentServiceProviderHostedPaymentPagePort extends BaseAdyenP
                                                                   hmacAlgorithm);
         }
 
-        if (merchantSig.equals(expectedMerchantSignature)) {
+        if (signer.verifySignature(expectedMerchantSignature, merchantSig)) {
             return hppCompletedResult;
         } else {
             logger.warn("Signature mismatch: expectedMerchantSignature='{}', requestParameterMap='{}'", expectedMerchantSignature, requestParameterMap);
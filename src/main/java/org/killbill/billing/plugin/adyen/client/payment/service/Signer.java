@@ -17,12 +17,18 @@
 
 package org.killbill.billing.plugin.adyen.client.payment.service;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Map.Entry;
 
+import javax.annotation.Nullable;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -32,11 +38,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
-import com.google.common.base.Joiner;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.BaseEncoding;
 
 public class Signer {
@@ -44,18 +48,23 @@ public class Signer {
     private static final Logger logger = LoggerFactory.getLogger(Signer.class);
 
     private static final BaseEncoding BASE_64_ENCODING = BaseEncoding.base64();
-    private static final Joiner JOINER = Joiner.on(":");
-    private static final Function<String, String> ESCAPER = new Function<String, String>() {
+    private static final Comparator<Entry<String, String>> BY_KEY = new Comparator<Entry<String, String>>() {
         @Override
-        public String apply(final String input) {
-            if (input == null) {
-                return "";
-            } else {
-                return input.replace("\\", "\\\\").replace(":", "\\:");
-            }
+        public int compare(final Entry<String, String> e1, final Entry<String, String> e2) {
+            return e1.getKey().compareTo(e2.getKey());
         }
     };
 
+    // A few skins per tenant: only rotated secrets and very large deployments should ever evict entries
+    @VisibleForTesting
+    static final int MAX_SIGNING_KEYS = 256;
+
+    // Signing contexts (decoded key and per-thread Mac), by algorithm and secret (i.e. per skin). Bounded, as secrets can be
+    // rotated and the signer be shared by all tenants
+    private final Cache<String, SigningKey> signingKeys = CacheBuilder.newBuilder()
+                                                                      .maximumSize(MAX_SIGNING_KEYS)
+                                                                      .build();
+
     // SHA256
     public String signFormParameters(final Map<String, String> paramsAnyOrder, final String hmacSecret, final String hmacAlgorithm) {
         final String signingString = getSigningString(paramsAnyOrder);
@@ -147,37 +156,109 @@ public class Signer {
 
     public String signData(final String secret, final String algorithm, final String signingData) throws SignatureGenerationException {
         try {
-            final SecretKey key = createSecretKey(secret, algorithm);
-            final Mac mac = Mac.getInstance(key.getAlgorithm());
-            mac.init(key);
-            return BASE_64_ENCODING.encode(mac.doFinal(signingData.getBytes("UTF8")));
+            final Mac mac = getSigningKey(secret, algorithm).getMac();
+            return BASE_64_ENCODING.encode(mac.doFinal(signingData.getBytes(StandardCharsets.UTF_8)));
         } catch (final NoSuchAlgorithmException nsae) {
             throw new SignatureGenerationException("Error while signature generation.", nsae);
         } catch (final IllegalStateException ise) {
             throw new SignatureGenerationException("Error while signature generation.", ise);
-        } catch (final UnsupportedEncodingException uee) {
-            throw new SignatureGenerationException("Error while signature generation.", uee);
         } catch (final InvalidKeyException ike) {
             throw new SignatureGenerationException("Error while signature generation.", ike);
         }
     }
 
+    // Constant-time comparison, to avoid leaking how much of a forged signature is correct
+    public boolean verifySignature(final String expectedSignature, @Nullable final String signature) {
+        // An empty expected signature means we couldn't sign the request
+        if (Strings.isNullOrEmpty(expectedSignature) || signature == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(expectedSignature.getBytes(StandardCharsets.UTF_8), signature.getBytes(StandardCharsets.UTF_8));
+    }
+
     @VisibleForTesting
     String getSigningString(final Map<String, String> paramsAnyOrder) {
-        final Map<String, String> params = new TreeMap<String, String>(Maps.<String, String>filterValues(paramsAnyOrder, Predicates.<String>notNull()));
+        final List<Entry<String, String>> params = new ArrayList<Entry<String, String>>(paramsAnyOrder.size());
+        int length = 1;
+        for (final Entry<String, String> param : paramsAnyOrder.entrySet()) {
+            if (param.getValue() != null) {
+                params.add(param);
+                length += param.getKey().length() + param.getValue().length() + 2;
+            }
+        }
+        Collections.sort(params, BY_KEY);
 
-        return JOINER.join(Iterables.<String, String>transform(params.keySet(), ESCAPER)) +
-               ":" +
-               JOINER.join(Iterables.<String, String>transform(params.values(), ESCAPER));
+        final StringBuilder signingString = new StringBuilder(length);
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                signingString.append(':');
+            }
+            appendEscaped(signingString, params.get(i).getKey());
+        }
+        signingString.append(':');
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                signingString.append(':');
+            }
+            appendEscaped(signingString, params.get(i).getValue());
+        }
+        return signingString.toString();
     }
 
-    private SecretKey createSecretKey(final String secret, final String algorithm) throws UnsupportedEncodingException {
+    private static void appendEscaped(final StringBuilder signingString, final String input) {
+        for (int i = 0; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if (c == '\\' || c == ':') {
+                signingString.append('\\');
+            }
+            signingString.append(c);
+        }
+    }
+
+    private SigningKey getSigningKey(final String secret, final String algorithm) {
+        final String cacheKey = algorithm + ":" + secret;
+        SigningKey signingKey = signingKeys.getIfPresent(cacheKey);
+        if (signingKey == null) {
+            // Racing threads may each build one, the last one wins: they are equivalent
+            signingKey = new SigningKey(createSecretKey(secret, algorithm));
+            signingKeys.put(cacheKey, signingKey);
+        }
+        return signingKey;
+    }
+
+    @VisibleForTesting
+    long getNbSigningKeys() {
+        return signingKeys.size();
+    }
+
+    private SecretKey createSecretKey(final String secret, final String algorithm) {
         byte[] secretBytes;
         try {
             secretBytes = BaseEncoding.base16().decode(secret);
         } catch (final IllegalArgumentException e) {
-            secretBytes = secret.getBytes("UTF-8");
+            secretBytes = secret.getBytes(StandardCharsets.UTF_8);
         }
         return new SecretKeySpec(secretBytes, algorithm);
     }
+
+    private static final class SigningKey {
+
+        private final SecretKey secretKey;
+        // Mac instances aren't thread-safe: keep an initialized one per thread, doFinal resets it for the next signature
+        private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+        private SigningKey(final SecretKey secretKey) {
+            this.secretKey = secretKey;
+        }
+
+        private Mac getMac() throws NoSuchAlgorithmException, InvalidKeyException {
+            Mac mac = macs.get();
+            if (mac == null) {
+                mac = Mac.getInstance(secretKey.getAlgorithm());
+                mac.init(secretKey);
+                macs.set(mac);
+            }
+            return mac;
+        }
+    }
 }
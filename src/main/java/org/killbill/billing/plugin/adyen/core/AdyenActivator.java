@@ -16,23 +16,31 @@
 
 package org.killbill.billing.plugin.adyen.core;
 
+import java.sql.SQLException;
 import java.util.Hashtable;
 
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServlet;
+import javax.sql.DataSource;
 
 import org.killbill.billing.osgi.api.Healthcheck;
 import org.killbill.billing.osgi.api.OSGIPluginProperties;
 import org.killbill.billing.osgi.libs.killbill.KillbillActivatorBase;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.api.KillbillLookupCache;
 import org.killbill.billing.plugin.adyen.client.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.client.notification.NotificationMetrics;
 import org.killbill.billing.plugin.adyen.client.payment.service.AdyenPaymentServiceProviderHostedPaymentPagePort;
 import org.killbill.billing.plugin.adyen.client.payment.service.AdyenPaymentServiceProviderPort;
 import org.killbill.billing.plugin.adyen.client.recurring.AdyenRecurringClient;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenHealthcheckServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenServlet;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.PaymentMethodsCache;
+import org.killbill.billing.plugin.adyen.dao.ReadReplicaRouter;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
 import org.killbill.billing.plugin.core.config.PluginEnvironmentConfig;
 import org.killbill.billing.plugin.core.resources.jooby.PluginApp;
@@ -40,22 +48,32 @@ import org.killbill.billing.plugin.core.resources.jooby.PluginAppBuilder;
 import org.killbill.clock.Clock;
 import org.killbill.clock.DefaultClock;
 import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogService;
 
 public class AdyenActivator extends KillbillActivatorBase {
 
     public static final String PLUGIN_NAME = "killbill-adyen";
 
+    private static final long NOTIFICATION_RECORDER_SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
     private AdyenConfigurationHandler adyenConfigurationHandler;
     private AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler;
     private AdyenHostedPaymentPageConfigurationHandler adyenHostedPaymentPageConfigurationHandler;
     private AdyenRecurringConfigurationHandler adyenRecurringConfigurationHandler;
+    private WriteBehindNotificationRecorder notificationRecorder;
+    private Thread promotedColumnsBackfill;
+    private Thread binaryUUIDsBackfill;
+    private ReadReplicaRouter readReplicaRouter;
+    private RetentionJob retentionJob;
+    private ResponseUpdatesCompactor responseUpdatesCompactor;
+    private PaymentMethodsCachePoller paymentMethodsCachePoller;
+    private KillbillLookupCache killbillLookupCache;
 
     @Override
     public void start(final BundleContext context) throws Exception {
         super.start(context);
 
         final Clock clock = new DefaultClock();
-        final AdyenDao dao = new AdyenDao(dataSource.getDataSource());
 
         final String region = PluginEnvironmentConfig.getRegion(configProperties.getProperties());
         adyenConfigurationHandler = new AdyenConfigurationHandler(PLUGIN_NAME, killbillAPI, logService, region);
@@ -69,6 +87,21 @@ public class AdyenActivator extends KillbillActivatorBase {
         final AdyenConfigProperties adyenConfigProperties = adyenConfigPropertiesConfigurationHandler.createConfigurable(configProperties.getProperties());
         adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(adyenConfigProperties);
 
+        // Per node, hence only configurable globally
+        readReplicaRouter = createReadReplicaRouter(adyenConfigProperties);
+        if (readReplicaRouter != null) {
+            readReplicaRouter.start();
+        }
+
+        // Schema-wide, hence only configurable globally
+        final AdyenDao.UUIDStorage uuidStorage = AdyenDao.UUIDStorage.valueOf(adyenConfigProperties.getUUIDStorage());
+        final AdyenDao dao = new AdyenDao(dataSource.getDataSource(),
+                                          uuidStorage,
+                                          adyenConfigProperties.getAdditionalDataCompression(),
+                                          readReplicaRouter,
+                                          adyenConfigProperties.getResponseUpdatesLog(),
+                                          createPaymentMethodsCache(adyenConfigProperties));
+
         final AdyenPaymentServiceProviderHostedPaymentPagePort globalAdyenHppClient = adyenHostedPaymentPageConfigurationHandler.createConfigurable(configProperties.getProperties());
         adyenHostedPaymentPageConfigurationHandler.setDefaultConfigurable(globalAdyenHppClient);
 
@@ -79,6 +112,101 @@ public class AdyenActivator extends KillbillActivatorBase {
         final AdyenHealthcheck adyenHealthcheck = new AdyenHealthcheck(adyenConfigPropertiesConfigurationHandler);
         registerHealthcheck(context, adyenHealthcheck);
 
+        // Shared by the notification service and the write-behind recorder (dropped audit rows)
+        final NotificationMetrics notificationMetrics = new NotificationMetrics();
+
+        // Per node, hence only configurable globally
+        if (adyenConfigProperties.getNotificationAuditWriteBehind()) {
+            notificationRecorder = new WriteBehindNotificationRecorder(dao,
+                                                                       notificationMetrics,
+                                                                       adyenConfigProperties.getNotificationAuditQueueCapacity(),
+                                                                       adyenConfigProperties.getNotificationAuditBatchSize(),
+                                                                       adyenConfigProperties.getNotificationAuditFlushInterval());
+            notificationRecorder.start();
+        }
+
+        // Rows written before the additional_data keys were promoted to their own columns
+        final int promotedColumnsBackfillBatchSize = adyenConfigProperties.getPromotedColumnsBackfillBatchSize();
+        if (promotedColumnsBackfillBatchSize > 0) {
+            promotedColumnsBackfill = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final int nbUpdated = dao.backfillPromotedColumns(promotedColumnsBackfillBatchSize);
+                        logService.log(LogService.LOG_INFO, String.format("Backfilled promoted additional_data columns for %s rows", nbUpdated));
+                    } catch (final SQLException e) {
+                        logService.log(LogService.LOG_WARNING, "Unable to backfill promoted additional_data columns", e);
+                    } catch (final RuntimeException e) {
+                        logService.log(LogService.LOG_WARNING, "Unable to backfill promoted additional_data columns", e);
+                    }
+                }
+            }, "adyen-promoted-columns-backfill");
+            promotedColumnsBackfill.setDaemon(true);
+            promotedColumnsBackfill.start();
+        }
+
+        // Rows written before dual writes of the compact identifiers
+        final int binaryUUIDsBackfillBatchSize = adyenConfigProperties.getBinaryUUIDsBackfillBatchSize();
+        if (uuidStorage != AdyenDao.UUIDStorage.CHAR && binaryUUIDsBackfillBatchSize > 0) {
+            binaryUUIDsBackfill = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final int nbUpdated = dao.backfillBinaryUUIDs(binaryUUIDsBackfillBatchSize);
+                        logService.log(LogService.LOG_INFO, String.format("Backfilled compact identifier columns for %s rows", nbUpdated));
+                    } catch (final SQLException e) {
+                        logService.log(LogService.LOG_WARNING, "Unable to backfill compact identifier columns", e);
+                    } catch (final RuntimeException e) {
+                        logService.log(LogService.LOG_WARNING, "Unable to backfill compact identifier columns", e);
+                    }
+                }
+            }, "adyen-binary-uuids-backfill");
+            binaryUUIDsBackfill.setDaemon(true);
+            binaryUUIDsBackfill.start();
+        }
+
+        // The retention period itself is per tenant
+        final int retentionBatchSize = adyenConfigProperties.getRetentionBatchSize();
+        if (retentionBatchSize > 0) {
+            retentionJob = new RetentionJob(dao, adyenConfigPropertiesConfigurationHandler, clock, retentionBatchSize, adyenConfigProperties.getRetentionBatchDelay());
+            retentionJob.start();
+        }
+
+        if (dao.getPaymentMethodsCache() != null && adyenConfigProperties.getPaymentMethodsCachePollInterval() > 0) {
+            paymentMethodsCachePoller = new PaymentMethodsCachePoller(dao, dao.getPaymentMethodsCache(), adyenConfigProperties.getPaymentMethodsCachePollInterval());
+            paymentMethodsCachePoller.start();
+        }
+
+        final int responseUpdatesCompactionBatchSize = adyenConfigProperties.getResponseUpdatesCompactionBatchSize();
+        if (responseUpdatesCompactionBatchSize > 0) {
+            responseUpdatesCompactor = new ResponseUpdatesCompactor(dao, responseUpdatesCompactionBatchSize, adyenConfigProperties.getResponseUpdatesCompactionInterval());
+            responseUpdatesCompactor.start();
+        }
+
+        // Per node, hence only configurable globally
+        killbillLookupCache = new KillbillLookupCache(adyenConfigProperties.getKillbillLookupsCacheMaxSize(), adyenConfigProperties.getKillbillLookupsCacheTtl());
+
+        // Build the payment plugin first, the servlet exposes its notification service
+        final AdyenPaymentPluginApi pluginApi = new AdyenPaymentPluginApi(adyenConfigurationHandler,
+                                                                          adyenConfigPropertiesConfigurationHandler,
+                                                                          adyenHostedPaymentPageConfigurationHandler,
+                                                                          adyenRecurringConfigurationHandler,
+                                                                          killbillAPI,
+                                                                          configProperties,
+                                                                          logService,
+                                                                          clock,
+                                                                          dao,
+                                                                          notificationRecorder,
+                                                                          killbillLookupCache,
+                                                                          notificationMetrics);
+
+        // Replay of recorded notifications, exposed via the servlet
+        final NotificationReplayer notificationReplayer = new NotificationReplayer(dao, new KillbillAdyenNotificationHandler(adyenConfigPropertiesConfigurationHandler, killbillAPI, dao, clock));
+        // Per node, hence only configurable globally
+        final RecordExporter recordExporter = new RecordExporter(dao, adyenConfigProperties.getExportMaxPageSize(), adyenConfigProperties.getExportMaxRowsPerSecond());
+        // The notification endpoint isn't tenant-aware, hence only configurable globally
+        final NotificationAuthenticator notificationAuthenticator = new NotificationAuthenticator(adyenConfigProperties.getNotificationUsername(), adyenConfigProperties.getNotificationPassword());
+
         // Register the servlet
         final PluginApp pluginApp = new PluginAppBuilder(PLUGIN_NAME,
                                                          killbillAPI,
@@ -88,27 +216,85 @@ public class AdyenActivator extends KillbillActivatorBase {
                                                          configProperties).withRouteClass(AdyenServlet.class)
                                                                           .withRouteClass(AdyenHealthcheckServlet.class)
                                                                           .withService(adyenHealthcheck)
+                                                                          .withService(notificationReplayer)
+                                                                          .withService(recordExporter)
+                                                                          .withService(notificationAuthenticator)
+                                                                          .withService(pluginApi.getAdyenNotificationService())
+                                                                          .withService(dao)
                                                                           .build();
         final HttpServlet adyenServlet = PluginApp.createServlet(pluginApp);
         registerServlet(context, adyenServlet);
 
         // Register the payment plugin
-        final AdyenPaymentPluginApi pluginApi = new AdyenPaymentPluginApi(adyenConfigurationHandler,
-                                                                          adyenConfigPropertiesConfigurationHandler,
-                                                                          adyenHostedPaymentPageConfigurationHandler,
-                                                                          adyenRecurringConfigurationHandler,
-                                                                          killbillAPI,
-                                                                          configProperties,
-                                                                          logService,
-                                                                          clock,
-                                                                          dao);
         registerPaymentPluginApi(context, pluginApi);
         registerHandlers();
     }
 
+    @Override
+    public void stop(final BundleContext context) throws Exception {
+        if (promotedColumnsBackfill != null) {
+            // Stops after the current page, the backfill resumes on next startup
+            promotedColumnsBackfill.interrupt();
+            promotedColumnsBackfill = null;
+        }
+        if (binaryUUIDsBackfill != null) {
+            // Stops after the current page, the backfill resumes on next startup
+            binaryUUIDsBackfill.interrupt();
+            binaryUUIDsBackfill = null;
+        }
+        if (readReplicaRouter != null) {
+            readReplicaRouter.stop();
+            readReplicaRouter = null;
+        }
+        if (retentionJob != null) {
+            // Stops after the current batch, the job picks up the remaining rows on its next run
+            retentionJob.stop();
+            retentionJob = null;
+        }
+        if (responseUpdatesCompactor != null) {
+            // The remaining updates are compacted on next startup, they are merged on read meanwhile
+            responseUpdatesCompactor.stop();
+            responseUpdatesCompactor = null;
+        }
+        if (paymentMethodsCachePoller != null) {
+            paymentMethodsCachePoller.stop();
+            paymentMethodsCachePoller = null;
+        }
+        if (notificationRecorder != null) {
+            // Flush the buffered notifications
+            notificationRecorder.shutdown(NOTIFICATION_RECORDER_SHUTDOWN_TIMEOUT_MILLIS);
+            notificationRecorder = null;
+        }
+        super.stop(context);
+    }
+
+    // The read replica pool is managed by the container (e.g. a Tomcat or Jetty JNDI resource)
+    private PaymentMethodsCache createPaymentMethodsCache(final AdyenConfigProperties adyenConfigProperties) {
+        final int paymentMethodsCacheMaxSize = adyenConfigProperties.getPaymentMethodsCacheMaxSize();
+        if (paymentMethodsCacheMaxSize <= 0) {
+            return null;
+        }
+        return new PaymentMethodsCache(paymentMethodsCacheMaxSize, adyenConfigProperties.getPaymentMethodsCacheTtl());
+    }
+
+    private ReadReplicaRouter createReadReplicaRouter(final AdyenConfigProperties adyenConfigProperties) throws NamingException {
+        final String readReplicaJndiName = adyenConfigProperties.getReadReplicaJndiName();
+        if (readReplicaJndiName == null) {
+            return null;
+        }
+
+        final DataSource readReplica = (DataSource) new InitialContext().lookup(readReplicaJndiName);
+        return new ReadReplicaRouter(dataSource.getDataSource(),
+                                     readReplica,
+                                     adyenConfigProperties.getReadReplicaReadYourWritesWindow(),
+                                     adyenConfigProperties.getReadReplicaMaxLag(),
+                                     adyenConfigProperties.getReadReplicaLagProbeInterval());
+    }
+
     public void registerHandlers() {
         final PluginConfigurationEventHandler handler = new PluginConfigurationEventHandler(adyenConfigPropertiesConfigurationHandler, adyenConfigurationHandler, adyenHostedPaymentPageConfigurationHandler, adyenRecurringConfigurationHandler);
-        dispatcher.registerEventHandlers(handler);
+        // Account changes invalidate the cached accounts
+        dispatcher.registerEventHandlers(handler, killbillLookupCache);
     }
 
     private void registerServlet(final BundleContext context, final HttpServlet servlet) {
@@ -71,7 +71,7 @@ public class AdyenHostedPaymentPageConfigurationHandler extends PluginTenantConf
                 logger.warn("Unable to configure the directory client", e);
             }
         }
-        return new AdyenPaymentServiceProviderHostedPaymentPagePort(adyenConfigProperties, adyenRequestFactory, directoryClient);
+        return new AdyenPaymentServiceProviderHostedPaymentPagePort(adyenConfigProperties, adyenRequestFactory, directoryClient, signer);
     }
 }
 
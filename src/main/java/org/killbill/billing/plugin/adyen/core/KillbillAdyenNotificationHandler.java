@@ -17,6 +17,7 @@
 
 package org.killbill.billing.plugin.adyen.core;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.Map;
@@ -48,6 +49,7 @@ import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
 import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
 import org.killbill.billing.plugin.adyen.client.notification.AdyenNotificationHandler;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UnitOfWork;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
 import org.killbill.billing.plugin.api.PluginProperties;
@@ -73,6 +75,10 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
 
     private static final Logger logger = LoggerFactory.getLogger(KillbillAdyenNotificationHandler.class);
 
+    private static final String NODE_NAME = ManagementFactory.getRuntimeMXBean().getName();
+    private static final long LEASE_MIN_BACKOFF_MILLIS = 50;
+    private static final long LEASE_MAX_BACKOFF_MILLIS = 1000;
+
     // Note that AUTHORISATION maps to either AUTHORIZE or PURCHASE
     private static final Map<String, TransactionType> EVENT_CODES_TO_TRANSACTION_TYPE = ImmutableMap.<String, TransactionType>builder().put("CANCELLATION", TransactionType.VOID)
                                                                                                                                        .put("REFUND", TransactionType.REFUND)
@@ -86,15 +92,28 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
     private final OSGIKillbillAPI osgiKillbillAPI;
     private final AdyenDao dao;
     private final Clock clock;
+    private final WriteBehindNotificationRecorder notificationRecorder;
 
     public KillbillAdyenNotificationHandler(final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler,
                                             final OSGIKillbillAPI osgiKillbillAPI,
                                             final AdyenDao dao,
                                             final Clock clock) {
+        this(adyenConfigPropertiesConfigurationHandler, osgiKillbillAPI, dao, clock, null);
+    }
+
+    /**
+     * @param notificationRecorder if not null, notifications are recorded asynchronously
+     */
+    public KillbillAdyenNotificationHandler(final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler,
+                                            final OSGIKillbillAPI osgiKillbillAPI,
+                                            final AdyenDao dao,
+                                            final Clock clock,
+                                            @Nullable final WriteBehindNotificationRecorder notificationRecorder) {
         this.adyenConfigPropertiesConfigurationHandler = adyenConfigPropertiesConfigurationHandler;
         this.osgiKillbillAPI = osgiKillbillAPI;
         this.dao = dao;
         this.clock = clock;
+        this.notificationRecorder = notificationRecorder;
     }
 
     @Override
@@ -105,7 +124,41 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
 
     @Override
     public void handleNotification(final NotificationRequestItem item) {
-        final NotificationItem notification = new NotificationItem(item);
+        handleNotification(new NotificationItem(item), true);
+    }
+
+    /**
+     * Re-process a notification previously recorded in adyen_notifications
+     * <p>
+     * The notification isn't recorded again, the original row stays the audit trail.
+     *
+     * @param notification notification rebuilt from the adyen_notifications table
+     */
+    public void replayNotification(final NotificationItem notification) {
+        handleNotification(notification, false);
+    }
+
+    private void handleNotification(final NotificationItem notification, final boolean recordNotification) {
+        // Notifications for the same payment could be delivered to several nodes concurrently (Adyen retries, replays, etc.)
+        final AdyenConfigProperties globalConfiguration = adyenConfigPropertiesConfigurationHandler.getConfigurable(null);
+        final String leaseKey = MoreObjects.firstNonNull(notification.getOriginalReference(), Strings.nullToEmpty(notification.getPspReference()));
+        final String leaseOwner;
+        if (globalConfiguration != null && globalConfiguration.getNotificationLeasesEnabled() && !leaseKey.isEmpty()) {
+            leaseOwner = acquireNotificationLease(leaseKey, globalConfiguration);
+        } else {
+            leaseOwner = null;
+        }
+
+        try {
+            processNotification(notification, recordNotification);
+        } finally {
+            if (leaseOwner != null) {
+                releaseNotificationLease(leaseKey, leaseOwner);
+            }
+        }
+    }
+
+    private void processNotification(final NotificationItem notification, final boolean recordNotification) {
         final DateTime utcNow = clock.getUTCNow();
 
         UUID kbAccountId = null;
@@ -113,47 +166,12 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
         UUID kbPaymentTransactionId = null;
         UUID kbTenantId = null;
         TransactionType transactionType = null;
-        boolean authMode = true;
-        boolean isHpp = false;
         try {
-            // Check if we have a record for that pspReference (PENDING auth, capture, refund, etc.)
-            final AdyenResponsesRecord record = getResponseRecord(notification.getPspReference());
-            if (record != null) {
-                kbAccountId = UUID.fromString(record.getKbAccountId());
-                kbTenantId = UUID.fromString(record.getKbTenantId());
-                kbPaymentId = UUID.fromString(record.getKbPaymentId());
-                kbPaymentTransactionId = UUID.fromString(record.getKbPaymentTransactionId());
-            } else {
-                // Check if we have a record for the original pspReference (e.g. chargeback notification)
-                final AdyenResponsesRecord originalRecord = getResponseRecord(notification.getOriginalReference());
-                if (originalRecord != null) {
-                    kbAccountId = UUID.fromString(originalRecord.getKbAccountId());
-                    kbTenantId = UUID.fromString(originalRecord.getKbTenantId());
-                    kbPaymentId = UUID.fromString(originalRecord.getKbPaymentId());
-                    kbPaymentTransactionId = null;
-                } else {
-                    // Check if the notification is associated with a HPP request
-                    final AdyenHppRequestsRecord hppRequest = getHppRequest(notification.getMerchantReference());
-                    if (hppRequest != null) {
-                        kbAccountId = UUID.fromString(hppRequest.getKbAccountId());
-                        kbTenantId = UUID.fromString(hppRequest.getKbTenantId());
-                        // The HPP may or may not be associated with a pending payment
-                        if (hppRequest.getKbPaymentId() != null) {
-                            kbPaymentId = UUID.fromString(hppRequest.getKbPaymentId());
-                        }
-                        if (hppRequest.getKbPaymentTransactionId() != null) {
-                            kbPaymentTransactionId = UUID.fromString(hppRequest.getKbPaymentTransactionId());
-                        }
-
-                        final Map additionalData = AdyenDao.fromAdditionalData(hppRequest.getAdditionalData());
-                        final Object authModeProperty = MoreObjects.firstNonNull(additionalData.get(PROPERTY_AUTH_MODE), true);
-                        authMode = Boolean.valueOf(authModeProperty.toString());
-
-                        isHpp = true;
-                    }
-                    // Otherwise, it could be a generic notification (like REPORT_AVAILABLE)
-                }
-            }
+            final NotificationLookup lookup = lookupNotification(notification);
+            kbAccountId = lookup.kbAccountId;
+            kbTenantId = lookup.kbTenantId;
+            kbPaymentId = lookup.kbPaymentId;
+            kbPaymentTransactionId = lookup.kbPaymentTransactionId;
 
             final CallContext context = new AdyenCallContext(clock.getUTCNow(), kbAccountId, kbTenantId);
             final AdyenConfigProperties tenantConfiguration = adyenConfigPropertiesConfigurationHandler.getConfigurable(context.getTenantId());
@@ -164,7 +182,7 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
                 Preconditions.checkNotNull(linkedOriginalRecord, "Unable to retrieve record for pspReference='%s'", transformedNotification.getPspReference());
                 kbPaymentTransactionId = UUID.fromString(linkedOriginalRecord.getKbPaymentTransactionId());
             }
-            final PaymentTransaction updatedPaymentTransaction = updateKillbill(MoreObjects.firstNonNull(transformedNotification, notification), kbAccountId, kbPaymentId, kbPaymentTransactionId, isHpp, authMode, tenantConfiguration, context);
+            final PaymentTransaction updatedPaymentTransaction = updateKillbill(MoreObjects.firstNonNull(transformedNotification, notification), kbAccountId, kbPaymentId, kbPaymentTransactionId, lookup.isHpp, lookup.authMode, tenantConfiguration, context);
             if (updatedPaymentTransaction != null) {
                 kbPaymentId = updatedPaymentTransaction.getPaymentId();
                 kbPaymentTransactionId = updatedPaymentTransaction.getId();
@@ -172,10 +190,74 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
             }
         } finally {
             // Record this notification, for debugging purposes
-            recordNotification(notification, kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, utcNow, kbTenantId);
+            if (recordNotification) {
+                recordNotification(notification, kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, utcNow, kbTenantId);
+            }
         }
     }
 
+    // The lookups share one connection, which is released before calling Kill Bill (it calls back into the plugin and could take a while)
+    private NotificationLookup lookupNotification(final NotificationItem notification) {
+        try {
+            return dao.inUnitOfWork(false,
+                                    new UnitOfWork<NotificationLookup, RuntimeException>() {
+                                        @Override
+                                        public NotificationLookup execute() {
+                                            return doLookupNotification(notification);
+                                        }
+                                    });
+        } catch (final SQLException e) {
+            // Have Adyen retry
+            throw new RuntimeException(String.format("Unable to look up notification %s", notification), e);
+        }
+    }
+
+    private NotificationLookup doLookupNotification(final NotificationItem notification) {
+        final NotificationLookup lookup = new NotificationLookup();
+
+        // Check if we have a record for that pspReference (PENDING auth, capture, refund, etc.)
+        final AdyenResponsesRecord record = getResponseRecord(notification.getPspReference());
+        if (record != null) {
+            lookup.kbAccountId = UUID.fromString(record.getKbAccountId());
+            lookup.kbTenantId = UUID.fromString(record.getKbTenantId());
+            lookup.kbPaymentId = UUID.fromString(record.getKbPaymentId());
+            lookup.kbPaymentTransactionId = UUID.fromString(record.getKbPaymentTransactionId());
+            return lookup;
+        }
+
+        // Check if we have a record for the original pspReference (e.g. chargeback notification)
+        final AdyenResponsesRecord originalRecord = getResponseRecord(notification.getOriginalReference());
+        if (originalRecord != null) {
+            lookup.kbAccountId = UUID.fromString(originalRecord.getKbAccountId());
+            lookup.kbTenantId = UUID.fromString(originalRecord.getKbTenantId());
+            lookup.kbPaymentId = UUID.fromString(originalRecord.getKbPaymentId());
+            return lookup;
+        }
+
+        // Check if the notification is associated with a HPP request
+        final AdyenHppRequestsRecord hppRequest = getHppRequest(notification.getMerchantReference());
+        if (hppRequest != null) {
+            lookup.kbAccountId = UUID.fromString(hppRequest.getKbAccountId());
+            lookup.kbTenantId = UUID.fromString(hppRequest.getKbTenantId());
+            // The HPP may or may not be associated with a pending payment
+            if (hppRequest.getKbPaymentId() != null) {
+                lookup.kbPaymentId = UUID.fromString(hppRequest.getKbPaymentId());
+            }
+            if (hppRequest.getKbPaymentTransactionId() != null) {
+                lookup.kbPaymentTransactionId = UUID.fromString(hppRequest.getKbPaymentTransactionId());
+            }
+
+            final Map additionalData = AdyenDao.fromAdditionalData(hppRequest.getAdditionalData());
+            final Object authModeProperty = MoreObjects.firstNonNull(additionalData.get(PROPERTY_AUTH_MODE), true);
+            lookup.authMode = Boolean.valueOf(authModeProperty.toString());
+
+            lookup.isHpp = true;
+        }
+        // Otherwise, it could be a generic notification (like REPORT_AVAILABLE)
+
+        return lookup;
+    }
+
     private NotificationItem transformNotificationItemIfNeeded(final NotificationItem notification, final AdyenConfigProperties tenantConfiguration) {
         if ("CHARGEBACK".equals(notification.getEventCode())) {
             if (tenantConfiguration.getChargebackAsFailurePaymentMethods().contains(notification.getPaymentMethod())) {
@@ -507,6 +589,48 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
         }
     }
 
+    private String acquireNotificationLease(final String leaseKey, final AdyenConfigProperties globalConfiguration) {
+        // Unique per acquisition, as several threads on this node could compete for the same lease
+        final String leaseOwner = NODE_NAME + "-" + UUID.randomUUID();
+        final long waitTimeoutMillis = globalConfiguration.getNotificationLeaseWaitTimeout();
+        final long startMillis = System.currentTimeMillis();
+        long backoffMillis = LEASE_MIN_BACKOFF_MILLIS;
+        while (true) {
+            final DateTime utcNow = clock.getUTCNow();
+            try {
+                if (dao.tryAcquireNotificationLease(leaseKey, leaseOwner, utcNow, utcNow.plus(globalConfiguration.getNotificationLeasePeriod()))) {
+                    return leaseOwner;
+                }
+            } catch (final SQLException e) {
+                // Have Adyen retry
+                throw new RuntimeException(String.format("Unable to acquire lease for leaseKey='%s'", leaseKey), e);
+            }
+
+            final long remainingMillis = waitTimeoutMillis - (System.currentTimeMillis() - startMillis);
+            if (remainingMillis <= 0) {
+                // Have Adyen retry
+                throw new RuntimeException(String.format("Notification for leaseKey='%s' is being processed by another node", leaseKey));
+            }
+
+            try {
+                Thread.sleep(Math.min(backoffMillis, remainingMillis));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(String.format("Interrupted while waiting for lease for leaseKey='%s'", leaseKey), e);
+            }
+            backoffMillis = Math.min(backoffMillis * 2, LEASE_MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void releaseNotificationLease(final String leaseKey, final String leaseOwner) {
+        try {
+            dao.releaseNotificationLease(leaseKey, leaseOwner);
+        } catch (final SQLException e) {
+            // Not fatal: the lease will be reclaimed once expired
+            logger.warn("Unable to release lease for leaseKey='{}'", leaseKey, e);
+        }
+    }
+
     private void recordNotification(final NotificationItem notification,
                                     @Nullable final UUID kbAccountId,
                                     @Nullable final UUID kbPaymentId,
@@ -515,7 +639,11 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
                                     final DateTime utcNow,
                                     final UUID kbTenantId) {
         try {
-            dao.addNotification(kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, notification, utcNow, kbTenantId);
+            if (notificationRecorder != null) {
+                notificationRecorder.record(dao.newNotification(kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, notification, utcNow, kbTenantId));
+            } else {
+                dao.addNotification(kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, notification, utcNow, kbTenantId);
+            }
         } catch (final SQLException e) {
             // Have Adyen retry
             throw new RuntimeException(String.format("Unable to record notification %s", notification), e);
@@ -532,4 +660,14 @@ public class KillbillAdyenNotificationHandler implements AdyenNotificationHandle
             throw new RuntimeException(String.format("Unable to update response for kbTransactionId='%s'", kbTransactionId), e);
         }
     }
+
+    private static final class NotificationLookup {
+
+        private UUID kbAccountId;
+        private UUID kbPaymentId;
+        private UUID kbPaymentTransactionId;
+        private UUID kbTenantId;
+        private boolean authMode = true;
+        private boolean isHpp = false;
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Basic authentication of the notifications posted by Adyen to the plugin endpoint (see AdyenServlet#processNotifications).
+ * <p>
+ * Unlike Kill Bill's processNotification API, the endpoint doesn't require the tenant API key and secret: without these
+ * credentials, anyone knowing a merchantReference or pspReference could forge a notification. The credentials are the ones
+ * configured for the notifications in the Adyen customer area. When they aren't configured, all notifications are rejected.
+ */
+public class NotificationAuthenticator {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationAuthenticator.class);
+
+    private static final String BASIC_SCHEME = "Basic ";
+
+    // username:password, null if not configured
+    private final byte[] expectedCredentials;
+
+    public NotificationAuthenticator(@Nullable final String username, @Nullable final String password) {
+        if (Strings.isNullOrEmpty(username) || Strings.isNullOrEmpty(password)) {
+            logger.warn("No notification credentials configured, notifications posted to the plugin endpoint will be rejected");
+            this.expectedCredentials = null;
+        } else {
+            this.expectedCredentials = (username + ":" + password).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public boolean isAuthenticated(@Nullable final String authorizationHeader) {
+        if (expectedCredentials == null ||
+            authorizationHeader == null ||
+            !authorizationHeader.regionMatches(true, 0, BASIC_SCHEME, 0, BASIC_SCHEME.length())) {
+            return false;
+        }
+
+        final byte[] credentials;
+        try {
+            credentials = BaseEncoding.base64().decode(authorizationHeader.substring(BASIC_SCHEME.length()).trim());
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        // Constant-time comparison, to avoid leaking how much of forged credentials is correct
+        return MessageDigest.isEqual(expectedCredentials, credentials);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+
+/**
+ * Selection and execution options for a {@link NotificationReplayer} run
+ */
+public class NotificationReplayRequest {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    // Checkpoint: replay rows strictly after this record id
+    private long afterRecordId = 0L;
+    // Defaults to the last record id when the replay starts, so that newly received notifications aren't picked up
+    private Long upToRecordId;
+    private DateTime createdAfter;
+    private DateTime createdBefore;
+    private String eventCode;
+    private String merchantAccountCode;
+    private UUID kbTenantId;
+    // Maximum number of rows to go through in this run (0 means all of them)
+    private int maxItems = 0;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int parallelism = 1;
+    // 0 means unthrottled
+    private double maxItemsPerSecond = 0;
+    private boolean dryRun = false;
+
+    public long getAfterRecordId() {
+        return afterRecordId;
+    }
+
+    public void setAfterRecordId(final long afterRecordId) {
+        this.afterRecordId = afterRecordId;
+    }
+
+    @Nullable
+    public Long getUpToRecordId() {
+        return upToRecordId;
+    }
+
+    public void setUpToRecordId(@Nullable final Long upToRecordId) {
+        this.upToRecordId = upToRecordId;
+    }
+
+    @Nullable
+    public DateTime getCreatedAfter() {
+        return createdAfter;
+    }
+
+    public void setCreatedAfter(@Nullable final DateTime createdAfter) {
+        this.createdAfter = createdAfter;
+    }
+
+    @Nullable
+    public DateTime getCreatedBefore() {
+        return createdBefore;
+    }
+
+    public void setCreatedBefore(@Nullable final DateTime createdBefore) {
+        this.createdBefore = createdBefore;
+    }
+
+    @Nullable
+    public String getEventCode() {
+        return eventCode;
+    }
+
+    public void setEventCode(@Nullable final String eventCode) {
+        this.eventCode = eventCode;
+    }
+
+    @Nullable
+    public String getMerchantAccountCode() {
+        return merchantAccountCode;
+    }
+
+    public void setMerchantAccountCode(@Nullable final String merchantAccountCode) {
+        this.merchantAccountCode = merchantAccountCode;
+    }
+
+    @Nullable
+    public UUID getKbTenantId() {
+        return kbTenantId;
+    }
+
+    public void setKbTenantId(@Nullable final UUID kbTenantId) {
+        this.kbTenantId = kbTenantId;
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    public void setMaxItems(final int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public double getMaxItemsPerSecond() {
+        return maxItemsPerSecond;
+    }
+
+    public void setMaxItemsPerSecond(final double maxItemsPerSecond) {
+        this.maxItemsPerSecond = maxItemsPerSecond;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(final boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("NotificationReplayRequest{");
+        sb.append("afterRecordId=").append(afterRecordId);
+        sb.append(", upToRecordId=").append(upToRecordId);
+        sb.append(", createdAfter=").append(createdAfter);
+        sb.append(", createdBefore=").append(createdBefore);
+        sb.append(", eventCode='").append(eventCode).append('\'');
+        sb.append(", merchantAccountCode='").append(merchantAccountCode).append('\'');
+        sb.append(", kbTenantId=").append(kbTenantId);
+        sb.append(", maxItems=").append(maxItems);
+        sb.append(", pageSize=").append(pageSize);
+        sb.append(", parallelism=").append(parallelism);
+        sb.append(", maxItemsPerSecond=").append(maxItemsPerSecond);
+        sb.append(", dryRun=").append(dryRun);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.List;
+
+/**
+ * Outcome of a {@link NotificationReplayer} run. Pass the checkpoint back as afterRecordId to resume.
+ */
+public class NotificationReplayResult {
+
+    private final long afterRecordId;
+    private final long upToRecordId;
+    private final long checkpoint;
+    private final boolean done;
+    private final boolean dryRun;
+    private final int matched;
+    private final int replayed;
+    private final int failed;
+    private final List<Long> failedRecordIds;
+    private final long durationMs;
+
+    public NotificationReplayResult(final long afterRecordId,
+                                    final long upToRecordId,
+                                    final long checkpoint,
+                                    final boolean done,
+                                    final boolean dryRun,
+                                    final int matched,
+                                    final int replayed,
+                                    final int failed,
+                                    final List<Long> failedRecordIds,
+                                    final long durationMs) {
+        this.afterRecordId = afterRecordId;
+        this.upToRecordId = upToRecordId;
+        this.checkpoint = checkpoint;
+        this.done = done;
+        this.dryRun = dryRun;
+        this.matched = matched;
+        this.replayed = replayed;
+        this.failed = failed;
+        this.failedRecordIds = failedRecordIds;
+        this.durationMs = durationMs;
+    }
+
+    public long getAfterRecordId() {
+        return afterRecordId;
+    }
+
+    public long getUpToRecordId() {
+        return upToRecordId;
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public int getMatched() {
+        return matched;
+    }
+
+    public int getReplayed() {
+        return replayed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<Long> getFailedRecordIds() {
+        return failedRecordIds;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public double getItemsPerSecond() {
+        return durationMs == 0 ? matched : matched * 1000.0 / durationMs;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("NotificationReplayResult{");
+        sb.append("afterRecordId=").append(afterRecordId);
+        sb.append(", upToRecordId=").append(upToRecordId);
+        sb.append(", checkpoint=").append(checkpoint);
+        sb.append(", done=").append(done);
+        sb.append(", dryRun=").append(dryRun);
+        sb.append(", matched=").append(matched);
+        sb.append(", replayed=").append(replayed);
+        sb.append(", failed=").append(failed);
+        sb.append(", durationMs=").append(durationMs);
+        sb.append(", itemsPerSecond=").append(getItemsPerSecond());
+        sb.append('}');
+        return sb.toString();
+    }
+}
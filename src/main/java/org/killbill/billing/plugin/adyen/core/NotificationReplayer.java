@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
+import org.killbill.billing.plugin.dao.PluginDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Re-processes notifications recorded in adyen_notifications (e.g. after an incident), by feeding them back
+ * through the {@link KillbillAdyenNotificationHandler}.
+ * <p>
+ * Rows are read page by page in record_id order. Notifications for the same payment (same pspReference or
+ * originalReference) are always handled by the same lane, in order. The checkpoint only moves forward once
+ * a full page has been processed, so a run can be resumed from it at any time.
+ */
+public class NotificationReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationReplayer.class);
+
+    private static final Splitter OPERATIONS_SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
+    // Don't let a bad replay blow up the response
+    private static final int MAX_FAILED_RECORD_IDS = 1000;
+
+    private final AdyenDao dao;
+    private final KillbillAdyenNotificationHandler notificationHandler;
+
+    public NotificationReplayer(final AdyenDao dao, final KillbillAdyenNotificationHandler notificationHandler) {
+        this.dao = dao;
+        this.notificationHandler = notificationHandler;
+    }
+
+    public NotificationReplayResult replay(final NotificationReplayRequest request) throws SQLException {
+        final long startTime = System.currentTimeMillis();
+        final long upToRecordId = request.getUpToRecordId() != null ? request.getUpToRecordId() : dao.getLastNotificationRecordId();
+        final int pageSize = request.getPageSize() > 0 ? request.getPageSize() : NotificationReplayRequest.DEFAULT_PAGE_SIZE;
+        final RateLimiter rateLimiter = request.getMaxItemsPerSecond() > 0 ? RateLimiter.create(request.getMaxItemsPerSecond()) : null;
+        final List<ExecutorService> lanes = createLanes(request.isDryRun() ? 1 : request.getParallelism());
+
+        logger.info("Starting notifications replay: request={}, upToRecordId={}", request, upToRecordId);
+
+        long checkpoint = request.getAfterRecordId();
+        boolean done = false;
+        int matched = 0;
+        int replayed = 0;
+        int failed = 0;
+        final List<Long> failedRecordIds = new LinkedList<Long>();
+        try {
+            while (true) {
+                final int limit = request.getMaxItems() > 0 ? Math.min(pageSize, request.getMaxItems() - matched) : pageSize;
+                if (limit <= 0) {
+                    break;
+                }
+
+                final List<AdyenNotificationsRecord> page = dao.getNotifications(checkpoint,
+                                                                                 upToRecordId,
+                                                                                 request.getCreatedAfter(),
+                                                                                 request.getCreatedBefore(),
+                                                                                 request.getEventCode(),
+                                                                                 request.getMerchantAccountCode(),
+                                                                                 request.getKbTenantId(),
+                                                                                 limit);
+
+                final List<Future<Boolean>> futures = new LinkedList<Future<Boolean>>();
+                final List<Long> pageRecordIds = new LinkedList<Long>();
+                for (final AdyenNotificationsRecord record : page) {
+                    matched++;
+                    final long recordId = record.getRecordId().longValue();
+                    if (request.isDryRun()) {
+                        logger.info("Dry-run, would replay notification: recordId={}, eventCode='{}', pspReference='{}', originalReference='{}'",
+                                    recordId, record.getEventCode(), record.getPspReference(), record.getOriginalReference());
+                        continue;
+                    }
+
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire();
+                    }
+                    pageRecordIds.add(recordId);
+                    futures.add(getLane(lanes, record).submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return replay(record);
+                        }
+                    }));
+                }
+
+                // Wait for the whole page before moving the checkpoint
+                for (int i = 0; i < futures.size(); i++) {
+                    if (waitFor(futures.get(i))) {
+                        replayed++;
+                    } else {
+                        failed++;
+                        if (failedRecordIds.size() < MAX_FAILED_RECORD_IDS) {
+                            failedRecordIds.add(pageRecordIds.get(i));
+                        }
+                    }
+                }
+
+                if (!page.isEmpty()) {
+                    checkpoint = page.get(page.size() - 1).getRecordId().longValue();
+                    logger.info("Notifications replay progress: checkpoint={}, matched={}, replayed={}, failed={}", checkpoint, matched, replayed, failed);
+                }
+
+                if (page.size() < limit) {
+                    done = true;
+                    break;
+                }
+            }
+        } finally {
+            for (final ExecutorService lane : lanes) {
+                lane.shutdownNow();
+            }
+        }
+
+        final NotificationReplayResult result = new NotificationReplayResult(request.getAfterRecordId(),
+                                                                             upToRecordId,
+                                                                             checkpoint,
+                                                                             done,
+                                                                             request.isDryRun(),
+                                                                             matched,
+                                                                             replayed,
+                                                                             failed,
+                                                                             ImmutableList.<Long>copyOf(failedRecordIds),
+                                                                             System.currentTimeMillis() - startTime);
+        logger.info("Notifications replay finished: result={}", result);
+        return result;
+    }
+
+    private boolean replay(final AdyenNotificationsRecord record) {
+        try {
+            notificationHandler.replayNotification(toNotificationItem(record));
+            return true;
+        } catch (final RuntimeException e) {
+            logger.warn("Unable to replay notification recordId={}, eventCode='{}', pspReference='{}'", record.getRecordId(), record.getEventCode(), record.getPspReference(), e);
+            return false;
+        }
+    }
+
+    private boolean waitFor(final Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while replaying notifications", e);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException("Unexpected error while replaying notifications", e.getCause());
+        }
+    }
+
+    private List<ExecutorService> createLanes(final int parallelism) {
+        final ImmutableList.Builder<ExecutorService> lanes = ImmutableList.<ExecutorService>builder();
+        for (int i = 0; i < Math.max(parallelism, 1); i++) {
+            lanes.add(Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("adyen-notification-replay-" + i)
+                                                                                  .setDaemon(true)
+                                                                                  .build()));
+        }
+        return lanes.build();
+    }
+
+    // Notifications touching the same payment must be replayed sequentially
+    private ExecutorService getLane(final List<ExecutorService> lanes, final AdyenNotificationsRecord record) {
+        final String key = MoreObjects.firstNonNull(record.getOriginalReference(), MoreObjects.firstNonNull(record.getPspReference(), ""));
+        return lanes.get(Math.abs(key.hashCode() % lanes.size()));
+    }
+
+    private static NotificationItem toNotificationItem(final AdyenNotificationsRecord record) {
+        return new NotificationItem(record.getAdditionalData() == null ? null : AdyenDao.fromAdditionalData(record.getAdditionalData()),
+                                    record.getAmount(),
+                                    record.getCurrency(),
+                                    record.getEventCode(),
+                                    toDateTime(record.getEventDate()),
+                                    record.getMerchantAccountCode(),
+                                    record.getMerchantReference(),
+                                    record.getOperations() == null ? null : OPERATIONS_SPLITTER.splitToList(record.getOperations()),
+                                    record.getOriginalReference(),
+                                    record.getPaymentMethod(),
+                                    record.getPspReference(),
+                                    record.getReason(),
+                                    record.getSuccess() != null && record.getSuccess() == PluginDao.TRUE);
+    }
+
+    private static DateTime toDateTime(@Nullable final Timestamp timestamp) {
+        return timestamp == null ? null : new DateTime(timestamp, DateTimeZone.UTC);
+    }
+}
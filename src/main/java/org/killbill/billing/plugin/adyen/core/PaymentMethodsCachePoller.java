@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.PaymentMethodsCache;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically invalidates the cached payment methods modified by other nodes, based on their updated_date
+ * (see PaymentMethodsCache)
+ * <p>
+ * Each poll overlaps the previous one by one interval, to tolerate some clock skew between the nodes and
+ * late commits. Rows returned again by the overlap are only invalidated if their updated_date changed since. Anything
+ * missed still expires after the cache TTL.
+ */
+public class PaymentMethodsCachePoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentMethodsCachePoller.class);
+
+    private final AdyenDao dao;
+    private final PaymentMethodsCache paymentMethodsCache;
+    private final long intervalMillis;
+    private final ScheduledExecutorService executor;
+
+    // Only accessed by the polling thread
+    private DateTime lastUpdatedDate = new DateTime(DateTimeZone.UTC);
+    // updated_date of the rows already invalidated, for those the next poll can return again
+    private final Map<String, DateTime> processedUpdatedDates = new HashMap<String, DateTime>();
+
+    public PaymentMethodsCachePoller(final AdyenDao dao, final PaymentMethodsCache paymentMethodsCache, final long intervalMillis) {
+        this.dao = dao;
+        this.paymentMethodsCache = paymentMethodsCache;
+        this.intervalMillis = intervalMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "adyen-payment-methods-cache-poller");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                poll();
+                                            }
+                                        },
+                                        intervalMillis,
+                                        intervalMillis,
+                                        TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    void poll() {
+        // jOOQ reports SQL errors as (unchecked) DataAccessException: catch everything, not to cancel the next runs
+        try {
+            final List<AdyenPaymentMethodsRecord> updatedPaymentMethods = dao.getPaymentMethodsUpdatedAfter(lastUpdatedDate.minus(intervalMillis));
+            for (final AdyenPaymentMethodsRecord updatedPaymentMethod : updatedPaymentMethods) {
+                final DateTime updatedDate = new DateTime(updatedPaymentMethod.getUpdatedDate(), DateTimeZone.UTC);
+                final DateTime processedUpdatedDate = processedUpdatedDates.get(updatedPaymentMethod.getKbPaymentMethodId());
+                if (processedUpdatedDate == null || updatedDate.isAfter(processedUpdatedDate)) {
+                    paymentMethodsCache.invalidate(updatedPaymentMethod.getKbPaymentMethodId(), updatedPaymentMethod.getKbTenantId());
+                    processedUpdatedDates.put(updatedPaymentMethod.getKbPaymentMethodId(), updatedDate);
+                }
+                if (updatedDate.isAfter(lastUpdatedDate)) {
+                    lastUpdatedDate = updatedDate;
+                }
+            }
+
+            // Forget the rows the next poll won't return (unless they are updated again)
+            final DateTime nextUpdatedAfter = lastUpdatedDate.minus(intervalMillis);
+            final Iterator<DateTime> iterator = processedUpdatedDates.values().iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().isAfter(nextUpdatedAfter)) {
+                    iterator.remove();
+                }
+            }
+        } catch (final SQLException | RuntimeException e) {
+            logger.warn("Unable to poll the updated payment methods", e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+
+/**
+ * Selection and output options for a {@link RecordExporter} export
+ */
+public class RecordExportRequest {
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final double DEFAULT_MAX_ROWS_PER_SECOND = 2000;
+
+    public enum Format {
+        // One JSON object per line
+        NDJSON,
+        // RFC 4180, with a header line
+        CSV
+    }
+
+    // Checkpoint: export rows strictly after this record id (the record_id of the last row received, to resume an interrupted export)
+    private long afterRecordId = 0L;
+    // Defaults to the last record id when the export starts, so that the export has an end
+    private Long upToRecordId;
+    private DateTime createdAfter;
+    private DateTime createdBefore;
+    // Notifications only
+    private String eventCode;
+    private String merchantAccountCode;
+    private UUID kbTenantId;
+    private Format format = Format.NDJSON;
+    // Capped by the exporter
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    // Capped by the exporter, 0 means the exporter maximum
+    private double maxRowsPerSecond = DEFAULT_MAX_ROWS_PER_SECOND;
+
+    public long getAfterRecordId() {
+        return afterRecordId;
+    }
+
+    public void setAfterRecordId(final long afterRecordId) {
+        this.afterRecordId = afterRecordId;
+    }
+
+    @Nullable
+    public Long getUpToRecordId() {
+        return upToRecordId;
+    }
+
+    public void setUpToRecordId(@Nullable final Long upToRecordId) {
+        this.upToRecordId = upToRecordId;
+    }
+
+    @Nullable
+    public DateTime getCreatedAfter() {
+        return createdAfter;
+    }
+
+    public void setCreatedAfter(@Nullable final DateTime createdAfter) {
+        this.createdAfter = createdAfter;
+    }
+
+    @Nullable
+    public DateTime getCreatedBefore() {
+        return createdBefore;
+    }
+
+    public void setCreatedBefore(@Nullable final DateTime createdBefore) {
+        this.createdBefore = createdBefore;
+    }
+
+    @Nullable
+    public String getEventCode() {
+        return eventCode;
+    }
+
+    public void setEventCode(@Nullable final String eventCode) {
+        this.eventCode = eventCode;
+    }
+
+    @Nullable
+    public String getMerchantAccountCode() {
+        return merchantAccountCode;
+    }
+
+    public void setMerchantAccountCode(@Nullable final String merchantAccountCode) {
+        this.merchantAccountCode = merchantAccountCode;
+    }
+
+    @Nullable
+    public UUID getKbTenantId() {
+        return kbTenantId;
+    }
+
+    public void setKbTenantId(@Nullable final UUID kbTenantId) {
+        this.kbTenantId = kbTenantId;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(final Format format) {
+        this.format = format;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public double getMaxRowsPerSecond() {
+        return maxRowsPerSecond;
+    }
+
+    public void setMaxRowsPerSecond(final double maxRowsPerSecond) {
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RecordExportRequest{");
+        sb.append("afterRecordId=").append(afterRecordId);
+        sb.append(", upToRecordId=").append(upToRecordId);
+        sb.append(", createdAfter=").append(createdAfter);
+        sb.append(", createdBefore=").append(createdBefore);
+        sb.append(", eventCode='").append(eventCode).append('\'');
+        sb.append(", merchantAccountCode='").append(merchantAccountCode).append('\'');
+        sb.append(", kbTenantId=").append(kbTenantId);
+        sb.append(", format=").append(format);
+        sb.append(", pageSize=").append(pageSize);
+        sb.append(", maxRowsPerSecond=").append(maxRowsPerSecond);
+        sb.append('}');
+        return sb.toString();
+    }
+}
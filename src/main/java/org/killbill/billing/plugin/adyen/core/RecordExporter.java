@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.types.UInteger;
+import org.killbill.billing.plugin.adyen.dao.AdditionalDataCodec;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UnitOfWork;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS;
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES;
+
+/**
+ * Streams the adyen_responses or adyen_notifications rows matching a {@link RecordExportRequest} (e.g. for reconciliation).
+ * <p>
+ * Rows are read page by page in record_id order (keyset pagination), each page only once the consumer has read the
+ * previous one: memory use is bounded by the page size, whatever the number of rows exported. Pages are read from the
+ * read replica when configured, and throttled to maxRowsPerSecond, to limit the impact on the payment traffic. Both are
+ * capped by the exporter limits, whatever the request asks for.
+ * <p>
+ * Rows moved to the archive tables by the retention job are exported too. Exports are always scoped to one tenant. Compressed additional_data values (see AdditionalDataCodec) are exported as JSON.
+ */
+public class RecordExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordExporter.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AdyenDao dao;
+    private final int maxPageSize;
+    private final double maxRowsPerSecond;
+
+    /**
+     * @param dao              DAO
+     * @param maxPageSize      maximum number of rows per page
+     * @param maxRowsPerSecond maximum export rate, 0 for unthrottled exports
+     */
+    public RecordExporter(final AdyenDao dao, final int maxPageSize, final double maxRowsPerSecond) {
+        this.dao = dao;
+        this.maxPageSize = maxPageSize;
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    public InputStream exportResponses(final RecordExportRequest request) throws SQLException {
+        Preconditions.checkArgument(request.getKbTenantId() != null, "Exports require a tenant");
+        final long upToRecordId = request.getUpToRecordId() != null ? request.getUpToRecordId() : dao.getLastResponseRecordId(true);
+        logger.info("Starting responses export: request={}, upToRecordId={}", request, upToRecordId);
+
+        return new ExportInputStream<AdyenResponsesRecord>("responses", request, ADYEN_RESPONSES.fields(), ADYEN_RESPONSES.RECORD_ID) {
+            @Override
+            protected List<AdyenResponsesRecord> fetchPage(final long afterRecordId, final int limit) throws SQLException {
+                return dao.getResponses(afterRecordId,
+                                        upToRecordId,
+                                        request.getCreatedAfter(),
+                                        request.getCreatedBefore(),
+                                        request.getMerchantAccountCode(),
+                                        request.getKbTenantId(),
+                                        limit,
+                                        true);
+            }
+        };
+    }
+
+    public InputStream exportNotifications(final RecordExportRequest request) throws SQLException {
+        Preconditions.checkArgument(request.getKbTenantId() != null, "Exports require a tenant");
+        final long upToRecordId = request.getUpToRecordId() != null ? request.getUpToRecordId() : dao.getLastNotificationRecordId(true);
+        logger.info("Starting notifications export: request={}, upToRecordId={}", request, upToRecordId);
+
+        return new ExportInputStream<AdyenNotificationsRecord>("notifications", request, ADYEN_NOTIFICATIONS.fields(), ADYEN_NOTIFICATIONS.RECORD_ID) {
+            @Override
+            protected List<AdyenNotificationsRecord> fetchPage(final long afterRecordId, final int limit) throws SQLException {
+                return dao.getNotifications(afterRecordId,
+                                            upToRecordId,
+                                            request.getCreatedAfter(),
+                                            request.getCreatedBefore(),
+                                            request.getEventCode(),
+                                            request.getMerchantAccountCode(),
+                                            request.getKbTenantId(),
+                                            limit,
+                                            true);
+            }
+        };
+    }
+
+    private abstract class ExportInputStream<R extends Record> extends InputStream {
+
+        private final String name;
+        private final RecordExportRequest request;
+        private final List<Field<?>> fields = new ArrayList<Field<?>>();
+        private final Field<UInteger> recordIdField;
+        private final int pageSize;
+        private final RateLimiter rateLimiter;
+
+        private long checkpoint;
+        private long nbRows = 0;
+        private boolean started = false;
+        private boolean done = false;
+        private byte[] buffer = new byte[0];
+        private int position = 0;
+
+        ExportInputStream(final String name, final RecordExportRequest request, final Field<?>[] fields, final Field<UInteger> recordIdField) {
+            this.name = name;
+            this.request = request;
+            for (final Field<?> field : fields) {
+                // Skip the compact copies of the Kill Bill identifiers
+                if (!UUID.class.equals(field.getType())) {
+                    this.fields.add(field);
+                }
+            }
+            this.recordIdField = recordIdField;
+            this.pageSize = Math.min(request.getPageSize() > 0 ? request.getPageSize() : RecordExportRequest.DEFAULT_PAGE_SIZE, maxPageSize);
+            this.rateLimiter = createRateLimiter(request.getMaxRowsPerSecond());
+            this.checkpoint = request.getAfterRecordId();
+        }
+
+        protected abstract List<R> fetchPage(long afterRecordId, int limit) throws SQLException;
+
+        // The request can only lower the configured rate
+        private RateLimiter createRateLimiter(final double requestedRowsPerSecond) {
+            final double rowsPerSecond;
+            if (maxRowsPerSecond <= 0) {
+                rowsPerSecond = requestedRowsPerSecond;
+            } else if (requestedRowsPerSecond <= 0) {
+                rowsPerSecond = maxRowsPerSecond;
+            } else {
+                rowsPerSecond = Math.min(requestedRowsPerSecond, maxRowsPerSecond);
+            }
+            return rowsPerSecond > 0 ? RateLimiter.create(rowsPerSecond) : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fillBuffer()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fillBuffer()) {
+                return -1;
+            }
+            final int nbBytes = Math.min(length, buffer.length - position);
+            System.arraycopy(buffer, position, bytes, offset, nbBytes);
+            position += nbBytes;
+            return nbBytes;
+        }
+
+        private boolean fillBuffer() throws IOException {
+            while (position >= buffer.length) {
+                if (done) {
+                    return false;
+                }
+                buffer = nextPage().getBytes(Charsets.UTF_8);
+                position = 0;
+            }
+            return true;
+        }
+
+        private String nextPage() throws IOException {
+            final StringBuilder page = new StringBuilder();
+            if (!started && request.getFormat() == RecordExportRequest.Format.CSV) {
+                for (int i = 0; i < fields.size(); i++) {
+                    page.append(i == 0 ? "" : ",").append(fields.get(i).getName());
+                }
+                page.append("\r\n");
+            }
+            started = true;
+
+            final List<R> records;
+            try {
+                records = dao.inReadOnlyUnitOfWork(null,
+                                                   new UnitOfWork<List<R>, SQLException>() {
+                                                       @Override
+                                                       public List<R> execute() throws SQLException {
+                                                           return fetchPage(checkpoint, pageSize);
+                                                       }
+                                                   });
+            } catch (final SQLException e) {
+                logger.warn("Unable to export {}: checkpoint={}, request={}", name, checkpoint, request, e);
+                throw new IOException(e);
+            }
+
+            if (rateLimiter != null && !records.isEmpty()) {
+                rateLimiter.acquire(records.size());
+            }
+            for (final R record : records) {
+                if (request.getFormat() == RecordExportRequest.Format.CSV) {
+                    appendCsv(page, record);
+                } else {
+                    appendJson(page, record);
+                }
+                checkpoint = record.get(recordIdField).longValue();
+            }
+            nbRows += records.size();
+
+            if (records.size() < pageSize) {
+                done = true;
+                logger.info("Finished {} export: rows={}, checkpoint={}", name, nbRows, checkpoint);
+            }
+            return page.toString();
+        }
+
+        private void appendJson(final StringBuilder page, final R record) throws IOException {
+            final Map<String, Object> row = new LinkedHashMap<String, Object>();
+            for (final Field<?> field : fields) {
+                row.put(field.getName(), toExportValue(field, record.get(field)));
+            }
+            page.append(objectMapper.writeValueAsString(row)).append('\n');
+        }
+
+        private void appendCsv(final StringBuilder page, final R record) throws IOException {
+            for (int i = 0; i < fields.size(); i++) {
+                if (i > 0) {
+                    page.append(',');
+                }
+                final Object value = toExportValue(fields.get(i), record.get(fields.get(i)));
+                if (value != null) {
+                    appendCsvValue(page, value.toString());
+                }
+            }
+            page.append("\r\n");
+        }
+    }
+
+    private static Object toExportValue(final Field<?> field, final Object value) throws IOException {
+        if (ADYEN_RESPONSES.ADDITIONAL_DATA.getName().equals(field.getName())) {
+            return AdditionalDataCodec.decode((String) value);
+        } else if (value instanceof Timestamp) {
+            return new DateTime(value, DateTimeZone.UTC).toString();
+        } else if (value instanceof UInteger) {
+            return ((UInteger) value).longValue();
+        } else {
+            return value;
+        }
+    }
+
+    private static void appendCsvValue(final StringBuilder page, final String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            page.append(value);
+        } else {
+            page.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+}
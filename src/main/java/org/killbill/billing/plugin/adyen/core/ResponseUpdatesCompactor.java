@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically folds the adyen_response_updates entries back into their adyen_responses rows
+ * (see AdyenDao#compactResponseUpdates)
+ * <p>
+ * It also runs when the updates log is disabled, to drain the entries written before.
+ */
+public class ResponseUpdatesCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseUpdatesCompactor.class);
+
+    private final AdyenDao dao;
+    private final int batchSize;
+    private final long intervalMillis;
+    private final ScheduledExecutorService executor;
+
+    public ResponseUpdatesCompactor(final AdyenDao dao, final int batchSize, final long intervalMillis) {
+        this.dao = dao;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "adyen-response-updates-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                compact();
+                                            }
+                                        },
+                                        intervalMillis,
+                                        intervalMillis,
+                                        TimeUnit.MILLISECONDS);
+    }
+
+    // Interrupts the current run after its current batch
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    void compact() {
+        // jOOQ reports SQL errors as (unchecked) DataAccessException: catch everything, not to cancel the next runs
+        try {
+            int nbCompacted = 0;
+            int nbBatchCompacted;
+            do {
+                nbBatchCompacted = dao.compactResponseUpdates(batchSize);
+                nbCompacted += nbBatchCompacted;
+            } while (nbBatchCompacted == batchSize && !Thread.currentThread().isInterrupted());
+
+            if (nbCompacted > 0) {
+                logger.info("Compacted the updates of {} responses", nbCompacted);
+            }
+        } catch (final SQLException | RuntimeException e) {
+            logger.warn("Unable to compact the response updates", e);
+        }
+    }
+}
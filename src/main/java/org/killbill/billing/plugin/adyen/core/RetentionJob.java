@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.killbill.billing.plugin.adyen.client.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.RetentionPolicy;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically moves the adyen_responses and adyen_notifications rows older than the tenant retentionPeriod
+ * to the archive tables, in small throttled batches (see AdyenDao#archiveResponses)
+ */
+public class RetentionJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionJob.class);
+
+    // Let the plugin start first
+    private static final long INITIAL_DELAY_MINUTES = 5;
+    private static final long PERIOD_MINUTES = TimeUnit.DAYS.toMinutes(1);
+
+    private final AdyenDao dao;
+    private final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler;
+    private final Clock clock;
+    private final int batchSize;
+    private final long batchDelayMillis;
+    private final ScheduledExecutorService executor;
+
+    public RetentionJob(final AdyenDao dao,
+                        final AdyenConfigPropertiesConfigurationHandler adyenConfigPropertiesConfigurationHandler,
+                        final Clock clock,
+                        final int batchSize,
+                        final long batchDelayMillis) {
+        this.dao = dao;
+        this.adyenConfigPropertiesConfigurationHandler = adyenConfigPropertiesConfigurationHandler;
+        this.clock = clock;
+        this.batchSize = batchSize;
+        this.batchDelayMillis = batchDelayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "adyen-retention");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                archive();
+                                            }
+                                        },
+                                        INITIAL_DELAY_MINUTES,
+                                        PERIOD_MINUTES,
+                                        TimeUnit.MINUTES);
+    }
+
+    // Interrupts the current run after its current batch
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    void archive() {
+        final RetentionPolicy retentionPolicy = newRetentionPolicy();
+        // jOOQ reports SQL errors as (unchecked) DataAccessException: catch everything, not to cancel the next runs
+        try {
+            final int nbResponses = dao.archiveResponses(retentionPolicy, batchSize, batchDelayMillis);
+            final int nbNotifications = dao.archiveNotifications(retentionPolicy, batchSize, batchDelayMillis);
+            logger.info("Archived {} responses and {} notifications", nbResponses, nbNotifications);
+        } catch (final SQLException | RuntimeException e) {
+            logger.warn("Unable to archive expired rows", e);
+        }
+    }
+
+    private RetentionPolicy newRetentionPolicy() {
+        final DateTime utcNow = clock.getUTCNow();
+        return new RetentionPolicy() {
+            @Override
+            public DateTime getArchivingHorizon(@Nullable final String kbTenantId) {
+                final AdyenConfigProperties adyenConfigProperties = adyenConfigPropertiesConfigurationHandler.getConfigurable(kbTenantId == null ? null : UUID.fromString(kbTenantId));
+                final Period retentionPeriod = adyenConfigProperties.getRetentionPeriod();
+                return retentionPeriod == null ? null : utcNow.minus(retentionPeriod);
+            }
+        };
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.plugin.adyen.client.notification.NotificationMetrics;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Write-behind recorder for the adyen_notifications audit rows: rows are buffered in a bounded queue and inserted
+ * by a background thread using JDBC batches, once batchSize rows are available or after flushIntervalMillis.
+ * <p>
+ * When the queue is full, rows are inserted synchronously by the caller. Buffered rows are flushed on shutdown.
+ * <p>
+ * Rows which cannot be inserted (e.g. database outage) are put back in the queue for the next flush. They are only dropped
+ * (and counted in the notification metrics) if the queue is full, or on shutdown.
+ */
+public class WriteBehindNotificationRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindNotificationRecorder.class);
+
+    private static final long POLL_SLICE_MILLIS = 100;
+
+    private final AdyenDao dao;
+    private final NotificationMetrics metrics;
+    private final BlockingQueue<AdyenNotificationsRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Thread flusher;
+
+    private final AtomicLong bufferedRecords = new AtomicLong();
+    private final AtomicLong synchronousRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private volatile boolean running = false;
+
+    public WriteBehindNotificationRecorder(final AdyenDao dao, final NotificationMetrics metrics, final int queueCapacity, final int batchSize, final long flushIntervalMillis) {
+        this.dao = dao;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<AdyenNotificationsRecord>(queueCapacity);
+        this.batchSize = Math.max(batchSize, 1);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        }, "adyen-notification-recorder");
+        this.flusher.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        flusher.start();
+    }
+
+    /**
+     * Stop accepting rows in the background and flush the buffered ones
+     *
+     * @param timeoutMillis maximum time to wait for the background thread to finish
+     */
+    public void shutdown(final long timeoutMillis) throws InterruptedException {
+        // Not interrupted, to avoid aborting an in-flight insert: the flusher flushes its current batch and exits
+        running = false;
+        flusher.join(timeoutMillis);
+
+        // Whatever the background thread didn't get to
+        final List<AdyenNotificationsRecord> remaining = new ArrayList<AdyenNotificationsRecord>();
+        queue.drainTo(remaining);
+        flush(remaining, false);
+    }
+
+    public void record(final AdyenNotificationsRecord record) throws SQLException {
+        if (running && queue.offer(record)) {
+            bufferedRecords.incrementAndGet();
+            return;
+        }
+
+        // Queue full (or shutting down): don't drop the row
+        synchronousRecords.incrementAndGet();
+        dao.addNotifications(ImmutableList.<AdyenNotificationsRecord>of(record));
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getBufferedRecords() {
+        return bufferedRecords.get();
+    }
+
+    public long getSynchronousRecords() {
+        return synchronousRecords.get();
+    }
+
+    /**
+     * @return the number of failed inserts, whether the rows were put back in the queue or dropped
+     */
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    private void runFlusher() {
+        final List<AdyenNotificationsRecord> batch = new ArrayList<AdyenNotificationsRecord>(batchSize);
+        while (running) {
+            try {
+                final AdyenNotificationsRecord first = poll(flushIntervalMillis);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Wait for a full batch, but no longer than the flush interval
+                final long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    final long remainingMillis = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remainingMillis <= 0) {
+                        break;
+                    }
+                    final AdyenNotificationsRecord next = poll(remainingMillis);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (final InterruptedException e) {
+                // Keep what we have, the remaining rows are flushed by shutdown()
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+
+            final boolean flushed = flush(batch, true);
+            batch.clear();
+            if (!flushed) {
+                // Don't retry the rows put back in the queue right away
+                try {
+                    pause(flushIntervalMillis);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+            }
+        }
+    }
+
+    private void pause(final long pauseMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + pauseMillis;
+        long remainingMillis = pauseMillis;
+        while (running && remainingMillis > 0) {
+            Thread.sleep(Math.min(remainingMillis, POLL_SLICE_MILLIS));
+            remainingMillis = deadline - System.currentTimeMillis();
+        }
+    }
+
+    // Wait in slices, for shutdown() not to have to wait for the whole flush interval
+    private AdyenNotificationsRecord poll(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (running) {
+            final long remainingMillis = deadline - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                return null;
+            }
+            final AdyenNotificationsRecord record = queue.poll(Math.min(remainingMillis, POLL_SLICE_MILLIS), TimeUnit.MILLISECONDS);
+            if (record != null) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    // Returns false if some rows couldn't be inserted
+    private boolean flush(final List<AdyenNotificationsRecord> batch, final boolean requeueFailedRecords) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        // jOOQ reports SQL errors as (unchecked) DataAccessException: catch everything, not to kill the flusher thread
+        try {
+            dao.addNotifications(batch);
+            return true;
+        } catch (final SQLException | RuntimeException e) {
+            logger.warn("Unable to insert batch of {} notifications, retrying one by one", batch.size(), e);
+        }
+
+        boolean flushed = true;
+        for (final AdyenNotificationsRecord record : batch) {
+            try {
+                dao.addNotifications(ImmutableList.<AdyenNotificationsRecord>of(record));
+            } catch (final SQLException | RuntimeException e) {
+                flushed = false;
+                failedRecords.incrementAndGet();
+                if (requeueFailedRecords && queue.offer(record)) {
+                    logger.warn("Unable to record notification {}, will retry on the next flush", record, e);
+                } else {
+                    droppedRecords.incrementAndGet();
+                    metrics.recordDroppedAuditRecord();
+                    logger.error("Unable to record notification {}, dropping it", record, e);
+                }
+            }
+        }
+        return flushed;
+    }
+}
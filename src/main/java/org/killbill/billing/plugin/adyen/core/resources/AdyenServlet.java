@@ -17,11 +17,262 @@
 
 package org.killbill.billing.plugin.adyen.core.resources;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.mvc.Body;
+import org.jooby.mvc.GET;
+import org.jooby.mvc.Header;
+import org.jooby.mvc.Local;
+import org.jooby.mvc.POST;
 import org.jooby.mvc.Path;
+import org.killbill.billing.plugin.adyen.client.notification.AdyenNotificationService;
+import org.killbill.billing.plugin.adyen.client.notification.NotificationAdmissionController;
+import org.killbill.billing.plugin.adyen.core.NotificationAuthenticator;
+import org.killbill.billing.plugin.adyen.core.NotificationReplayRequest;
+import org.killbill.billing.plugin.adyen.core.NotificationReplayResult;
+import org.killbill.billing.plugin.adyen.core.NotificationReplayer;
+import org.killbill.billing.plugin.adyen.core.RecordExportRequest;
+import org.killbill.billing.plugin.adyen.core.RecordExporter;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.PaymentMethodsCache;
+import org.killbill.billing.plugin.adyen.dao.ReadReplicaRouter;
+import org.killbill.billing.tenant.api.Tenant;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
 
 @Singleton
 @Path("/")
 public class AdyenServlet {
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+    private static final String NO_CACHE = "private, no-cache, no-store, no-transform, must-revalidate";
+    private static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+    private static final String NOTIFICATIONS_CHALLENGE = "Basic realm=\"killbill-adyen notifications\"";
+
+    // Replays run on the request thread, so each call is capped: callers loop, passing the returned checkpoint as afterRecordId
+    private static final int MAX_REPLAY_ITEMS = 1000;
+    private static final int MAX_REPLAY_PARALLELISM = 8;
+
+    private static final MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+    private static final MediaType CSV = MediaType.valueOf("text/csv");
+
+    private final NotificationReplayer notificationReplayer;
+    private final AdyenNotificationService adyenNotificationService;
+    private final NotificationAuthenticator notificationAuthenticator;
+    private final RecordExporter recordExporter;
+    private final AdyenDao dao;
+
+    @Inject
+    public AdyenServlet(final NotificationReplayer notificationReplayer,
+                        final AdyenNotificationService adyenNotificationService,
+                        final NotificationAuthenticator notificationAuthenticator,
+                        final RecordExporter recordExporter,
+                        final AdyenDao dao) {
+        this.notificationReplayer = notificationReplayer;
+        this.adyenNotificationService = adyenNotificationService;
+        this.notificationAuthenticator = notificationAuthenticator;
+        this.recordExporter = recordExporter;
+        this.dao = dao;
+    }
+
+    /**
+     * Adyen notifications endpoint, to be configured as the notification URL in the Adyen customer area
+     * (e.g. https://killbill.example.com/plugins/killbill-adyen/notifications).
+     * <p>
+     * The body is parsed as raw bytes and the acknowledgement is written as-is, without the round trip through
+     * Kill Bill's processNotification API. No tenant is needed: notifications are matched against the payments
+     * stored by the plugin. Instead, requests must carry the notification credentials (see NotificationAuthenticator).
+     */
+    @POST
+    @Path("/notifications")
+    public Result processNotifications(@Body final byte[] body,
+                                       @Header("Authorization") final Optional<String> authorization) {
+        if (!notificationAuthenticator.isAuthenticated(authorization.orElse(null))) {
+            return Results.with(401).header(WWW_AUTHENTICATE, NOTIFICATIONS_CHALLENGE);
+        }
+
+        final byte[] response = adyenNotificationService.handleNotifications(new ByteArrayInputStream(body));
+        return Results.with(response).type(MediaType.xml);
+    }
+
+    @GET
+    @Path("/notifications/metrics")
+    public Result getNotificationMetrics() {
+        final NotificationAdmissionController admissionController = adyenNotificationService.getAdmissionController();
+        final Map<String, Object> admission = ImmutableMap.<String, Object>builder().put("maxConcurrentBatches", admissionController.getMaxConcurrentBatches())
+                                                                                    .put("maxInFlightItems", admissionController.getMaxInFlightItems())
+                                                                                    .put("inFlightBatches", admissionController.getInFlightBatches())
+                                                                                    .put("inFlightItems", admissionController.getInFlightItems())
+                                                                                    .put("admittedBatches", admissionController.getAdmittedBatches())
+                                                                                    .put("shedBatches", admissionController.getShedBatches())
+                                                                                    .put("shedItems", admissionController.getShedItems())
+                                                                                    .build();
+        final Map<String, Object> metrics = ImmutableMap.<String, Object>builder().putAll(adyenNotificationService.getMetrics().getSnapshot())
+                                                                                  .put("admission", admission)
+                                                                                  .build();
+        return Results.with(metrics)
+                      .header(CACHE_CONTROL, NO_CACHE)
+                      .type(MediaType.json);
+    }
+
+    @GET
+    @Path("/readReplica/metrics")
+    public Result getReadReplicaMetrics() {
+        final ReadReplicaRouter readReplicaRouter = dao.getReadReplicaRouter();
+        if (readReplicaRouter == null) {
+            return Results.with(404);
+        }
+        return Results.with(readReplicaRouter.getSnapshot())
+                      .header(CACHE_CONTROL, NO_CACHE)
+                      .type(MediaType.json);
+    }
+
+    @GET
+    @Path("/paymentMethodsCache/metrics")
+    public Result getPaymentMethodsCacheMetrics() {
+        final PaymentMethodsCache paymentMethodsCache = dao.getPaymentMethodsCache();
+        if (paymentMethodsCache == null) {
+            return Results.with(404);
+        }
+        return Results.with(paymentMethodsCache.getSnapshot())
+                      .header(CACHE_CONTROL, NO_CACHE)
+                      .type(MediaType.json);
+    }
+
+    @POST
+    @Path("/notifications/replay")
+    public Result replayNotifications(@Named("afterRecordId") final Optional<Long> afterRecordId,
+                                      @Named("upToRecordId") final Optional<Long> upToRecordId,
+                                      @Named("createdAfter") final Optional<String> createdAfter,
+                                      @Named("createdBefore") final Optional<String> createdBefore,
+                                      @Named("eventCode") final Optional<String> eventCode,
+                                      @Named("merchantAccountCode") final Optional<String> merchantAccountCode,
+                                      @Named("maxItems") final Optional<Integer> maxItems,
+                                      @Named("pageSize") final Optional<Integer> pageSize,
+                                      @Named("parallelism") final Optional<Integer> parallelism,
+                                      @Named("maxItemsPerSecond") final Optional<Double> maxItemsPerSecond,
+                                      @Named("dryRun") final Optional<Boolean> dryRun,
+                                      @Local @Named("killbill_tenant") final Optional<Tenant> tenant) throws SQLException {
+        // Never replay across tenants
+        if (!tenant.isPresent()) {
+            return Results.with(401);
+        }
+
+        final NotificationReplayRequest request = new NotificationReplayRequest();
+        request.setAfterRecordId(afterRecordId.orElse(0L));
+        request.setUpToRecordId(upToRecordId.orElse(null));
+        request.setCreatedAfter(createdAfter.map(AdyenServlet::toDateTime).orElse(null));
+        request.setCreatedBefore(createdBefore.map(AdyenServlet::toDateTime).orElse(null));
+        request.setEventCode(eventCode.orElse(null));
+        request.setMerchantAccountCode(merchantAccountCode.orElse(null));
+        request.setKbTenantId(tenant.get().getId());
+        request.setMaxItems(maxItems.filter(n -> n > 0 && n < MAX_REPLAY_ITEMS).orElse(MAX_REPLAY_ITEMS));
+        request.setPageSize(Math.min(pageSize.orElse(NotificationReplayRequest.DEFAULT_PAGE_SIZE), MAX_REPLAY_ITEMS));
+        request.setParallelism(Math.max(1, Math.min(parallelism.orElse(1), MAX_REPLAY_PARALLELISM)));
+        request.setMaxItemsPerSecond(maxItemsPerSecond.orElse(0.0));
+        request.setDryRun(dryRun.orElse(false));
+
+        final NotificationReplayResult result = notificationReplayer.replay(request);
+        return Results.with(result).type(MediaType.json);
+    }
+
+    @GET
+    @Path("/export/responses")
+    public Result exportResponses(@Named("afterRecordId") final Optional<Long> afterRecordId,
+                                  @Named("upToRecordId") final Optional<Long> upToRecordId,
+                                  @Named("createdAfter") final Optional<String> createdAfter,
+                                  @Named("createdBefore") final Optional<String> createdBefore,
+                                  @Named("merchantAccountCode") final Optional<String> merchantAccountCode,
+                                  @Named("format") final Optional<String> format,
+                                  @Named("pageSize") final Optional<Integer> pageSize,
+                                  @Named("maxRowsPerSecond") final Optional<Double> maxRowsPerSecond,
+                                  @Local @Named("killbill_tenant") final Optional<Tenant> tenant) throws SQLException {
+        // Never export across tenants
+        if (!tenant.isPresent()) {
+            return Results.with(401);
+        }
+
+        final RecordExportRequest request;
+        try {
+            request = toRecordExportRequest(afterRecordId, upToRecordId, createdAfter, createdBefore, Optional.empty(), merchantAccountCode, format, pageSize, maxRowsPerSecond, tenant.get());
+        } catch (final IllegalArgumentException e) {
+            // Unknown format or malformed date
+            return Results.with(400);
+        }
+        return toExportResult(recordExporter.exportResponses(request), request);
+    }
+
+    @GET
+    @Path("/export/notifications")
+    public Result exportNotifications(@Named("afterRecordId") final Optional<Long> afterRecordId,
+                                      @Named("upToRecordId") final Optional<Long> upToRecordId,
+                                      @Named("createdAfter") final Optional<String> createdAfter,
+                                      @Named("createdBefore") final Optional<String> createdBefore,
+                                      @Named("eventCode") final Optional<String> eventCode,
+                                      @Named("merchantAccountCode") final Optional<String> merchantAccountCode,
+                                      @Named("format") final Optional<String> format,
+                                      @Named("pageSize") final Optional<Integer> pageSize,
+                                      @Named("maxRowsPerSecond") final Optional<Double> maxRowsPerSecond,
+                                      @Local @Named("killbill_tenant") final Optional<Tenant> tenant) throws SQLException {
+        // Never export across tenants
+        if (!tenant.isPresent()) {
+            return Results.with(401);
+        }
+
+        final RecordExportRequest request;
+        try {
+            request = toRecordExportRequest(afterRecordId, upToRecordId, createdAfter, createdBefore, eventCode, merchantAccountCode, format, pageSize, maxRowsPerSecond, tenant.get());
+        } catch (final IllegalArgumentException e) {
+            // Unknown format or malformed date
+            return Results.with(400);
+        }
+        return toExportResult(recordExporter.exportNotifications(request), request);
+    }
+
+    private static RecordExportRequest toRecordExportRequest(final Optional<Long> afterRecordId,
+                                                             final Optional<Long> upToRecordId,
+                                                             final Optional<String> createdAfter,
+                                                             final Optional<String> createdBefore,
+                                                             final Optional<String> eventCode,
+                                                             final Optional<String> merchantAccountCode,
+                                                             final Optional<String> format,
+                                                             final Optional<Integer> pageSize,
+                                                             final Optional<Double> maxRowsPerSecond,
+                                                             final Tenant tenant) {
+        final RecordExportRequest request = new RecordExportRequest();
+        request.setAfterRecordId(afterRecordId.orElse(0L));
+        request.setUpToRecordId(upToRecordId.orElse(null));
+        request.setCreatedAfter(createdAfter.map(AdyenServlet::toDateTime).orElse(null));
+        request.setCreatedBefore(createdBefore.map(AdyenServlet::toDateTime).orElse(null));
+        request.setEventCode(eventCode.orElse(null));
+        request.setMerchantAccountCode(merchantAccountCode.orElse(null));
+        request.setKbTenantId(tenant.getId());
+        request.setFormat(format.map(f -> RecordExportRequest.Format.valueOf(f.toUpperCase())).orElse(RecordExportRequest.Format.NDJSON));
+        request.setPageSize(pageSize.orElse(RecordExportRequest.DEFAULT_PAGE_SIZE));
+        request.setMaxRowsPerSecond(maxRowsPerSecond.orElse(RecordExportRequest.DEFAULT_MAX_ROWS_PER_SECOND));
+        return request;
+    }
+
+    private static Result toExportResult(final InputStream export, final RecordExportRequest request) {
+        return Results.with(export)
+                      .header(CACHE_CONTROL, NO_CACHE)
+                      .type(request.getFormat() == RecordExportRequest.Format.CSV ? CSV : NDJSON);
+    }
+
+    private static DateTime toDateTime(final String dateTime) {
+        return new DateTime(dateTime, DateTimeZone.UTC);
+    }
 }
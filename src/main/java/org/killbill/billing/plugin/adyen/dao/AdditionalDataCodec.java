@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Optional compressed format of the additional_data columns: a version prefix followed by the Base64 encoded,
+ * Deflate compressed JSON. Values without the prefix (JSON always starts with '{') are returned as is, so plain and
+ * compressed rows can coexist in the same table.
+ */
+public abstract class AdditionalDataCodec {
+
+    static final String DEFLATE_V1_PREFIX = "z1:";
+
+    // Below that, the Base64 overhead outweighs the compression gain
+    static final int MIN_COMPRESSED_LENGTH = 512;
+
+    private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+    /**
+     * @param json JSON value
+     * @return the compressed value, or the JSON itself if compressing doesn't make it any smaller
+     */
+    public static String encode(@Nullable final String json) {
+        if (json == null || json.length() < MIN_COMPRESSED_LENGTH) {
+            return json;
+        }
+
+        final byte[] input = json.getBytes(StandardCharsets.UTF_8);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            final String encoded = DEFLATE_V1_PREFIX + BASE64.encode(output.toByteArray());
+            return encoded.length() < json.length() ? encoded : json;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param value value read from the database
+     * @return the JSON value
+     * @throws IOException if the value is corrupted or written in an unknown format
+     */
+    public static String decode(@Nullable final String value) throws IOException {
+        if (value == null || !value.startsWith(DEFLATE_V1_PREFIX)) {
+            return value;
+        }
+
+        final byte[] input;
+        try {
+            input = BASE64.decode(value.substring(DEFLATE_V1_PREFIX.length()));
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Invalid compressed additional_data", e);
+        }
+
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+            final byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed additional_data");
+                }
+                output.write(buffer, 0, length);
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } catch (final DataFormatException e) {
+            throw new IOException("Invalid compressed additional_data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -20,19 +20,42 @@ package org.killbill.billing.plugin.adyen.dao;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Record3;
+import org.jooq.Record4;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.TableField;
 import org.jooq.UpdateSetMoreStep;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
+import org.jooq.types.UInteger;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionType;
@@ -41,19 +64,31 @@ import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
 import org.killbill.billing.plugin.adyen.client.model.PaymentModificationResponse;
 import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
 import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponseUpdatesRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
 import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.dao.payment.PluginPaymentDao;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -63,22 +98,302 @@ import static org.killbill.billing.plugin.adyen.client.model.PurchaseResult.ADYE
 import static org.killbill.billing.plugin.adyen.client.model.PurchaseResult.EXCEPTION_CLASS;
 import static org.killbill.billing.plugin.adyen.client.model.PurchaseResult.EXCEPTION_MESSAGE;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS;
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES;
 
 public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenResponses, AdyenPaymentMethodsRecord, AdyenPaymentMethods> {
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Pre-built, to avoid resolving the type and looking up the (de)serializers on every call
+    private static final ObjectReader additionalDataReader = objectMapper.readerFor(Map.class);
+    private static final ObjectWriter additionalDataWriter = objectMapper.writerFor(Map.class);
     private static final Joiner JOINER = Joiner.on(",");
+    private static final Splitter SPLITTER = Splitter.on(",");
+
+    // Same definition as the live tables (see V20181112120000__add_archive_tables.sql)
+    private static final AdyenResponses ADYEN_RESPONSES_ARCHIVE = ADYEN_RESPONSES.rename("adyen_responses_archive");
+    private static final AdyenNotifications ADYEN_NOTIFICATIONS_ARCHIVE = ADYEN_NOTIFICATIONS.rename("adyen_notifications_archive");
+    // MySQL generated column, not part of the generated table since it cannot be written (see V20181119120000__add_additional_data_indexes.sql)
+    private static final Field<String> ADDITIONAL_DATA_MERCHANT_REFERENCE = DSL.field(DSL.name("additional_data_merchant_reference"), String.class);
+    // Each conflict means another writer succeeded: only a sustained burst on the same row can exhaust the attempts
+    private static final int MAX_UPDATE_RESPONSE_ATTEMPTS = 10;
+    // Returned by an updateResponse attempt which lost the race against another writer
+    private static final AdyenResponsesRecord CONCURRENTLY_MODIFIED = new AdyenResponsesRecord();
+
+    private final UnitOfWorkDataSource unitOfWorkDataSource;
+    private final UUIDStorage uuidStorage;
+    private final boolean compressAdditionalData;
+    private final ReadReplicaRouter readReplicaRouter;
+    private final boolean logResponseUpdates;
+    private final PaymentMethodsCache paymentMethodsCache;
+
+    private final AtomicLong updateResponseConflicts = new AtomicLong();
+
+    private volatile Boolean hasMerchantReferenceColumn;
 
     public AdyenDao(final DataSource dataSource) throws SQLException {
-        super(AdyenResponses.ADYEN_RESPONSES, AdyenPaymentMethods.ADYEN_PAYMENT_METHODS, dataSource);
+        this(dataSource, UUIDStorage.CHAR);
+    }
+
+    public AdyenDao(final DataSource dataSource, final UUIDStorage uuidStorage) throws SQLException {
+        this(dataSource, uuidStorage, false);
+    }
+
+    /**
+     * @param dataSource             plugin data source
+     * @param uuidStorage            storage of the Kill Bill identifiers used to look up responses
+     * @param compressAdditionalData whether to write large additional_data values compressed (see AdditionalDataCodec),
+     *                               both formats are always readable
+     * @throws SQLException if the database dialect cannot be determined
+     */
+    public AdyenDao(final DataSource dataSource, final UUIDStorage uuidStorage, final boolean compressAdditionalData) throws SQLException {
+        this(dataSource, uuidStorage, compressAdditionalData, null);
+    }
+
+    /**
+     * @param dataSource             plugin data source
+     * @param uuidStorage            storage of the Kill Bill identifiers used to look up responses
+     * @param compressAdditionalData whether to write large additional_data values compressed (see AdditionalDataCodec)
+     * @param readReplicaRouter      routing of the read-only units of work to a read replica (null to always read from the primary)
+     * @throws SQLException if the database dialect cannot be determined
+     */
+    public AdyenDao(final DataSource dataSource, final UUIDStorage uuidStorage, final boolean compressAdditionalData, @Nullable final ReadReplicaRouter readReplicaRouter) throws SQLException {
+        this(dataSource, uuidStorage, compressAdditionalData, readReplicaRouter, false);
+    }
+
+    /**
+     * @param dataSource             plugin data source
+     * @param uuidStorage            storage of the Kill Bill identifiers used to look up responses
+     * @param compressAdditionalData whether to write large additional_data values compressed (see AdditionalDataCodec)
+     * @param readReplicaRouter      routing of the read-only units of work to a read replica (null to always read from the primary)
+     * @param logResponseUpdates     whether updateResponse appends the additional_data changes to adyen_response_updates,
+     *                               instead of rewriting the whole additional_data (see #compactResponseUpdates)
+     * @throws SQLException if the database dialect cannot be determined
+     */
+    public AdyenDao(final DataSource dataSource,
+                    final UUIDStorage uuidStorage,
+                    final boolean compressAdditionalData,
+                    @Nullable final ReadReplicaRouter readReplicaRouter,
+                    final boolean logResponseUpdates) throws SQLException {
+        this(dataSource, uuidStorage, compressAdditionalData, readReplicaRouter, logResponseUpdates, null);
+    }
+
+    /**
+     * @param dataSource             plugin data source
+     * @param uuidStorage            storage of the Kill Bill identifiers used to look up responses
+     * @param compressAdditionalData whether to write large additional_data values compressed (see AdditionalDataCodec)
+     * @param readReplicaRouter      routing of the read-only units of work to a read replica (null to always read from the primary)
+     * @param logResponseUpdates     whether updateResponse appends the additional_data changes to adyen_response_updates,
+     *                               instead of rewriting the whole additional_data (see #compactResponseUpdates)
+     * @param paymentMethodsCache    near cache used by #getCachedPaymentMethod (null to always read from the database)
+     * @throws SQLException if the database dialect cannot be determined
+     */
+    public AdyenDao(final DataSource dataSource,
+                    final UUIDStorage uuidStorage,
+                    final boolean compressAdditionalData,
+                    @Nullable final ReadReplicaRouter readReplicaRouter,
+                    final boolean logResponseUpdates,
+                    @Nullable final PaymentMethodsCache paymentMethodsCache) throws SQLException {
+        super(AdyenResponses.ADYEN_RESPONSES, AdyenPaymentMethods.ADYEN_PAYMENT_METHODS, new UnitOfWorkDataSource(dataSource));
+        this.unitOfWorkDataSource = (UnitOfWorkDataSource) this.dataSource;
+        this.uuidStorage = uuidStorage;
+        this.compressAdditionalData = compressAdditionalData;
+        this.readReplicaRouter = readReplicaRouter;
+        this.logResponseUpdates = logResponseUpdates;
+        this.paymentMethodsCache = paymentMethodsCache;
+    }
+
+    /**
+     * Storage of the Kill Bill identifiers used to look up responses (see V20181105120000__add_adyen_responses_binary_uuids.sql)
+     * <p>
+     * The migration to the compact columns is done online: enable DUAL_WRITE, wait for the backfill to complete
+     * (see #backfillBinaryUUIDs), then switch to BINARY.
+     */
+    public enum UUIDStorage {
+        // char(36) columns only
+        CHAR,
+        // char(36) and compact columns are written, lookups go to the char(36) columns
+        DUAL_WRITE,
+        // char(36) and compact columns are written, lookups go to the compact columns
+        BINARY
+    }
+
+    // Unit of work
+
+    public interface UnitOfWork<T, E extends Exception> {
+
+        T execute() throws E;
+    }
+
+    /**
+     * Run all DAO calls made by the unit of work (on this thread) on a single connection, instead of borrowing one from the pool per query
+     * <p>
+     * Nested calls join the outer unit of work. A nested transactional call joins the outer transaction if there is one, otherwise
+     * it runs its own transaction on the bound connection. Avoid calls to Adyen or Kill Bill from within a unit of work, as the
+     * connection would be held for their duration.
+     *
+     * @param transactional whether to run all queries in a single transaction (rolled back if the unit of work throws)
+     * @param unitOfWork    work to perform
+     * @return the result of the unit of work
+     * @throws SQLException if the connection cannot be obtained, or the transaction cannot be committed
+     * @throws E            if the unit of work fails
+     */
+    public <T, E extends Exception> T inUnitOfWork(final boolean transactional, final UnitOfWork<T, E> unitOfWork) throws SQLException, E {
+        if (unitOfWorkDataSource.isBound()) {
+            final Connection boundConnection = unitOfWorkDataSource.getConnection();
+            if (!transactional || !boundConnection.getAutoCommit()) {
+                return unitOfWork.execute();
+            }
+            // The outer unit of work isn't transactional
+            return executeInTransaction(boundConnection, unitOfWork);
+        }
+
+        final Connection connection = unitOfWorkDataSource.bind();
+        try {
+            if (!transactional) {
+                return unitOfWork.execute();
+            }
+            return executeInTransaction(connection, unitOfWork);
+        } finally {
+            unitOfWorkDataSource.unbind();
+            connection.close();
+        }
+    }
+
+    private <T, E extends Exception> T executeInTransaction(final Connection connection, final UnitOfWork<T, E> unitOfWork) throws SQLException, E {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final T result = unitOfWork.execute();
+            connection.commit();
+            return result;
+        } catch (final Throwable t) {
+            // Including errors: restoring the auto-commit mode would commit the partial transaction
+            connection.rollback();
+            throw t;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Run DAO calls which only read on the read replica, unless the router keeps them on the primary (see ReadReplicaRouter)
+     * <p>
+     * If the replica fails, the unit of work is run again on the primary. Each read borrows its own replica connection (the
+     * connection isn't bound like in #inUnitOfWork). Within a unit of work, reads stay on its primary connection.
+     *
+     * @param routingKey payment or account read, for the read-your-writes guard (null if none)
+     * @param unitOfWork read-only work to perform
+     * @return the result of the unit of work
+     * @throws SQLException For any unexpected SQL error on the primary
+     * @throws E            if the unit of work fails
+     */
+    public <T, E extends Exception> T inReadOnlyUnitOfWork(@Nullable final UUID routingKey, final UnitOfWork<T, E> unitOfWork) throws SQLException, E {
+        if (readReplicaRouter == null || unitOfWorkDataSource.isBound() || unitOfWorkDataSource.isReadBound()) {
+            return unitOfWork.execute();
+        }
+
+        final long startNanos = System.nanoTime();
+        final ReadReplicaRouter.Route route = readReplicaRouter.route(routingKey);
+        if (route != ReadReplicaRouter.Route.REPLICA) {
+            final T result = unitOfWork.execute();
+            readReplicaRouter.recordRead(route, startNanos);
+            return result;
+        }
+
+        unitOfWorkDataSource.bindRead(readReplicaRouter.getReplica());
+        try {
+            final T result = unitOfWork.execute();
+            readReplicaRouter.recordRead(route, startNanos);
+            return result;
+        } catch (final Exception e) {
+            // Only SQL errors (possibly wrapped, e.g. in a PaymentPluginApiException) are specific to the replica
+            if (!isSQLError(e)) {
+                throw e;
+            }
+            readReplicaRouter.recordReplicaError(e);
+        } finally {
+            unitOfWorkDataSource.unbindRead();
+        }
+
+        final T result = unitOfWork.execute();
+        readReplicaRouter.recordRead(ReadReplicaRouter.Route.PRIMARY_FALLBACK, startNanos);
+        return result;
+    }
+
+    private static boolean isSQLError(final Throwable t) {
+        for (final Throwable cause : Throwables.getCausalChain(t)) {
+            if (cause instanceof SQLException || cause instanceof DataAccessException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    public ReadReplicaRouter getReadReplicaRouter() {
+        return readReplicaRouter;
+    }
+
+    private void recordWrite(@Nullable final UUID routingKey) {
+        if (readReplicaRouter != null && routingKey != null) {
+            readReplicaRouter.recordWrite(routingKey);
+        }
     }
 
     // Payment methods
 
+    @Override
+    public void addPaymentMethod(final UUID kbAccountId,
+                                 final UUID kbPaymentMethodId,
+                                 final boolean isDefault,
+                                 final Map<String, String> properties,
+                                 final DateTime utcNow,
+                                 final UUID kbTenantId) throws SQLException {
+        final String customerId = getPromotedValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID, properties);
+        final String recurringType = getPromotedValue(AdyenPaymentPluginApi.PROPERTY_RECURRING_TYPE, properties);
+
+        recordWrite(kbAccountId);
+        inUnitOfWork(true,
+                     new UnitOfWork<Void, SQLException>() {
+                         @Override
+                         public Void execute() throws SQLException {
+                             AdyenDao.super.addPaymentMethod(kbAccountId, kbPaymentMethodId, isDefault, properties, utcNow, kbTenantId);
+                             if (customerId == null && recurringType == null) {
+                                 return null;
+                             }
+
+                             // The generic insert doesn't know about our promoted columns
+                             updatePromotedColumns(kbPaymentMethodId, customerId, recurringType, utcNow, kbTenantId);
+                             return null;
+                         }
+                     });
+        invalidatePaymentMethod(kbPaymentMethodId.toString(), kbTenantId.toString());
+    }
+
+    private void updatePromotedColumns(final UUID kbPaymentMethodId, @Nullable final String customerId, @Nullable final String recurringType, final DateTime utcNow, final UUID kbTenantId) throws SQLException {
+        execute(dataSource.getConnection(),
+                new WithConnectionCallback<Void>() {
+                    @Override
+                    public Void withConnection(final Connection conn) throws SQLException {
+                        DSL.using(conn, dialect, settings)
+                           .update(ADYEN_PAYMENT_METHODS)
+                           .set(ADYEN_PAYMENT_METHODS.CUSTOMER_ID, customerId)
+                           .set(ADYEN_PAYMENT_METHODS.RECURRING_TYPE, recurringType)
+                           .set(ADYEN_PAYMENT_METHODS.UPDATED_DATE, toTimestamp(utcNow))
+                           .where(ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
+                           .and(ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+                           .execute();
+                        return null;
+                    }
+                });
+    }
+
     public void setPaymentMethodToken(final String kbPaymentMethodId, final String token, final String kbTenantId) throws SQLException {
+        recordPaymentMethodWrite(kbPaymentMethodId, kbTenantId);
         execute(dataSource.getConnection(),
                 new WithConnectionCallback<AdyenResponsesRecord>() {
                     @Override
@@ -86,6 +401,8 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                         DSL.using(conn, dialect, settings)
                            .update(ADYEN_PAYMENT_METHODS)
                            .set(ADYEN_PAYMENT_METHODS.TOKEN, token)
+                           // Polled by the other nodes, to invalidate their cached copy
+                           .set(ADYEN_PAYMENT_METHODS.UPDATED_DATE, toTimestamp(new DateTime(DateTimeZone.UTC)))
                            .where(ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId))
                            .and(ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId))
                            .and(ADYEN_PAYMENT_METHODS.IS_DELETED.equal(FALSE))
@@ -93,6 +410,107 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                         return null;
                     }
                 });
+        invalidatePaymentMethod(kbPaymentMethodId, kbTenantId);
+    }
+
+    @Override
+    public void deletePaymentMethod(final UUID kbPaymentMethodId, final DateTime utcNow, final UUID kbTenantId) throws SQLException {
+        recordPaymentMethodWrite(kbPaymentMethodId.toString(), kbTenantId.toString());
+        super.deletePaymentMethod(kbPaymentMethodId, utcNow, kbTenantId);
+        invalidatePaymentMethod(kbPaymentMethodId.toString(), kbTenantId.toString());
+    }
+
+    @Override
+    public void setDefaultPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final DateTime utcNow, final UUID kbTenantId) throws SQLException {
+        recordWrite(kbAccountId);
+        super.setDefaultPaymentMethod(kbAccountId, kbPaymentMethodId, utcNow, kbTenantId);
+        if (paymentMethodsCache != null) {
+            paymentMethodsCache.invalidateAccount(kbAccountId.toString(), kbTenantId.toString());
+        }
+    }
+
+    /**
+     * Same as #getPaymentMethod, but served from the near cache when configured: the row may be up to the cache TTL
+     * (or poll interval) stale if it was modified by another node. Use it on the payment path only.
+     *
+     * @param kbPaymentMethodId Kill Bill payment method id
+     * @param kbTenantId        Kill Bill tenant id
+     * @return the payment method, null if it doesn't exist or was deleted
+     * @throws SQLException For any unexpected SQL error
+     */
+    public AdyenPaymentMethodsRecord getCachedPaymentMethod(final UUID kbPaymentMethodId, final UUID kbTenantId) throws SQLException {
+        if (paymentMethodsCache == null) {
+            return getPaymentMethod(kbPaymentMethodId, kbTenantId);
+        }
+
+        final AdyenPaymentMethodsRecord cached = paymentMethodsCache.get(kbPaymentMethodId.toString(), kbTenantId.toString());
+        if (cached != null) {
+            return cached;
+        }
+        final long generation = paymentMethodsCache.getGeneration(kbPaymentMethodId.toString());
+        final AdyenPaymentMethodsRecord paymentMethod = getPaymentMethod(kbPaymentMethodId, kbTenantId);
+        if (paymentMethod != null) {
+            paymentMethodsCache.put(paymentMethod, generation);
+        }
+        return paymentMethod;
+    }
+
+    /**
+     * @param updatedAfter lower bound (exclusive) of the updated_date
+     * @return the payment methods (kb_payment_method_id, kb_account_id, kb_tenant_id and updated_date only) modified since then, including deleted ones
+     * @throws SQLException For any unexpected SQL error
+     */
+    public List<AdyenPaymentMethodsRecord> getPaymentMethodsUpdatedAfter(final DateTime updatedAfter) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<List<AdyenPaymentMethodsRecord>>() {
+                           @Override
+                           public List<AdyenPaymentMethodsRecord> withConnection(final Connection conn) throws SQLException {
+                               return DSL.using(conn, dialect, settings)
+                                         .select(ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID,
+                                                 ADYEN_PAYMENT_METHODS.KB_ACCOUNT_ID,
+                                                 ADYEN_PAYMENT_METHODS.KB_TENANT_ID,
+                                                 ADYEN_PAYMENT_METHODS.UPDATED_DATE)
+                                         .from(ADYEN_PAYMENT_METHODS)
+                                         .where(ADYEN_PAYMENT_METHODS.UPDATED_DATE.greaterThan(toTimestamp(updatedAfter)))
+                                         .fetchInto(ADYEN_PAYMENT_METHODS);
+                           }
+                       });
+    }
+
+    @Nullable
+    public PaymentMethodsCache getPaymentMethodsCache() {
+        return paymentMethodsCache;
+    }
+
+    // After the write: a concurrent load of the previous version is either not cached, or evicted
+    private void invalidatePaymentMethod(final String kbPaymentMethodId, final String kbTenantId) {
+        if (paymentMethodsCache != null) {
+            paymentMethodsCache.invalidate(kbPaymentMethodId, kbTenantId);
+        }
+    }
+
+    // Payment method reads are routed by account
+    private void recordPaymentMethodWrite(final String kbPaymentMethodId, final String kbTenantId) throws SQLException {
+        if (readReplicaRouter == null) {
+            return;
+        }
+
+        final String kbAccountId = execute(dataSource.getConnection(),
+                                           new WithConnectionCallback<String>() {
+                                               @Override
+                                               public String withConnection(final Connection conn) throws SQLException {
+                                                   return DSL.using(conn, dialect, settings)
+                                                             .select(ADYEN_PAYMENT_METHODS.KB_ACCOUNT_ID)
+                                                             .from(ADYEN_PAYMENT_METHODS)
+                                                             .where(ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId))
+                                                             .and(ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId))
+                                                             .limit(1)
+                                                             .fetchOne(ADYEN_PAYMENT_METHODS.KB_ACCOUNT_ID);
+                                               }
+                                           });
+        if (kbAccountId != null) {
+            recordWrite(UUID.fromString(kbAccountId));
+        }
     }
 
     // HPP requests
@@ -105,7 +523,9 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                               final DateTime utcNow,
                               final UUID kbTenantId) throws SQLException {
         final String additionalData = asString(additionalDataMap);
+        final String brandCode = getPromotedValue(AdyenPaymentPluginApi.PROPERTY_BRAND_CODE, additionalDataMap);
 
+        recordWrite(kbPaymentId);
         execute(dataSource.getConnection(),
                 new WithConnectionCallback<Void>() {
                     @Override
@@ -118,14 +538,16 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                                        ADYEN_HPP_REQUESTS.TRANSACTION_EXTERNAL_KEY,
                                        ADYEN_HPP_REQUESTS.ADDITIONAL_DATA,
                                        ADYEN_HPP_REQUESTS.CREATED_DATE,
-                                       ADYEN_HPP_REQUESTS.KB_TENANT_ID)
+                                       ADYEN_HPP_REQUESTS.KB_TENANT_ID,
+                                       ADYEN_HPP_REQUESTS.BRAND_CODE)
                            .values(kbAccountId.toString(),
                                    kbPaymentId != null ? kbPaymentId.toString() : null,
                                    kbPaymentTransactionId != null ? kbPaymentTransactionId.toString() : null,
                                    transactionExternalKey,
                                    additionalData,
                                    toTimestamp(utcNow),
-                                   kbTenantId.toString())
+                                   kbTenantId.toString(),
+                                   brandCode)
                            .execute();
                         return null;
                     }
@@ -162,6 +584,39 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                        });
     }
 
+    /**
+     * Bulk version of getHppRequest(UUID)
+     *
+     * @param kbPaymentTransactionIds Kill Bill payment transaction ids
+     * @return the latest HPP request for each payment transaction id which has one
+     * @throws SQLException For any unexpected SQL error
+     */
+    public Map<String, AdyenHppRequestsRecord> getHppRequests(final Collection<UUID> kbPaymentTransactionIds) throws SQLException {
+        if (kbPaymentTransactionIds.isEmpty()) {
+            return ImmutableMap.<String, AdyenHppRequestsRecord>of();
+        }
+
+        final Collection<String> kbPaymentTransactionIdStrings = Collections2.transform(kbPaymentTransactionIds, Functions.toStringFunction());
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Map<String, AdyenHppRequestsRecord>>() {
+                           @Override
+                           public Map<String, AdyenHppRequestsRecord> withConnection(final Connection conn) throws SQLException {
+                               final List<AdyenHppRequestsRecord> hppRequests = DSL.using(conn, dialect, settings)
+                                                                                   .selectFrom(ADYEN_HPP_REQUESTS)
+                                                                                   .where(ADYEN_HPP_REQUESTS.KB_PAYMENT_TRANSACTION_ID.in(kbPaymentTransactionIdStrings))
+                                                                                   .orderBy(ADYEN_HPP_REQUESTS.RECORD_ID.asc())
+                                                                                   .fetch();
+
+                               final Map<String, AdyenHppRequestsRecord> latestHppRequests = new HashMap<String, AdyenHppRequestsRecord>();
+                               for (final AdyenHppRequestsRecord hppRequest : hppRequests) {
+                                   // Sorted by record_id: the latest one wins
+                                   latestHppRequests.put(hppRequest.getKbPaymentTransactionId(), hppRequest);
+                               }
+                               return latestHppRequests;
+                           }
+                       });
+    }
+
     // Responses
 
     public AdyenResponsesRecord addResponse(final UUID kbAccountId,
@@ -174,71 +629,51 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                                             final DateTime utcNow,
                                             final UUID kbTenantId) throws SQLException {
         final String dccAmountValue = getProperty(AdyenPaymentPluginApi.PROPERTY_DCC_AMOUNT_VALUE, result);
-        final String additionalData = getAdditionalData(result);
+        final Map<String, String> additionalDataMap = getAdditionalDataMap(result);
+        final String additionalData = additionalDataMap.isEmpty() ? null : asString(additionalDataMap);
 
+        recordWrite(kbPaymentId);
         return execute(dataSource.getConnection(),
                        new WithConnectionCallback<AdyenResponsesRecord>() {
                            @Override
                            public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-                               DSL.using(conn, dialect, settings)
-                                  .insertInto(ADYEN_RESPONSES,
-                                              ADYEN_RESPONSES.KB_ACCOUNT_ID,
-                                              ADYEN_RESPONSES.KB_PAYMENT_ID,
-                                              ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
-                                              ADYEN_RESPONSES.TRANSACTION_TYPE,
-                                              ADYEN_RESPONSES.AMOUNT,
-                                              ADYEN_RESPONSES.CURRENCY,
-                                              ADYEN_RESPONSES.PSP_RESULT,
-                                              ADYEN_RESPONSES.PSP_REFERENCE,
-                                              ADYEN_RESPONSES.AUTH_CODE,
-                                              ADYEN_RESPONSES.RESULT_CODE,
-                                              ADYEN_RESPONSES.REFUSAL_REASON,
-                                              ADYEN_RESPONSES.REFERENCE,
-                                              ADYEN_RESPONSES.PSP_ERROR_CODES,
-                                              ADYEN_RESPONSES.PAYMENT_INTERNAL_REF,
-                                              ADYEN_RESPONSES.FORM_URL,
-                                              ADYEN_RESPONSES.DCC_AMOUNT,
-                                              ADYEN_RESPONSES.DCC_CURRENCY,
-                                              ADYEN_RESPONSES.DCC_SIGNATURE,
-                                              ADYEN_RESPONSES.ISSUER_URL,
-                                              ADYEN_RESPONSES.MD,
-                                              ADYEN_RESPONSES.PA_REQUEST,
-                                              ADYEN_RESPONSES.ADDITIONAL_DATA,
-                                              ADYEN_RESPONSES.CREATED_DATE,
-                                              ADYEN_RESPONSES.KB_TENANT_ID)
-                                  .values(kbAccountId.toString(),
-                                          kbPaymentId.toString(),
-                                          kbPaymentTransactionId.toString(),
-                                          transactionType.toString(),
-                                          amount,
-                                          currency,
-                                          result.getResult().isPresent() ? result.getResult().get().toString() : null,
-                                          result.getPspReference(),
-                                          result.getAuthCode(),
-                                          result.getResultCode(),
-                                          result.getReason(),
-                                          result.getReference(),
-                                          null,
-                                          result.getPaymentTransactionExternalKey(),
-                                          result.getFormUrl(),
-                                          dccAmountValue == null ? null : new BigDecimal(dccAmountValue),
-                                          getProperty(AdyenPaymentPluginApi.PROPERTY_DCC_AMOUNT_CURRENCY, result),
-                                          getProperty(AdyenPaymentPluginApi.PROPERTY_DCC_SIGNATURE, result),
-                                          getProperty(AdyenPaymentPluginApi.PROPERTY_ISSUER_URL, result),
-                                          getProperty(AdyenPaymentPluginApi.PROPERTY_MD, result),
-                                          getProperty(AdyenPaymentPluginApi.PROPERTY_PA_REQ, result),
-                                          additionalData,
-                                          toTimestamp(utcNow),
-                                          kbTenantId.toString())
-                                  .execute();
+                               final AdyenResponsesRecord record = DSL.using(conn, dialect, settings).newRecord(ADYEN_RESPONSES);
+                               record.setKbAccountId(kbAccountId.toString());
+                               record.setKbPaymentId(kbPaymentId.toString());
+                               record.setKbPaymentTransactionId(kbPaymentTransactionId.toString());
+                               record.setTransactionType(transactionType.toString());
+                               record.setAmount(amount);
+                               record.setCurrency(currency == null ? null : currency.toString());
+                               record.setPspResult(result.getResult().isPresent() ? result.getResult().get().toString() : null);
+                               record.setPspReference(result.getPspReference());
+                               record.setAuthCode(result.getAuthCode());
+                               record.setResultCode(result.getResultCode());
+                               record.setRefusalReason(result.getReason());
+                               record.setReference(result.getReference());
+                               record.setPspErrorCodes(null);
+                               record.setPaymentInternalRef(result.getPaymentTransactionExternalKey());
+                               record.setFormUrl(result.getFormUrl());
+                               record.setDccAmount(dccAmountValue == null ? null : new BigDecimal(dccAmountValue));
+                               record.setDccCurrency(getProperty(AdyenPaymentPluginApi.PROPERTY_DCC_AMOUNT_CURRENCY, result));
+                               record.setDccSignature(getProperty(AdyenPaymentPluginApi.PROPERTY_DCC_SIGNATURE, result));
+                               record.setIssuerUrl(getProperty(AdyenPaymentPluginApi.PROPERTY_ISSUER_URL, result));
+                               record.setMd(getProperty(AdyenPaymentPluginApi.PROPERTY_MD, result));
+                               record.setPaRequest(getProperty(AdyenPaymentPluginApi.PROPERTY_PA_REQ, result));
+                               record.setAdditionalData(additionalData);
+                               record.setCreatedDate(toTimestamp(utcNow));
+                               record.setKbTenantId(kbTenantId.toString());
+                               record.setMerchantAccountCode(getPromotedValue(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, additionalDataMap));
+                               record.setPaymentMethod(getPromotedValue(AdyenPaymentPluginApi.PROPERTY_PAYMENT_METHOD, additionalDataMap));
+                               record.setFromHpp(getPromotedFlag(AdyenPaymentPluginApi.PROPERTY_FROM_HPP, additionalDataMap));
+                               record.setKbPaymentIdBin(toBinaryUUID(kbPaymentId));
+                               record.setKbPaymentTransactionIdBin(toBinaryUUID(kbPaymentTransactionId));
+                               record.setKbTenantIdBin(toBinaryUUID(kbTenantId));
+                               record.setVersion(1);
 
-                               return DSL.using(conn, dialect, settings)
-                                         .selectFrom(ADYEN_RESPONSES)
-                                         .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(kbPaymentTransactionId.toString()))
-                                         .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
-                                         .orderBy(ADYEN_RESPONSES.RECORD_ID.desc())
-                                         .limit(1)
-                                         .fetchOne();
+                               // Single round trip: jOOQ only reads back the generated record_id (RETURNING on PostgreSQL,
+                               // JDBC generated keys on MySQL and H2), all other columns are already known
+                               record.store();
+                               return record;
                            }
                        });
     }
@@ -255,6 +690,7 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
         final String dccAmountValue = getProperty(AdyenPaymentPluginApi.PROPERTY_DCC_AMOUNT_VALUE, result);
         final String additionalData = getAdditionalData(result);
 
+        recordWrite(kbPaymentId);
         execute(dataSource.getConnection(),
                 new WithConnectionCallback<Void>() {
                     @Override
@@ -284,7 +720,14 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                                        ADYEN_RESPONSES.PA_REQUEST,
                                        ADYEN_RESPONSES.ADDITIONAL_DATA,
                                        ADYEN_RESPONSES.CREATED_DATE,
-                                       ADYEN_RESPONSES.KB_TENANT_ID)
+                                       ADYEN_RESPONSES.KB_TENANT_ID,
+                                       ADYEN_RESPONSES.MERCHANT_ACCOUNT_CODE,
+                                       ADYEN_RESPONSES.PAYMENT_METHOD,
+                                       ADYEN_RESPONSES.FROM_HPP,
+                                       ADYEN_RESPONSES.KB_PAYMENT_ID_BIN,
+                                       ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID_BIN,
+                                       ADYEN_RESPONSES.KB_TENANT_ID_BIN,
+                                       ADYEN_RESPONSES.VERSION)
                            .values(kbAccountId.toString(),
                                    kbPaymentId.toString(),
                                    kbPaymentTransactionId.toString(),
@@ -308,7 +751,14 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                                    getProperty(AdyenPaymentPluginApi.PROPERTY_PA_REQ, result),
                                    additionalData,
                                    toTimestamp(utcNow),
-                                   kbTenantId.toString())
+                                   kbTenantId.toString(),
+                                   getPromotedValue(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, result.getAdditionalData()),
+                                   getPromotedValue(AdyenPaymentPluginApi.PROPERTY_PAYMENT_METHOD, result.getAdditionalData()),
+                                   getPromotedFlag(AdyenPaymentPluginApi.PROPERTY_FROM_HPP, result.getAdditionalData()),
+                                   toBinaryUUID(kbPaymentId),
+                                   toBinaryUUID(kbPaymentTransactionId),
+                                   toBinaryUUID(kbTenantId),
+                                   1)
                            .execute();
                         return null;
                     }
@@ -321,69 +771,189 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
 
     /**
      * Update the PSP reference and additional data of the latest response row for a payment transaction
+     * <p>
+     * The additional data is merged with the one of the row, which is then updated only if its version didn't change
+     * in-between. On a concurrent update (e.g. the HPP redirect and the AUTHORISATION notification for the same transaction),
+     * the row is read again and the properties are merged again on top of the other writer's, so neither update is lost.
+     * <p>
+     * When enabled, only the changed keys are appended to adyen_response_updates (once, in the same transaction as the row
+     * update), and the row itself is only updated if one of its other columns changes (e.g. the PSP reference).
      *
      * @param kbPaymentTransactionId       Kill Bill payment transaction id
      * @param paymentServiceProviderResult New PSP result (null if unchanged)
      * @param additionalPluginProperties   Latest properties
      * @param kbTenantId                   Kill Bill tenant id
      * @return the latest version of the response row, null if one couldn't be found
-     * @throws SQLException For any unexpected SQL error
+     * @throws SQLException For any unexpected SQL error, or if the row kept being updated concurrently
      */
     public AdyenResponsesRecord updateResponse(final UUID kbPaymentTransactionId, @Nullable final PaymentServiceProviderResult paymentServiceProviderResult, final Iterable<PluginProperty> additionalPluginProperties, final UUID kbTenantId) throws SQLException {
         final Map<String, Object> additionalProperties = PluginProperties.toMap(additionalPluginProperties);
 
+        for (int attempt = 1; attempt <= MAX_UPDATE_RESPONSE_ATTEMPTS; attempt++) {
+            // One transaction per attempt: the logged changes and the row update are committed together, and each attempt reads
+            // the latest version of the row
+            final AdyenResponsesRecord response = inUnitOfWork(true,
+                                                               new UnitOfWork<AdyenResponsesRecord, SQLException>() {
+                                                                   @Override
+                                                                   public AdyenResponsesRecord execute() throws SQLException {
+                                                                       return tryUpdateResponse(kbPaymentTransactionId, paymentServiceProviderResult, additionalProperties, kbTenantId);
+                                                                   }
+                                                               });
+            if (response != CONCURRENTLY_MODIFIED) {
+                return response;
+            }
+            updateResponseConflicts.incrementAndGet();
+        }
+        throw new SQLException(String.format("Unable to update the response for kbPaymentTransactionId='%s': concurrently modified %s times", kbPaymentTransactionId, MAX_UPDATE_RESPONSE_ATTEMPTS));
+    }
+
+    // Single attempt of #updateResponse: null if there is no row, CONCURRENTLY_MODIFIED if the row changed in-between
+    private AdyenResponsesRecord tryUpdateResponse(final UUID kbPaymentTransactionId,
+                                                   @Nullable final PaymentServiceProviderResult paymentServiceProviderResult,
+                                                   final Map<String, Object> additionalProperties,
+                                                   final UUID kbTenantId) throws SQLException {
         return execute(dataSource.getConnection(),
                        new WithConnectionCallback<AdyenResponsesRecord>() {
                            @Override
                            public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-                               final AdyenResponsesRecord response = DSL.using(conn, dialect, settings)
-                                                                        .selectFrom(ADYEN_RESPONSES)
-                                                                        .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(kbPaymentTransactionId.toString()))
-                                                                        .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
-                                                                        .orderBy(ADYEN_RESPONSES.RECORD_ID.desc())
-                                                                        .limit(1)
-                                                                        .fetchOne();
+                               AdyenResponses table = ADYEN_RESPONSES;
+                               AdyenResponsesRecord response = getLatestResponseOfTransaction(conn, table, kbPaymentTransactionId, kbTenantId);
+                               if (response == null) {
+                                   // Notifications can come in long after the transaction, the row may have been archived since
+                                   table = ADYEN_RESPONSES_ARCHIVE;
+                                   response = getLatestResponseOfTransaction(conn, table, kbPaymentTransactionId, kbTenantId);
+                               }
 
                                if (response == null) {
                                    return null;
                                }
+                               recordWrite(UUID.fromString(response.getKbPaymentId()));
 
-                               final Map originalData = new HashMap(fromAdditionalData(response.getAdditionalData()));
-                               originalData.putAll(additionalProperties);
-                               final String pspReference = getProperty(PROPERTY_PSP_REFERENCE, additionalProperties);
-                               if (pspReference != null) {
-                                   // If there is a PSP reference, the call went eventually to Adyen. Remove exceptions
-                                   originalData.remove(ADYEN_CALL_ERROR_STATUS);
-                                   originalData.remove(EXCEPTION_CLASS);
-                                   originalData.remove(EXCEPTION_MESSAGE);
+                               if (logResponseUpdates) {
+                                   // The merged view, which this update is applied on top of
+                                   applyResponseUpdates(conn, ImmutableList.<AdyenResponsesRecord>of(response));
                                }
-                               final String mergedAdditionalData = asString(originalData);
-
-                               UpdateSetMoreStep<AdyenResponsesRecord> step = DSL.using(conn, dialect, settings)
-                                                                                 .update(ADYEN_RESPONSES)
-                                                                                 .set(ADYEN_RESPONSES.PSP_REFERENCE, pspReference)
-                                                                                 .set(ADYEN_RESPONSES.ADDITIONAL_DATA, mergedAdditionalData);
-                               if (paymentServiceProviderResult != null) {
-                                   step = step.set(ADYEN_RESPONSES.PSP_RESULT, paymentServiceProviderResult.toString());
-                               }
-                               step.where(ADYEN_RESPONSES.RECORD_ID.equal(response.getRecordId()))
-                                   .execute();
 
-                               return DSL.using(conn, dialect, settings)
-                                         .selectFrom(ADYEN_RESPONSES)
-                                         .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(kbPaymentTransactionId.toString()))
-                                         .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
-                                         .orderBy(ADYEN_RESPONSES.RECORD_ID.desc())
-                                         .limit(1)
-                                         .fetchOne();
+                               if (!compareAndSetResponse(conn, table, response, paymentServiceProviderResult, additionalProperties)) {
+                                   return CONCURRENTLY_MODIFIED;
+                               }
+                               if (logResponseUpdates) {
+                                   addResponseUpdate(conn, response, additionalProperties);
+                               }
+                               return response;
                            }
                        });
     }
 
+    /**
+     * @return the number of updateResponse attempts retried because of a concurrent update of the row
+     */
+    public long getUpdateResponseConflicts() {
+        return updateResponseConflicts.get();
+    }
+
+    private AdyenResponsesRecord getLatestResponseOfTransaction(final Connection conn, final AdyenResponses table, final UUID kbPaymentTransactionId, final UUID kbTenantId) {
+        return DSL.using(conn, dialect, settings)
+                  .selectFrom(table)
+                  .where(isResponseOfTransaction(table, kbPaymentTransactionId, kbTenantId))
+                  .orderBy(table.RECORD_ID.desc())
+                  .limit(1)
+                  .fetchOne();
+    }
+
+    // Apply the merged changes to the row, if it is still at the version read. On success, the changes are also applied
+    // in memory, rather than reading the row back. A row moved to the archive in-between is a conflict, like a concurrent update
+    private boolean compareAndSetResponse(final Connection conn,
+                                          final AdyenResponses table,
+                                          final AdyenResponsesRecord response,
+                                          @Nullable final PaymentServiceProviderResult paymentServiceProviderResult,
+                                          final Map<String, Object> additionalProperties) throws SQLException {
+        final Map originalData = new HashMap(fromAdditionalData(response.getAdditionalData()));
+        originalData.putAll(additionalProperties);
+        final String pspReference = getProperty(PROPERTY_PSP_REFERENCE, additionalProperties);
+        if (pspReference != null) {
+            // If there is a PSP reference, the call went eventually to Adyen. Remove exceptions
+            originalData.remove(ADYEN_CALL_ERROR_STATUS);
+            originalData.remove(EXCEPTION_CLASS);
+            originalData.remove(EXCEPTION_MESSAGE);
+        }
+        final String mergedAdditionalData = asString(originalData);
+        final String merchantAccountCode = getPromotedValue(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, originalData);
+        final String paymentMethod = getPromotedValue(AdyenPaymentPluginApi.PROPERTY_PAYMENT_METHOD, originalData);
+        final Byte fromHpp = getPromotedFlag(AdyenPaymentPluginApi.PROPERTY_FROM_HPP, originalData);
+        final Integer version = response.getVersion();
+
+        if (logResponseUpdates &&
+            Objects.equal(pspReference, response.getPspReference()) &&
+            Objects.equal(merchantAccountCode, response.getMerchantAccountCode()) &&
+            Objects.equal(paymentMethod, response.getPaymentMethod()) &&
+            Objects.equal(fromHpp, response.getFromHpp()) &&
+            (paymentServiceProviderResult == null || paymentServiceProviderResult.toString().equals(response.getPspResult()))) {
+            // The additional data changes are only logged (see #updateResponse), the row itself doesn't need to be locked
+            response.setAdditionalData(mergedAdditionalData);
+            response.changed(false);
+            return true;
+        }
+
+        UpdateSetMoreStep<AdyenResponsesRecord> step = DSL.using(conn, dialect, settings)
+                                                          .update(table)
+                                                          .set(table.PSP_REFERENCE, pspReference)
+                                                          .set(table.MERCHANT_ACCOUNT_CODE, merchantAccountCode)
+                                                          .set(table.PAYMENT_METHOD, paymentMethod)
+                                                          .set(table.FROM_HPP, fromHpp)
+                                                          .set(table.VERSION, version + 1);
+        if (!logResponseUpdates) {
+            step = step.set(table.ADDITIONAL_DATA, mergedAdditionalData);
+        }
+        if (paymentServiceProviderResult != null) {
+            step = step.set(table.PSP_RESULT, paymentServiceProviderResult.toString());
+        }
+        final int nbUpdated = step.where(table.RECORD_ID.equal(response.getRecordId()))
+                                  .and(table.VERSION.equal(version))
+                                  .execute();
+        if (nbUpdated == 0) {
+            return false;
+        }
+
+        response.setPspReference(pspReference);
+        response.setAdditionalData(mergedAdditionalData);
+        response.setMerchantAccountCode(merchantAccountCode);
+        response.setPaymentMethod(paymentMethod);
+        response.setFromHpp(fromHpp);
+        response.setVersion(version + 1);
+        if (paymentServiceProviderResult != null) {
+            response.setPspResult(paymentServiceProviderResult.toString());
+        }
+        response.changed(false);
+        return true;
+    }
+
     @Override
     public List<AdyenResponsesRecord> getResponses(final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        return getResponses(kbPaymentId, kbTenantId, false);
+    }
+
+    /**
+     * @param kbPaymentId     Kill Bill payment id
+     * @param kbTenantId      Kill Bill tenant id
+     * @param includeArchived whether to also look at the rows moved to the archive table by the retention job
+     * @return the responses for the payment, in insertion order (for 3D-S, only the completion row)
+     * @throws SQLException For any unexpected SQL error
+     */
+    public List<AdyenResponsesRecord> getResponses(final UUID kbPaymentId, final UUID kbTenantId, final boolean includeArchived) throws SQLException {
+        final List<AdyenResponsesRecord> allResponses = new ArrayList<AdyenResponsesRecord>();
+        if (includeArchived) {
+            // Archived rows are always older than the live ones
+            allResponses.addAll(getResponses(ADYEN_RESPONSES_ARCHIVE, kbPaymentId, kbTenantId));
+        }
+        if (uuidStorage == UUIDStorage.BINARY) {
+            allResponses.addAll(getResponses(ADYEN_RESPONSES, kbPaymentId, kbTenantId));
+        } else {
+            allResponses.addAll(applyResponseUpdates(super.getResponses(kbPaymentId, kbTenantId)));
+        }
+
         final List<AdyenResponsesRecord> responses = new LinkedList<AdyenResponsesRecord>();
-        for (final AdyenResponsesRecord adyenResponsesRecord : Lists.<AdyenResponsesRecord>reverse(super.getResponses(kbPaymentId, kbTenantId))) {
+        for (final AdyenResponsesRecord adyenResponsesRecord : Lists.<AdyenResponsesRecord>reverse(allResponses)) {
             responses.add(adyenResponsesRecord);
 
             // Keep only the completion row for 3D-S
@@ -394,44 +964,258 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
         return Lists.<AdyenResponsesRecord>reverse(responses);
     }
 
+    private List<AdyenResponsesRecord> getResponses(final AdyenResponses table, final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<List<AdyenResponsesRecord>>() {
+                           @Override
+                           public List<AdyenResponsesRecord> withConnection(final Connection conn) throws SQLException {
+                               final List<AdyenResponsesRecord> responses = DSL.using(conn, dialect, settings)
+                                                                               .selectFrom(table)
+                                                                               .where(isResponseOfPayment(table, kbPaymentId, kbTenantId))
+                                                                               .orderBy(table.RECORD_ID.asc())
+                                                                               .fetch();
+                               applyResponseUpdates(conn, responses);
+                               return responses;
+                           }
+                       });
+    }
+
     // Assumes that the last auth was successful
     @Override
     public AdyenResponsesRecord getSuccessfulAuthorizationResponse(final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        final AdyenResponsesRecord response = getSuccessfulAuthorizationResponse(ADYEN_RESPONSES, kbPaymentId, kbTenantId);
+        if (response != null) {
+            return response;
+        }
+
+        // Captures and refunds can come in long after the authorization, the row may have been archived since
+        return getSuccessfulAuthorizationResponse(ADYEN_RESPONSES_ARCHIVE, kbPaymentId, kbTenantId);
+    }
+
+    private AdyenResponsesRecord getSuccessfulAuthorizationResponse(final AdyenResponses table, final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
         return execute(dataSource.getConnection(),
                        new WithConnectionCallback<AdyenResponsesRecord>() {
                            @Override
                            public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-                               return DSL.using(conn, dialect, settings)
-                                         .selectFrom(responsesTable)
-                                         .where(DSL.field(responsesTable.getName() + "." + KB_PAYMENT_ID).equal(kbPaymentId.toString()))
-                                         .and(
-                                                 DSL.field(responsesTable.getName() + "." + TRANSACTION_TYPE).equal(TransactionType.AUTHORIZE.toString())
-                                                    .or(DSL.field(responsesTable.getName() + "." + TRANSACTION_TYPE).equal(TransactionType.PURCHASE.toString()))
-                                             )
-                                         .and(DSL.field(responsesTable.getName() + "." + KB_TENANT_ID).equal(kbTenantId.toString()))
-                                         .orderBy(DSL.field(responsesTable.getName() + "." + RECORD_ID).desc())
-                                         .limit(1)
-                                         .fetchOne();
+                               final AdyenResponsesRecord response = DSL.using(conn, dialect, settings)
+                                                                        .selectFrom(table)
+                                                                        .where(isResponseOfPayment(table, kbPaymentId, kbTenantId))
+                                                                        .and(table.TRANSACTION_TYPE.in(TransactionType.AUTHORIZE.toString(), TransactionType.PURCHASE.toString()))
+                                                                        .orderBy(table.RECORD_ID.desc())
+                                                                        .limit(1)
+                                                                        .fetchOne();
+                               applyResponseUpdates(conn, response);
+                               return response;
                            }
                        });
     }
 
     public AdyenResponsesRecord getResponse(final String pspReference) throws SQLException {
+        final AdyenResponsesRecord response = getResponse(ADYEN_RESPONSES, pspReference);
+        if (response != null) {
+            return response;
+        }
+
+        // Notifications can come in long after the payment (e.g. chargebacks), the row may have been archived since
+        return getResponse(ADYEN_RESPONSES_ARCHIVE, pspReference);
+    }
+
+    private AdyenResponsesRecord getResponse(final AdyenResponses table, final String pspReference) throws SQLException {
         return execute(dataSource.getConnection(),
                        new WithConnectionCallback<AdyenResponsesRecord>() {
                            @Override
                            public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-                               return DSL.using(conn, dialect, settings)
-                                         .selectFrom(ADYEN_RESPONSES)
-                                         .where(ADYEN_RESPONSES.PSP_REFERENCE.equal(pspReference))
-                                         .orderBy(ADYEN_RESPONSES.RECORD_ID.desc())
-                                         // Can have multiple entries for 3D-S
-                                         .limit(1)
-                                         .fetchOne();
+                               final AdyenResponsesRecord response = DSL.using(conn, dialect, settings)
+                                                                        .selectFrom(table)
+                                                                        .where(table.PSP_REFERENCE.equal(pspReference))
+                                                                        .orderBy(table.RECORD_ID.desc())
+                                                                        // Can have multiple entries for 3D-S
+                                                                        .limit(1)
+                                                                        .fetchOne();
+                               applyResponseUpdates(conn, response);
+                               return response;
+                           }
+                       });
+    }
+
+    /**
+     * Look up responses by an additional data entry (e.g. merchantReference or fraudResult.accountScore)
+     * <p>
+     * Only two lookups are indexed (see V20181119120000__add_additional_data_indexes.sql): any key on PostgreSQL (JSON
+     * containment check backed by a GIN index) and merchantReference on MySQL 5.7.8+ (indexed generated column). Rows
+     * stored compressed (see AdditionalDataCodec) are not part of these indexes and are skipped.
+     * <p>
+     * Any other lookup (other keys on MySQL, H2) is a full scan of adyen_responses with a LIKE pre-filter: only use it
+     * for occasional, offline queries. As the rows are read anyway, compressed rows are decoded and matched too.
+     * <p>
+     * Matches are always confirmed on the parsed document. The entries of adyen_response_updates are not searchable
+     * until they are compacted.
+     *
+     * @param key        additional data key
+     * @param value      expected value, compared as a string
+     * @param kbTenantId Kill Bill tenant id
+     * @return the matching responses, in insertion order
+     * @throws SQLException For any unexpected SQL error
+     */
+    public List<AdyenResponsesRecord> getResponsesByAdditionalData(final String key, final String value, final UUID kbTenantId) throws SQLException {
+        final String jsonKey;
+        final String jsonValue;
+        try {
+            jsonKey = objectMapper.writeValueAsString(key);
+            jsonValue = objectMapper.writeValueAsString(value);
+        } catch (final JsonProcessingException e) {
+            throw new SQLException(e);
+        }
+
+        final List<AdyenResponsesRecord> candidates = execute(dataSource.getConnection(),
+                                                              new WithConnectionCallback<List<AdyenResponsesRecord>>() {
+                                                                  @Override
+                                                                  public List<AdyenResponsesRecord> withConnection(final Connection conn) throws SQLException {
+                                                                      final Condition additionalDataCondition;
+                                                                      if (dialect.family() == SQLDialect.POSTGRES) {
+                                                                          // Same expression as the index, rows not holding a JSON document are skipped
+                                                                          additionalDataCondition = DSL.condition("case when {0} like {1} then cast({0} as jsonb) end @> cast({2} as jsonb)",
+                                                                                                                  ADYEN_RESPONSES.ADDITIONAL_DATA,
+                                                                                                                  DSL.inline("{%"),
+                                                                                                                  DSL.val("{" + jsonKey + ":" + jsonValue + "}"));
+                                                                      } else if (AdyenPaymentPluginApi.PROPERTY_MERCHANT_REFERENCE.equals(key) && hasMerchantReferenceColumn(conn)) {
+                                                                          additionalDataCondition = ADDITIONAL_DATA_MERCHANT_REFERENCE.equal(value);
+                                                                      } else {
+                                                                          // Full scan: compressed rows can't be pre-filtered, they are decoded below
+                                                                          additionalDataCondition = ADYEN_RESPONSES.ADDITIONAL_DATA.like("%" + escapeLike(jsonKey + ":" + jsonValue) + "%", '!')
+                                                                                                                                   .or(ADYEN_RESPONSES.ADDITIONAL_DATA.like(AdditionalDataCodec.DEFLATE_V1_PREFIX + "%"));
+                                                                      }
+
+                                                                      final List<AdyenResponsesRecord> candidates = DSL.using(conn, dialect, settings)
+                                                                                                                      .selectFrom(ADYEN_RESPONSES)
+                                                                                                                      .where(additionalDataCondition)
+                                                                                                                      .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                                                                                                                      .orderBy(ADYEN_RESPONSES.RECORD_ID.asc())
+                                                                                                                      .fetch();
+                                                                      applyResponseUpdates(conn, candidates);
+                                                                      return candidates;
+                                                                  }
+                                                              });
+
+        final List<AdyenResponsesRecord> responses = new LinkedList<AdyenResponsesRecord>();
+        for (final AdyenResponsesRecord candidate : candidates) {
+            if (value.equals(getPromotedValue(key, fromAdditionalData(candidate.getAdditionalData())))) {
+                responses.add(candidate);
+            }
+        }
+        return responses;
+    }
+
+    public long getLastResponseRecordId() throws SQLException {
+        return getLastResponseRecordId(false);
+    }
+
+    /**
+     * @param includeArchived whether to also look at the rows moved to the archive table by the retention job
+     * @return the highest response record id, 0 if there is none
+     * @throws SQLException For any unexpected SQL error
+     */
+    public long getLastResponseRecordId(final boolean includeArchived) throws SQLException {
+        return getLastRecordId(includeArchived ? ImmutableList.<Table<?>>of(ADYEN_RESPONSES, ADYEN_RESPONSES_ARCHIVE) : ImmutableList.<Table<?>>of(ADYEN_RESPONSES),
+                               ADYEN_RESPONSES.RECORD_ID.getName());
+    }
+
+    // Keyset pagination on record_id, see #getNotifications(long, long, DateTime, DateTime, String, String, UUID, int)
+    public List<AdyenResponsesRecord> getResponses(final long afterRecordId,
+                                                   final long upToRecordId,
+                                                   @Nullable final DateTime createdAfter,
+                                                   @Nullable final DateTime createdBefore,
+                                                   @Nullable final String merchantAccountCode,
+                                                   @Nullable final UUID kbTenantId,
+                                                   final int limit) throws SQLException {
+        return getResponses(afterRecordId, upToRecordId, createdAfter, createdBefore, merchantAccountCode, kbTenantId, limit, false);
+    }
+
+    /**
+     * Record ids are kept when rows are archived: with includeArchived, each page merges both tables in record_id order.
+     *
+     * @param includeArchived whether to also look at the rows moved to the archive table by the retention job
+     */
+    public List<AdyenResponsesRecord> getResponses(final long afterRecordId,
+                                                   final long upToRecordId,
+                                                   @Nullable final DateTime createdAfter,
+                                                   @Nullable final DateTime createdBefore,
+                                                   @Nullable final String merchantAccountCode,
+                                                   @Nullable final UUID kbTenantId,
+                                                   final int limit,
+                                                   final boolean includeArchived) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<List<AdyenResponsesRecord>>() {
+                           @Override
+                           public List<AdyenResponsesRecord> withConnection(final Connection conn) throws SQLException {
+                               final List<AdyenResponsesRecord> responses = new ArrayList<AdyenResponsesRecord>();
+                               for (final AdyenResponses table : includeArchived ? ImmutableList.<AdyenResponses>of(ADYEN_RESPONSES, ADYEN_RESPONSES_ARCHIVE) : ImmutableList.<AdyenResponses>of(ADYEN_RESPONSES)) {
+                                   Condition condition = table.RECORD_ID.greaterThan(UInteger.valueOf(afterRecordId))
+                                                                        .and(table.RECORD_ID.lessOrEqual(UInteger.valueOf(upToRecordId)));
+                                   if (createdAfter != null) {
+                                       condition = condition.and(table.CREATED_DATE.greaterOrEqual(toTimestamp(createdAfter)));
+                                   }
+                                   if (createdBefore != null) {
+                                       condition = condition.and(table.CREATED_DATE.lessThan(toTimestamp(createdBefore)));
+                                   }
+                                   if (merchantAccountCode != null) {
+                                       condition = condition.and(table.MERCHANT_ACCOUNT_CODE.equal(merchantAccountCode));
+                                   }
+                                   if (kbTenantId != null) {
+                                       condition = condition.and(table.KB_TENANT_ID.equal(kbTenantId.toString()));
+                                   }
+                                   responses.addAll(DSL.using(conn, dialect, settings)
+                                                       .selectFrom(table)
+                                                       .where(condition)
+                                                       .orderBy(table.RECORD_ID.asc())
+                                                       .limit(limit)
+                                                       .fetch());
+                               }
+
+                               final List<AdyenResponsesRecord> page = firstByRecordId(responses, ADYEN_RESPONSES.RECORD_ID, limit);
+                               applyResponseUpdates(conn, page);
+                               return page;
                            }
                        });
     }
 
+    // The generated column is only created on MySQL 5.7.8+ (see ddl.sql)
+    private boolean hasMerchantReferenceColumn(final Connection conn) throws SQLException {
+        if (hasMerchantReferenceColumn == null) {
+            final ResultSet columns = conn.getMetaData().getColumns(null, null, ADYEN_RESPONSES.getName(), ADDITIONAL_DATA_MERCHANT_REFERENCE.getName());
+            try {
+                hasMerchantReferenceColumn = columns.next();
+            } finally {
+                columns.close();
+            }
+        }
+        return hasMerchantReferenceColumn;
+    }
+
+    private static String escapeLike(final String pattern) {
+        return pattern.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private Condition isResponseOfPayment(final AdyenResponses table, final UUID kbPaymentId, final UUID kbTenantId) {
+        if (uuidStorage == UUIDStorage.BINARY) {
+            return table.KB_PAYMENT_ID_BIN.equal(kbPaymentId).and(table.KB_TENANT_ID_BIN.equal(kbTenantId));
+        } else {
+            return table.KB_PAYMENT_ID.equal(kbPaymentId.toString()).and(table.KB_TENANT_ID.equal(kbTenantId.toString()));
+        }
+    }
+
+    private Condition isResponseOfTransaction(final AdyenResponses table, final UUID kbPaymentTransactionId, final UUID kbTenantId) {
+        if (uuidStorage == UUIDStorage.BINARY) {
+            return table.KB_PAYMENT_TRANSACTION_ID_BIN.equal(kbPaymentTransactionId).and(table.KB_TENANT_ID_BIN.equal(kbTenantId));
+        } else {
+            return table.KB_PAYMENT_TRANSACTION_ID.equal(kbPaymentTransactionId.toString()).and(table.KB_TENANT_ID.equal(kbTenantId.toString()));
+        }
+    }
+
+    private UUID toBinaryUUID(final UUID id) {
+        return uuidStorage == UUIDStorage.CHAR ? null : id;
+    }
+
     // Notifications
 
     public void addNotification(@Nullable final UUID kbAccountId,
@@ -441,58 +1225,75 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                                 final NotificationItem notification,
                                 final DateTime utcNow,
                                 @Nullable final UUID kbTenantId) throws SQLException {
-        final String additionalData = asString(notification.getAdditionalData());
+        final AdyenNotificationsRecord record = newNotification(kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, notification, utcNow, kbTenantId);
 
         execute(dataSource.getConnection(),
                 new WithConnectionCallback<Void>() {
                     @Override
                     public Void withConnection(final Connection conn) throws SQLException {
                         DSL.using(conn, dialect, settings)
-                           .insertInto(ADYEN_NOTIFICATIONS,
-                                       ADYEN_NOTIFICATIONS.KB_ACCOUNT_ID,
-                                       ADYEN_NOTIFICATIONS.KB_PAYMENT_ID,
-                                       ADYEN_NOTIFICATIONS.KB_PAYMENT_TRANSACTION_ID,
-                                       ADYEN_NOTIFICATIONS.TRANSACTION_TYPE,
-                                       ADYEN_NOTIFICATIONS.AMOUNT,
-                                       ADYEN_NOTIFICATIONS.CURRENCY,
-                                       ADYEN_NOTIFICATIONS.EVENT_CODE,
-                                       ADYEN_NOTIFICATIONS.EVENT_DATE,
-                                       ADYEN_NOTIFICATIONS.MERCHANT_ACCOUNT_CODE,
-                                       ADYEN_NOTIFICATIONS.MERCHANT_REFERENCE,
-                                       ADYEN_NOTIFICATIONS.OPERATIONS,
-                                       ADYEN_NOTIFICATIONS.ORIGINAL_REFERENCE,
-                                       ADYEN_NOTIFICATIONS.PAYMENT_METHOD,
-                                       ADYEN_NOTIFICATIONS.PSP_REFERENCE,
-                                       ADYEN_NOTIFICATIONS.REASON,
-                                       ADYEN_NOTIFICATIONS.SUCCESS,
-                                       ADYEN_NOTIFICATIONS.ADDITIONAL_DATA,
-                                       ADYEN_NOTIFICATIONS.CREATED_DATE,
-                                       ADYEN_NOTIFICATIONS.KB_TENANT_ID)
-                           .values(kbAccountId == null ? null : kbAccountId.toString(),
-                                   kbPaymentId == null ? null : kbPaymentId.toString(),
-                                   kbPaymentTransactionId == null ? null : kbPaymentTransactionId.toString(),
-                                   transactionType == null ? null : transactionType.toString(),
-                                   notification.getAmount(),
-                                   notification.getCurrency(),
-                                   notification.getEventCode(),
-                                   toTimestamp(notification.getEventDate()),
-                                   notification.getMerchantAccountCode(),
-                                   notification.getMerchantReference(),
-                                   getString(notification.getOperations()),
-                                   notification.getOriginalReference(),
-                                   notification.getPaymentMethod(),
-                                   notification.getPspReference(),
-                                   notification.getReason(),
-                                   notification.getSuccess() == null ? FALSE : fromBoolean(notification.getSuccess()),
-                                   additionalData,
-                                   toTimestamp(utcNow),
-                                   kbTenantId == null ? null : kbTenantId.toString())
+                           .executeInsert(record);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Insert notifications using a single JDBC batch
+     *
+     * @param records records built via newNotification
+     * @throws SQLException For any unexpected SQL error
+     */
+    public void addNotifications(final List<AdyenNotificationsRecord> records) throws SQLException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        execute(dataSource.getConnection(),
+                new WithConnectionCallback<Void>() {
+                    @Override
+                    public Void withConnection(final Connection conn) throws SQLException {
+                        DSL.using(conn, dialect, settings)
+                           .batchInsert(records)
                            .execute();
                         return null;
                     }
                 });
     }
 
+    /**
+     * Build (but don't persist) a notification record
+     */
+    public AdyenNotificationsRecord newNotification(@Nullable final UUID kbAccountId,
+                                                    @Nullable final UUID kbPaymentId,
+                                                    @Nullable final UUID kbPaymentTransactionId,
+                                                    @Nullable final TransactionType transactionType,
+                                                    final NotificationItem notification,
+                                                    final DateTime utcNow,
+                                                    @Nullable final UUID kbTenantId) throws SQLException {
+        final AdyenNotificationsRecord record = new AdyenNotificationsRecord();
+        record.setKbAccountId(kbAccountId == null ? null : kbAccountId.toString());
+        record.setKbPaymentId(kbPaymentId == null ? null : kbPaymentId.toString());
+        record.setKbPaymentTransactionId(kbPaymentTransactionId == null ? null : kbPaymentTransactionId.toString());
+        record.setTransactionType(transactionType == null ? null : transactionType.toString());
+        record.setAmount(notification.getAmount());
+        record.setCurrency(notification.getCurrency());
+        record.setEventCode(notification.getEventCode());
+        record.setEventDate(toTimestamp(notification.getEventDate()));
+        record.setMerchantAccountCode(notification.getMerchantAccountCode());
+        record.setMerchantReference(notification.getMerchantReference());
+        record.setOperations(getString(notification.getOperations()));
+        record.setOriginalReference(notification.getOriginalReference());
+        record.setPaymentMethod(notification.getPaymentMethod());
+        record.setPspReference(notification.getPspReference());
+        record.setReason(notification.getReason());
+        record.setSuccess(notification.getSuccess() == null ? FALSE : fromBoolean(notification.getSuccess()));
+        record.setAdditionalData(asString(notification.getAdditionalData()));
+        record.setCreatedDate(toTimestamp(utcNow));
+        record.setKbTenantId(kbTenantId == null ? null : kbTenantId.toString());
+        return record;
+    }
+
     @VisibleForTesting
     AdyenNotificationsRecord getNotification(final String pspReference) throws SQLException {
         return execute(dataSource.getConnection(),
@@ -523,6 +1324,812 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
                        });
     }
 
+    public long getLastNotificationRecordId() throws SQLException {
+        return getLastNotificationRecordId(false);
+    }
+
+    /**
+     * @param includeArchived whether to also look at the rows moved to the archive table by the retention job
+     * @return the highest notification record id, 0 if there is none
+     * @throws SQLException For any unexpected SQL error
+     */
+    public long getLastNotificationRecordId(final boolean includeArchived) throws SQLException {
+        return getLastRecordId(includeArchived ? ImmutableList.<Table<?>>of(ADYEN_NOTIFICATIONS, ADYEN_NOTIFICATIONS_ARCHIVE) : ImmutableList.<Table<?>>of(ADYEN_NOTIFICATIONS),
+                               ADYEN_NOTIFICATIONS.RECORD_ID.getName());
+    }
+
+    // Keyset pagination on record_id: each page is a cheap index range scan, whatever the offset
+    public List<AdyenNotificationsRecord> getNotifications(final long afterRecordId,
+                                                           final long upToRecordId,
+                                                           @Nullable final DateTime createdAfter,
+                                                           @Nullable final DateTime createdBefore,
+                                                           @Nullable final String eventCode,
+                                                           @Nullable final String merchantAccountCode,
+                                                           @Nullable final UUID kbTenantId,
+                                                           final int limit) throws SQLException {
+        return getNotifications(afterRecordId, upToRecordId, createdAfter, createdBefore, eventCode, merchantAccountCode, kbTenantId, limit, false);
+    }
+
+    /**
+     * Record ids are kept when rows are archived: with includeArchived, each page merges both tables in record_id order.
+     *
+     * @param includeArchived whether to also look at the rows moved to the archive table by the retention job
+     */
+    public List<AdyenNotificationsRecord> getNotifications(final long afterRecordId,
+                                                           final long upToRecordId,
+                                                           @Nullable final DateTime createdAfter,
+                                                           @Nullable final DateTime createdBefore,
+                                                           @Nullable final String eventCode,
+                                                           @Nullable final String merchantAccountCode,
+                                                           @Nullable final UUID kbTenantId,
+                                                           final int limit,
+                                                           final boolean includeArchived) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<List<AdyenNotificationsRecord>>() {
+                           @Override
+                           public List<AdyenNotificationsRecord> withConnection(final Connection conn) throws SQLException {
+                               final List<AdyenNotificationsRecord> notifications = new ArrayList<AdyenNotificationsRecord>();
+                               for (final AdyenNotifications table : includeArchived ? ImmutableList.<AdyenNotifications>of(ADYEN_NOTIFICATIONS, ADYEN_NOTIFICATIONS_ARCHIVE) : ImmutableList.<AdyenNotifications>of(ADYEN_NOTIFICATIONS)) {
+                                   Condition condition = table.RECORD_ID.greaterThan(UInteger.valueOf(afterRecordId))
+                                                                        .and(table.RECORD_ID.lessOrEqual(UInteger.valueOf(upToRecordId)));
+                                   if (createdAfter != null) {
+                                       condition = condition.and(table.CREATED_DATE.greaterOrEqual(toTimestamp(createdAfter)));
+                                   }
+                                   if (createdBefore != null) {
+                                       condition = condition.and(table.CREATED_DATE.lessThan(toTimestamp(createdBefore)));
+                                   }
+                                   if (eventCode != null) {
+                                       condition = condition.and(table.EVENT_CODE.equal(eventCode));
+                                   }
+                                   if (merchantAccountCode != null) {
+                                       condition = condition.and(table.MERCHANT_ACCOUNT_CODE.equal(merchantAccountCode));
+                                   }
+                                   if (kbTenantId != null) {
+                                       condition = condition.and(table.KB_TENANT_ID.equal(kbTenantId.toString()));
+                                   }
+                                   notifications.addAll(DSL.using(conn, dialect, settings)
+                                                           .selectFrom(table)
+                                                           .where(condition)
+                                                           .orderBy(table.RECORD_ID.asc())
+                                                           .limit(limit)
+                                                           .fetch());
+                               }
+                               return firstByRecordId(notifications, ADYEN_NOTIFICATIONS.RECORD_ID, limit);
+                           }
+                       });
+    }
+
+    private long getLastRecordId(final Iterable<Table<?>> tables, final String recordIdFieldName) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Long>() {
+                           @Override
+                           public Long withConnection(final Connection conn) throws SQLException {
+                               long lastRecordId = 0L;
+                               for (final Table<?> table : tables) {
+                                   final UInteger tableLastRecordId = DSL.using(conn, dialect, settings)
+                                                                         .select(DSL.max(table.field(recordIdFieldName, UInteger.class)))
+                                                                         .from(table)
+                                                                         .fetchOne(0, UInteger.class);
+                                   if (tableLastRecordId != null) {
+                                       lastRecordId = Math.max(lastRecordId, tableLastRecordId.longValue());
+                                   }
+                               }
+                               return lastRecordId;
+                           }
+                       });
+    }
+
+    // Each table page is sorted already, merge them and keep the first rows
+    private static <R extends Record> List<R> firstByRecordId(final List<R> records, final Field<UInteger> recordIdField, final int limit) {
+        final List<R> sortedRecords = new ArrayList<R>(records);
+        Collections.sort(sortedRecords,
+                         new Comparator<R>() {
+                             @Override
+                             public int compare(final R first, final R second) {
+                                 return first.get(recordIdField).compareTo(second.get(recordIdField));
+                             }
+                         });
+        return sortedRecords.size() > limit ? new ArrayList<R>(sortedRecords.subList(0, limit)) : sortedRecords;
+    }
+
+    // Notification leases
+
+    /**
+     * Try to take the lease for the specified key (e.g. a pspReference)
+     *
+     * @return true if the lease was free, or held by someone else but expired (e.g. the node died)
+     */
+    public boolean tryAcquireNotificationLease(final String leaseKey, final String owner, final DateTime utcNow, final DateTime expirationDate) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Boolean>() {
+                           @Override
+                           public Boolean withConnection(final Connection conn) throws SQLException {
+                               final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                               try {
+                                   dslContext.insertInto(ADYEN_NOTIFICATION_LEASES,
+                                                         ADYEN_NOTIFICATION_LEASES.LEASE_KEY,
+                                                         ADYEN_NOTIFICATION_LEASES.OWNER,
+                                                         ADYEN_NOTIFICATION_LEASES.EXPIRATION_DATE,
+                                                         ADYEN_NOTIFICATION_LEASES.CREATED_DATE)
+                                             .values(leaseKey,
+                                                     owner,
+                                                     toTimestamp(expirationDate),
+                                                     toTimestamp(utcNow))
+                                             .execute();
+                                   return true;
+                               } catch (final DataAccessException e) {
+                                   if (!isIntegrityConstraintViolation(e)) {
+                                       throw e;
+                                   }
+                               }
+
+                               // Somebody holds it: reclaim it only if it has expired (the condition makes it atomic)
+                               return dslContext.update(ADYEN_NOTIFICATION_LEASES)
+                                                .set(ADYEN_NOTIFICATION_LEASES.OWNER, owner)
+                                                .set(ADYEN_NOTIFICATION_LEASES.EXPIRATION_DATE, toTimestamp(expirationDate))
+                                                .where(ADYEN_NOTIFICATION_LEASES.LEASE_KEY.equal(leaseKey))
+                                                .and(ADYEN_NOTIFICATION_LEASES.EXPIRATION_DATE.lessThan(toTimestamp(utcNow)))
+                                                .execute() == 1;
+                           }
+                       });
+    }
+
+    public void releaseNotificationLease(final String leaseKey, final String owner) throws SQLException {
+        execute(dataSource.getConnection(),
+                new WithConnectionCallback<Void>() {
+                    @Override
+                    public Void withConnection(final Connection conn) throws SQLException {
+                        // Check the owner, in case the lease expired and was reclaimed in the meantime
+                        DSL.using(conn, dialect, settings)
+                           .delete(ADYEN_NOTIFICATION_LEASES)
+                           .where(ADYEN_NOTIFICATION_LEASES.LEASE_KEY.equal(leaseKey))
+                           .and(ADYEN_NOTIFICATION_LEASES.OWNER.equal(owner))
+                           .execute();
+                        return null;
+                    }
+                });
+    }
+
+    @VisibleForTesting
+    AdyenNotificationLeasesRecord getNotificationLease(final String leaseKey) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<AdyenNotificationLeasesRecord>() {
+                           @Override
+                           public AdyenNotificationLeasesRecord withConnection(final Connection conn) throws SQLException {
+                               return DSL.using(conn, dialect, settings)
+                                         .selectFrom(ADYEN_NOTIFICATION_LEASES)
+                                         .where(ADYEN_NOTIFICATION_LEASES.LEASE_KEY.equal(leaseKey))
+                                         .fetchOne();
+                           }
+                       });
+    }
+
+    // SQLSTATE class 23 (unique index hit), across MySQL, PostgreSQL and H2
+    private static boolean isIntegrityConstraintViolation(final DataAccessException e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null && ((SQLException) cause).getSQLState().startsWith("23")) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    // Response updates (see V20181203120000__add_adyen_response_updates.sql)
+
+    // Only the changed keys are written, removed keys are listed separately
+    private void addResponseUpdate(final Connection conn, final AdyenResponsesRecord response, final Map<String, Object> additionalProperties) throws SQLException {
+        final String pspReference = getProperty(PROPERTY_PSP_REFERENCE, additionalProperties);
+        DSL.using(conn, dialect, settings)
+           .insertInto(ADYEN_RESPONSE_UPDATES,
+                       ADYEN_RESPONSE_UPDATES.RESPONSE_RECORD_ID,
+                       ADYEN_RESPONSE_UPDATES.ADDITIONAL_DATA,
+                       ADYEN_RESPONSE_UPDATES.REMOVED_KEYS,
+                       ADYEN_RESPONSE_UPDATES.CREATED_DATE,
+                       ADYEN_RESPONSE_UPDATES.KB_TENANT_ID)
+           .values(response.getRecordId(),
+                   additionalProperties.isEmpty() ? null : asString(additionalProperties),
+                   pspReference == null ? null : JOINER.join(ADYEN_CALL_ERROR_STATUS, EXCEPTION_CLASS, EXCEPTION_MESSAGE),
+                   toTimestamp(new DateTime(DateTimeZone.UTC)),
+                   response.getKbTenantId())
+           .execute();
+    }
+
+    private List<AdyenResponsesRecord> applyResponseUpdates(final List<AdyenResponsesRecord> responses) throws SQLException {
+        if (!logResponseUpdates || responses.isEmpty()) {
+            return responses;
+        }
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<List<AdyenResponsesRecord>>() {
+                           @Override
+                           public List<AdyenResponsesRecord> withConnection(final Connection conn) throws SQLException {
+                               applyResponseUpdates(conn, responses);
+                               return responses;
+                           }
+                       });
+    }
+
+    private void applyResponseUpdates(final Connection conn, @Nullable final AdyenResponsesRecord response) throws SQLException {
+        if (response != null) {
+            applyResponseUpdates(conn, ImmutableList.<AdyenResponsesRecord>of(response));
+        }
+    }
+
+    // Replace the additional data of the responses with the merged view of their pending updates
+    private void applyResponseUpdates(final Connection conn, final List<AdyenResponsesRecord> responses) throws SQLException {
+        if (!logResponseUpdates || responses.isEmpty()) {
+            return;
+        }
+
+        final Map<UInteger, AdyenResponsesRecord> responsesByRecordId = new HashMap<UInteger, AdyenResponsesRecord>();
+        for (final AdyenResponsesRecord response : responses) {
+            responsesByRecordId.put(response.getRecordId(), response);
+        }
+        final List<AdyenResponseUpdatesRecord> responseUpdates = DSL.using(conn, dialect, settings)
+                                                                    .selectFrom(ADYEN_RESPONSE_UPDATES)
+                                                                    .where(ADYEN_RESPONSE_UPDATES.RESPONSE_RECORD_ID.in(responsesByRecordId.keySet()))
+                                                                    .orderBy(ADYEN_RESPONSE_UPDATES.RECORD_ID.asc())
+                                                                    .fetch();
+        if (responseUpdates.isEmpty()) {
+            return;
+        }
+
+        final Map<UInteger, Map> mergedData = new LinkedHashMap<UInteger, Map>();
+        for (final AdyenResponseUpdatesRecord responseUpdate : responseUpdates) {
+            Map data = mergedData.get(responseUpdate.getResponseRecordId());
+            if (data == null) {
+                data = new HashMap(fromAdditionalData(responsesByRecordId.get(responseUpdate.getResponseRecordId()).getAdditionalData()));
+                mergedData.put(responseUpdate.getResponseRecordId(), data);
+            }
+            applyResponseUpdate(data, responseUpdate);
+        }
+        for (final Map.Entry<UInteger, Map> entry : mergedData.entrySet()) {
+            final AdyenResponsesRecord response = responsesByRecordId.get(entry.getKey());
+            response.setAdditionalData(asString(entry.getValue()));
+            response.changed(false);
+        }
+    }
+
+    // Same order as the in-place merge in #compareAndSetResponse
+    private static void applyResponseUpdate(final Map data, final AdyenResponseUpdatesRecord responseUpdate) {
+        if (responseUpdate.getAdditionalData() != null) {
+            data.putAll(fromAdditionalData(responseUpdate.getAdditionalData()));
+        }
+        if (responseUpdate.getRemovedKeys() != null) {
+            for (final String removedKey : SPLITTER.split(responseUpdate.getRemovedKeys())) {
+                data.remove(removedKey);
+            }
+        }
+    }
+
+    /**
+     * Fold the pending adyen_response_updates entries back into the additional_data of their responses, oldest first.
+     * <p>
+     * Each response is compacted in its own short transaction, if its version didn't change in-between: otherwise, it is
+     * left for the next run. Responses archived in the meantime are compacted in the archive table.
+     *
+     * @param batchSize maximum number of responses to compact
+     * @return the number of responses compacted
+     * @throws SQLException For any unexpected SQL error
+     */
+    public int compactResponseUpdates(final int batchSize) throws SQLException {
+        final Result<Record2<UInteger, UInteger>> pendingResponses = execute(dataSource.getConnection(),
+                                                                             new WithConnectionCallback<Result<Record2<UInteger, UInteger>>>() {
+                                                                                 @Override
+                                                                                 public Result<Record2<UInteger, UInteger>> withConnection(final Connection conn) throws SQLException {
+                                                                                     return DSL.using(conn, dialect, settings)
+                                                                                               .select(ADYEN_RESPONSE_UPDATES.RESPONSE_RECORD_ID, DSL.max(ADYEN_RESPONSE_UPDATES.RECORD_ID))
+                                                                                               .from(ADYEN_RESPONSE_UPDATES)
+                                                                                               .groupBy(ADYEN_RESPONSE_UPDATES.RESPONSE_RECORD_ID)
+                                                                                               .orderBy(DSL.min(ADYEN_RESPONSE_UPDATES.RECORD_ID))
+                                                                                               .limit(batchSize)
+                                                                                               .fetch();
+                                                                                 }
+                                                                             });
+
+        int nbCompacted = 0;
+        for (final Record2<UInteger, UInteger> pendingResponse : pendingResponses) {
+            final boolean compacted = inUnitOfWork(true,
+                                                   new UnitOfWork<Boolean, SQLException>() {
+                                                       @Override
+                                                       public Boolean execute() throws SQLException {
+                                                           return compactResponseUpdates(pendingResponse.value1(), pendingResponse.value2());
+                                                       }
+                                                   });
+            if (compacted) {
+                nbCompacted++;
+            }
+        }
+        return nbCompacted;
+    }
+
+    private boolean compactResponseUpdates(final UInteger responseRecordId, final UInteger upToRecordId) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Boolean>() {
+                           @Override
+                           public Boolean withConnection(final Connection conn) throws SQLException {
+                               final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                               final Condition compactedUpdates = ADYEN_RESPONSE_UPDATES.RESPONSE_RECORD_ID.equal(responseRecordId)
+                                                                                                           .and(ADYEN_RESPONSE_UPDATES.RECORD_ID.lessOrEqual(upToRecordId));
+                               for (final AdyenResponses table : ImmutableList.<AdyenResponses>of(ADYEN_RESPONSES, ADYEN_RESPONSES_ARCHIVE)) {
+                                   final AdyenResponsesRecord response = dslContext.selectFrom(table)
+                                                                                   .where(table.RECORD_ID.equal(responseRecordId))
+                                                                                   .fetchOne();
+                                   if (response == null) {
+                                       continue;
+                                   }
+
+                                   final Map data = new HashMap(fromAdditionalData(response.getAdditionalData()));
+                                   for (final AdyenResponseUpdatesRecord responseUpdate : dslContext.selectFrom(ADYEN_RESPONSE_UPDATES)
+                                                                                                    .where(compactedUpdates)
+                                                                                                    .orderBy(ADYEN_RESPONSE_UPDATES.RECORD_ID.asc())
+                                                                                                    .fetch()) {
+                                       applyResponseUpdate(data, responseUpdate);
+                                   }
+                                   final int nbUpdated = dslContext.update(table)
+                                                                   .set(table.ADDITIONAL_DATA, asString(data))
+                                                                   .set(table.VERSION, response.getVersion() + 1)
+                                                                   .where(table.RECORD_ID.equal(responseRecordId))
+                                                                   .and(table.VERSION.equal(response.getVersion()))
+                                                                   .execute();
+                                   if (nbUpdated == 0) {
+                                       return false;
+                                   }
+                                   break;
+                               }
+
+                               // Also drops the updates of responses which don't exist anymore
+                               dslContext.deleteFrom(ADYEN_RESPONSE_UPDATES)
+                                         .where(compactedUpdates)
+                                         .execute();
+                               return true;
+                           }
+                       });
+    }
+
+    // Retention
+
+    public interface RetentionPolicy {
+
+        /**
+         * @param kbTenantId tenant of the row (null for notifications which couldn't be matched to a payment)
+         * @return rows created before that date are archived, null to keep all rows
+         */
+        DateTime getArchivingHorizon(@Nullable String kbTenantId);
+    }
+
+    /**
+     * Move the responses older than their tenant horizon to adyen_responses_archive, see #archive
+     */
+    public int archiveResponses(final RetentionPolicy retentionPolicy, final int batchSize, final long batchDelayMillis) throws SQLException {
+        return archive(ADYEN_RESPONSES,
+                       ADYEN_RESPONSES_ARCHIVE,
+                       ADYEN_RESPONSES.RECORD_ID,
+                       ADYEN_RESPONSES.KB_TENANT_ID,
+                       ADYEN_RESPONSES.CREATED_DATE,
+                       retentionPolicy,
+                       batchSize,
+                       batchDelayMillis);
+    }
+
+    /**
+     * Move the notifications older than their tenant horizon to adyen_notifications_archive, see #archive
+     */
+    public int archiveNotifications(final RetentionPolicy retentionPolicy, final int batchSize, final long batchDelayMillis) throws SQLException {
+        return archive(ADYEN_NOTIFICATIONS,
+                       ADYEN_NOTIFICATIONS_ARCHIVE,
+                       ADYEN_NOTIFICATIONS.RECORD_ID,
+                       ADYEN_NOTIFICATIONS.KB_TENANT_ID,
+                       ADYEN_NOTIFICATIONS.CREATED_DATE,
+                       retentionPolicy,
+                       batchSize,
+                       batchDelayMillis);
+    }
+
+    /**
+     * Rows are walked from the oldest one, batchSize at a time. The expired rows of each page are copied to the archive
+     * table and deleted in a single short transaction, then the job pauses for batchDelayMillis, to limit the load on the database.
+     * <p>
+     * The horizons of all the tenants of the table are resolved upfront: since record_id follows created_date, the walk stops
+     * at the first page newer than the most recent of them (a tenant with a short retention may only have rows past the
+     * horizon of the others). It can be interrupted between pages (e.g. when the plugin is stopped) and can safely run on
+     * several nodes concurrently.
+     *
+     * @return the number of rows archived
+     */
+    private <R extends Record> int archive(final Table<R> table,
+                                           final Table<R> archiveTable,
+                                           final TableField<R, UInteger> recordIdField,
+                                           final TableField<R, String> kbTenantIdField,
+                                           final TableField<R, Timestamp> createdDateField,
+                                           final RetentionPolicy retentionPolicy,
+                                           final int batchSize,
+                                           final long batchDelayMillis) throws SQLException {
+        // Horizons are resolved once per tenant and run
+        final Map<String, Optional<Timestamp>> horizons = new HashMap<String, Optional<Timestamp>>();
+        Timestamp latestHorizon = null;
+        final List<String> kbTenantIds = execute(dataSource.getConnection(),
+                                                 new WithConnectionCallback<List<String>>() {
+                                                     @Override
+                                                     public List<String> withConnection(final Connection conn) throws SQLException {
+                                                         return DSL.using(conn, dialect, settings)
+                                                                   .selectDistinct(kbTenantIdField)
+                                                                   .from(table)
+                                                                   .fetch(kbTenantIdField);
+                                                     }
+                                                 });
+        for (final String kbTenantId : kbTenantIds) {
+            final Optional<Timestamp> horizon = getArchivingHorizon(retentionPolicy, kbTenantId);
+            horizons.put(kbTenantId, horizon);
+            if (horizon.isPresent() && (latestHorizon == null || horizon.get().after(latestHorizon))) {
+                latestHorizon = horizon.get();
+            }
+        }
+        if (latestHorizon == null) {
+            // Nothing to archive
+            return 0;
+        }
+
+        int nbArchived = 0;
+        UInteger lastRecordId = UInteger.valueOf(0);
+        while (!Thread.currentThread().isInterrupted()) {
+            final UInteger afterRecordId = lastRecordId;
+            final Result<Record3<UInteger, String, Timestamp>> page = execute(dataSource.getConnection(),
+                                                                              new WithConnectionCallback<Result<Record3<UInteger, String, Timestamp>>>() {
+                                                                                  @Override
+                                                                                  public Result<Record3<UInteger, String, Timestamp>> withConnection(final Connection conn) throws SQLException {
+                                                                                      return DSL.using(conn, dialect, settings)
+                                                                                                .select(recordIdField, kbTenantIdField, createdDateField)
+                                                                                                .from(table)
+                                                                                                .where(recordIdField.greaterThan(afterRecordId))
+                                                                                                .orderBy(recordIdField.asc())
+                                                                                                .limit(batchSize)
+                                                                                                .fetch();
+                                                                                  }
+                                                                              });
+            if (page.isEmpty()) {
+                return nbArchived;
+            }
+
+            final List<UInteger> expiredRecordIds = new ArrayList<UInteger>(page.size());
+            for (final Record3<UInteger, String, Timestamp> row : page) {
+                Optional<Timestamp> horizon = horizons.get(row.value2());
+                if (horizon == null) {
+                    // Tenant whose first row was written during the run: too recent to be archived
+                    horizon = getArchivingHorizon(retentionPolicy, row.value2());
+                    horizons.put(row.value2(), horizon);
+                }
+                if (horizon.isPresent() && row.value3().before(horizon.get())) {
+                    expiredRecordIds.add(row.value1());
+                }
+            }
+
+            if (!expiredRecordIds.isEmpty()) {
+                moveToArchive(table, archiveTable, recordIdField, expiredRecordIds);
+                nbArchived += expiredRecordIds.size();
+            }
+
+            final Record3<UInteger, String, Timestamp> lastRow = page.get(page.size() - 1);
+            if (!lastRow.value3().before(latestHorizon)) {
+                return nbArchived;
+            }
+            lastRecordId = lastRow.value1();
+
+            try {
+                Thread.sleep(batchDelayMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return nbArchived;
+    }
+
+    private Optional<Timestamp> getArchivingHorizon(final RetentionPolicy retentionPolicy, @Nullable final String kbTenantId) {
+        final DateTime archivingHorizon = retentionPolicy.getArchivingHorizon(kbTenantId);
+        return archivingHorizon == null ? Optional.<Timestamp>absent() : Optional.of(toTimestamp(archivingHorizon));
+    }
+
+    private <R extends Record> void moveToArchive(final Table<R> table,
+                                                  final Table<R> archiveTable,
+                                                  final TableField<R, UInteger> recordIdField,
+                                                  final Collection<UInteger> recordIds) throws SQLException {
+        inUnitOfWork(true,
+                     new UnitOfWork<Void, SQLException>() {
+                         @Override
+                         public Void execute() throws SQLException {
+                             copyAndDelete(table, archiveTable, recordIdField, recordIds);
+                             return null;
+                         }
+                     });
+    }
+
+    private <R extends Record> void copyAndDelete(final Table<R> table,
+                                                  final Table<R> archiveTable,
+                                                  final TableField<R, UInteger> recordIdField,
+                                                  final Collection<UInteger> recordIds) throws SQLException {
+        execute(dataSource.getConnection(),
+                new WithConnectionCallback<Void>() {
+                    @Override
+                    public Void withConnection(final Connection conn) throws SQLException {
+                        final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                        // Skip rows already archived by a concurrent run
+                        dslContext.insertInto(archiveTable, archiveTable.fields())
+                                  .select(dslContext.select(table.fields())
+                                                    .from(table)
+                                                    .where(recordIdField.in(recordIds))
+                                                    .and(DSL.notExists(dslContext.selectOne()
+                                                                                 .from(archiveTable)
+                                                                                 .where(archiveTable.field(recordIdField).equal(recordIdField)))))
+                                  .execute();
+                        dslContext.deleteFrom(table)
+                                  .where(recordIdField.in(recordIds))
+                                  .execute();
+                        return null;
+                    }
+                });
+    }
+
+    // Promoted additional data
+
+    /**
+     * Populate the columns promoted from additional_data (see V20181022120000__promote_additional_data_keys.sql) for rows
+     * written before these columns existed.
+     * <p>
+     * Rows are walked in record_id order, batchSize at a time, each page being updated with a single JDBC batch: locks are
+     * only held briefly and the job can safely run on several nodes concurrently (rows are updated with the same values).
+     * A row written in between (e.g. by #updateResponse) isn't overwritten: each update re-checks that the row still needs
+     * the backfill and, for adyen_responses, that its version hasn't changed.
+     *
+     * @param batchSize number of rows per page
+     * @return the number of rows processed (including those written concurrently, hence left untouched)
+     * @throws SQLException For any unexpected SQL error
+     */
+    public int backfillPromotedColumns(final int batchSize) throws SQLException {
+        int nbUpdated = 0;
+
+        // Always populated on write, hence a null from_hpp identifies rows which haven't been backfilled yet
+        nbUpdated += backfillPromotedColumns(ADYEN_RESPONSES,
+                                             ADYEN_RESPONSES.RECORD_ID,
+                                             ADYEN_RESPONSES.VERSION,
+                                             ADYEN_RESPONSES.ADDITIONAL_DATA,
+                                             ADYEN_RESPONSES.FROM_HPP.isNull(),
+                                             new PromotedColumns() {
+                                                 @Override
+                                                 public Map<Field<?>, Object> fromAdditionalData(final Map additionalData) {
+                                                     final Map<Field<?>, Object> values = new HashMap<Field<?>, Object>();
+                                                     values.put(ADYEN_RESPONSES.MERCHANT_ACCOUNT_CODE, getPromotedValue(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, additionalData));
+                                                     values.put(ADYEN_RESPONSES.PAYMENT_METHOD, getPromotedValue(AdyenPaymentPluginApi.PROPERTY_PAYMENT_METHOD, additionalData));
+                                                     values.put(ADYEN_RESPONSES.FROM_HPP, getPromotedFlag(AdyenPaymentPluginApi.PROPERTY_FROM_HPP, additionalData));
+                                                     return values;
+                                                 }
+                                             },
+                                             batchSize);
+
+        // Only look at rows which have the key, to avoid re-processing the whole table every time
+        nbUpdated += backfillPromotedColumns(ADYEN_HPP_REQUESTS,
+                                             ADYEN_HPP_REQUESTS.RECORD_ID,
+                                             null,
+                                             ADYEN_HPP_REQUESTS.ADDITIONAL_DATA,
+                                             ADYEN_HPP_REQUESTS.BRAND_CODE.isNull()
+                                                                          .and(ADYEN_HPP_REQUESTS.ADDITIONAL_DATA.like(jsonKeyPattern(AdyenPaymentPluginApi.PROPERTY_BRAND_CODE))),
+                                             new PromotedColumns() {
+                                                 @Override
+                                                 public Map<Field<?>, Object> fromAdditionalData(final Map additionalData) {
+                                                     final Map<Field<?>, Object> values = new HashMap<Field<?>, Object>();
+                                                     values.put(ADYEN_HPP_REQUESTS.BRAND_CODE, getPromotedValue(AdyenPaymentPluginApi.PROPERTY_BRAND_CODE, additionalData));
+                                                     return values;
+                                                 }
+                                             },
+                                             batchSize);
+
+        nbUpdated += backfillPromotedColumns(ADYEN_PAYMENT_METHODS,
+                                             ADYEN_PAYMENT_METHODS.RECORD_ID,
+                                             null,
+                                             ADYEN_PAYMENT_METHODS.ADDITIONAL_DATA,
+                                             ADYEN_PAYMENT_METHODS.CUSTOMER_ID.isNull()
+                                                                              .and(ADYEN_PAYMENT_METHODS.RECURRING_TYPE.isNull())
+                                                                              .and(ADYEN_PAYMENT_METHODS.ADDITIONAL_DATA.like(jsonKeyPattern(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID))
+                                                                                                                        .or(ADYEN_PAYMENT_METHODS.ADDITIONAL_DATA.like(jsonKeyPattern(AdyenPaymentPluginApi.PROPERTY_RECURRING_TYPE)))),
+                                             new PromotedColumns() {
+                                                 @Override
+                                                 public Map<Field<?>, Object> fromAdditionalData(final Map additionalData) {
+                                                     final Map<Field<?>, Object> values = new HashMap<Field<?>, Object>();
+                                                     values.put(ADYEN_PAYMENT_METHODS.CUSTOMER_ID, getPromotedValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID, additionalData));
+                                                     values.put(ADYEN_PAYMENT_METHODS.RECURRING_TYPE, getPromotedValue(AdyenPaymentPluginApi.PROPERTY_RECURRING_TYPE, additionalData));
+                                                     return values;
+                                                 }
+                                             },
+                                             batchSize);
+
+        return nbUpdated;
+    }
+
+    private interface PromotedColumns {
+
+        Map<Field<?>, Object> fromAdditionalData(Map additionalData);
+    }
+
+    private <R extends Record> int backfillPromotedColumns(final Table<R> table,
+                                                           final TableField<R, UInteger> recordIdField,
+                                                           @Nullable final TableField<R, Integer> versionField,
+                                                           final TableField<R, String> additionalDataField,
+                                                           final Condition notBackfilled,
+                                                           final PromotedColumns promotedColumns,
+                                                           final int batchSize) throws SQLException {
+        final List<Field<?>> fields = new ArrayList<Field<?>>();
+        fields.add(recordIdField);
+        fields.add(additionalDataField);
+        if (versionField != null) {
+            fields.add(versionField);
+        }
+
+        int nbUpdated = 0;
+        UInteger lastRecordId = UInteger.valueOf(0);
+        // Interruptible between pages (e.g. when the plugin is stopped)
+        while (!Thread.currentThread().isInterrupted()) {
+            final UInteger afterRecordId = lastRecordId;
+            final Result<Record> page = execute(dataSource.getConnection(),
+                                                new WithConnectionCallback<Result<Record>>() {
+                                                    @Override
+                                                    public Result<Record> withConnection(final Connection conn) throws SQLException {
+                                                        final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                                                        final Result<Record> rows = dslContext.select(fields)
+                                                                                              .from(table)
+                                                                                              .where(recordIdField.greaterThan(afterRecordId))
+                                                                                              .and(notBackfilled)
+                                                                                              .orderBy(recordIdField.asc())
+                                                                                              .limit(batchSize)
+                                                                                              .fetch();
+                                                        if (rows.isEmpty()) {
+                                                            return rows;
+                                                        }
+
+                                                        final List<Query> updates = new ArrayList<Query>(rows.size());
+                                                        for (final Record row : rows) {
+                                                            final Map<Field<?>, Object> values = new HashMap<Field<?>, Object>(promotedColumns.fromAdditionalData(fromAdditionalData(row.getValue(additionalDataField))));
+                                                            // Not to overwrite a concurrent write (e.g. #updateResponse), based on more recent additional data
+                                                            Condition unchanged = recordIdField.equal(row.getValue(recordIdField)).and(notBackfilled);
+                                                            if (versionField != null) {
+                                                                final Integer version = row.getValue(versionField);
+                                                                values.put(versionField, version + 1);
+                                                                unchanged = unchanged.and(versionField.equal(version));
+                                                            }
+                                                            updates.add(dslContext.update(table)
+                                                                                  .set(values)
+                                                                                  .where(unchanged));
+                                                        }
+                                                        dslContext.batch(updates).execute();
+                                                        return rows;
+                                                    }
+                                                });
+            if (page.isEmpty()) {
+                return nbUpdated;
+            }
+
+            nbUpdated += page.size();
+            lastRecordId = page.get(page.size() - 1).getValue(recordIdField);
+        }
+        return nbUpdated;
+    }
+
+    /**
+     * Populate the compact identifier columns of adyen_responses (see UUIDStorage) for rows written before dual writes were enabled.
+     * <p>
+     * Same paging as #backfillPromotedColumns: safe to run concurrently on several nodes, interruptible between pages.
+     *
+     * @param batchSize number of rows per page
+     * @return the number of rows updated
+     * @throws SQLException For any unexpected SQL error
+     */
+    public int backfillBinaryUUIDs(final int batchSize) throws SQLException {
+        int nbUpdated = 0;
+        UInteger lastRecordId = UInteger.valueOf(0);
+        while (!Thread.currentThread().isInterrupted()) {
+            final UInteger afterRecordId = lastRecordId;
+            final Result<Record4<UInteger, String, String, String>> page = execute(dataSource.getConnection(),
+                                                                                   new WithConnectionCallback<Result<Record4<UInteger, String, String, String>>>() {
+                                                                                       @Override
+                                                                                       public Result<Record4<UInteger, String, String, String>> withConnection(final Connection conn) throws SQLException {
+                                                                                           final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                                                                                           final Result<Record4<UInteger, String, String, String>> rows = dslContext.select(ADYEN_RESPONSES.RECORD_ID,
+                                                                                                                                                                            ADYEN_RESPONSES.KB_PAYMENT_ID,
+                                                                                                                                                                            ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
+                                                                                                                                                                            ADYEN_RESPONSES.KB_TENANT_ID)
+                                                                                                                                                                    .from(ADYEN_RESPONSES)
+                                                                                                                                                                    .where(ADYEN_RESPONSES.RECORD_ID.greaterThan(afterRecordId))
+                                                                                                                                                                    .and(ADYEN_RESPONSES.KB_PAYMENT_ID_BIN.isNull())
+                                                                                                                                                                    .orderBy(ADYEN_RESPONSES.RECORD_ID.asc())
+                                                                                                                                                                    .limit(batchSize)
+                                                                                                                                                                    .fetch();
+                                                                                           if (rows.isEmpty()) {
+                                                                                               return rows;
+                                                                                           }
+
+                                                                                           final List<Query> updates = new ArrayList<Query>(rows.size());
+                                                                                           for (final Record4<UInteger, String, String, String> row : rows) {
+                                                                                               updates.add(dslContext.update(ADYEN_RESPONSES)
+                                                                                                                     .set(ADYEN_RESPONSES.KB_PAYMENT_ID_BIN, UUID.fromString(row.value2()))
+                                                                                                                     .set(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID_BIN, UUID.fromString(row.value3()))
+                                                                                                                     .set(ADYEN_RESPONSES.KB_TENANT_ID_BIN, UUID.fromString(row.value4()))
+                                                                                                                     .where(ADYEN_RESPONSES.RECORD_ID.equal(row.value1())));
+                                                                                           }
+                                                                                           dslContext.batch(updates).execute();
+                                                                                           return rows;
+                                                                                       }
+                                                                                   });
+            if (page.isEmpty()) {
+                return nbUpdated;
+            }
+
+            nbUpdated += page.size();
+            lastRecordId = page.get(page.size() - 1).value1();
+        }
+        return nbUpdated;
+    }
+
+    private static String jsonKeyPattern(final String key) {
+        return "%\"" + key + "\":%";
+    }
+
+    /**
+     * @param record response row
+     * @return the merchant account used for the call, read from the promoted column if the row has been backfilled
+     */
+    public static String getMerchantAccountCode(final AdyenResponsesRecord record) {
+        if (record.getFromHpp() != null) {
+            return record.getMerchantAccountCode();
+        }
+        return getPromotedValue(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, fromAdditionalData(record.getAdditionalData()));
+    }
+
+    public static String getPaymentMethod(final AdyenResponsesRecord record) {
+        if (record.getFromHpp() != null) {
+            return record.getPaymentMethod();
+        }
+        return getPromotedValue(AdyenPaymentPluginApi.PROPERTY_PAYMENT_METHOD, fromAdditionalData(record.getAdditionalData()));
+    }
+
+    public static boolean isFromHpp(final AdyenResponsesRecord record) {
+        final Byte fromHpp = record.getFromHpp() != null ? record.getFromHpp() : getPromotedFlag(AdyenPaymentPluginApi.PROPERTY_FROM_HPP, fromAdditionalData(record.getAdditionalData()));
+        return fromHpp == TRUE;
+    }
+
+    // For the tables below, the column is null both for rows without the key and rows not backfilled yet
+
+    public static String getBrandCode(final AdyenHppRequestsRecord record) {
+        if (record.getBrandCode() != null) {
+            return record.getBrandCode();
+        }
+        return getPromotedValue(AdyenPaymentPluginApi.PROPERTY_BRAND_CODE, fromAdditionalData(record.getAdditionalData()));
+    }
+
+    public static String getCustomerId(final AdyenPaymentMethodsRecord record) {
+        if (record.getCustomerId() != null) {
+            return record.getCustomerId();
+        }
+        return getPromotedValue(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID, fromAdditionalData(record.getAdditionalData()));
+    }
+
+    public static String getRecurringType(final AdyenPaymentMethodsRecord record) {
+        if (record.getRecurringType() != null) {
+            return record.getRecurringType();
+        }
+        return getPromotedValue(AdyenPaymentPluginApi.PROPERTY_RECURRING_TYPE, fromAdditionalData(record.getAdditionalData()));
+    }
+
+    private static String getPromotedValue(final String key, @Nullable final Map additionalData) {
+        if (additionalData == null) {
+            return null;
+        }
+        final Object value = additionalData.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static Byte getPromotedFlag(final String key, @Nullable final Map additionalData) {
+        return fromBoolean(Boolean.valueOf(getPromotedValue(key, additionalData)));
+    }
+
     private String getString(@Nullable final Iterable<?> iterable) {
         if (iterable == null || !iterable.iterator().hasNext()) {
             return null;
@@ -539,7 +2146,7 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
         return getProperty(key, response.getAdditionalData());
     }
 
-    private String getAdditionalData(final PurchaseResult result) throws SQLException {
+    private Map<String, String> getAdditionalDataMap(final PurchaseResult result) {
         final Map<String, String> additionalDataMap = new HashMap<String, String>();
         if (result.getAdditionalData() != null && !result.getAdditionalData().isEmpty()) {
             additionalDataMap.putAll(result.getAdditionalData());
@@ -547,24 +2154,34 @@ public class AdyenDao extends PluginPaymentDao<AdyenResponsesRecord, AdyenRespon
         if (result.getFormParameter() != null && !result.getFormParameter().isEmpty()) {
             additionalDataMap.putAll(result.getFormParameter());
         }
-        if (additionalDataMap.isEmpty()) {
-            return null;
-        } else {
-            return asString(additionalDataMap);
-        }
+        return additionalDataMap;
     }
 
     private String getAdditionalData(final PaymentModificationResponse response) throws SQLException {
         return asString(response.getAdditionalData());
     }
 
+    @Override
+    protected String asString(final Map additionalData) throws SQLException {
+        if (additionalData == null || additionalData.isEmpty()) {
+            return null;
+        }
+
+        try {
+            final String json = additionalDataWriter.writeValueAsString(additionalData);
+            return compressAdditionalData ? AdditionalDataCodec.encode(json) : json;
+        } catch (final JsonProcessingException e) {
+            throw new SQLException(e);
+        }
+    }
+
     public static Map fromAdditionalData(@Nullable final String additionalData) {
         if (additionalData == null) {
             return ImmutableMap.of();
         }
 
         try {
-            return objectMapper.readValue(additionalData, Map.class);
+            return additionalDataReader.readValue(AdditionalDataCodec.decode(additionalData));
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
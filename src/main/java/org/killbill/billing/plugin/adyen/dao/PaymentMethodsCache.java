@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
+
+/**
+ * Near cache of the adyen_payment_methods rows, looked up on every payment call (see AdyenDao#getCachedPaymentMethod)
+ * <ul>
+ * <li>each tenant has its own bounded cache, so that a large tenant cannot evict the rows of the others</li>
+ * <li>rows written by this node are invalidated synchronously, rows written by other nodes expire after ttlMillis,
+ * or earlier if their updated_date is polled (see PaymentMethodsCachePoller)</li>
+ * <li>a row loaded while an invalidation of the same row (or of a row in the same stripe, or of its whole account) is in
+ * flight is not cached, as it may be stale. Invalidations of unrelated rows don't affect the loads in progress</li>
+ * </ul>
+ * Records are copied in and out, callers are free to modify them.
+ */
+public class PaymentMethodsCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final long maxSizePerTenant;
+    private final long ttlMillis;
+    private final ConcurrentMap<String, Cache<String, AdyenPaymentMethodsRecord>> cachesByTenant = new ConcurrentHashMap<String, Cache<String, AdyenPaymentMethodsRecord>>();
+
+    // Bumped by the invalidation of a row of the stripe
+    private final AtomicLongArray stripeGenerations = new AtomicLongArray(GENERATION_STRIPES);
+    // Bumped by the invalidations spanning several rows
+    private final AtomicLong globalGeneration = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public PaymentMethodsCache(final long maxSizePerTenant, final long ttlMillis) {
+        this.maxSizePerTenant = maxSizePerTenant;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param kbPaymentMethodId Kill Bill payment method id of the row about to be loaded
+     * @return the generation to pass to #put, to be read before loading the row
+     */
+    public long getGeneration(final String kbPaymentMethodId) {
+        return getGeneration(stripe(kbPaymentMethodId));
+    }
+
+    @Nullable
+    public AdyenPaymentMethodsRecord get(final String kbPaymentMethodId, final String kbTenantId) {
+        final Cache<String, AdyenPaymentMethodsRecord> cache = cachesByTenant.get(kbTenantId);
+        final AdyenPaymentMethodsRecord record = cache == null ? null : cache.getIfPresent(kbPaymentMethodId);
+        if (record == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copyOf(record);
+    }
+
+    public void put(final AdyenPaymentMethodsRecord record, final long loadGeneration) {
+        final int stripe = stripe(record.getKbPaymentMethodId());
+        if (getGeneration(stripe) != loadGeneration) {
+            return;
+        }
+
+        final Cache<String, AdyenPaymentMethodsRecord> cache = getOrCreateCache(record.getKbTenantId());
+        cache.put(record.getKbPaymentMethodId(), copyOf(record));
+        if (getGeneration(stripe) != loadGeneration) {
+            // Invalidated while being cached
+            cache.invalidate(record.getKbPaymentMethodId());
+        }
+    }
+
+    public void invalidate(final String kbPaymentMethodId, final String kbTenantId) {
+        stripeGenerations.incrementAndGet(stripe(kbPaymentMethodId));
+        invalidations.increment();
+        final Cache<String, AdyenPaymentMethodsRecord> cache = cachesByTenant.get(kbTenantId);
+        if (cache != null) {
+            cache.invalidate(kbPaymentMethodId);
+        }
+    }
+
+    // For writes spanning all payment methods of an account (e.g. setDefaultPaymentMethod)
+    public void invalidateAccount(final String kbAccountId, final String kbTenantId) {
+        globalGeneration.incrementAndGet();
+        invalidations.increment();
+        final Cache<String, AdyenPaymentMethodsRecord> cache = cachesByTenant.get(kbTenantId);
+        if (cache == null) {
+            return;
+        }
+        final Iterator<AdyenPaymentMethodsRecord> iterator = cache.asMap().values().iterator();
+        while (iterator.hasNext()) {
+            if (kbAccountId.equals(iterator.next().getKbAccountId())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        globalGeneration.incrementAndGet();
+        invalidations.increment();
+        for (final Cache<String, AdyenPaymentMethodsRecord> cache : cachesByTenant.values()) {
+            cache.invalidateAll();
+        }
+    }
+
+    public Map<String, Object> getSnapshot() {
+        long size = 0;
+        for (final Cache<String, AdyenPaymentMethodsRecord> cache : cachesByTenant.values()) {
+            size += cache.size();
+        }
+        final long nbHits = hits.sum();
+        final long nbMisses = misses.sum();
+
+        final Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("hits", nbHits);
+        snapshot.put("misses", nbMisses);
+        snapshot.put("hitRatio", nbHits + nbMisses == 0 ? 0 : nbHits / (double) (nbHits + nbMisses));
+        snapshot.put("invalidations", invalidations.sum());
+        snapshot.put("tenants", cachesByTenant.size());
+        snapshot.put("size", size);
+        return snapshot;
+    }
+
+    // Both counters only increase: the sum changes whenever either of them does
+    private long getGeneration(final int stripe) {
+        return globalGeneration.get() + stripeGenerations.get(stripe);
+    }
+
+    private static int stripe(final String kbPaymentMethodId) {
+        return (kbPaymentMethodId.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private Cache<String, AdyenPaymentMethodsRecord> getOrCreateCache(final String kbTenantId) {
+        Cache<String, AdyenPaymentMethodsRecord> cache = cachesByTenant.get(kbTenantId);
+        if (cache == null) {
+            final Cache<String, AdyenPaymentMethodsRecord> newCache = CacheBuilder.newBuilder()
+                                                                                  .maximumSize(maxSizePerTenant)
+                                                                                  .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                                                                                  .build();
+            cache = cachesByTenant.putIfAbsent(kbTenantId, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    private static AdyenPaymentMethodsRecord copyOf(final AdyenPaymentMethodsRecord record) {
+        final AdyenPaymentMethodsRecord copy = record.into(ADYEN_PAYMENT_METHODS);
+        copy.changed(false);
+        return copy;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Routing of read-only units of work to a read replica (see AdyenDao#inReadOnlyUnitOfWork)
+ * <ul>
+ * <li>read-your-writes: reads of a payment (or an account) written by this node less than readYourWritesWindowMillis ago stay on the primary</li>
+ * <li>lag: the replica is probed in the background every lagProbeIntervalMillis (see #start), reads stay on the primary while
+ * it lags by more than maxLagMillis, or until the first probe has completed</li>
+ * <li>errors: after a failed probe or replica read, reads stay on the primary until the next successful probe</li>
+ * </ul>
+ * Routing itself only reads the cached probe results, it never queries the databases.
+ * The lag is measured with a heartbeat: each probe writes the time of this node in its adyen_replica_heartbeats row on the
+ * primary, then reads that row back on the replica. As the replica applies the writes in order, any write (insert or update,
+ * to any table) committed before the heartbeat it has is visible there. The lag is the time elapsed since that heartbeat
+ * (with a granularity of one probe interval), and doesn't rely on the database clocks.
+ */
+public class ReadReplicaRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadReplicaRouter.class);
+
+    private static final String UPDATE_HEARTBEAT_QUERY = "update adyen_replica_heartbeats set beat_millis = ? where node_id = ?";
+    private static final String INSERT_HEARTBEAT_QUERY = "insert into adyen_replica_heartbeats (node_id, beat_millis) values (?, ?)";
+    private static final String SELECT_HEARTBEAT_QUERY = "select beat_millis from adyen_replica_heartbeats where node_id = ?";
+    private static final String DELETE_HEARTBEAT_QUERY = "delete from adyen_replica_heartbeats where node_id = ?";
+
+    // Lag until the first probe
+    private static final long UNKNOWN_LAG = -1;
+
+    public enum Route {
+        REPLICA,
+        PRIMARY_RECENT_WRITE,
+        PRIMARY_REPLICA_LAG,
+        PRIMARY_REPLICA_ERROR,
+        // The replica read failed and was retried on the primary
+        PRIMARY_FALLBACK
+    }
+
+    // Each node has its own heartbeat row, so that the lag is computed from the clock of a single node
+    private final String nodeId = UUID.randomUUID().toString();
+    private final DataSource primary;
+    private final DataSource replica;
+    private final long maxLagMillis;
+    private final long lagProbeIntervalMillis;
+    private final Cache<UUID, Boolean> recentWrites;
+    private final ScheduledExecutorService executor;
+    private final LongAdder[] counts = new LongAdder[Route.values().length];
+    private final LongAdder[] durationsNanos = new LongAdder[Route.values().length];
+
+    private volatile long lagMillis = UNKNOWN_LAG;
+    private volatile boolean replicaHealthy = true;
+    // Only accessed by the probing thread
+    private long lastBeatMillis = -1;
+    private long firstBeatMillis = -1;
+
+    public ReadReplicaRouter(final DataSource primary,
+                             final DataSource replica,
+                             final long readYourWritesWindowMillis,
+                             final long maxLagMillis,
+                             final long lagProbeIntervalMillis) {
+        this.primary = primary;
+        this.replica = replica;
+        this.maxLagMillis = maxLagMillis;
+        this.lagProbeIntervalMillis = lagProbeIntervalMillis;
+        this.recentWrites = CacheBuilder.newBuilder()
+                                        .expireAfterWrite(readYourWritesWindowMillis, TimeUnit.MILLISECONDS)
+                                        .build();
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+            durationsNanos[i] = new LongAdder();
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "adyen-read-replica-lag-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                probeLag();
+                                            }
+                                        },
+                                        0,
+                                        Math.max(1, lagProbeIntervalMillis),
+                                        TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            executeOnPrimary(DELETE_HEARTBEAT_QUERY, nodeId);
+        } catch (final SQLException | RuntimeException e) {
+            logger.warn("Unable to delete the read replica heartbeat of node {}", nodeId, e);
+        }
+    }
+
+    public DataSource getReplica() {
+        return replica;
+    }
+
+    public void recordWrite(final UUID routingKey) {
+        recentWrites.put(routingKey, Boolean.TRUE);
+    }
+
+    public Route route(@Nullable final UUID routingKey) {
+        if (routingKey != null && recentWrites.getIfPresent(routingKey) != null) {
+            return Route.PRIMARY_RECENT_WRITE;
+        }
+
+        if (!replicaHealthy) {
+            return Route.PRIMARY_REPLICA_ERROR;
+        } else if (lagMillis == UNKNOWN_LAG || lagMillis > maxLagMillis) {
+            return Route.PRIMARY_REPLICA_LAG;
+        } else {
+            return Route.REPLICA;
+        }
+    }
+
+    public void recordReplicaError(final Exception e) {
+        logger.warn("Read replica query failed, falling back to the primary", e);
+        replicaHealthy = false;
+    }
+
+    public void recordRead(final Route route, final long startNanos) {
+        counts[route.ordinal()].increment();
+        durationsNanos[route.ordinal()].add(System.nanoTime() - startNanos);
+    }
+
+    // -1 until the first probe has completed
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public boolean isReplicaHealthy() {
+        return replicaHealthy;
+    }
+
+    public Map<String, Object> getSnapshot() {
+        final Map<String, Object> routes = new LinkedHashMap<String, Object>();
+        for (final Route route : Route.values()) {
+            final long count = counts[route.ordinal()].sum();
+            final Map<String, Object> routeSnapshot = new LinkedHashMap<String, Object>();
+            routeSnapshot.put("count", count);
+            routeSnapshot.put("meanMs", count == 0 ? 0 : durationsNanos[route.ordinal()].sum() / (double) count / 1000000);
+            routes.put(route.toString(), routeSnapshot);
+        }
+
+        final Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("replicaHealthy", replicaHealthy);
+        snapshot.put("lagMs", lagMillis);
+        snapshot.put("routes", routes);
+        return snapshot;
+    }
+
+    // Run by the background probe, only visible for testing
+    void probeLag() {
+        final Long replicaBeatMillis;
+        try {
+            writeHeartbeat();
+            replicaBeatMillis = readHeartbeat(replica);
+        } catch (final SQLException | RuntimeException e) {
+            // Catch everything, not to cancel the next runs
+            logger.warn("Unable to probe the read replica lag", e);
+            replicaHealthy = false;
+            return;
+        }
+
+        if (replicaBeatMillis == null) {
+            // No heartbeat replicated yet: unknown on the first probe, then at least the time since the first heartbeat
+            lagMillis = firstBeatMillis == lastBeatMillis ? UNKNOWN_LAG : System.currentTimeMillis() - firstBeatMillis;
+        } else if (replicaBeatMillis == lastBeatMillis) {
+            lagMillis = 0;
+        } else {
+            // The writes committed after that heartbeat may be missing
+            lagMillis = Math.max(0, System.currentTimeMillis() - replicaBeatMillis);
+        }
+        replicaHealthy = true;
+    }
+
+    private void writeHeartbeat() throws SQLException {
+        // Strictly increasing, to tell the heartbeat just written from the previous one
+        final long beatMillis = Math.max(System.currentTimeMillis(), lastBeatMillis + 1);
+        if (executeOnPrimary(UPDATE_HEARTBEAT_QUERY, beatMillis, nodeId) == 0) {
+            executeOnPrimary(INSERT_HEARTBEAT_QUERY, nodeId, beatMillis);
+        }
+        lastBeatMillis = beatMillis;
+        if (firstBeatMillis == -1) {
+            firstBeatMillis = beatMillis;
+        }
+    }
+
+    private int executeOnPrimary(final String query, final Object... parameters) throws SQLException {
+        final Connection connection = primary.getConnection();
+        try {
+            final PreparedStatement statement = connection.prepareStatement(query);
+            try {
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                return statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Nullable
+    private Long readHeartbeat(final DataSource dataSource) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            final PreparedStatement statement = connection.prepareStatement(SELECT_HEARTBEAT_QUERY);
+            try {
+                statement.setString(1, nodeId);
+                final ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() ? resultSet.getLong(1) : null;
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * DataSource handing out the connection bound to the current thread by a unit of work (see AdyenDao#inUnitOfWork),
+ * or a new connection from the pool otherwise.
+ * <p>
+ * The bound connection is shared by all queries of the unit of work: closing it is a no-op, the unit of work
+ * returns it to the pool once done.
+ * <p>
+ * While a read-only unit of work is routed to the read replica (see AdyenDao#inReadOnlyUnitOfWork), connections
+ * are borrowed from the replica pool instead.
+ */
+class UnitOfWorkDataSource implements DataSource {
+
+    private final DataSource delegate;
+    private final ThreadLocal<Connection> boundConnection = new ThreadLocal<Connection>();
+    private final ThreadLocal<DataSource> boundReadDataSource = new ThreadLocal<DataSource>();
+
+    UnitOfWorkDataSource(final DataSource delegate) {
+        this.delegate = delegate;
+    }
+
+    boolean isBound() {
+        return boundConnection.get() != null;
+    }
+
+    Connection bind() throws SQLException {
+        final Connection connection = delegate.getConnection();
+        boundConnection.set(connection);
+        return connection;
+    }
+
+    void unbind() {
+        boundConnection.remove();
+    }
+
+    boolean isReadBound() {
+        return boundReadDataSource.get() != null;
+    }
+
+    void bindRead(final DataSource readDataSource) {
+        boundReadDataSource.set(readDataSource);
+    }
+
+    void unbindRead() {
+        boundReadDataSource.remove();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final Connection connection = boundConnection.get();
+        return connection == null ? getDataSource().getConnection() : nonClosing(connection);
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        final Connection connection = boundConnection.get();
+        return connection == null ? getDataSource().getConnection(username, password) : nonClosing(connection);
+    }
+
+    private DataSource getDataSource() {
+        final DataSource readDataSource = boundReadDataSource.get();
+        return readDataSource == null ? delegate : readDataSource;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return delegate.isWrapperFor(iface);
+    }
+
+    private static Connection nonClosing(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(UnitOfWorkDataSource.class.getClassLoader(),
+                                                   new Class[]{Connection.class},
+                                                   new InvocationHandler() {
+                                                       @Override
+                                                       public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                                                           if ("close".equals(method.getName())) {
+                                                               return null;
+                                                           }
+
+                                                           try {
+                                                               return method.invoke(connection, args);
+                                                           } catch (final InvocationTargetException e) {
+                                                               throw e.getCause();
+                                                           }
+                                                       }
+                                                   });
+    }
+}
@@ -22,8 +22,10 @@ public class Keys {
 	// -------------------------------------------------------------------------
 
 	public static final org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_HPP_REQUESTS = Identities0.IDENTITY_ADYEN_HPP_REQUESTS;
+	public static final org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_NOTIFICATION_LEASES = Identities0.IDENTITY_ADYEN_NOTIFICATION_LEASES;
 	public static final org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_NOTIFICATIONS = Identities0.IDENTITY_ADYEN_NOTIFICATIONS;
 	public static final org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_PAYMENT_METHODS = Identities0.IDENTITY_ADYEN_PAYMENT_METHODS;
+	public static final org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponseUpdatesRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_RESPONSE_UPDATES = Identities0.IDENTITY_ADYEN_RESPONSE_UPDATES;
 	public static final org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_RESPONSES = Identities0.IDENTITY_ADYEN_RESPONSES;
 
 	// -------------------------------------------------------------------------
@@ -31,9 +33,12 @@ public class Keys {
 	// -------------------------------------------------------------------------
 
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord> KEY_ADYEN_HPP_REQUESTS_PRIMARY = UniqueKeys0.KEY_ADYEN_HPP_REQUESTS_PRIMARY;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord> KEY_ADYEN_NOTIFICATION_LEASES_PRIMARY = UniqueKeys0.KEY_ADYEN_NOTIFICATION_LEASES_PRIMARY;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord> KEY_ADYEN_NOTIFICATION_LEASES_ADYEN_NOTIFICATION_LEASES_LEASE_KEY = UniqueKeys0.KEY_ADYEN_NOTIFICATION_LEASES_ADYEN_NOTIFICATION_LEASES_LEASE_KEY;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord> KEY_ADYEN_NOTIFICATIONS_PRIMARY = UniqueKeys0.KEY_ADYEN_NOTIFICATIONS_PRIMARY;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord> KEY_ADYEN_PAYMENT_METHODS_PRIMARY = UniqueKeys0.KEY_ADYEN_PAYMENT_METHODS_PRIMARY;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord> KEY_ADYEN_PAYMENT_METHODS_ADYEN_PAYMENT_METHODS_KB_PAYMENT_ID = UniqueKeys0.KEY_ADYEN_PAYMENT_METHODS_ADYEN_PAYMENT_METHODS_KB_PAYMENT_ID;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponseUpdatesRecord> KEY_ADYEN_RESPONSE_UPDATES_PRIMARY = UniqueKeys0.KEY_ADYEN_RESPONSE_UPDATES_PRIMARY;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord> KEY_ADYEN_RESPONSES_PRIMARY = UniqueKeys0.KEY_ADYEN_RESPONSES_PRIMARY;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord> KEY_ADYEN_RESPONSES_ADYEN_RESPONSES_PSP_REFERENCE = UniqueKeys0.KEY_ADYEN_RESPONSES_ADYEN_RESPONSES_PSP_REFERENCE;
 
@@ -48,16 +53,21 @@ public class Keys {
 
 	private static class Identities0 extends org.jooq.impl.AbstractKeys {
 		public static org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_HPP_REQUESTS = createIdentity(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS.RECORD_ID);
+		public static org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_NOTIFICATION_LEASES = createIdentity(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES.RECORD_ID);
 		public static org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_NOTIFICATIONS = createIdentity(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS.RECORD_ID);
 		public static org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_PAYMENT_METHODS = createIdentity(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS.RECORD_ID);
+		public static org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponseUpdatesRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_RESPONSE_UPDATES = createIdentity(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES.RECORD_ID);
 		public static org.jooq.Identity<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, org.jooq.types.UInteger> IDENTITY_ADYEN_RESPONSES = createIdentity(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES.RECORD_ID);
 	}
 
 	private static class UniqueKeys0 extends org.jooq.impl.AbstractKeys {
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord> KEY_ADYEN_HPP_REQUESTS_PRIMARY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS.RECORD_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord> KEY_ADYEN_NOTIFICATION_LEASES_PRIMARY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES.RECORD_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationLeasesRecord> KEY_ADYEN_NOTIFICATION_LEASES_ADYEN_NOTIFICATION_LEASES_LEASE_KEY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES.LEASE_KEY);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord> KEY_ADYEN_NOTIFICATIONS_PRIMARY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS.RECORD_ID);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord> KEY_ADYEN_PAYMENT_METHODS_PRIMARY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS.RECORD_ID);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord> KEY_ADYEN_PAYMENT_METHODS_ADYEN_PAYMENT_METHODS_KB_PAYMENT_ID = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponseUpdatesRecord> KEY_ADYEN_RESPONSE_UPDATES_PRIMARY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES.RECORD_ID);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord> KEY_ADYEN_RESPONSES_PRIMARY = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES.RECORD_ID);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord> KEY_ADYEN_RESPONSES_ADYEN_RESPONSES_PSP_REFERENCE = createUniqueKey(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES, org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES.PSP_REFERENCE);
 	}
@@ -40,8 +40,10 @@ public class Killbill extends org.jooq.impl.SchemaImpl {
 	private final java.util.List<org.jooq.Table<?>> getTables0() {
 		return java.util.Arrays.<org.jooq.Table<?>>asList(
 			org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS,
+			org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES,
 			org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS,
 			org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS,
+			org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES,
 			org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES);
 	}
 }
@@ -21,6 +21,11 @@ public class Tables {
 	 */
 	public static final org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests ADYEN_HPP_REQUESTS = org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS;
 
+	/**
+	 * The table killbill.adyen_notification_leases
+	 */
+	public static final org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases ADYEN_NOTIFICATION_LEASES = org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationLeases.ADYEN_NOTIFICATION_LEASES;
+
 	/**
 	 * The table killbill.adyen_notifications
 	 */
@@ -31,6 +36,11 @@ public class Tables {
 	 */
 	public static final org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods ADYEN_PAYMENT_METHODS = org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
 
+	/**
+	 * The table killbill.adyen_response_updates
+	 */
+	public static final org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates ADYEN_RESPONSE_UPDATES = org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponseUpdates.ADYEN_RESPONSE_UPDATES;
+
 	/**
 	 * The table killbill.adyen_responses
 	 */
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao.gen;
+
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.UUID;
+
+import org.jooq.Binding;
+import org.jooq.BindingGetResultSetContext;
+import org.jooq.BindingGetSQLInputContext;
+import org.jooq.BindingGetStatementContext;
+import org.jooq.BindingRegisterContext;
+import org.jooq.BindingSQLContext;
+import org.jooq.BindingSetSQLOutputContext;
+import org.jooq.BindingSetStatementContext;
+import org.jooq.Converter;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+
+/**
+ * Binding for the compact Kill Bill identifier columns: varbinary(16) on MySQL and H2, native uuid on PostgreSQL
+ */
+public class UUIDBinding implements Binding<byte[], UUID> {
+
+    private static final long serialVersionUID = -2064462384919185630L;
+
+    @Override
+    public Converter<byte[], UUID> converter() {
+        return UUIDConverter.INSTANCE;
+    }
+
+    @Override
+    public void sql(final BindingSQLContext<UUID> ctx) throws SQLException {
+        if (ctx.render().paramType() != ParamType.INLINED) {
+            ctx.render().sql("?");
+        } else if (ctx.value() == null) {
+            ctx.render().sql("null");
+        } else if (isPostgreSQL(ctx.dialect())) {
+            ctx.render().sql("'" + ctx.value() + "'::uuid");
+        } else {
+            ctx.render().sql("X'" + ctx.value().toString().replace("-", "") + "'");
+        }
+    }
+
+    @Override
+    public void register(final BindingRegisterContext<UUID> ctx) throws SQLException {
+        ctx.statement().registerOutParameter(ctx.index(), isPostgreSQL(ctx.dialect()) ? Types.OTHER : Types.BINARY);
+    }
+
+    @Override
+    public void set(final BindingSetStatementContext<UUID> ctx) throws SQLException {
+        if (ctx.value() == null) {
+            ctx.statement().setNull(ctx.index(), isPostgreSQL(ctx.dialect()) ? Types.OTHER : Types.BINARY);
+        } else if (isPostgreSQL(ctx.dialect())) {
+            ctx.statement().setObject(ctx.index(), ctx.value());
+        } else {
+            ctx.statement().setBytes(ctx.index(), UUIDConverter.INSTANCE.to(ctx.value()));
+        }
+    }
+
+    @Override
+    public void set(final BindingSetSQLOutputContext<UUID> ctx) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void get(final BindingGetResultSetContext<UUID> ctx) throws SQLException {
+        ctx.value(fromDatabaseObject(ctx.resultSet().getObject(ctx.index())));
+    }
+
+    @Override
+    public void get(final BindingGetStatementContext<UUID> ctx) throws SQLException {
+        ctx.value(fromDatabaseObject(ctx.statement().getObject(ctx.index())));
+    }
+
+    @Override
+    public void get(final BindingGetSQLInputContext<UUID> ctx) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static UUID fromDatabaseObject(final Object databaseObject) {
+        if (databaseObject instanceof UUID) {
+            return (UUID) databaseObject;
+        } else {
+            return UUIDConverter.INSTANCE.from((byte[]) databaseObject);
+        }
+    }
+
+    private static boolean isPostgreSQL(final SQLDialect dialect) {
+        return dialect != null && dialect.family() == SQLDialect.POSTGRES;
+    }
+}
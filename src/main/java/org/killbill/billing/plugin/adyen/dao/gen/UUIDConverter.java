@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao.gen;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.jooq.Converter;
+
+/**
+ * Converts between the compact varbinary(16) storage of Kill Bill identifiers (most significant bits first) and UUIDs
+ */
+public class UUIDConverter implements Converter<byte[], UUID> {
+
+    private static final long serialVersionUID = 7460153702452683157L;
+
+    public static final UUIDConverter INSTANCE = new UUIDConverter();
+
+    @Override
+    public UUID from(final byte[] databaseObject) {
+        if (databaseObject == null) {
+            return null;
+        }
+
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(databaseObject);
+        return new UUID(byteBuffer.getLong(), byteBuffer.getLong());
+    }
+
+    @Override
+    public byte[] to(final UUID userObject) {
+        if (userObject == null) {
+            return null;
+        }
+
+        return ByteBuffer.allocate(16)
+                         .putLong(userObject.getMostSignificantBits())
+                         .putLong(userObject.getLeastSignificantBits())
+                         .array();
+    }
+
+    @Override
+    public Class<byte[]> fromType() {
+        return byte[].class;
+    }
+
+    @Override
+    public Class<UUID> toType() {
+        return UUID.class;
+    }
+}
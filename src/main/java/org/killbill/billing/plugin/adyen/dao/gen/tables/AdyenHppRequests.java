@@ -71,6 +71,11 @@ public class AdyenHppRequests extends org.jooq.impl.TableImpl<org.killbill.billi
 	 */
 	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord, java.lang.String> KB_TENANT_ID = createField("kb_tenant_id", org.jooq.impl.SQLDataType.CHAR.length(36).nullable(false), this, "");
 
+	/**
+	 * The column <code>killbill.adyen_hpp_requests.brand_code</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord, java.lang.String> BRAND_CODE = createField("brand_code", org.jooq.impl.SQLDataType.VARCHAR.length(64), this, "");
+
 	/**
 	 * Create a <code>killbill.adyen_hpp_requests</code> table reference
 	 */
@@ -171,6 +171,16 @@ public class AdyenPaymentMethods extends org.jooq.impl.TableImpl<org.killbill.bi
 	 */
 	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord, java.lang.String> KB_TENANT_ID = createField("kb_tenant_id", org.jooq.impl.SQLDataType.CHAR.length(36).nullable(false), this, "");
 
+	/**
+	 * The column <code>killbill.adyen_payment_methods.customer_id</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord, java.lang.String> CUSTOMER_ID = createField("customer_id", org.jooq.impl.SQLDataType.VARCHAR.length(255), this, "");
+
+	/**
+	 * The column <code>killbill.adyen_payment_methods.recurring_type</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord, java.lang.String> RECURRING_TYPE = createField("recurring_type", org.jooq.impl.SQLDataType.VARCHAR.length(64), this, "");
+
 	/**
 	 * Create a <code>killbill.adyen_payment_methods</code> table reference
 	 */
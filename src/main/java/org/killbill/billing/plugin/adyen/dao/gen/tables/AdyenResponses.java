@@ -156,6 +156,41 @@ public class AdyenResponses extends org.jooq.impl.TableImpl<org.killbill.billing
 	 */
 	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.lang.String> KB_TENANT_ID = createField("kb_tenant_id", org.jooq.impl.SQLDataType.CHAR.length(36).nullable(false), this, "");
 
+	/**
+	 * The column <code>killbill.adyen_responses.merchant_account_code</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.lang.String> MERCHANT_ACCOUNT_CODE = createField("merchant_account_code", org.jooq.impl.SQLDataType.VARCHAR.length(64), this, "");
+
+	/**
+	 * The column <code>killbill.adyen_responses.payment_method</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.lang.String> PAYMENT_METHOD = createField("payment_method", org.jooq.impl.SQLDataType.VARCHAR.length(64), this, "");
+
+	/**
+	 * The column <code>killbill.adyen_responses.from_hpp</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.lang.Byte> FROM_HPP = createField("from_hpp", org.jooq.impl.SQLDataType.TINYINT, this, "");
+
+	/**
+	 * The column <code>killbill.adyen_responses.kb_payment_id_bin</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.util.UUID> KB_PAYMENT_ID_BIN = createField("kb_payment_id_bin", org.jooq.impl.SQLDataType.BINARY.length(16), this, "", new org.killbill.billing.plugin.adyen.dao.gen.UUIDBinding());
+
+	/**
+	 * The column <code>killbill.adyen_responses.kb_payment_transaction_id_bin</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.util.UUID> KB_PAYMENT_TRANSACTION_ID_BIN = createField("kb_payment_transaction_id_bin", org.jooq.impl.SQLDataType.BINARY.length(16), this, "", new org.killbill.billing.plugin.adyen.dao.gen.UUIDBinding());
+
+	/**
+	 * The column <code>killbill.adyen_responses.kb_tenant_id_bin</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.util.UUID> KB_TENANT_ID_BIN = createField("kb_tenant_id_bin", org.jooq.impl.SQLDataType.BINARY.length(16), this, "", new org.killbill.billing.plugin.adyen.dao.gen.UUIDBinding());
+
+	/**
+	 * The column <code>killbill.adyen_responses.version</code>.
+	 */
+	public final org.jooq.TableField<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord, java.lang.Integer> VERSION = createField("version", org.jooq.impl.SQLDataType.INTEGER.nullable(false), this, "");
+
 	/**
 	 * Create a <code>killbill.adyen_responses</code> table reference
 	 */
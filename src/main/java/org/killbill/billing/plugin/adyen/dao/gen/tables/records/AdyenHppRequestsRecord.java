@@ -14,7 +14,7 @@ package org.killbill.billing.plugin.adyen.dao.gen.tables.records;
 	comments = "This class is generated by jOOQ"
 )
 @java.lang.SuppressWarnings({ "all", "unchecked", "rawtypes" })
-public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord> implements org.jooq.Record8<org.jooq.types.UInteger, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String> {
+public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord> implements org.jooq.Record9<org.jooq.types.UInteger, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String, java.lang.String> {
 
 	private static final long serialVersionUID = -2092363079;
 
@@ -130,6 +130,20 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 		return (java.lang.String) getValue(7);
 	}
 
+	/**
+	 * Setter for <code>killbill.adyen_hpp_requests.brand_code</code>.
+	 */
+	public void setBrandCode(java.lang.String value) {
+		setValue(8, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_hpp_requests.brand_code</code>.
+	 */
+	public java.lang.String getBrandCode() {
+		return (java.lang.String) getValue(8);
+	}
+
 	// -------------------------------------------------------------------------
 	// Primary key information
 	// -------------------------------------------------------------------------
@@ -143,23 +157,23 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 	}
 
 	// -------------------------------------------------------------------------
-	// Record8 type implementation
+	// Record9 type implementation
 	// -------------------------------------------------------------------------
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public org.jooq.Row8<org.jooq.types.UInteger, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String> fieldsRow() {
-		return (org.jooq.Row8) super.fieldsRow();
+	public org.jooq.Row9<org.jooq.types.UInteger, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String, java.lang.String> fieldsRow() {
+		return (org.jooq.Row9) super.fieldsRow();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public org.jooq.Row8<org.jooq.types.UInteger, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String> valuesRow() {
-		return (org.jooq.Row8) super.valuesRow();
+	public org.jooq.Row9<org.jooq.types.UInteger, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String, java.lang.String> valuesRow() {
+		return (org.jooq.Row9) super.valuesRow();
 	}
 
 	/**
@@ -226,6 +240,14 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 		return org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS.KB_TENANT_ID;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public org.jooq.Field<java.lang.String> field9() {
+		return org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS.BRAND_CODE;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -290,6 +312,14 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 		return getKbTenantId();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public java.lang.String value9() {
+		return getBrandCode();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -366,7 +396,16 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 	 * {@inheritDoc}
 	 */
 	@Override
-	public AdyenHppRequestsRecord values(org.jooq.types.UInteger value1, java.lang.String value2, java.lang.String value3, java.lang.String value4, java.lang.String value5, java.lang.String value6, java.sql.Timestamp value7, java.lang.String value8) {
+	public AdyenHppRequestsRecord value9(java.lang.String value) {
+		setBrandCode(value);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AdyenHppRequestsRecord values(org.jooq.types.UInteger value1, java.lang.String value2, java.lang.String value3, java.lang.String value4, java.lang.String value5, java.lang.String value6, java.sql.Timestamp value7, java.lang.String value8, java.lang.String value9) {
 		return this;
 	}
 
@@ -384,7 +423,7 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 	/**
 	 * Create a detached, initialised AdyenHppRequestsRecord
 	 */
-	public AdyenHppRequestsRecord(org.jooq.types.UInteger recordId, java.lang.String kbAccountId, java.lang.String kbPaymentId, java.lang.String kbPaymentTransactionId, java.lang.String transactionExternalKey, java.lang.String additionalData, java.sql.Timestamp createdDate, java.lang.String kbTenantId) {
+	public AdyenHppRequestsRecord(org.jooq.types.UInteger recordId, java.lang.String kbAccountId, java.lang.String kbPaymentId, java.lang.String kbPaymentTransactionId, java.lang.String transactionExternalKey, java.lang.String additionalData, java.sql.Timestamp createdDate, java.lang.String kbTenantId, java.lang.String brandCode) {
 		super(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS);
 
 		setValue(0, recordId);
@@ -395,5 +434,6 @@ public class AdyenHppRequestsRecord extends org.jooq.impl.UpdatableRecordImpl<or
 		setValue(5, additionalData);
 		setValue(6, createdDate);
 		setValue(7, kbTenantId);
+		setValue(8, brandCode);
 	}
 }
@@ -410,6 +410,34 @@ public class AdyenPaymentMethodsRecord extends org.jooq.impl.UpdatableRecordImpl
 		return (java.lang.String) getValue(27);
 	}
 
+	/**
+	 * Setter for <code>killbill.adyen_payment_methods.customer_id</code>.
+	 */
+	public void setCustomerId(java.lang.String value) {
+		setValue(28, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_payment_methods.customer_id</code>.
+	 */
+	public java.lang.String getCustomerId() {
+		return (java.lang.String) getValue(28);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_payment_methods.recurring_type</code>.
+	 */
+	public void setRecurringType(java.lang.String value) {
+		setValue(29, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_payment_methods.recurring_type</code>.
+	 */
+	public java.lang.String getRecurringType() {
+		return (java.lang.String) getValue(29);
+	}
+
 	// -------------------------------------------------------------------------
 	// Primary key information
 	// -------------------------------------------------------------------------
@@ -436,7 +464,7 @@ public class AdyenPaymentMethodsRecord extends org.jooq.impl.UpdatableRecordImpl
 	/**
 	 * Create a detached, initialised AdyenPaymentMethodsRecord
 	 */
-	public AdyenPaymentMethodsRecord(org.jooq.types.UInteger recordId, java.lang.String kbAccountId, java.lang.String kbPaymentMethodId, java.lang.String token, java.lang.String ccFirstName, java.lang.String ccLastName, java.lang.String ccType, java.lang.String ccExpMonth, java.lang.String ccExpYear, java.lang.String ccNumber, java.lang.String ccLast_4, java.lang.String ccStartMonth, java.lang.String ccStartYear, java.lang.String ccIssueNumber, java.lang.String ccVerificationValue, java.lang.String ccTrackData, java.lang.String address1, java.lang.String address2, java.lang.String city, java.lang.String state, java.lang.String zip, java.lang.String country, java.lang.Byte isDefault, java.lang.Byte isDeleted, java.lang.String additionalData, java.sql.Timestamp createdDate, java.sql.Timestamp updatedDate, java.lang.String kbTenantId) {
+	public AdyenPaymentMethodsRecord(org.jooq.types.UInteger recordId, java.lang.String kbAccountId, java.lang.String kbPaymentMethodId, java.lang.String token, java.lang.String ccFirstName, java.lang.String ccLastName, java.lang.String ccType, java.lang.String ccExpMonth, java.lang.String ccExpYear, java.lang.String ccNumber, java.lang.String ccLast_4, java.lang.String ccStartMonth, java.lang.String ccStartYear, java.lang.String ccIssueNumber, java.lang.String ccVerificationValue, java.lang.String ccTrackData, java.lang.String address1, java.lang.String address2, java.lang.String city, java.lang.String state, java.lang.String zip, java.lang.String country, java.lang.Byte isDefault, java.lang.Byte isDeleted, java.lang.String additionalData, java.sql.Timestamp createdDate, java.sql.Timestamp updatedDate, java.lang.String kbTenantId, java.lang.String customerId, java.lang.String recurringType) {
 		super(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS);
 
 		setValue(0, recordId);
@@ -467,5 +495,7 @@ public class AdyenPaymentMethodsRecord extends org.jooq.impl.UpdatableRecordImpl
 		setValue(25, createdDate);
 		setValue(26, updatedDate);
 		setValue(27, kbTenantId);
+		setValue(28, customerId);
+		setValue(29, recurringType);
 	}
 }
@@ -368,6 +368,104 @@ public class AdyenResponsesRecord extends org.jooq.impl.UpdatableRecordImpl<org.
 		return (java.lang.String) getValue(24);
 	}
 
+	/**
+	 * Setter for <code>killbill.adyen_responses.merchant_account_code</code>.
+	 */
+	public void setMerchantAccountCode(java.lang.String value) {
+		setValue(25, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.merchant_account_code</code>.
+	 */
+	public java.lang.String getMerchantAccountCode() {
+		return (java.lang.String) getValue(25);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_responses.payment_method</code>.
+	 */
+	public void setPaymentMethod(java.lang.String value) {
+		setValue(26, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.payment_method</code>.
+	 */
+	public java.lang.String getPaymentMethod() {
+		return (java.lang.String) getValue(26);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_responses.from_hpp</code>.
+	 */
+	public void setFromHpp(java.lang.Byte value) {
+		setValue(27, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.from_hpp</code>.
+	 */
+	public java.lang.Byte getFromHpp() {
+		return (java.lang.Byte) getValue(27);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_responses.kb_payment_id_bin</code>.
+	 */
+	public void setKbPaymentIdBin(java.util.UUID value) {
+		setValue(28, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.kb_payment_id_bin</code>.
+	 */
+	public java.util.UUID getKbPaymentIdBin() {
+		return (java.util.UUID) getValue(28);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_responses.kb_payment_transaction_id_bin</code>.
+	 */
+	public void setKbPaymentTransactionIdBin(java.util.UUID value) {
+		setValue(29, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.kb_payment_transaction_id_bin</code>.
+	 */
+	public java.util.UUID getKbPaymentTransactionIdBin() {
+		return (java.util.UUID) getValue(29);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_responses.kb_tenant_id_bin</code>.
+	 */
+	public void setKbTenantIdBin(java.util.UUID value) {
+		setValue(30, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.kb_tenant_id_bin</code>.
+	 */
+	public java.util.UUID getKbTenantIdBin() {
+		return (java.util.UUID) getValue(30);
+	}
+
+	/**
+	 * Setter for <code>killbill.adyen_responses.version</code>.
+	 */
+	public void setVersion(java.lang.Integer value) {
+		setValue(31, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.adyen_responses.version</code>.
+	 */
+	public java.lang.Integer getVersion() {
+		return (java.lang.Integer) getValue(31);
+	}
+
 	// -------------------------------------------------------------------------
 	// Primary key information
 	// -------------------------------------------------------------------------
@@ -394,7 +492,7 @@ public class AdyenResponsesRecord extends org.jooq.impl.UpdatableRecordImpl<org.
 	/**
 	 * Create a detached, initialised AdyenResponsesRecord
 	 */
-	public AdyenResponsesRecord(org.jooq.types.UInteger recordId, java.lang.String kbAccountId, java.lang.String kbPaymentId, java.lang.String kbPaymentTransactionId, java.lang.String transactionType, java.math.BigDecimal amount, java.lang.String currency, java.lang.String pspResult, java.lang.String pspReference, java.lang.String authCode, java.lang.String resultCode, java.lang.String refusalReason, java.lang.String reference, java.lang.String pspErrorCodes, java.lang.String paymentInternalRef, java.lang.String formUrl, java.math.BigDecimal dccAmount, java.lang.String dccCurrency, java.lang.String dccSignature, java.lang.String issuerUrl, java.lang.String md, java.lang.String paRequest, java.lang.String additionalData, java.sql.Timestamp createdDate, java.lang.String kbTenantId) {
+	public AdyenResponsesRecord(org.jooq.types.UInteger recordId, java.lang.String kbAccountId, java.lang.String kbPaymentId, java.lang.String kbPaymentTransactionId, java.lang.String transactionType, java.math.BigDecimal amount, java.lang.String currency, java.lang.String pspResult, java.lang.String pspReference, java.lang.String authCode, java.lang.String resultCode, java.lang.String refusalReason, java.lang.String reference, java.lang.String pspErrorCodes, java.lang.String paymentInternalRef, java.lang.String formUrl, java.math.BigDecimal dccAmount, java.lang.String dccCurrency, java.lang.String dccSignature, java.lang.String issuerUrl, java.lang.String md, java.lang.String paRequest, java.lang.String additionalData, java.sql.Timestamp createdDate, java.lang.String kbTenantId, java.lang.String merchantAccountCode, java.lang.String paymentMethod, java.lang.Byte fromHpp, java.util.UUID kbPaymentIdBin, java.util.UUID kbPaymentTransactionIdBin, java.util.UUID kbTenantIdBin, java.lang.Integer version) {
 		super(org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES);
 
 		setValue(0, recordId);
@@ -422,5 +520,12 @@ public class AdyenResponsesRecord extends org.jooq.impl.UpdatableRecordImpl<org.
 		setValue(22, additionalData);
 		setValue(23, createdDate);
 		setValue(24, kbTenantId);
+		setValue(25, merchantAccountCode);
+		setValue(26, paymentMethod);
+		setValue(27, fromHpp);
+		setValue(28, kbPaymentIdBin);
+		setValue(29, kbPaymentTransactionIdBin);
+		setValue(30, kbTenantIdBin);
+		setValue(31, version);
 	}
 }
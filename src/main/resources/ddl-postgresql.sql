@@ -2,3 +2,6 @@
 CREATE DOMAIN datetime AS timestamp without time zone;
 
 CREATE DOMAIN longtext AS text;
+
+/* Compact Kill Bill identifiers: varbinary(16) in MySQL (the length is in a MySQL-only comment), native uuid in PostgreSQL */
+CREATE DOMAIN varbinary AS uuid;
@@ -10,6 +10,7 @@ create table adyen_hpp_requests (
 , additional_data longtext default null
 , created_date datetime not null
 , kb_tenant_id char(36) not null
+, brand_code varchar(64) default null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create index adyen_hpp_requests_kb_account_id on adyen_hpp_requests(kb_account_id);
@@ -43,11 +44,79 @@ create table adyen_responses (
 , additional_data longtext default null
 , created_date datetime not null
 , kb_tenant_id char(36) not null
+, merchant_account_code varchar(64) default null
+, payment_method varchar(64) default null
+, from_hpp smallint default null
+, kb_payment_id_bin varbinary/*!(16)*/ default null
+, kb_payment_transaction_id_bin varbinary/*!(16)*/ default null
+, kb_tenant_id_bin varbinary/*!(16)*/ default null
+, version integer default 1 not null
+/*!50708 , additional_data_merchant_reference varchar(255) as (case when additional_data like '{%' then json_unquote(json_extract(additional_data, '$.merchantReference')) end) virtual */
+/*!50708 , index adyen_responses_additional_data_merchant_reference(additional_data_merchant_reference) */
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
-create index adyen_responses_kb_payment_id on adyen_responses(kb_payment_id);
-create index adyen_responses_kb_payment_transaction_id on adyen_responses(kb_payment_transaction_id);
+create index adyen_responses_kb_payment_id_kb_tenant_id on adyen_responses(kb_payment_id, kb_tenant_id, transaction_type);
+create index adyen_responses_kb_payment_transaction_id_kb_tenant_id on adyen_responses(kb_payment_transaction_id, kb_tenant_id);
 create index psp_reference_idx on adyen_responses(psp_reference);
+create index adyen_responses_merchant_account_code on adyen_responses(merchant_account_code);
+create index adyen_responses_kb_payment_id_bin on adyen_responses(kb_payment_id_bin, kb_tenant_id_bin, transaction_type);
+create index adyen_responses_kb_payment_transaction_id_bin on adyen_responses(kb_payment_transaction_id_bin, kb_tenant_id_bin);
+
+-- Rows moved by the retention job, see AdyenDao#archiveResponses
+drop table if exists adyen_responses_archive;
+create table adyen_responses_archive (
+  record_id bigint not null
+, kb_account_id char(36) not null
+, kb_payment_id char(36) not null
+, kb_payment_transaction_id char(36) not null
+, transaction_type varchar(32) not null
+, amount numeric(15,9)
+, currency char(3)
+, psp_result varchar(64)
+, psp_reference varchar(64)
+, auth_code varchar(64)
+, result_code varchar(64)
+, refusal_reason varchar(64)
+, reference varchar(64)
+, psp_error_codes varchar(64)
+, payment_internal_ref varchar(64)
+, form_url varchar(1024)
+, dcc_amount numeric(15,9)
+, dcc_currency char(3)
+, dcc_signature varchar(64)
+, issuer_url varchar(1024)
+, md text
+, pa_request text
+, additional_data longtext default null
+, created_date datetime not null
+, kb_tenant_id char(36) not null
+, merchant_account_code varchar(64) default null
+, payment_method varchar(64) default null
+, from_hpp smallint default null
+, kb_payment_id_bin varbinary/*!(16)*/ default null
+, kb_payment_transaction_id_bin varbinary/*!(16)*/ default null
+, kb_tenant_id_bin varbinary/*!(16)*/ default null
+, version integer default 1 not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin ROW_FORMAT=COMPRESSED */;
+create index adyen_responses_archive_kb_payment_id_kb_tenant_id on adyen_responses_archive(kb_payment_id, kb_tenant_id);
+create index adyen_responses_archive_psp_reference on adyen_responses_archive(psp_reference);
+create index adyen_responses_archive_kb_payment_id_bin on adyen_responses_archive(kb_payment_id_bin, kb_tenant_id_bin);
+create index adyen_responses_archive_kb_payment_transaction_id on adyen_responses_archive(kb_payment_transaction_id, kb_tenant_id);
+create index adyen_responses_archive_kb_payment_transaction_id_bin on adyen_responses_archive(kb_payment_transaction_id_bin, kb_tenant_id_bin);
+
+-- additional_data changes of adyen_responses rows, see AdyenDao#updateResponse and AdyenDao#compactResponseUpdates
+drop table if exists adyen_response_updates;
+create table adyen_response_updates (
+  record_id serial
+, response_record_id bigint not null
+, additional_data longtext default null
+, removed_keys text default null
+, created_date datetime not null
+, kb_tenant_id char(36) not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create index adyen_response_updates_response_record_id on adyen_response_updates(response_record_id, record_id);
 
 drop table if exists adyen_notifications;
 create table adyen_notifications (
@@ -78,6 +147,34 @@ create index adyen_notifications_psp_reference on adyen_notifications(psp_refere
 create index adyen_notifications_kb_payment_id on adyen_notifications(kb_payment_id);
 create index adyen_notifications_kb_payment_transaction_id on adyen_notifications(kb_payment_transaction_id);
 
+-- Rows moved by the retention job, see AdyenDao#archiveNotifications
+drop table if exists adyen_notifications_archive;
+create table adyen_notifications_archive (
+  record_id bigint not null
+, kb_account_id char(36)
+, kb_payment_id char(36)
+, kb_payment_transaction_id char(36)
+, transaction_type varchar(32)
+, amount numeric(15,9)
+, currency char(3)
+, event_code varchar(64)
+, event_date datetime
+, merchant_account_code varchar(64)
+, merchant_reference varchar(64)
+, operations varchar(1024)
+, original_reference varchar(64)
+, payment_method varchar(64)
+, psp_reference varchar(255)
+, reason text
+, success smallint not null default 0
+, additional_data longtext default null
+, created_date datetime not null
+, kb_tenant_id char(36)
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin ROW_FORMAT=COMPRESSED */;
+create index adyen_notifications_archive_psp_reference on adyen_notifications_archive(psp_reference);
+create index adyen_notifications_archive_kb_payment_id on adyen_notifications_archive(kb_payment_id);
+
 drop table if exists adyen_payment_methods;
 create table adyen_payment_methods (
   record_id serial
@@ -108,6 +205,31 @@ create table adyen_payment_methods (
 , created_date datetime not null
 , updated_date datetime not null
 , kb_tenant_id char(36) not null
+, customer_id varchar(255) default null
+, recurring_type varchar(64) default null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create unique index adyen_payment_methods_kb_payment_id on adyen_payment_methods(kb_payment_method_id);
+create index adyen_payment_methods_kb_account_id_kb_tenant_id on adyen_payment_methods(kb_account_id, kb_tenant_id);
+create index adyen_payment_methods_customer_id on adyen_payment_methods(customer_id);
+create index adyen_payment_methods_updated_date on adyen_payment_methods(updated_date);
+
+drop table if exists adyen_notification_leases;
+create table adyen_notification_leases (
+  record_id serial
+, lease_key varchar(255) not null
+, owner varchar(255) not null
+, expiration_date datetime not null
+, created_date datetime not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create unique index adyen_notification_leases_lease_key on adyen_notification_leases(lease_key);
+
+drop table if exists adyen_replica_heartbeats;
+create table adyen_replica_heartbeats (
+  record_id serial
+, node_id char(36) not null
+, beat_millis bigint not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create unique index adyen_replica_heartbeats_node_id on adyen_replica_heartbeats(node_id);
@@ -0,0 +1,6 @@
+-- Match the lookups by payment, by payment transaction and by account (all scoped by tenant)
+alter table adyen_responses add index adyen_responses_kb_payment_id_kb_tenant_id(kb_payment_id, kb_tenant_id, transaction_type);
+alter table adyen_responses drop index adyen_responses_kb_payment_id;
+alter table adyen_responses add index adyen_responses_kb_payment_transaction_id_kb_tenant_id(kb_payment_transaction_id, kb_tenant_id);
+alter table adyen_responses drop index adyen_responses_kb_payment_transaction_id;
+alter table adyen_payment_methods add index adyen_payment_methods_kb_account_id_kb_tenant_id(kb_account_id, kb_tenant_id);
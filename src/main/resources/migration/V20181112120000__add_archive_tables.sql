@@ -0,0 +1,63 @@
+-- Rows moved by the retention job (see AdyenDao#archiveResponses and AdyenDao#archiveNotifications)
+create table adyen_responses_archive (
+  record_id bigint not null
+, kb_account_id char(36) not null
+, kb_payment_id char(36) not null
+, kb_payment_transaction_id char(36) not null
+, transaction_type varchar(32) not null
+, amount numeric(15,9)
+, currency char(3)
+, psp_result varchar(64)
+, psp_reference varchar(64)
+, auth_code varchar(64)
+, result_code varchar(64)
+, refusal_reason varchar(64)
+, reference varchar(64)
+, psp_error_codes varchar(64)
+, payment_internal_ref varchar(64)
+, form_url varchar(1024)
+, dcc_amount numeric(15,9)
+, dcc_currency char(3)
+, dcc_signature varchar(64)
+, issuer_url varchar(1024)
+, md text
+, pa_request text
+, additional_data longtext default null
+, created_date datetime not null
+, kb_tenant_id char(36) not null
+, merchant_account_code varchar(64) default null
+, payment_method varchar(64) default null
+, from_hpp smallint default null
+, kb_payment_id_bin varbinary(16) default null
+, kb_payment_transaction_id_bin varbinary(16) default null
+, kb_tenant_id_bin varbinary(16) default null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin ROW_FORMAT=COMPRESSED */;
+alter table adyen_responses_archive add index adyen_responses_archive_kb_payment_id_kb_tenant_id(kb_payment_id, kb_tenant_id);
+alter table adyen_responses_archive add index adyen_responses_archive_psp_reference(psp_reference);
+alter table adyen_responses_archive add index adyen_responses_archive_kb_payment_id_bin(kb_payment_id_bin, kb_tenant_id_bin);
+create table adyen_notifications_archive (
+  record_id bigint not null
+, kb_account_id char(36)
+, kb_payment_id char(36)
+, kb_payment_transaction_id char(36)
+, transaction_type varchar(32)
+, amount numeric(15,9)
+, currency char(3)
+, event_code varchar(64)
+, event_date datetime
+, merchant_account_code varchar(64)
+, merchant_reference varchar(64)
+, operations varchar(1024)
+, original_reference varchar(64)
+, payment_method varchar(64)
+, psp_reference varchar(255)
+, reason text
+, success smallint not null default 0
+, additional_data longtext default null
+, created_date datetime not null
+, kb_tenant_id char(36)
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin ROW_FORMAT=COMPRESSED */;
+alter table adyen_notifications_archive add index adyen_notifications_archive_psp_reference(psp_reference);
+alter table adyen_notifications_archive add index adyen_notifications_archive_kb_payment_id(kb_payment_id);
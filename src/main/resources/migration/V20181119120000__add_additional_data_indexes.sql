@@ -0,0 +1,3 @@
+-- Indexed merchantReference lookups (see AdyenDao#getResponsesByAdditionalData), requires MySQL 5.7.8+
+alter table adyen_responses add column additional_data_merchant_reference varchar(255) as (case when additional_data like '{%' then json_unquote(json_extract(additional_data, '$.merchantReference')) end) virtual;
+alter table adyen_responses add index adyen_responses_additional_data_merchant_reference(additional_data_merchant_reference);
@@ -0,0 +1,3 @@
+-- Optimistic concurrency control for AdyenDao#updateResponse
+alter table adyen_responses add column version integer default 1 not null;
+alter table adyen_responses_archive add column version integer default 1 not null;
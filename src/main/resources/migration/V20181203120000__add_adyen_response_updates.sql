@@ -0,0 +1,11 @@
+-- additional_data changes of adyen_responses rows, only written when enabled (see AdyenDao#updateResponse)
+create table adyen_response_updates (
+  record_id serial
+, response_record_id bigint not null
+, additional_data longtext default null
+, removed_keys text default null
+, created_date datetime not null
+, kb_tenant_id char(36) not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create index adyen_response_updates_response_record_id on adyen_response_updates(response_record_id, record_id);
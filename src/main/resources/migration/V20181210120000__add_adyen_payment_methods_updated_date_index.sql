@@ -0,0 +1,2 @@
+-- Polled by the nodes caching payment methods, to invalidate the rows modified by other nodes (see PaymentMethodsCachePoller)
+alter table adyen_payment_methods add index adyen_payment_methods_updated_date(updated_date);
@@ -0,0 +1,3 @@
+-- Late notifications update archived responses (see AdyenDao#updateResponse)
+alter table adyen_responses_archive add index adyen_responses_archive_kb_payment_transaction_id(kb_payment_transaction_id, kb_tenant_id);
+alter table adyen_responses_archive add index adyen_responses_archive_kb_payment_transaction_id_bin(kb_payment_transaction_id_bin, kb_tenant_id_bin);
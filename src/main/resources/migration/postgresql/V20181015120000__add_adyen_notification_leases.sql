@@ -0,0 +1,9 @@
+create table adyen_notification_leases (
+  record_id serial
+, lease_key varchar(255) not null
+, owner varchar(255) not null
+, expiration_date timestamp not null
+, created_date timestamp not null
+, primary key(record_id)
+);
+create unique index adyen_notification_leases_lease_key on adyen_notification_leases(lease_key);
@@ -0,0 +1,9 @@
+-- Populated on write, existing rows are backfilled by the plugin on startup (see AdyenDao#backfillPromotedColumns)
+alter table adyen_responses add column merchant_account_code varchar(64) default null;
+alter table adyen_responses add column payment_method varchar(64) default null;
+alter table adyen_responses add column from_hpp smallint default null;
+create index adyen_responses_merchant_account_code on adyen_responses(merchant_account_code);
+alter table adyen_hpp_requests add column brand_code varchar(64) default null;
+alter table adyen_payment_methods add column customer_id varchar(255) default null;
+alter table adyen_payment_methods add column recurring_type varchar(64) default null;
+create index adyen_payment_methods_customer_id on adyen_payment_methods(customer_id);
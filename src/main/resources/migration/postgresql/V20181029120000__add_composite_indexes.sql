@@ -0,0 +1,6 @@
+-- Match the lookups by payment, by payment transaction and by account (all scoped by tenant)
+create index adyen_responses_kb_payment_id_kb_tenant_id on adyen_responses(kb_payment_id, kb_tenant_id, transaction_type);
+drop index adyen_responses_kb_payment_id;
+create index adyen_responses_kb_payment_transaction_id_kb_tenant_id on adyen_responses(kb_payment_transaction_id, kb_tenant_id);
+drop index adyen_responses_kb_payment_transaction_id;
+create index adyen_payment_methods_kb_account_id_kb_tenant_id on adyen_payment_methods(kb_account_id, kb_tenant_id);
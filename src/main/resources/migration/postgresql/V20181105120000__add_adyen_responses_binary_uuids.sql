@@ -0,0 +1,6 @@
+-- Compact copies of the lookup identifiers, only written and read when enabled (see AdyenDao.UUIDStorage)
+alter table adyen_responses add column kb_payment_id_bin uuid default null;
+alter table adyen_responses add column kb_payment_transaction_id_bin uuid default null;
+alter table adyen_responses add column kb_tenant_id_bin uuid default null;
+create index adyen_responses_kb_payment_id_bin on adyen_responses(kb_payment_id_bin, kb_tenant_id_bin, transaction_type);
+create index adyen_responses_kb_payment_transaction_id_bin on adyen_responses(kb_payment_transaction_id_bin, kb_tenant_id_bin);
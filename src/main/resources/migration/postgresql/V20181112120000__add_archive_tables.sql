@@ -0,0 +1,10 @@
+-- Rows moved by the retention job (see AdyenDao#archiveResponses and AdyenDao#archiveNotifications)
+create table adyen_responses_archive (like adyen_responses);
+alter table adyen_responses_archive add primary key(record_id);
+create index adyen_responses_archive_kb_payment_id_kb_tenant_id on adyen_responses_archive(kb_payment_id, kb_tenant_id);
+create index adyen_responses_archive_psp_reference on adyen_responses_archive(psp_reference);
+create index adyen_responses_archive_kb_payment_id_bin on adyen_responses_archive(kb_payment_id_bin, kb_tenant_id_bin);
+create table adyen_notifications_archive (like adyen_notifications);
+alter table adyen_notifications_archive add primary key(record_id);
+create index adyen_notifications_archive_psp_reference on adyen_notifications_archive(psp_reference);
+create index adyen_notifications_archive_kb_payment_id on adyen_notifications_archive(kb_payment_id);
@@ -0,0 +1,2 @@
+-- Indexed additional data lookups (see AdyenDao#getResponsesByAdditionalData), rows not holding a JSON document (e.g. compressed) are skipped
+create index adyen_responses_additional_data on adyen_responses using gin ((case when additional_data like '{%' then cast(additional_data as jsonb) end) jsonb_path_ops);
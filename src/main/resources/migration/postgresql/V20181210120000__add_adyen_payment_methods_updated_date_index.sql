@@ -0,0 +1,2 @@
+-- Polled by the nodes caching payment methods, to invalidate the rows modified by other nodes (see PaymentMethodsCachePoller)
+create index adyen_payment_methods_updated_date on adyen_payment_methods(updated_date);
@@ -0,0 +1,3 @@
+-- Late notifications update archived responses (see AdyenDao#updateResponse)
+create index adyen_responses_archive_kb_payment_transaction_id on adyen_responses_archive(kb_payment_transaction_id, kb_tenant_id);
+create index adyen_responses_archive_kb_payment_transaction_id_bin on adyen_responses_archive(kb_payment_transaction_id_bin, kb_tenant_id_bin);
@@ -0,0 +1,8 @@
+-- Written on the primary by each node, read back on the read replica to measure the replication lag (see ReadReplicaRouter)
+create table adyen_replica_heartbeats (
+  record_id serial
+, node_id char(36) not null
+, beat_millis bigint not null
+, primary key(record_id)
+);
+create unique index adyen_replica_heartbeats_node_id on adyen_replica_heartbeats(node_id);
@@ -46,10 +46,16 @@ import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
 import org.killbill.billing.plugin.adyen.core.AdyenHostedPaymentPageConfigurationHandler;
 import org.killbill.billing.plugin.adyen.core.AdyenRecurringConfigurationHandler;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UnitOfWork;
 import org.killbill.clock.Clock;
 import org.killbill.clock.DefaultClock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * First version of a test builder with a fluent api.
@@ -66,7 +72,13 @@ public class AdyenPluginMockBuilder {
     private AdyenPluginMockBuilder(final Properties adyenProperties) throws IOException, SQLException {
         this.adyenProperties = adyenProperties;
         dao = mock(AdyenDao.class);
-
+        // Run units of work directly
+        when(dao.inUnitOfWork(anyBoolean(), any(UnitOfWork.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return ((UnitOfWork) invocation.getArguments()[1]).execute();
+            }
+        });
     }
 
     public static AdyenPluginMockBuilder newPlugin() throws Exception {
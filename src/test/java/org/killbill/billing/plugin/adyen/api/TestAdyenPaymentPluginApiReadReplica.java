@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.api;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.adyen.AdyenPluginMockBuilder;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
+import org.killbill.billing.plugin.adyen.client.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
+import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.ReadReplicaRouter;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.clock.DefaultClock;
+import org.killbill.commons.embeddeddb.h2.H2EmbeddedDB;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+// The replica is a second, independent, database: replication is simulated by copying rows by hand
+public class TestAdyenPaymentPluginApiReadReplica extends TestWithEmbeddedDBBase {
+
+    private Account account;
+    private CallContext context;
+    private H2EmbeddedDB replicaDB;
+    private AdyenDao replicaDao;
+    private ReadReplicaRouter router;
+    private AdyenPaymentPluginApi routingPaymentPluginApi;
+
+    @BeforeMethod(groups = "slow")
+    public void setUpReplica() throws Exception {
+        account = TestUtils.buildAccount(DEFAULT_CURRENCY, DEFAULT_COUNTRY);
+        context = Mockito.mock(CallContext.class);
+        Mockito.when(context.getTenantId()).thenReturn(UUID.randomUUID());
+
+        replicaDB = new H2EmbeddedDB("adyen_replica_" + System.nanoTime(), "root", "root");
+        replicaDB.initialize();
+        replicaDB.start();
+        replicaDB.executeScript(TestUtils.toString("ddl.sql"));
+        replicaDao = new AdyenDao(replicaDB.getDataSource());
+
+        router = new ReadReplicaRouter(EmbeddedDbHelper.instance().getDataSource(), replicaDB.getDataSource(), 0, 60000, 10);
+        // Wait for a probe to see the replicated heartbeat
+        router.start();
+        final long deadlineMillis = System.currentTimeMillis() + 5000;
+        while (router.getLagMillis() == -1 && System.currentTimeMillis() < deadlineMillis) {
+            copyHeartbeats();
+            Thread.sleep(10);
+        }
+        final AdyenDao routingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), AdyenDao.UUIDStorage.CHAR, false, router);
+        routingPaymentPluginApi = AdyenPluginMockBuilder.newPlugin()
+                                                        .withOSGIKillbillAPI(TestUtils.buildOSGIKillbillAPI(account))
+                                                        .withDatabaseAccess(routingDao)
+                                                        .build();
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDownReplica() throws Exception {
+        router.stop();
+        replicaDB.stop();
+    }
+
+    @Test(groups = "slow")
+    public void testGetPaymentInfoFromReplica() throws Exception {
+        final UUID kbPaymentId = UUID.randomUUID();
+        // Only on the replica
+        addResponse(replicaDao, kbPaymentId, UUID.randomUUID(), PaymentServiceProviderResult.AUTHORISED, new DateTime(DateTimeZone.UTC));
+
+        final List<PaymentTransactionInfoPlugin> transactions = routingPaymentPluginApi.getPaymentInfo(account.getId(), kbPaymentId, ImmutableList.<PluginProperty>of(), context);
+        Assert.assertEquals(transactions.size(), 1);
+        Assert.assertEquals(transactions.get(0).getStatus(), PaymentPluginStatus.PROCESSED);
+        assertRouteCount(ReadReplicaRouter.Route.REPLICA, 2);
+    }
+
+    @Test(groups = "slow")
+    public void testExpiryCheckedOnPrimary() throws Exception {
+        final DateTime expiredCreatedDate = new DateTime(DateTimeZone.UTC).minus(new AdyenConfigProperties(new Properties()).getPending3DsPaymentExpirationPeriod()).minusMinutes(1);
+
+        // The replica hasn't seen the completion of the 3DS payment yet
+        final UUID completedPaymentId = UUID.randomUUID();
+        final UUID completedTransactionId = UUID.randomUUID();
+        addResponse(dao, completedPaymentId, completedTransactionId, PaymentServiceProviderResult.AUTHORISED, expiredCreatedDate);
+        addResponse(replicaDao, completedPaymentId, completedTransactionId, PaymentServiceProviderResult.REDIRECT_SHOPPER, expiredCreatedDate);
+
+        // Abandoned 3DS payment
+        final UUID abandonedPaymentId = UUID.randomUUID();
+        final UUID abandonedTransactionId = UUID.randomUUID();
+        addResponse(dao, abandonedPaymentId, abandonedTransactionId, PaymentServiceProviderResult.REDIRECT_SHOPPER, expiredCreatedDate);
+        addResponse(replicaDao, abandonedPaymentId, abandonedTransactionId, PaymentServiceProviderResult.REDIRECT_SHOPPER, expiredCreatedDate);
+
+        final List<PaymentTransactionInfoPlugin> completedTransactions = routingPaymentPluginApi.getPaymentInfo(account.getId(), completedPaymentId, ImmutableList.<PluginProperty>of(), context);
+        Assert.assertEquals(completedTransactions.size(), 1);
+        Assert.assertEquals(completedTransactions.get(0).getStatus(), PaymentPluginStatus.PROCESSED);
+        // Not canceled on the primary either
+        Assert.assertEquals(new AdyenPaymentTransactionInfoPlugin(dao.getResponses(completedPaymentId, context.getTenantId()).get(0), null).getStatus(), PaymentPluginStatus.PROCESSED);
+
+        final List<PaymentTransactionInfoPlugin> abandonedTransactions = routingPaymentPluginApi.getPaymentInfo(account.getId(), abandonedPaymentId, ImmutableList.<PluginProperty>of(), context);
+        Assert.assertEquals(abandonedTransactions.size(), 1);
+        Assert.assertEquals(abandonedTransactions.get(0).getStatus(), PaymentPluginStatus.CANCELED);
+    }
+
+    private void addResponse(final AdyenDao adyenDao, final UUID kbPaymentId, final UUID kbPaymentTransactionId, final PaymentServiceProviderResult result, final DateTime createdDate) throws SQLException {
+        final PurchaseResult purchaseResult = new PurchaseResult(result,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 result.toString(),
+                                                                 kbPaymentTransactionId.toString(),
+                                                                 null);
+        adyenDao.addResponse(account.getId(), kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, DefaultClock.truncateMs(createdDate), context.getTenantId());
+    }
+
+    private void copyHeartbeats() throws Exception {
+        final Connection replicaConnection = replicaDB.getDataSource().getConnection();
+        final Connection primaryConnection = EmbeddedDbHelper.instance().getDataSource().getConnection();
+        try {
+            replicaConnection.createStatement().execute("delete from adyen_replica_heartbeats");
+            final ResultSet resultSet = primaryConnection.createStatement().executeQuery("select node_id, beat_millis from adyen_replica_heartbeats");
+            while (resultSet.next()) {
+                final PreparedStatement statement = replicaConnection.prepareStatement("insert into adyen_replica_heartbeats (node_id, beat_millis) values (?, ?)");
+                statement.setString(1, resultSet.getString(1));
+                statement.setLong(2, resultSet.getLong(2));
+                statement.executeUpdate();
+            }
+        } finally {
+            primaryConnection.close();
+            replicaConnection.close();
+        }
+    }
+
+    private void assertRouteCount(final ReadReplicaRouter.Route route, final long expectedCount) {
+        final Map routes = (Map) router.getSnapshot().get("routes");
+        Assert.assertEquals(((Map) routes.get(route.toString())).get("count"), expectedCount);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.api;
+
+import java.util.UUID;
+
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestKillbillLookupCache {
+
+    @Test(groups = "fast")
+    public void testAccountInvalidation() throws Exception {
+        final KillbillLookupCache killbillLookupCache = new KillbillLookupCache(100, 60000);
+        final UUID kbTenantId = UUID.randomUUID();
+        final Account account = Mockito.mock(Account.class);
+        final UUID kbAccountId = UUID.randomUUID();
+        Mockito.when(account.getId()).thenReturn(kbAccountId);
+
+        killbillLookupCache.putAccount(account, kbTenantId);
+        killbillLookupCache.putAdyenPaymentMethodId(kbAccountId, UUID.randomUUID(), kbTenantId);
+        Assert.assertSame(killbillLookupCache.getAccount(kbAccountId, kbTenantId), account);
+        // Scoped by tenant
+        Assert.assertNull(killbillLookupCache.getAccount(kbAccountId, UUID.randomUUID()));
+
+        final ExtBusEvent event = Mockito.mock(ExtBusEvent.class);
+        Mockito.when(event.getEventType()).thenReturn(ExtBusEventType.ACCOUNT_CHANGE);
+        Mockito.when(event.getAccountId()).thenReturn(kbAccountId);
+        Mockito.when(event.getTenantId()).thenReturn(kbTenantId);
+        killbillLookupCache.handleKillbillEvent(event);
+        Assert.assertNull(killbillLookupCache.getAccount(kbAccountId, kbTenantId));
+        Assert.assertNull(killbillLookupCache.getAdyenPaymentMethodId(kbAccountId, kbTenantId));
+    }
+
+    @Test(groups = "fast")
+    public void testPayment() throws Exception {
+        final KillbillLookupCache killbillLookupCache = new KillbillLookupCache(100, 60000);
+        final UUID kbTenantId = UUID.randomUUID();
+        final PaymentTransaction paymentTransaction = Mockito.mock(PaymentTransaction.class);
+        Mockito.when(paymentTransaction.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(paymentTransaction.getExternalKey()).thenReturn("external-key");
+        final Payment payment = Mockito.mock(Payment.class);
+        Mockito.when(payment.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(payment.getPaymentMethodId()).thenReturn(UUID.randomUUID());
+        Mockito.when(payment.getTransactions()).thenReturn(ImmutableList.<PaymentTransaction>of(paymentTransaction));
+
+        killbillLookupCache.putPayment(payment, kbTenantId);
+        Assert.assertEquals(killbillLookupCache.getPaymentMethodId(payment.getId(), kbTenantId), payment.getPaymentMethodId());
+        Assert.assertEquals(killbillLookupCache.getTransactionExternalKey(paymentTransaction.getId(), kbTenantId), "external-key");
+    }
+
+    @Test(groups = "fast")
+    public void testDisabled() throws Exception {
+        final KillbillLookupCache killbillLookupCache = new KillbillLookupCache(100, 0);
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        killbillLookupCache.putAdyenPaymentMethodId(kbAccountId, UUID.randomUUID(), kbTenantId);
+        Assert.assertNull(killbillLookupCache.getAdyenPaymentMethodId(kbAccountId, kbTenantId));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.api.mapping;
+
+import java.util.Map;
+
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.plugin.api.PluginProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestIndexedPluginProperties {
+
+    @Test(groups = "fast")
+    public void testLookupsMatchPluginProperties() throws Exception {
+        final ImmutableList<PluginProperty> pluginProperties = ImmutableList.of(new PluginProperty("country", "DE", false),
+                                                                                new PluginProperty("country", "FR", false),
+                                                                                new PluginProperty("empty", "", false),
+                                                                                new PluginProperty("nullFirst", null, false),
+                                                                                new PluginProperty("nullFirst", "ignored", false),
+                                                                                new PluginProperty("installments", 3, false));
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(pluginProperties);
+
+        Assert.assertSame(IndexedPluginProperties.of(properties), properties);
+        Assert.assertEquals(ImmutableList.copyOf(properties), pluginProperties);
+        for (final String key : new String[]{"country", "empty", "nullFirst", "installments", "unknown"}) {
+            Assert.assertEquals(properties.findPluginPropertyValue(key), PluginProperties.findPluginPropertyValue(key, pluginProperties), key);
+        }
+        Assert.assertEquals(properties.getValue("unknown", "fallback"), "fallback");
+        Assert.assertEquals(properties.toStringMap(), PluginProperties.toStringMap(pluginProperties));
+
+        Assert.assertNull(IndexedPluginProperties.of(null).findPluginPropertyValue("country"));
+    }
+
+    @Test(groups = "fast")
+    public void testItemFamilies() throws Exception {
+        final IndexedPluginProperties properties = IndexedPluginProperties.of(ImmutableList.of(new PluginProperty("splitSettlementDataItem.2.amount", "5", false),
+                                                                                               new PluginProperty("splitSettlementDataItem.1.amount", "10.5", false),
+                                                                                               new PluginProperty("splitSettlementDataItem.1.type", "Commission", false),
+                                                                                               new PluginProperty("splitSettlementDataItem.2.type", null, false),
+                                                                                               new PluginProperty("additionalDataItem.0.key", "k", false),
+                                                                                               new PluginProperty("additionalDataItem.0.value", "v", false),
+                                                                                               new PluginProperty("country", "DE", false)));
+
+        final Map<Short, Map<String, String>> splitSettlementDataItems = properties.getSplitSettlementDataItems();
+        Assert.assertEquals(ImmutableList.copyOf(splitSettlementDataItems.keySet()), ImmutableList.of((short) 1, (short) 2));
+        Assert.assertEquals(splitSettlementDataItems.get((short) 1), ImmutableMap.of("amount", "10.5", "type", "Commission"));
+        Assert.assertEquals(splitSettlementDataItems.get((short) 2), ImmutableMap.of("amount", "5"));
+
+        Assert.assertEquals(properties.getAdditionalDataItems(), ImmutableMap.of((short) 0, ImmutableMap.of("key", "k", "value", "v")));
+    }
+
+    @Test(groups = "fast", expectedExceptions = NumberFormatException.class)
+    public void testInvalidItemNumber() throws Exception {
+        IndexedPluginProperties.of(ImmutableList.of(new PluginProperty("additionalDataItem.a.key", "k", false))).getAdditionalDataItems();
+    }
+}
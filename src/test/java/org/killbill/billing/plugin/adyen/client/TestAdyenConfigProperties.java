@@ -172,6 +172,27 @@ public class TestAdyenConfigProperties {
         Assert.assertEquals(adyenConfigProperties.getHmacAlgorithm("FALLBACKAccountDE"), "FALLBACKAlgorithmUK");
     }
 
+    @Test(groups = "fast")
+    public void testCountryCodeAdjustments() throws Exception {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.adyen.merchantAccount", "UK#DefaultAccountUK|CA#DefaultAccountCA|GB#IgnoredAccountGB|FALLBACK#FALLBACKAccount");
+        properties.put("org.killbill.billing.plugin.adyen.acquirersList", "acquirer1|mid1,acquirer2");
+        final AdyenConfigProperties adyenConfigProperties = new AdyenConfigProperties(properties);
+
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount("UK"), "DefaultAccountUK");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount("GB"), "DefaultAccountUK");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount("gb"), "DefaultAccountUK");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount("uk"), "DefaultAccountUK");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount("QC"), "DefaultAccountCA");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount("DE"), "FALLBACKAccount");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount(""), "FALLBACKAccount");
+        Assert.assertEquals(adyenConfigProperties.getMerchantAccount(null), "FALLBACKAccount");
+
+        Assert.assertEquals(adyenConfigProperties.getAcquirer("acquirer1").getMid(), "mid1");
+        Assert.assertNull(adyenConfigProperties.getAcquirer("acquirer2").getMid());
+        Assert.assertNull(adyenConfigProperties.getAcquirer("acquirer3"));
+    }
+
     @Test(groups = "fast",
           expectedExceptions = IllegalStateException.class,
           expectedExceptionsMessageRegExp = "Failed to find merchant account for countryCode='United States'")
@@ -16,9 +16,16 @@
 
 package org.killbill.billing.plugin.adyen.client.notification;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.killbill.adyen.notification.NotificationRequestItem;
 import org.killbill.billing.catalog.api.Currency;
@@ -27,7 +34,9 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableMap;
 
 public class TestAdyenNotificationService {
@@ -225,6 +234,9 @@ public class TestAdyenNotificationService {
                                                                 "  </soap:Body>\n" +
                                                                 "</soap:Envelope>";
 
+    private static final String ACCEPTED_RESPONSE = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Header/><SOAP-ENV:Body><sendNotificationResponse xmlns=\"http://notification.services.adyen.com\" xmlns:ns2=\"http://common.services.adyen.com\"><notificationResponse>[accepted]</notificationResponse></sendNotificationResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    private static final String ERROR_RESPONSE = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Header/><SOAP-ENV:Body><sendNotificationResponse xmlns=\"http://notification.services.adyen.com\" xmlns:ns2=\"http://common.services.adyen.com\"><notificationResponse>error</notificationResponse></sendNotificationResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
     private AdyenNotificationHandlerTest handler;
     private AdyenNotificationService notificationService;
 
@@ -274,9 +286,150 @@ public class TestAdyenNotificationService {
                                ImmutableMap.<Short, Currency>of((short) 0, Currency.EUR));
     }
 
+    @Test(groups = "fast")
+    public void testShedNotificationsWhenOverCapacity() throws Exception {
+        final CountDownLatch handlerStarted = new CountDownLatch(1);
+        final CountDownLatch releaseHandler = new CountDownLatch(1);
+        final AdyenNotificationHandler blockingHandler = new AdyenNotificationHandlerTest() {
+            @Override
+            public void handleNotification(final NotificationRequestItem item) {
+                handlerStarted.countDown();
+                try {
+                    releaseHandler.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.handleNotification(item);
+            }
+        };
+        final NotificationAdmissionController admissionController = new NotificationAdmissionController(1, 10);
+        final AdyenNotificationService cappedNotificationService = new AdyenNotificationService(ImmutableList.<AdyenNotificationHandler>of(blockingHandler), admissionController);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> firstBatch = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return cappedNotificationService.handleNotifications(AUTHORISATION_NOTIFICATION);
+                }
+            });
+            Assert.assertTrue(handlerStarted.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(admissionController.getInFlightBatches(), 1);
+            Assert.assertEquals(admissionController.getInFlightItems(), 1);
+
+            // The second batch is rejected right away
+            Assert.assertEquals(cappedNotificationService.handleNotifications(REFUND_NOTIFICATION), ERROR_RESPONSE);
+            Assert.assertEquals(admissionController.getShedBatches(), 1);
+            Assert.assertEquals(admissionController.getShedItems(), 1);
+
+            releaseHandler.countDown();
+            Assert.assertEquals(firstBatch.get(10, TimeUnit.SECONDS), ACCEPTED_RESPONSE);
+        } finally {
+            releaseHandler.countDown();
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(admissionController.getInFlightBatches(), 0);
+        Assert.assertEquals(admissionController.getInFlightItems(), 0);
+        Assert.assertEquals(admissionController.getAdmittedBatches(), 1);
+
+        // Capacity is available again
+        Assert.assertEquals(cappedNotificationService.handleNotifications(REFUND_NOTIFICATION), ACCEPTED_RESPONSE);
+    }
+
+    @Test(groups = "fast")
+    @SuppressWarnings("unchecked")
+    public void testMetrics() throws Exception {
+        final AdyenNotificationHandler failingHandler = new AdyenNotificationHandlerTest() {
+            @Override
+            public void handleNotification(final NotificationRequestItem item) {
+                if ("REFUND".equals(item.getEventCode())) {
+                    throw new RuntimeException("Unable to refund", new IllegalStateException());
+                }
+                super.handleNotification(item);
+            }
+        };
+        final AdyenNotificationService service = new AdyenNotificationService(ImmutableList.<AdyenNotificationHandler>of(failingHandler));
+
+        Assert.assertEquals(service.handleNotifications(AUTHORISATION_NOTIFICATION), ACCEPTED_RESPONSE);
+        Assert.assertEquals(service.handleNotifications(AUTHORISATION_NOTIFICATION), ACCEPTED_RESPONSE);
+        Assert.assertEquals(service.handleNotifications(NOTIFICATION_OF_CHARGEBACK_NOTIFICATION), ACCEPTED_RESPONSE);
+        Assert.assertEquals(service.handleNotifications(REFUND_NOTIFICATION), ACCEPTED_RESPONSE);
+
+        final Map<String, Object> snapshot = service.getMetrics().getSnapshot();
+
+        final Map<String, Object> eventCodes = (Map<String, Object>) snapshot.get("eventCodes");
+        final Map<String, Object> authorisations = (Map<String, Object>) eventCodes.get("AUTHORISATION");
+        Assert.assertEquals(authorisations.get("count"), 2L);
+        Assert.assertEquals(authorisations.get("errors"), 0L);
+        Assert.assertEquals(authorisations.get("itemsPerSecondLastMinute"), 2 / 60.0);
+        Assert.assertEquals(((Map<String, Object>) eventCodes.get("NOTIFICATION_OF_CHARGEBACK")).get("count"), 3L);
+        Assert.assertEquals(((Map<String, Object>) eventCodes.get("REFUND")).get("errors"), 1L);
+
+        final Map<String, Object> errors = (Map<String, Object>) snapshot.get("errors");
+        Assert.assertEquals(errors.size(), 1);
+        Assert.assertEquals(errors.get(IllegalStateException.class.getName()), 1L);
+
+        // All items have an eventDate (in 2013)
+        final Map<String, Object> lag = (Map<String, Object>) snapshot.get("lagMs");
+        Assert.assertEquals(lag.get("count"), 6L);
+        Assert.assertEquals(((Map<String, Long>) lag.get("buckets")).get("gt_86400000"), (Long) 6L);
+
+        final Map<String, Object> batchSizes = (Map<String, Object>) snapshot.get("batchSizes");
+        Assert.assertEquals(batchSizes.get("count"), 4L);
+        Assert.assertEquals(batchSizes.get("max"), 3L);
+        Assert.assertEquals(batchSizes.get("p50"), 1L);
+    }
+
+    @Test(groups = "fast")
+    @SuppressWarnings("unchecked")
+    public void testMetricsUnknownEventCodes() throws Exception {
+        final AdyenNotificationService service = new AdyenNotificationService(ImmutableList.<AdyenNotificationHandler>of(new AdyenNotificationHandlerTest()));
+
+        // Arbitrary event codes don't add entries
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(service.handleNotifications(REFUND_NOTIFICATION.replace("<eventCode>REFUND</eventCode>", "<eventCode>BOGUS_" + i + "</eventCode>")), ACCEPTED_RESPONSE);
+        }
+        Assert.assertEquals(service.handleNotifications(REFUND_NOTIFICATION), ACCEPTED_RESPONSE);
+
+        final Map<String, Object> eventCodes = (Map<String, Object>) service.getMetrics().getSnapshot().get("eventCodes");
+        Assert.assertEquals(eventCodes.keySet(), ImmutableSet.<String>of("UNKNOWN", "REFUND"));
+        Assert.assertEquals(((Map<String, Object>) eventCodes.get("UNKNOWN")).get("count"), 10L);
+        Assert.assertEquals(((Map<String, Object>) eventCodes.get("REFUND")).get("count"), 1L);
+    }
+
+    @Test(groups = "fast")
+    public void testHandleNotificationsFromInputStream() throws Exception {
+        final byte[] response = notificationService.handleNotifications(new ByteArrayInputStream(AUTHORISATION_NOTIFICATION.getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(new String(response, Charsets.UTF_8), ACCEPTED_RESPONSE);
+        Assert.assertEquals(handler.getItems().size(), 1);
+        Assert.assertEquals(handler.getItems().get(0).getPspReference(), "4823660019473428");
+
+        final byte[] errorResponse = notificationService.handleNotifications(new ByteArrayInputStream("<invalid".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(new String(errorResponse, Charsets.UTF_8), ERROR_RESPONSE);
+        Assert.assertEquals(handler.getItems().size(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testInFlightItemsCap() throws Exception {
+        final NotificationAdmissionController admissionController = new NotificationAdmissionController(0, 3);
+        Assert.assertTrue(admissionController.tryAcquire(2));
+        Assert.assertFalse(admissionController.tryAcquire(2));
+        Assert.assertTrue(admissionController.tryAcquire(1));
+        admissionController.release(2);
+        admissionController.release(1);
+
+        // A single batch bigger than the cap is never starved
+        Assert.assertTrue(admissionController.tryAcquire(5));
+        Assert.assertFalse(admissionController.tryAcquire(1));
+        admissionController.release(5);
+        Assert.assertEquals(admissionController.getInFlightItems(), 0);
+        Assert.assertEquals(admissionController.getShedBatches(), 2);
+    }
+
     private void handleAndVerifyHandler(final String notification, final Map<Short, BigDecimal> amounts, final Map<Short, Currency> currencies) {
         final String response = notificationService.handleNotifications(notification);
-        Assert.assertEquals(response, "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Header/><SOAP-ENV:Body><sendNotificationResponse xmlns=\"http://notification.services.adyen.com\" xmlns:ns2=\"http://common.services.adyen.com\"><notificationResponse>[accepted]</notificationResponse></sendNotificationResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+        Assert.assertEquals(response, ACCEPTED_RESPONSE);
 
         Assert.assertEquals(handler.getItems().size(), NOTIFICATION_OF_CHARGEBACK_NOTIFICATION.equals(notification) ? 3 : 1);
 
@@ -17,11 +17,17 @@
 
 package org.killbill.billing.plugin.adyen.client.payment.service;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 public class TestSigner {
@@ -86,4 +92,67 @@ public class TestSigner {
         final Signer signer = new Signer();
         Assert.assertEquals(signer.getSigningString(params), "allowedMethods:countryCode:currencyCode:merchantAccount:merchantReference:merchantReturnData:paymentAmount:resURL:sessionValidity:shipBeforeDate:shopper.firstName:shopper.lastName:shopperEmail:shopperLocale:skinCode:mc,visa,amex:NL:EUR:NickAnderson:TEST-PAYMENT-2016-07-14-17\\:13\\:32:shopids:199:http\\://localhost\\:8000:2016-07-15T17\\:13\\:32+00\\:00:2016-07-17:John:Doe:test@adyen.com:en_US:43ZAmyBx");
     }
+
+    @Test(groups = "fast")
+    public void testSigningStringEscaping() throws Exception {
+        final Map<String, String> params = new HashMap<String, String>();
+        Assert.assertEquals(new Signer().getSigningString(params), ":");
+
+        params.put("b", "c:\\d");
+        params.put("a:", null);
+        params.put("a", "");
+        Assert.assertEquals(new Signer().getSigningString(params), "a:b::c\\:\\\\d");
+    }
+
+    @Test(groups = "fast")
+    public void testSigningKeysAcrossThreads() throws Exception {
+        final Signer signer = new Signer();
+        final String expectedSHA256 = "GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFg=";
+        final String signingString = "currencyCode:merchantAccount:merchantReference:paymentAmount:sessionValidity:shipBeforeDate:shopperLocale:skinCode:EUR:TestMerchant:SKINTEST-1435226439255:199:2015-06-25T10\\:31\\:06Z:2015-07-01:en_GB:X7hsNDWp";
+        final String otherSignature = signer.signData("testing", "HmacSHA256", signingString);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final ImmutableList.Builder<Future<String>> futures = ImmutableList.builder();
+            for (int i = 0; i < 100; i++) {
+                final String secret = i % 2 == 0 ? "4468D9782DEF54FCD706C9100C71EC43932B1EBC2ACF6BA0560C05AAA7550C48" : "testing";
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return signer.signData(secret, "HmacSHA256", signingString);
+                    }
+                }));
+            }
+            int i = 0;
+            for (final Future<String> future : futures.build()) {
+                Assert.assertEquals(future.get(), i++ % 2 == 0 ? expectedSHA256 : otherSignature);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testSigningKeysAreBounded() throws Exception {
+        final Signer signer = new Signer();
+        final String signature = signer.signData("testing", "HmacSHA256", "data");
+        // e.g. rotated secrets
+        for (int i = 0; i < 2 * Signer.MAX_SIGNING_KEYS; i++) {
+            signer.signData("secret-" + i, "HmacSHA256", "data");
+        }
+        Assert.assertTrue(signer.getNbSigningKeys() <= Signer.MAX_SIGNING_KEYS);
+        // Evicted keys are simply rebuilt
+        Assert.assertEquals(signer.signData("testing", "HmacSHA256", "data"), signature);
+    }
+
+    @Test(groups = "fast")
+    public void testVerifySignature() throws Exception {
+        final Signer signer = new Signer();
+        Assert.assertTrue(signer.verifySignature("GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFg=", "GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFg="));
+        Assert.assertFalse(signer.verifySignature("GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFg=", "GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFh="));
+        Assert.assertFalse(signer.verifySignature("GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFg=", "GJ1asjR5"));
+        Assert.assertFalse(signer.verifySignature("GJ1asjR5VmkvihDJxCd8yE2DGYOKwWwJCBiV3R51NFg=", null));
+        // Signing failed
+        Assert.assertFalse(signer.verifySignature("", ""));
+    }
 }
@@ -42,6 +42,7 @@ import org.killbill.billing.plugin.TestUtils;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.adyen.api.TestAdyenPaymentPluginApiBase;
 import org.killbill.billing.plugin.adyen.client.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
 import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
 import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
 import org.killbill.billing.plugin.adyen.client.notification.AdyenNotificationHandler;
@@ -569,6 +570,65 @@ public class TestKillbillAdyenNotificationHandler extends TestAdyenPaymentPlugin
         Assert.assertEquals(payment.getTransactions(), oldPaymentTransactions);
     }
 
+    @Test(groups = "slow")
+    public void testReplayNotifications() throws Exception {
+        final NotificationRequestItem authItem = getNotificationRequestItem("AUTHORISATION", true);
+        setupTransaction(TransactionType.AUTHORIZE, authItem);
+
+        // Notifications recorded, but never applied (e.g. Kill Bill was down)
+        dao.addNotification(null, null, null, null, new NotificationItem(authItem), clock.getUTCNow(), context.getTenantId());
+        dao.addNotification(null, null, null, null, new NotificationItem(getNotificationRequestItem("REPORT_AVAILABLE", true)), clock.getUTCNow(), context.getTenantId());
+        final List<AdyenNotificationsRecord> recordedNotifications = dao.getNotifications();
+        Assert.assertEquals(recordedNotifications.size(), 2);
+        final long authRecordId = recordedNotifications.get(0).getRecordId().longValue();
+        final long reportRecordId = recordedNotifications.get(1).getRecordId().longValue();
+
+        final NotificationReplayer notificationReplayer = new NotificationReplayer(dao, killbillAdyenNotificationHandler);
+
+        // Dry-run: nothing is applied
+        final NotificationReplayRequest dryRunRequest = new NotificationReplayRequest();
+        dryRunRequest.setEventCode("AUTHORISATION");
+        dryRunRequest.setDryRun(true);
+        final NotificationReplayResult dryRunResult = notificationReplayer.replay(dryRunRequest);
+        Assert.assertTrue(dryRunResult.isDone());
+        Assert.assertEquals(dryRunResult.getMatched(), 1);
+        Assert.assertEquals(dryRunResult.getReplayed(), 0);
+        Assert.assertEquals(dryRunResult.getCheckpoint(), authRecordId);
+        Assert.assertEquals(payment.getTransactions().get(0).getTransactionStatus(), TransactionStatus.PENDING);
+
+        // Bounded run
+        final NotificationReplayRequest boundedRequest = new NotificationReplayRequest();
+        boundedRequest.setMaxItems(1);
+        boundedRequest.setDryRun(true);
+        final NotificationReplayResult boundedResult = notificationReplayer.replay(boundedRequest);
+        Assert.assertFalse(boundedResult.isDone());
+        Assert.assertEquals(boundedResult.getMatched(), 1);
+        Assert.assertEquals(boundedResult.getCheckpoint(), authRecordId);
+
+        final NotificationReplayRequest replayRequest = new NotificationReplayRequest();
+        replayRequest.setEventCode("AUTHORISATION");
+        replayRequest.setKbTenantId(context.getTenantId());
+        replayRequest.setParallelism(2);
+        replayRequest.setPageSize(1);
+        final NotificationReplayResult replayResult = notificationReplayer.replay(replayRequest);
+        Assert.assertTrue(replayResult.isDone());
+        Assert.assertEquals(replayResult.getMatched(), 1);
+        Assert.assertEquals(replayResult.getReplayed(), 1);
+        Assert.assertEquals(replayResult.getFailed(), 0);
+        Assert.assertEquals(replayResult.getCheckpoint(), authRecordId);
+        Assert.assertEquals(replayResult.getUpToRecordId(), reportRecordId);
+        Assert.assertEquals(payment.getTransactions().get(0).getTransactionStatus(), TransactionStatus.SUCCESS);
+        // Replays aren't recorded again
+        Assert.assertEquals(dao.getNotifications().size(), 2);
+
+        // Resume from the checkpoint: nothing left
+        replayRequest.setAfterRecordId(replayResult.getCheckpoint());
+        final NotificationReplayResult resumedResult = notificationReplayer.replay(replayRequest);
+        Assert.assertTrue(resumedResult.isDone());
+        Assert.assertEquals(resumedResult.getMatched(), 0);
+        Assert.assertEquals(resumedResult.getCheckpoint(), authRecordId);
+    }
+
     private void setupTransaction(final TransactionType transactionType, final NotificationRequestItem item) throws AccountApiException, PaymentApiException, SQLException {
         final PaymentTransaction paymentTransaction = TestUtils.buildPaymentTransaction(payment, transactionType, TransactionStatus.PENDING, BigDecimal.TEN, account.getCurrency());
 
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.io.BaseEncoding;
+
+public class TestNotificationAuthenticator {
+
+    @Test(groups = "fast")
+    public void testBasicAuthentication() throws Exception {
+        final NotificationAuthenticator authenticator = new NotificationAuthenticator("adyen", "s3cr3t:pass");
+
+        Assert.assertTrue(authenticator.isAuthenticated(basic("adyen:s3cr3t:pass")));
+        Assert.assertTrue(authenticator.isAuthenticated("basic " + BaseEncoding.base64().encode("adyen:s3cr3t:pass".getBytes(StandardCharsets.UTF_8))));
+
+        Assert.assertFalse(authenticator.isAuthenticated(null));
+        Assert.assertFalse(authenticator.isAuthenticated(basic("adyen:wrong")));
+        Assert.assertFalse(authenticator.isAuthenticated(basic("adyen:s3cr3t:pas")));
+        Assert.assertFalse(authenticator.isAuthenticated("Bearer token"));
+        Assert.assertFalse(authenticator.isAuthenticated("Basic not-base64!"));
+    }
+
+    @Test(groups = "fast")
+    public void testNotConfigured() throws Exception {
+        // All notifications are rejected
+        Assert.assertFalse(new NotificationAuthenticator(null, null).isAuthenticated(basic(":")));
+        Assert.assertFalse(new NotificationAuthenticator("adyen", "").isAuthenticated(basic("adyen:")));
+    }
+
+    private static String basic(final String credentials) {
+        return "Basic " + BaseEncoding.base64().encode(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
+import org.killbill.billing.plugin.adyen.dao.PaymentMethodsCache;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestPaymentMethodsCachePoller extends TestWithEmbeddedDBBase {
+
+    @Test(groups = "slow")
+    public void testPollInvalidatesUpdatedRowsOnce() throws Exception {
+        final PaymentMethodsCache paymentMethodsCache = new PaymentMethodsCache(10, TimeUnit.HOURS.toMillis(1));
+        final PaymentMethodsCachePoller poller = new PaymentMethodsCachePoller(dao, paymentMethodsCache, TimeUnit.HOURS.toMillis(1));
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        dao.addPaymentMethod(UUID.randomUUID(), kbPaymentMethodId, true, ImmutableMap.<String, String>of(), new DateTime(DateTimeZone.UTC), kbTenantId);
+
+        poller.poll();
+        final long invalidations = getInvalidations(paymentMethodsCache);
+        Assert.assertTrue(invalidations > 0);
+
+        // Returned again by the overlap, but already processed
+        poller.poll();
+        Assert.assertEquals(getInvalidations(paymentMethodsCache), invalidations);
+
+        // Past the updated_date precision of the database
+        Thread.sleep(1100);
+        dao.setPaymentMethodToken(kbPaymentMethodId.toString(), "token", kbTenantId.toString());
+        poller.poll();
+        Assert.assertEquals(getInvalidations(paymentMethodsCache), invalidations + 1);
+    }
+
+    private static long getInvalidations(final PaymentMethodsCache paymentMethodsCache) {
+        return (Long) paymentMethodsCache.getSnapshot().get("invalidations");
+    }
+}
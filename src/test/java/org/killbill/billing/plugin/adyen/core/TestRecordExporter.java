@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
+import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
+import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
+import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+public class TestRecordExporter extends TestWithEmbeddedDBBase {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test(groups = "slow")
+    public void testExportNotifications() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime now = new DateTime(DateTimeZone.UTC);
+        for (int i = 0; i < 5; i++) {
+            addNotification("AUTHORISATION", "TestMerchant", now, kbTenantId);
+        }
+        addNotification("CAPTURE", "TestMerchant", now, kbTenantId);
+        addNotification("AUTHORISATION", "OtherMerchant", now, kbTenantId);
+        addNotification("AUTHORISATION", "TestMerchant", now, UUID.randomUUID());
+        addNotification("AUTHORISATION", "TestMerchant", now.minusDays(2), kbTenantId);
+
+        final RecordExportRequest request = new RecordExportRequest();
+        request.setEventCode("AUTHORISATION");
+        request.setMerchantAccountCode("TestMerchant");
+        request.setKbTenantId(kbTenantId);
+        request.setCreatedAfter(now.minusDays(1));
+        // Several pages, the last one full
+        request.setPageSize(1);
+        request.setMaxRowsPerSecond(0);
+
+        final List<String> lines = export(new RecordExporter(dao, 1000, 2000).exportNotifications(request));
+        Assert.assertEquals(lines.size(), 5);
+        long previousRecordId = 0;
+        for (final String line : lines) {
+            final Map<?, ?> row = objectMapper.readValue(line, Map.class);
+            Assert.assertEquals(row.get("event_code"), "AUTHORISATION");
+            Assert.assertEquals(row.get("merchant_account_code"), "TestMerchant");
+            Assert.assertEquals(row.get("kb_tenant_id"), kbTenantId.toString());
+            Assert.assertEquals(row.get("operations"), "CAPTURE,REFUND");
+            Assert.assertFalse(row.containsKey("kb_tenant_id_bin"));
+            final long recordId = ((Number) row.get("record_id")).longValue();
+            Assert.assertTrue(recordId > previousRecordId);
+            previousRecordId = recordId;
+        }
+
+        // Resume from a checkpoint
+        final long checkpoint = ((Number) objectMapper.readValue(lines.get(2), Map.class).get("record_id")).longValue();
+        request.setAfterRecordId(checkpoint);
+        request.setPageSize(RecordExportRequest.DEFAULT_PAGE_SIZE);
+        Assert.assertEquals(export(new RecordExporter(dao, 1000, 2000).exportNotifications(request)).size(), 2);
+    }
+
+    @Test(groups = "slow")
+    public void testExportResponsesAsCsv() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime now = new DateTime(DateTimeZone.UTC);
+        for (int i = 0; i < 3; i++) {
+            dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), now, kbTenantId);
+        }
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), now, UUID.randomUUID());
+
+        final RecordExportRequest request = new RecordExportRequest();
+        request.setKbTenantId(kbTenantId);
+        request.setFormat(RecordExportRequest.Format.CSV);
+        request.setPageSize(2);
+
+        final List<String> lines = export(new RecordExporter(dao, 1000, 2000).exportResponses(request));
+        Assert.assertEquals(lines.size(), 4);
+        final List<String> header = Splitter.on(',').splitToList(lines.get(0));
+        Assert.assertEquals(header.get(0), "record_id");
+        Assert.assertTrue(header.contains("kb_payment_transaction_id"));
+        Assert.assertTrue(header.contains("additional_data"));
+        Assert.assertFalse(header.contains("kb_tenant_id_bin"));
+        for (final String line : lines.subList(1, lines.size())) {
+            Assert.assertTrue(line.contains("," + kbTenantId + ","));
+            // The additional data is JSON, hence quoted
+            Assert.assertTrue(line.contains(",\"{\"\""), line);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testExportLimits() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime now = new DateTime(DateTimeZone.UTC);
+        for (int i = 0; i < 3; i++) {
+            dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), now, kbTenantId);
+        }
+
+        // Neither the page size nor the rate can exceed the exporter limits
+        final AdyenDao spiedDao = Mockito.spy(dao);
+        final RecordExportRequest request = new RecordExportRequest();
+        request.setKbTenantId(kbTenantId);
+        request.setPageSize(Integer.MAX_VALUE);
+        request.setMaxRowsPerSecond(0);
+        final long startMillis = System.currentTimeMillis();
+        Assert.assertEquals(export(new RecordExporter(spiedDao, 2, 2).exportResponses(request)).size(), 3);
+        Assert.assertTrue(System.currentTimeMillis() - startMillis >= 500);
+        Mockito.verify(spiedDao, Mockito.times(2)).getResponses(Mockito.anyLong(), Mockito.anyLong(), Mockito.<DateTime>any(), Mockito.<DateTime>any(), Mockito.<String>any(), Mockito.eq(kbTenantId), Mockito.eq(2), Mockito.eq(true));
+
+        // Always scoped to a tenant
+        try {
+            new RecordExporter(dao, 2, 2).exportResponses(new RecordExportRequest());
+            Assert.fail();
+        } catch (final IllegalArgumentException e) {
+            Assert.assertEquals(e.getMessage(), "Exports require a tenant");
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testExportArchivedRecords() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime now = new DateTime(DateTimeZone.UTC);
+        final DateTime lastYear = now.minusYears(1);
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), lastYear, kbTenantId);
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), now, kbTenantId);
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), lastYear, kbTenantId);
+        addNotification("AUTHORISATION", "TestMerchant", lastYear, kbTenantId);
+        addNotification("AUTHORISATION", "TestMerchant", now, kbTenantId);
+
+        final AdyenDao.RetentionPolicy retentionPolicy = new AdyenDao.RetentionPolicy() {
+            @Override
+            public DateTime getArchivingHorizon(final String kbTenantIdString) {
+                return now.minusMonths(6);
+            }
+        };
+        Assert.assertEquals(dao.archiveResponses(retentionPolicy, 10, 0), 2);
+        Assert.assertEquals(dao.archiveNotifications(retentionPolicy, 10, 0), 1);
+
+        // The period export still covers the archived rows, merged with the live one in record_id order
+        final RecordExportRequest request = new RecordExportRequest();
+        request.setKbTenantId(kbTenantId);
+        request.setCreatedAfter(now.minusYears(2));
+        request.setPageSize(1);
+        request.setMaxRowsPerSecond(0);
+        final List<String> responses = export(new RecordExporter(dao, 1000, 2000).exportResponses(request));
+        Assert.assertEquals(responses.size(), 3);
+        long previousRecordId = 0;
+        for (final String line : responses) {
+            final long recordId = ((Number) objectMapper.readValue(line, Map.class).get("record_id")).longValue();
+            Assert.assertTrue(recordId > previousRecordId);
+            previousRecordId = recordId;
+        }
+        Assert.assertEquals(export(new RecordExporter(dao, 1000, 2000).exportNotifications(request)).size(), 2);
+    }
+
+    @Test(groups = "slow")
+    public void testExportCompressedResponses() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final Map<String, String> additionalData = new HashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            additionalData.put("fraudCheck-" + i + "-CheckName", "0");
+        }
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 additionalData);
+        final AdyenDao compressingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), AdyenDao.UUIDStorage.CHAR, true);
+        final UUID kbPaymentId = UUID.randomUUID();
+        compressingDao.addResponse(UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, new DateTime(DateTimeZone.UTC), kbTenantId);
+        final AdyenResponsesRecord response = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertFalse(response.getAdditionalData().startsWith("{"));
+
+        final RecordExportRequest request = new RecordExportRequest();
+        request.setKbTenantId(kbTenantId);
+        final List<String> lines = export(new RecordExporter(dao, 1000, 2000).exportResponses(request));
+        Assert.assertEquals(lines.size(), 1);
+        final Map<?, ?> row = objectMapper.readValue(lines.get(0), Map.class);
+        Assert.assertEquals(AdyenDao.fromAdditionalData((String) row.get("additional_data")), additionalData);
+        Assert.assertTrue(((String) row.get("additional_data")).startsWith("{"));
+    }
+
+    private static List<String> export(final InputStream export) throws Exception {
+        final String content = new String(ByteStreams.toByteArray(export), Charsets.UTF_8);
+        return Splitter.onPattern("\r?\n").omitEmptyStrings().splitToList(content);
+    }
+
+    private void addNotification(final String eventCode, final String merchantAccountCode, final DateTime createdDate, final UUID kbTenantId) throws Exception {
+        final NotificationItem notificationItem = new NotificationItem(ImmutableMap.of("key", "value"),
+                                                                       new BigDecimal("12.5"),
+                                                                       "EUR",
+                                                                       eventCode,
+                                                                       createdDate,
+                                                                       merchantAccountCode,
+                                                                       UUID.randomUUID().toString(),
+                                                                       ImmutableList.<String>of("CAPTURE", "REFUND"),
+                                                                       null,
+                                                                       "visa",
+                                                                       UUID.randomUUID().toString(),
+                                                                       null,
+                                                                       true);
+        dao.addNotification(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, notificationItem, createdDate, kbTenantId);
+    }
+
+    private static PurchaseResult newPurchaseResult() {
+        return new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                  null,
+                                  UUID.randomUUID().toString(),
+                                  null,
+                                  null,
+                                  UUID.randomUUID().toString(),
+                                  null,
+                                  ImmutableMap.<String, String>of("key", "value"),
+                                  ImmutableMap.<String, String>of());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
+import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
+import org.killbill.billing.plugin.adyen.client.notification.NotificationMetrics;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestWriteBehindNotificationRecorder extends TestWithEmbeddedDBBase {
+
+    @Test(groups = "slow")
+    public void testFlushBySizeAndOnShutdown() throws Exception {
+        final WriteBehindNotificationRecorder recorder = new WriteBehindNotificationRecorder(dao, new NotificationMetrics(), 100, 10, 60000);
+        recorder.start();
+
+        for (int i = 0; i < 25; i++) {
+            recorder.record(newNotification(UUID.randomUUID().toString()));
+        }
+        Assert.assertEquals(recorder.getBufferedRecords(), 25);
+        Assert.assertEquals(recorder.getSynchronousRecords(), 0);
+
+        // Two full batches are flushed right away, the rest waits for the flush interval
+        waitForNotifications(20);
+
+        recorder.shutdown(5000);
+        Assert.assertEquals(dao.getNotifications().size(), 25);
+        Assert.assertEquals(recorder.getQueueSize(), 0);
+        Assert.assertEquals(recorder.getFailedRecords(), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testFlushByTime() throws Exception {
+        final WriteBehindNotificationRecorder recorder = new WriteBehindNotificationRecorder(dao, new NotificationMetrics(), 100, 10, 50);
+        recorder.start();
+
+        final String pspReference = UUID.randomUUID().toString();
+        recorder.record(newNotification(pspReference));
+        waitForNotifications(1);
+
+        final List<AdyenNotificationsRecord> notifications = dao.getNotifications();
+        Assert.assertEquals(notifications.get(0).getPspReference(), pspReference);
+        Assert.assertEquals(notifications.get(0).getEventCode(), "AUTHORISATION");
+        Assert.assertEquals(notifications.get(0).getAmount().compareTo(new BigDecimal("12.5")), 0);
+        Assert.assertEquals(notifications.get(0).getOperations(), "CAPTURE,REFUND");
+        recorder.shutdown(5000);
+    }
+
+    @Test(groups = "slow")
+    public void testFallbackToSynchronousInserts() throws Exception {
+        // Not started: nothing drains the queue
+        final WriteBehindNotificationRecorder recorder = new WriteBehindNotificationRecorder(dao, new NotificationMetrics(), 1, 10, 50);
+        recorder.record(newNotification(UUID.randomUUID().toString()));
+        recorder.record(newNotification(UUID.randomUUID().toString()));
+
+        Assert.assertEquals(recorder.getSynchronousRecords(), 2);
+        Assert.assertEquals(dao.getNotifications().size(), 2);
+    }
+
+    @Test(groups = "slow")
+    public void testRetryFailedRecords() throws Exception {
+        // Both the batch insert and the row by row retry fail, the next flush succeeds
+        final AdyenDao spiedDao = Mockito.spy(dao);
+        Mockito.doThrow(new SQLException("Connection refused"))
+               .doThrow(new SQLException("Connection refused"))
+               .doCallRealMethod()
+               .when(spiedDao).addNotifications(Mockito.<List<AdyenNotificationsRecord>>any());
+        final NotificationMetrics metrics = new NotificationMetrics();
+        final WriteBehindNotificationRecorder recorder = new WriteBehindNotificationRecorder(spiedDao, metrics, 100, 10, 50);
+        recorder.start();
+
+        final String pspReference = UUID.randomUUID().toString();
+        recorder.record(newNotification(pspReference));
+        waitForNotifications(1);
+        recorder.shutdown(5000);
+
+        Assert.assertEquals(dao.getNotifications().get(0).getPspReference(), pspReference);
+        Assert.assertEquals(recorder.getFailedRecords(), 1);
+        Assert.assertEquals(recorder.getDroppedRecords(), 0);
+        Assert.assertEquals(metrics.getSnapshot().get("droppedAuditRecords"), 0L);
+    }
+
+    @Test(groups = "slow")
+    public void testDropFailedRecordsOnShutdown() throws Exception {
+        final AdyenDao spiedDao = Mockito.spy(dao);
+        Mockito.doThrow(new SQLException("Connection refused")).when(spiedDao).addNotifications(Mockito.<List<AdyenNotificationsRecord>>any());
+        final NotificationMetrics metrics = new NotificationMetrics();
+        final WriteBehindNotificationRecorder recorder = new WriteBehindNotificationRecorder(spiedDao, metrics, 100, 10, 60000);
+        recorder.start();
+
+        recorder.record(newNotification(UUID.randomUUID().toString()));
+        recorder.shutdown(5000);
+
+        // Put back in the queue by the flusher, then dropped on shutdown
+        Assert.assertEquals(recorder.getDroppedRecords(), 1);
+        Assert.assertEquals(metrics.getSnapshot().get("droppedAuditRecords"), 1L);
+        Assert.assertEquals(dao.getNotifications().size(), 0);
+    }
+
+    private AdyenNotificationsRecord newNotification(final String pspReference) throws Exception {
+        final NotificationItem notificationItem = new NotificationItem(ImmutableMap.of("key", "value"),
+                                                                       new BigDecimal("12.5"),
+                                                                       "EUR",
+                                                                       "AUTHORISATION",
+                                                                       new DateTime(DateTimeZone.UTC),
+                                                                       "TestMerchant",
+                                                                       UUID.randomUUID().toString(),
+                                                                       ImmutableList.<String>of("CAPTURE", "REFUND"),
+                                                                       null,
+                                                                       "visa",
+                                                                       pspReference,
+                                                                       null,
+                                                                       true);
+        return dao.newNotification(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, notificationItem, new DateTime(DateTimeZone.UTC), UUID.randomUUID());
+    }
+
+    private void waitForNotifications(final int nbNotifications) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (dao.getNotifications().size() < nbNotifications) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for notifications to be flushed");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TestAdditionalDataCodec {
+
+    @Test(groups = "fast")
+    public void testRoundTrip() throws Exception {
+        final Map<String, String> additionalData = new HashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            additionalData.put("fraudCheck-" + i + "-CheckName", "0");
+        }
+        additionalData.put("md", "Zuèrich ☃");
+        final String json = new ObjectMapper().writeValueAsString(additionalData);
+
+        final String encoded = AdditionalDataCodec.encode(json);
+        Assert.assertTrue(encoded.startsWith(AdditionalDataCodec.DEFLATE_V1_PREFIX));
+        Assert.assertTrue(encoded.length() < json.length() / 2);
+        Assert.assertEquals(AdditionalDataCodec.decode(encoded), json);
+        Assert.assertEquals(AdyenDao.fromAdditionalData(encoded), additionalData);
+    }
+
+    @Test(groups = "fast")
+    public void testPlainValues() throws Exception {
+        Assert.assertNull(AdditionalDataCodec.encode(null));
+        Assert.assertNull(AdditionalDataCodec.decode(null));
+
+        // Too small to be worth it
+        final String json = "{\"key\":\"value\"}";
+        Assert.assertEquals(AdditionalDataCodec.encode(json), json);
+        // Rows written before compression was enabled
+        Assert.assertEquals(AdditionalDataCodec.decode(json), json);
+    }
+
+    @Test(groups = "fast", expectedExceptions = IOException.class)
+    public void testCorruptedValue() throws Exception {
+        AdditionalDataCodec.decode(AdditionalDataCodec.DEFLATE_V1_PREFIX + "AAAA");
+    }
+}
@@ -18,13 +18,30 @@
 package org.killbill.billing.plugin.adyen.dao;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.sql.DataSource;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.joda.time.DateTime;
@@ -34,23 +51,34 @@ import org.killbill.adyen.notification.ArrayOfString;
 import org.killbill.adyen.notification.NotificationRequestItem;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
 import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
 import org.killbill.billing.plugin.adyen.client.model.NotificationItem;
 import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
 import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UUIDStorage;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UnitOfWork;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.clock.DefaultClock;
+import org.killbill.commons.embeddeddb.EmbeddedDB;
 import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 public class TestAdyenDao extends TestWithEmbeddedDBBase {
 
+    private static final Logger logger = LoggerFactory.getLogger(TestAdyenDao.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     @Test(groups = "slow")
@@ -99,6 +127,745 @@ public class TestAdyenDao extends TestWithEmbeddedDBBase {
         Assert.assertEquals(record.getPspResult(), PaymentServiceProviderResult.AUTHORISED.toString());
     }
 
+    @Test(groups = "slow")
+    public void testGetHppRequests() throws Exception {
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId1 = UUID.randomUUID();
+        final UUID kbPaymentTransactionId2 = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime dateTime = new DateTime(DateTimeZone.UTC);
+        dao.addHppRequest(kbAccountId, kbPaymentId, kbPaymentTransactionId1, "first", ImmutableMap.of(), dateTime, kbTenantId);
+        dao.addHppRequest(kbAccountId, kbPaymentId, kbPaymentTransactionId1, "second", ImmutableMap.of(), dateTime, kbTenantId);
+        dao.addHppRequest(kbAccountId, kbPaymentId, kbPaymentTransactionId2, "third", ImmutableMap.of(), dateTime, kbTenantId);
+
+        final Map<String, AdyenHppRequestsRecord> hppRequests = dao.getHppRequests(ImmutableList.<UUID>of(kbPaymentTransactionId1, kbPaymentTransactionId2, UUID.randomUUID()));
+        Assert.assertEquals(hppRequests.size(), 2);
+        // Latest one, consistent with getHppRequest
+        Assert.assertEquals(hppRequests.get(kbPaymentTransactionId1.toString()).getTransactionExternalKey(), "second");
+        Assert.assertEquals(hppRequests.get(kbPaymentTransactionId1.toString()).getRecordId(), dao.getHppRequest(kbPaymentTransactionId1).getRecordId());
+        Assert.assertEquals(hppRequests.get(kbPaymentTransactionId2.toString()).getTransactionExternalKey(), "third");
+
+        Assert.assertTrue(dao.getHppRequests(ImmutableList.<UUID>of()).isEmpty());
+    }
+
+    @Test(groups = "slow")
+    public void testResponsesRoundTrips() throws Exception {
+        final AtomicInteger nbStatements = new AtomicInteger();
+        final AdyenDao countingDao = new AdyenDao(countCalls(EmbeddedDbHelper.instance().getDataSource(), "execute", nbStatements));
+
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.RECEIVED,
+                                                                 null,
+                                                                 null,
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 ImmutableMap.<String, String>of("key", "value"));
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime dateTime = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+
+        nbStatements.set(0);
+        final AdyenResponsesRecord inserted = countingDao.addResponse(UUID.randomUUID(), kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, dateTime, kbTenantId);
+        // jOOQ emulates RETURNING on H2 with a lookup by primary key, other engines return the generated key directly
+        Assert.assertEquals(nbStatements.get(), EmbeddedDbHelper.instance().getDBEngine() == EmbeddedDB.DBEngine.H2 ? 2 : 1);
+        Assert.assertNotNull(inserted.getRecordId());
+        assertSameResponse(inserted, dao.getResponses(kbPaymentId, kbTenantId).get(0));
+
+        final String pspReference = UUID.randomUUID().toString();
+        nbStatements.set(0);
+        final AdyenResponsesRecord updated = countingDao.updateResponse(kbPaymentTransactionId,
+                                                                        PaymentServiceProviderResult.AUTHORISED,
+                                                                        PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(AdyenPaymentPluginApi.PROPERTY_PSP_REFERENCE, pspReference)),
+                                                                        kbTenantId);
+        // Select and update
+        Assert.assertEquals(nbStatements.get(), 2);
+        Assert.assertEquals(updated.getPspReference(), pspReference);
+        Assert.assertEquals(updated.getPspResult(), PaymentServiceProviderResult.AUTHORISED.toString());
+        assertSameResponse(updated, dao.getResponses(kbPaymentId, kbTenantId).get(0));
+    }
+
+    @Test(groups = "slow")
+    public void testInsertResponseWithoutAmount() throws Exception {
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+
+        // e.g. a VOID, or a follow-up transaction recorded from a notification
+        final AdyenResponsesRecord inserted = dao.addResponse(UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), TransactionType.VOID, null, null, newPurchaseResult(), new DateTime(DateTimeZone.UTC), kbTenantId);
+        final AdyenResponsesRecord fromDB = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertEquals(fromDB.getRecordId(), inserted.getRecordId());
+        Assert.assertEquals(fromDB.getTransactionType(), TransactionType.VOID.toString());
+        Assert.assertNull(fromDB.getAmount());
+        Assert.assertNull(fromDB.getCurrency());
+    }
+
+    @Test(groups = "slow")
+    public void testPromotedColumns() throws Exception {
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime dateTime = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+
+        // Populated on write
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.RECEIVED,
+                                                                 null,
+                                                                 null,
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 ImmutableMap.<String, String>of(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, "TestMerchant"));
+        final AdyenResponsesRecord inserted = dao.addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, dateTime, kbTenantId);
+        Assert.assertEquals(inserted.getMerchantAccountCode(), "TestMerchant");
+        Assert.assertFalse(AdyenDao.isFromHpp(inserted));
+
+        final AdyenResponsesRecord updated = dao.updateResponse(kbPaymentTransactionId,
+                                                                PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(AdyenPaymentPluginApi.PROPERTY_FROM_HPP, true,
+                                                                                                                                       AdyenPaymentPluginApi.PROPERTY_PAYMENT_METHOD, "ideal")),
+                                                                kbTenantId);
+        Assert.assertTrue(AdyenDao.isFromHpp(updated));
+        Assert.assertEquals(updated.getPaymentMethod(), "ideal");
+        Assert.assertEquals(updated.getMerchantAccountCode(), "TestMerchant");
+
+        dao.addHppRequest(kbAccountId, kbPaymentId, kbPaymentTransactionId, "ref", ImmutableMap.of(AdyenPaymentPluginApi.PROPERTY_BRAND_CODE, "sepadirectdebit"), dateTime, kbTenantId);
+        Assert.assertEquals(dao.getHppRequest(kbPaymentTransactionId).getBrandCode(), "sepadirectdebit");
+
+        dao.addPaymentMethod(kbAccountId, kbPaymentMethodId, true, ImmutableMap.<String, String>of(AdyenPaymentPluginApi.PROPERTY_CUSTOMER_ID, "shopper1",
+                                                                                                   AdyenPaymentPluginApi.PROPERTY_RECURRING_TYPE, "ONECLICK"), dateTime, kbTenantId);
+        Assert.assertEquals(dao.getPaymentMethod(kbPaymentMethodId, kbTenantId).getCustomerId(), "shopper1");
+        Assert.assertEquals(dao.getPaymentMethod(kbPaymentMethodId, kbTenantId).getRecurringType(), "ONECLICK");
+
+        // Rows written before the migration
+        final Connection connection = EmbeddedDbHelper.instance().getDataSource().getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            statement.executeUpdate("update adyen_responses set merchant_account_code = null, payment_method = null, from_hpp = null");
+            statement.executeUpdate("update adyen_hpp_requests set brand_code = null");
+            statement.executeUpdate("update adyen_payment_methods set customer_id = null, recurring_type = null");
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        dao.addHppRequest(kbAccountId, kbPaymentId, UUID.randomUUID(), "no-brand-code", ImmutableMap.of(), dateTime, kbTenantId);
+
+        // Accessors fall back to additional_data
+        final AdyenResponsesRecord legacy = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertNull(legacy.getFromHpp());
+        Assert.assertTrue(AdyenDao.isFromHpp(legacy));
+        Assert.assertEquals(AdyenDao.getMerchantAccountCode(legacy), "TestMerchant");
+        Assert.assertEquals(AdyenDao.getPaymentMethod(legacy), "ideal");
+        Assert.assertEquals(AdyenDao.getBrandCode(dao.getHppRequest(kbPaymentTransactionId)), "sepadirectdebit");
+        Assert.assertEquals(AdyenDao.getCustomerId(dao.getPaymentMethod(kbPaymentMethodId, kbTenantId)), "shopper1");
+
+        // One response, one HPP request (the one without brandCode is skipped) and one payment method
+        Assert.assertEquals(dao.backfillPromotedColumns(1), 3);
+        final AdyenResponsesRecord backfilled = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertEquals(backfilled.getMerchantAccountCode(), "TestMerchant");
+        Assert.assertEquals(backfilled.getPaymentMethod(), "ideal");
+        Assert.assertEquals((byte) backfilled.getFromHpp(), AdyenDao.TRUE);
+        // Concurrent compare-and-set updates of the response see the change
+        Assert.assertEquals((int) backfilled.getVersion(), legacy.getVersion() + 1);
+        Assert.assertEquals(dao.getHppRequest(kbPaymentTransactionId).getBrandCode(), "sepadirectdebit");
+        Assert.assertEquals(dao.getPaymentMethod(kbPaymentMethodId, kbTenantId).getCustomerId(), "shopper1");
+        Assert.assertEquals(dao.getPaymentMethod(kbPaymentMethodId, kbTenantId).getRecurringType(), "ONECLICK");
+
+        // Nothing left to do
+        Assert.assertEquals(dao.backfillPromotedColumns(100), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testBinaryUUIDs() throws Exception {
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime dateTime = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+
+        // Written before dual writes were enabled
+        final UUID legacyKbPaymentTransactionId = UUID.randomUUID();
+        final AdyenResponsesRecord legacy = dao.addResponse(kbAccountId, kbPaymentId, legacyKbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), dateTime, kbTenantId);
+        Assert.assertNull(legacy.getKbPaymentIdBin());
+
+        final AdyenDao dualWriteDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), AdyenDao.UUIDStorage.DUAL_WRITE);
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        dualWriteDao.addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, TransactionType.CAPTURE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), dateTime, kbTenantId);
+        Assert.assertEquals(dualWriteDao.getResponses(kbPaymentId, kbTenantId).size(), 2);
+
+        final AdyenDao binaryDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), AdyenDao.UUIDStorage.BINARY);
+        // Not backfilled yet
+        Assert.assertEquals(binaryDao.getResponses(kbPaymentId, kbTenantId).size(), 1);
+        Assert.assertNull(binaryDao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId));
+
+        Assert.assertTrue(dualWriteDao.backfillBinaryUUIDs(1) >= 1);
+        Assert.assertEquals(dualWriteDao.backfillBinaryUUIDs(100), 0);
+
+        final List<AdyenResponsesRecord> responses = binaryDao.getResponses(kbPaymentId, kbTenantId);
+        Assert.assertEquals(responses.size(), 2);
+        Assert.assertEquals(responses.get(0).getKbPaymentTransactionIdBin(), legacyKbPaymentTransactionId);
+        Assert.assertEquals(responses.get(0).getKbPaymentIdBin(), kbPaymentId);
+        Assert.assertEquals(responses.get(0).getKbTenantIdBin(), kbTenantId);
+        Assert.assertEquals(responses.get(1).getKbPaymentTransactionIdBin(), kbPaymentTransactionId);
+        Assert.assertEquals(binaryDao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId).getKbPaymentTransactionId(), legacyKbPaymentTransactionId.toString());
+        Assert.assertNotNull(binaryDao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("key", "value")), kbTenantId));
+        Assert.assertTrue(binaryDao.getResponses(kbPaymentId, UUID.randomUUID()).isEmpty());
+    }
+
+    @Test(groups = "slow")
+    public void testRetention() throws Exception {
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final UUID otherKbPaymentId = UUID.randomUUID();
+        final UUID otherKbTenantId = UUID.randomUUID();
+        final DateTime utcNow = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+        final DateTime lastYear = utcNow.minusYears(1);
+
+        final PurchaseResult authorization = newPurchaseResult();
+        dao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, authorization, lastYear, kbTenantId);
+        dao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.CAPTURE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), lastYear, kbTenantId);
+        dao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.REFUND, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), utcNow, kbTenantId);
+        // Tenant without retention
+        dao.addResponse(kbAccountId, otherKbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), lastYear, otherKbTenantId);
+
+        final AdyenNotificationsRecord notification = new AdyenNotificationsRecord();
+        notification.setKbTenantId(kbTenantId.toString());
+        notification.setPspReference(authorization.getPspReference());
+        notification.setSuccess(AdyenDao.TRUE);
+        notification.setCreatedDate(new Timestamp(lastYear.getMillis()));
+        dao.addNotifications(ImmutableList.<AdyenNotificationsRecord>of(notification));
+
+        final AdyenDao.RetentionPolicy retentionPolicy = new AdyenDao.RetentionPolicy() {
+            @Override
+            public DateTime getArchivingHorizon(final String kbTenantIdString) {
+                return kbTenantId.toString().equals(kbTenantIdString) ? utcNow.minusMonths(6) : null;
+            }
+        };
+        Assert.assertEquals(dao.archiveResponses(retentionPolicy, 1, 0), 2);
+        Assert.assertEquals(dao.archiveNotifications(retentionPolicy, 1, 0), 1);
+        // Nothing left to do
+        Assert.assertEquals(dao.archiveResponses(retentionPolicy, 10, 0), 0);
+
+        final List<AdyenResponsesRecord> liveResponses = dao.getResponses(kbPaymentId, kbTenantId);
+        Assert.assertEquals(liveResponses.size(), 1);
+        Assert.assertEquals(liveResponses.get(0).getTransactionType(), TransactionType.REFUND.toString());
+        final List<AdyenResponsesRecord> allResponses = dao.getResponses(kbPaymentId, kbTenantId, true);
+        Assert.assertEquals(allResponses.size(), 3);
+        Assert.assertEquals(allResponses.get(0).getTransactionType(), TransactionType.AUTHORIZE.toString());
+        Assert.assertEquals(allResponses.get(2).getTransactionType(), TransactionType.REFUND.toString());
+        Assert.assertEquals(dao.getResponse(authorization.getPspReference()).getKbPaymentId(), kbPaymentId.toString());
+        Assert.assertEquals(dao.getResponses(otherKbPaymentId, otherKbTenantId).size(), 1);
+    }
+
+    @Test(groups = "slow")
+    public void testRetentionPerTenant() throws Exception {
+        final UUID longRetentionKbTenantId = UUID.randomUUID();
+        final UUID shortRetentionKbTenantId = UUID.randomUUID();
+        final UUID shortRetentionKbPaymentId = UUID.randomUUID();
+        final DateTime utcNow = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+
+        // Within the retention of its tenant, and past the horizon of the other one
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), utcNow.minusMonths(18), longRetentionKbTenantId);
+        // Expired, but only seen after the row above
+        dao.addResponse(UUID.randomUUID(), shortRetentionKbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), utcNow.minusYears(1), shortRetentionKbTenantId);
+
+        final AdyenDao.RetentionPolicy retentionPolicy = new AdyenDao.RetentionPolicy() {
+            @Override
+            public DateTime getArchivingHorizon(final String kbTenantIdString) {
+                return longRetentionKbTenantId.toString().equals(kbTenantIdString) ? utcNow.minusYears(2) : utcNow.minusDays(30);
+            }
+        };
+        Assert.assertEquals(dao.archiveResponses(retentionPolicy, 1, 0), 1);
+        Assert.assertEquals(dao.getResponses(shortRetentionKbPaymentId, shortRetentionKbTenantId).size(), 0);
+        Assert.assertEquals(dao.getResponses(shortRetentionKbPaymentId, shortRetentionKbTenantId, true).size(), 1);
+    }
+
+    @Test(groups = "slow")
+    public void testRefundAfterRetention() throws Exception {
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbAuthorizationTransactionId = UUID.randomUUID();
+        final UUID kbCaptureTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime utcNow = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+        final DateTime lastYear = utcNow.minusYears(1);
+
+        final PurchaseResult authorization = newPurchaseResult();
+        dao.addResponse(kbAccountId, kbPaymentId, kbAuthorizationTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, authorization, lastYear, kbTenantId);
+        dao.addResponse(kbAccountId, kbPaymentId, kbCaptureTransactionId, TransactionType.CAPTURE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), lastYear, kbTenantId);
+
+        final AdyenDao.RetentionPolicy retentionPolicy = new AdyenDao.RetentionPolicy() {
+            @Override
+            public DateTime getArchivingHorizon(final String kbTenantIdString) {
+                return kbTenantId.toString().equals(kbTenantIdString) ? utcNow.minusMonths(6) : null;
+            }
+        };
+        Assert.assertEquals(dao.archiveResponses(retentionPolicy, 10, 0), 2);
+        Assert.assertEquals(dao.getResponses(kbPaymentId, kbTenantId).size(), 0);
+
+        // The refund is issued against the archived authorization
+        final AdyenResponsesRecord previousResponse = dao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId);
+        Assert.assertNotNull(previousResponse);
+        Assert.assertEquals(previousResponse.getPspReference(), authorization.getPspReference());
+        dao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.REFUND, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), utcNow, kbTenantId);
+        Assert.assertEquals(dao.getResponses(kbPaymentId, kbTenantId).size(), 1);
+
+        // A late notification for the archived capture updates the archived row
+        final AdyenResponsesRecord updated = dao.updateResponse(kbCaptureTransactionId,
+                                                                PaymentServiceProviderResult.REFUSED,
+                                                                PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("key", "value")),
+                                                                kbTenantId);
+        Assert.assertNotNull(updated);
+        Assert.assertEquals(updated.getPspResult(), PaymentServiceProviderResult.REFUSED.toString());
+        final List<AdyenResponsesRecord> allResponses = dao.getResponses(kbPaymentId, kbTenantId, true);
+        Assert.assertEquals(allResponses.size(), 3);
+        Assert.assertEquals(allResponses.get(1).getKbPaymentTransactionId(), kbCaptureTransactionId.toString());
+        Assert.assertEquals(allResponses.get(1).getPspResult(), PaymentServiceProviderResult.REFUSED.toString());
+        Assert.assertEquals(AdyenDao.fromAdditionalData(allResponses.get(1).getAdditionalData()).get("key"), "value");
+    }
+
+    @Test(groups = "slow")
+    public void testCompressedAdditionalData() throws Exception {
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime dateTime = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+
+        final Map<String, String> additionalData = new HashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            additionalData.put("fraudCheck-" + i + "-CheckName", "0");
+        }
+        additionalData.put(AdyenPaymentPluginApi.PROPERTY_MERCHANT_ACCOUNT_CODE, "TestMerchant");
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 additionalData);
+
+        final AdyenDao compressingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), AdyenDao.UUIDStorage.CHAR, true);
+        compressingDao.addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, dateTime, kbTenantId);
+
+        // Readable whether compression is enabled or not
+        for (final AdyenDao adyenDao : ImmutableList.<AdyenDao>of(compressingDao, dao)) {
+            final AdyenResponsesRecord response = adyenDao.getResponses(kbPaymentId, kbTenantId).get(0);
+            Assert.assertTrue(response.getAdditionalData().startsWith(AdditionalDataCodec.DEFLATE_V1_PREFIX));
+            Assert.assertEquals(AdyenDao.fromAdditionalData(response.getAdditionalData()), additionalData);
+            Assert.assertEquals(AdyenDao.getMerchantAccountCode(response), "TestMerchant");
+        }
+
+        // Merged and re-compressed
+        final AdyenResponsesRecord updated = compressingDao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("key", "value")), kbTenantId);
+        Assert.assertTrue(updated.getAdditionalData().startsWith(AdditionalDataCodec.DEFLATE_V1_PREFIX));
+        Assert.assertEquals(AdyenDao.fromAdditionalData(dao.getResponses(kbPaymentId, kbTenantId).get(0).getAdditionalData()).get("key"), "value");
+    }
+
+    @Test(groups = "slow")
+    public void testGetResponsesByAdditionalData() throws Exception {
+        final UUID kbTenantId = UUID.randomUUID();
+        final UUID otherKbTenantId = UUID.randomUUID();
+        final DateTime dateTime = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+        final String merchantReference = UUID.randomUUID().toString();
+
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), dateTime, kbTenantId);
+        dao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(AdyenPaymentPluginApi.PROPERTY_MERCHANT_REFERENCE, merchantReference,
+                                                                                                                          "fraudResult.accountScore", "50")), kbTenantId);
+        // Same values, but for another tenant, under another key or only matching the LIKE pre-filter
+        final UUID otherTenantKbPaymentTransactionId = UUID.randomUUID();
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), otherTenantKbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), dateTime, otherKbTenantId);
+        dao.updateResponse(otherTenantKbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(AdyenPaymentPluginApi.PROPERTY_MERCHANT_REFERENCE, merchantReference)), otherKbTenantId);
+        final UUID otherKeyKbPaymentTransactionId = UUID.randomUUID();
+        dao.addResponse(UUID.randomUUID(), UUID.randomUUID(), otherKeyKbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), dateTime, kbTenantId);
+        dao.updateResponse(otherKeyKbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("originalMerchantReference", merchantReference,
+                                                                                                                                  "fraudResult.accountScore", "5_")), kbTenantId);
+
+        final List<AdyenResponsesRecord> byMerchantReference = dao.getResponsesByAdditionalData(AdyenPaymentPluginApi.PROPERTY_MERCHANT_REFERENCE, merchantReference, kbTenantId);
+        Assert.assertEquals(byMerchantReference.size(), 1);
+        Assert.assertEquals(byMerchantReference.get(0).getKbPaymentTransactionId(), kbPaymentTransactionId.toString());
+
+        final List<AdyenResponsesRecord> byAccountScore = dao.getResponsesByAdditionalData("fraudResult.accountScore", "5_", kbTenantId);
+        Assert.assertEquals(byAccountScore.size(), 1);
+        Assert.assertEquals(byAccountScore.get(0).getKbPaymentTransactionId(), otherKeyKbPaymentTransactionId.toString());
+
+        Assert.assertEquals(dao.getResponsesByAdditionalData(AdyenPaymentPluginApi.PROPERTY_MERCHANT_REFERENCE, merchantReference, otherKbTenantId).size(), 1);
+        Assert.assertEquals(dao.getResponsesByAdditionalData(AdyenPaymentPluginApi.PROPERTY_MERCHANT_REFERENCE, UUID.randomUUID().toString(), kbTenantId).size(), 0);
+
+        // Compressed rows are decoded when the lookup scans the table, and skipped by the indexed lookups
+        final Map<String, String> largeAdditionalData = new HashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            largeAdditionalData.put("fraudCheck-" + i + "-CheckName", "0");
+        }
+        largeAdditionalData.put("fraudResult.accountScore", "75");
+        final PurchaseResult largePurchaseResult = new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                                                      null,
+                                                                      UUID.randomUUID().toString(),
+                                                                      null,
+                                                                      null,
+                                                                      UUID.randomUUID().toString(),
+                                                                      null,
+                                                                      ImmutableMap.<String, String>of(),
+                                                                      largeAdditionalData);
+        final AdyenDao compressingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), AdyenDao.UUIDStorage.CHAR, true);
+        final UUID compressedKbPaymentTransactionId = UUID.randomUUID();
+        compressingDao.addResponse(UUID.randomUUID(), UUID.randomUUID(), compressedKbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, largePurchaseResult, dateTime, kbTenantId);
+        final List<AdyenResponsesRecord> byCompressedAccountScore = dao.getResponsesByAdditionalData("fraudResult.accountScore", "75", kbTenantId);
+        if (EmbeddedDbHelper.instance().getDBEngine() == EmbeddedDB.DBEngine.POSTGRESQL) {
+            Assert.assertEquals(byCompressedAccountScore.size(), 0);
+        } else {
+            Assert.assertEquals(byCompressedAccountScore.size(), 1);
+            Assert.assertEquals(byCompressedAccountScore.get(0).getKbPaymentTransactionId(), compressedKbPaymentTransactionId.toString());
+        }
+        // The other lookups decode it, but don't match it
+        Assert.assertEquals(dao.getResponsesByAdditionalData("fraudResult.accountScore", "5_", kbTenantId).size(), 1);
+    }
+
+    private static PurchaseResult newPurchaseResult() {
+        return new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                  null,
+                                  UUID.randomUUID().toString(),
+                                  null,
+                                  null,
+                                  UUID.randomUUID().toString(),
+                                  null,
+                                  ImmutableMap.<String, String>of(),
+                                  ImmutableMap.<String, String>of());
+    }
+
+    @Test(groups = "slow")
+    public void testUnitOfWork() throws Exception {
+        final AtomicInteger nbConnections = new AtomicInteger();
+        final AdyenDao countingDao = new AdyenDao(countCalls(EmbeddedDbHelper.instance().getDataSource(), "getConnection", nbConnections));
+
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        addAuthorization(countingDao, kbPaymentId, kbTenantId);
+
+        nbConnections.set(0);
+        readPayment(countingDao, kbPaymentId, kbTenantId);
+        Assert.assertEquals(nbConnections.get(), 3);
+
+        nbConnections.set(0);
+        countingDao.inUnitOfWork(false,
+                                 new UnitOfWork<Void, SQLException>() {
+                                     @Override
+                                     public Void execute() throws SQLException {
+                                         readPayment(countingDao, kbPaymentId, kbTenantId);
+                                         // Nested units of work join the outer one
+                                         return countingDao.inUnitOfWork(true,
+                                                                         new UnitOfWork<Void, SQLException>() {
+                                                                             @Override
+                                                                             public Void execute() throws SQLException {
+                                                                                 readPayment(countingDao, kbPaymentId, kbTenantId);
+                                                                                 return null;
+                                                                             }
+                                                                         });
+                                     }
+                                 });
+        Assert.assertEquals(nbConnections.get(), 1);
+
+        // Transactional units of work are rolled back on failure
+        final String leaseKey = UUID.randomUUID().toString();
+        try {
+            countingDao.inUnitOfWork(true,
+                                     new UnitOfWork<Void, SQLException>() {
+                                         @Override
+                                         public Void execute() throws SQLException {
+                                             final DateTime now = new DateTime(DateTimeZone.UTC);
+                                             Assert.assertTrue(countingDao.tryAcquireNotificationLease(leaseKey, "node1", now, now.plusMinutes(5)));
+                                             Assert.assertNotNull(countingDao.getNotificationLease(leaseKey));
+                                             throw new IllegalStateException("boom");
+                                         }
+                                     });
+            Assert.fail();
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "boom");
+        }
+        Assert.assertNull(dao.getNotificationLease(leaseKey));
+
+        // Errors too (restoring the auto-commit mode would otherwise commit the partial transaction)
+        final String errorLeaseKey = UUID.randomUUID().toString();
+        try {
+            countingDao.inUnitOfWork(true,
+                                     new UnitOfWork<Void, SQLException>() {
+                                         @Override
+                                         public Void execute() throws SQLException {
+                                             final DateTime now = new DateTime(DateTimeZone.UTC);
+                                             Assert.assertTrue(countingDao.tryAcquireNotificationLease(errorLeaseKey, "node1", now, now.plusMinutes(5)));
+                                             throw new StackOverflowError("boom");
+                                         }
+                                     });
+            Assert.fail();
+        } catch (final StackOverflowError e) {
+            Assert.assertEquals(e.getMessage(), "boom");
+        }
+        Assert.assertNull(dao.getNotificationLease(errorLeaseKey));
+
+        // Nested transactional units of work run in their own transaction when the outer one isn't transactional
+        final String nestedLeaseKey = UUID.randomUUID().toString();
+        final String otherLeaseKey = UUID.randomUUID().toString();
+        countingDao.inUnitOfWork(false,
+                                 new UnitOfWork<Void, SQLException>() {
+                                     @Override
+                                     public Void execute() throws SQLException {
+                                         final DateTime now = new DateTime(DateTimeZone.UTC);
+                                         Assert.assertTrue(countingDao.tryAcquireNotificationLease(otherLeaseKey, "node1", now, now.plusMinutes(5)));
+                                         try {
+                                             countingDao.inUnitOfWork(true,
+                                                                      new UnitOfWork<Void, SQLException>() {
+                                                                          @Override
+                                                                          public Void execute() throws SQLException {
+                                                                              Assert.assertTrue(countingDao.tryAcquireNotificationLease(nestedLeaseKey, "node1", now, now.plusMinutes(5)));
+                                                                              throw new IllegalStateException("boom");
+                                                                          }
+                                                                      });
+                                             Assert.fail();
+                                         } catch (final IllegalStateException e) {
+                                             Assert.assertEquals(e.getMessage(), "boom");
+                                         }
+                                         return null;
+                                     }
+                                 });
+        Assert.assertNull(dao.getNotificationLease(nestedLeaseKey));
+        // Writes of the outer unit of work (auto-committed) are kept
+        Assert.assertNotNull(dao.getNotificationLease(otherLeaseKey));
+    }
+
+    @Test(groups = "slow")
+    public void testUnitOfWorkUnderConcurrentLoad() throws Exception {
+        final AtomicInteger nbConnections = new AtomicInteger();
+        final AdyenDao countingDao = new AdyenDao(countCalls(EmbeddedDbHelper.instance().getDataSource(), "getConnection", nbConnections));
+
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        addAuthorization(countingDao, kbPaymentId, kbTenantId);
+
+        final int nbThreads = 8;
+        final int nbIterations = 50;
+        for (final boolean unitOfWork : new boolean[]{false, true}) {
+            nbConnections.set(0);
+            final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+            final long startNanos = System.nanoTime();
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < nbThreads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < nbIterations; j++) {
+                            if (unitOfWork) {
+                                countingDao.inUnitOfWork(false,
+                                                         new UnitOfWork<Void, SQLException>() {
+                                                             @Override
+                                                             public Void execute() throws SQLException {
+                                                                 readPayment(countingDao, kbPaymentId, kbTenantId);
+                                                                 return null;
+                                                             }
+                                                         });
+                            } else {
+                                readPayment(countingDao, kbPaymentId, kbTenantId);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            final long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            logger.info("unitOfWork={}, threads={}, iterations={}, connectionCheckouts={}, durationMs={}", unitOfWork, nbThreads, nbIterations, nbConnections.get(), durationMs);
+            Assert.assertEquals(nbConnections.get(), nbThreads * nbIterations * (unitOfWork ? 1 : 3));
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentUpdateResponse() throws Exception {
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        dao.addResponse(UUID.randomUUID(), kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), new DateTime(DateTimeZone.UTC), kbTenantId);
+
+        // Each writer adds its own properties to the same row (e.g. HPP redirect and AUTHORISATION notification)
+        final int nbThreads = 8;
+        final int nbIterations = 25;
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        final long startNanos = System.nanoTime();
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < nbThreads; i++) {
+            final int thread = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int j = 0; j < nbIterations; j++) {
+                        dao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("thread" + thread + "-" + j, "value")), kbTenantId);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (final Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        final long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        logger.info("threads={}, iterations={}, conflicts={}, durationMs={}", nbThreads, nbIterations, dao.getUpdateResponseConflicts(), durationMs);
+
+        final AdyenResponsesRecord response = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertEquals((int) response.getVersion(), 1 + nbThreads * nbIterations);
+        final Map additionalData = AdyenDao.fromAdditionalData(response.getAdditionalData());
+        for (int i = 0; i < nbThreads; i++) {
+            for (int j = 0; j < nbIterations; j++) {
+                Assert.assertEquals(additionalData.get("thread" + i + "-" + j), "value");
+            }
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testResponseUpdatesLog() throws Exception {
+        final AdyenDao loggingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), UUIDStorage.CHAR, false, null, true);
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        loggingDao.addResponse(UUID.randomUUID(), kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, newPurchaseResult(), new DateTime(DateTimeZone.UTC), kbTenantId);
+        final String originalAdditionalData = dao.getResponses(kbPaymentId, kbTenantId).get(0).getAdditionalData();
+
+        final String pspReference = UUID.randomUUID().toString();
+        loggingDao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(PurchaseResult.ADYEN_CALL_ERROR_STATUS, "RESPONSE_ABOUT_INVALID_REQUEST")), kbTenantId);
+        final AdyenResponsesRecord updated = loggingDao.updateResponse(kbPaymentTransactionId,
+                                                                       PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(AdyenPaymentPluginApi.PROPERTY_PSP_REFERENCE, pspReference,
+                                                                                                                                              "authCode", "12345")),
+                                                                       kbTenantId);
+        Assert.assertEquals(AdyenDao.fromAdditionalData(updated.getAdditionalData()).get("authCode"), "12345");
+
+        // The row itself only has the promoted columns updated
+        final AdyenResponsesRecord baseResponse = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertEquals(baseResponse.getAdditionalData(), originalAdditionalData);
+        Assert.assertEquals(baseResponse.getPspReference(), pspReference);
+
+        // Reads merge the pending updates, in order
+        for (final AdyenResponsesRecord response : ImmutableList.<AdyenResponsesRecord>of(loggingDao.getResponses(kbPaymentId, kbTenantId).get(0), loggingDao.getResponse(pspReference))) {
+            final Map additionalData = AdyenDao.fromAdditionalData(response.getAdditionalData());
+            Assert.assertEquals(additionalData.get("authCode"), "12345");
+            Assert.assertFalse(additionalData.containsKey(PurchaseResult.ADYEN_CALL_ERROR_STATUS));
+        }
+
+        Assert.assertEquals(loggingDao.compactResponseUpdates(10), 1);
+        Assert.assertEquals(loggingDao.compactResponseUpdates(10), 0);
+
+        final AdyenResponsesRecord compactedResponse = dao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertEquals(compactedResponse.getAdditionalData(), loggingDao.getResponses(kbPaymentId, kbTenantId).get(0).getAdditionalData());
+        Assert.assertEquals((int) compactedResponse.getVersion(), baseResponse.getVersion() + 1);
+        Assert.assertEquals(AdyenDao.fromAdditionalData(compactedResponse.getAdditionalData()).get("authCode"), "12345");
+        Assert.assertFalse(AdyenDao.fromAdditionalData(compactedResponse.getAdditionalData()).containsKey(PurchaseResult.ADYEN_CALL_ERROR_STATUS));
+    }
+
+    @Test(groups = "slow")
+    public void testResponseUpdatesLogConflicts() throws Exception {
+        final DataSource dataSource = EmbeddedDbHelper.instance().getDataSource();
+        final AdyenDao loggingDao = new AdyenDao(dataSource, UUIDStorage.CHAR, false, null, true);
+        final AdyenDao racingLoggingDao = new AdyenDao(bumpVersionBeforeResponseUpdates(dataSource), UUIDStorage.CHAR, false, null, true);
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final PurchaseResult purchaseResult = newPurchaseResult();
+        loggingDao.addResponse(UUID.randomUUID(), kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, new DateTime(DateTimeZone.UTC), kbTenantId);
+
+        // Another writer always wins the race for the row
+        try {
+            racingLoggingDao.updateResponse(kbPaymentTransactionId,
+                                            PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of(AdyenPaymentPluginApi.PROPERTY_PSP_REFERENCE, UUID.randomUUID().toString(),
+                                                                                                                   "authCode", "12345")),
+                                            kbTenantId);
+            Assert.fail();
+        } catch (final SQLException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Unable to update the response"), e.getMessage());
+        }
+
+        // Neither the row nor the additional data changes were persisted
+        final AdyenResponsesRecord response = loggingDao.getResponses(kbPaymentId, kbTenantId).get(0);
+        Assert.assertEquals(response.getPspReference(), purchaseResult.getPspReference());
+        Assert.assertFalse(AdyenDao.fromAdditionalData(response.getAdditionalData()).containsKey("authCode"));
+        Assert.assertEquals(loggingDao.compactResponseUpdates(10), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testPaymentMethodsCache() throws Exception {
+        final PaymentMethodsCache paymentMethodsCache = new PaymentMethodsCache(10, TimeUnit.HOURS.toMillis(1));
+        final AdyenDao cachingDao = new AdyenDao(EmbeddedDbHelper.instance().getDataSource(), UUIDStorage.CHAR, false, null, false, paymentMethodsCache);
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime beforeWrites = new DateTime(DateTimeZone.UTC).minusSeconds(1);
+        cachingDao.addPaymentMethod(kbAccountId, kbPaymentMethodId, true, ImmutableMap.<String, String>of(), new DateTime(DateTimeZone.UTC), kbTenantId);
+
+        Assert.assertNull(cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId).getToken());
+        // Served from the cache, as a copy
+        cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId).setToken("modified");
+        Assert.assertNull(cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId).getToken());
+        Assert.assertEquals(paymentMethodsCache.getSnapshot().get("misses"), 1L);
+        Assert.assertEquals(paymentMethodsCache.getSnapshot().get("hits"), 2L);
+
+        // Invalidated on write
+        cachingDao.setPaymentMethodToken(kbPaymentMethodId.toString(), "token1", kbTenantId.toString());
+        Assert.assertEquals(cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId).getToken(), "token1");
+
+        // Written by another node: stale until polled
+        dao.setPaymentMethodToken(kbPaymentMethodId.toString(), "token2", kbTenantId.toString());
+        Assert.assertEquals(cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId).getToken(), "token1");
+        final List<AdyenPaymentMethodsRecord> updatedPaymentMethods = cachingDao.getPaymentMethodsUpdatedAfter(beforeWrites);
+        Assert.assertEquals(updatedPaymentMethods.size(), 1);
+        paymentMethodsCache.invalidate(updatedPaymentMethods.get(0).getKbPaymentMethodId(), updatedPaymentMethods.get(0).getKbTenantId());
+        Assert.assertEquals(cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId).getToken(), "token2");
+
+        cachingDao.deletePaymentMethod(kbPaymentMethodId, new DateTime(DateTimeZone.UTC), kbTenantId);
+        Assert.assertNull(cachingDao.getCachedPaymentMethod(kbPaymentMethodId, kbTenantId));
+
+        // Loads are only discarded by invalidations of the same row (or stripe)
+        final AdyenPaymentMethodsRecord record = new AdyenPaymentMethodsRecord();
+        record.setKbPaymentMethodId("pm-a");
+        record.setKbTenantId(kbTenantId.toString());
+        final long otherRowGeneration = paymentMethodsCache.getGeneration("pm-a");
+        paymentMethodsCache.invalidate("pm-b", kbTenantId.toString());
+        paymentMethodsCache.put(record, otherRowGeneration);
+        Assert.assertNotNull(paymentMethodsCache.get("pm-a", kbTenantId.toString()));
+        final long sameRowGeneration = paymentMethodsCache.getGeneration("pm-a");
+        paymentMethodsCache.invalidate("pm-a", kbTenantId.toString());
+        paymentMethodsCache.put(record, sameRowGeneration);
+        Assert.assertNull(paymentMethodsCache.get("pm-a", kbTenantId.toString()));
+    }
+
+    // Typical getPaymentInfo access pattern
+    private static void readPayment(final AdyenDao adyenDao, final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        for (final AdyenResponsesRecord response : adyenDao.getResponses(kbPaymentId, kbTenantId)) {
+            adyenDao.getHppRequest(UUID.fromString(response.getKbPaymentTransactionId()));
+        }
+        adyenDao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId);
+    }
+
+    private static void addAuthorization(final AdyenDao adyenDao, final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 ImmutableMap.<String, String>of());
+        adyenDao.addResponse(UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, new DateTime(DateTimeZone.UTC), kbTenantId);
+    }
+
     @Test(groups = "slow")
     public void testInsertNotification() throws SQLException, IOException {
         final NotificationRequestItem notificationRequestItem = new NotificationRequestItem();
@@ -150,4 +917,123 @@ public class TestAdyenDao extends TestWithEmbeddedDBBase {
         Assert.assertEquals(new DateTime(record.getCreatedDate(), DateTimeZone.UTC).compareTo(dateTime), 0);
         Assert.assertEquals(record.getKbTenantId(), kbTenantId.toString());
     }
+
+    @Test(groups = "slow")
+    public void testNotificationLeases() throws Exception {
+        final String leaseKey = UUID.randomUUID().toString();
+        final DateTime now = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+
+        Assert.assertTrue(dao.tryAcquireNotificationLease(leaseKey, "node1", now, now.plusMinutes(5)));
+        Assert.assertEquals(dao.getNotificationLease(leaseKey).getOwner(), "node1");
+
+        // Held by node1
+        Assert.assertFalse(dao.tryAcquireNotificationLease(leaseKey, "node2", now.plusMinutes(1), now.plusMinutes(6)));
+
+        // Only the owner can release it
+        dao.releaseNotificationLease(leaseKey, "node2");
+        Assert.assertEquals(dao.getNotificationLease(leaseKey).getOwner(), "node1");
+
+        // node1 died: the lease is reclaimed once expired
+        Assert.assertTrue(dao.tryAcquireNotificationLease(leaseKey, "node2", now.plusMinutes(10), now.plusMinutes(15)));
+        Assert.assertEquals(dao.getNotificationLease(leaseKey).getOwner(), "node2");
+
+        // node1 came back: it cannot release the lease anymore
+        dao.releaseNotificationLease(leaseKey, "node1");
+        Assert.assertEquals(dao.getNotificationLease(leaseKey).getOwner(), "node2");
+
+        dao.releaseNotificationLease(leaseKey, "node2");
+        Assert.assertNull(dao.getNotificationLease(leaseKey));
+        Assert.assertTrue(dao.tryAcquireNotificationLease(leaseKey, "node1", now.plusMinutes(11), now.plusMinutes(16)));
+    }
+
+    private void assertSameResponse(final AdyenResponsesRecord inMemory, final AdyenResponsesRecord fromDB) throws IOException {
+        Assert.assertEquals(inMemory.getRecordId(), fromDB.getRecordId());
+        Assert.assertEquals(inMemory.getKbPaymentTransactionId(), fromDB.getKbPaymentTransactionId());
+        Assert.assertEquals(inMemory.getAmount().compareTo(fromDB.getAmount()), 0);
+        Assert.assertEquals(inMemory.getCurrency(), fromDB.getCurrency());
+        Assert.assertEquals(inMemory.getPspResult(), fromDB.getPspResult());
+        Assert.assertEquals(inMemory.getPspReference(), fromDB.getPspReference());
+        Assert.assertEquals(inMemory.getPaymentInternalRef(), fromDB.getPaymentInternalRef());
+        Assert.assertEquals(objectMapper.readValue(inMemory.getAdditionalData(), Map.class), objectMapper.readValue(fromDB.getAdditionalData(), Map.class));
+        Assert.assertEquals(inMemory.getCreatedDate().getTime(), fromDB.getCreatedDate().getTime());
+        Assert.assertEquals(inMemory.getKbTenantId(), fromDB.getKbTenantId());
+    }
+
+    // Counts the JDBC calls starting with the specified prefix (e.g. execute for database round trips, getConnection for pool checkouts)
+    // Simulates a concurrent writer, which updates the response rows right before each of our updates
+    private static DataSource bumpVersionBeforeResponseUpdates(final DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                                                   new Class[]{DataSource.class},
+                                                   new InvocationHandler() {
+                                                       @Override
+                                                       public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                                                           final Object result;
+                                                           try {
+                                                               result = method.invoke(dataSource, args);
+                                                           } catch (final InvocationTargetException e) {
+                                                               throw e.getCause();
+                                                           }
+                                                           if (!(result instanceof Connection)) {
+                                                               return result;
+                                                           }
+
+                                                           final Connection connection = (Connection) result;
+                                                           return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                                                         new Class[]{Connection.class},
+                                                                                         new InvocationHandler() {
+                                                                                             @Override
+                                                                                             public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                                                                                                 if ("prepareStatement".equals(method.getName()) &&
+                                                                                                     ((String) args[0]).toLowerCase().matches("update\\W+(\\w+\\W+)?adyen_responses\\W.*")) {
+                                                                                                     final Connection otherConnection = dataSource.getConnection();
+                                                                                                     try {
+                                                                                                         otherConnection.createStatement().executeUpdate("update adyen_responses set version = version + 1");
+                                                                                                     } finally {
+                                                                                                         otherConnection.close();
+                                                                                                     }
+                                                                                                 }
+                                                                                                 try {
+                                                                                                     return method.invoke(connection, args);
+                                                                                                 } catch (final InvocationTargetException e) {
+                                                                                                     throw e.getCause();
+                                                                                                 }
+                                                                                             }
+                                                                                         });
+                                                       }
+                                                   });
+    }
+
+    private static DataSource countCalls(final DataSource dataSource, final String methodPrefix, final AtomicInteger nbCalls) {
+        return proxy(DataSource.class, dataSource, methodPrefix, nbCalls);
+    }
+
+    private static <T> T proxy(final Class<T> clazz, final T delegate, final String methodPrefix, final AtomicInteger nbCalls) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(),
+                                                 new Class[]{clazz},
+                                                 new InvocationHandler() {
+                                                     @Override
+                                                     public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                                                         final Object result;
+                                                         try {
+                                                             result = method.invoke(delegate, args);
+                                                         } catch (final InvocationTargetException e) {
+                                                             throw e.getCause();
+                                                         }
+
+                                                         if (method.getName().startsWith(methodPrefix)) {
+                                                             nbCalls.incrementAndGet();
+                                                         }
+
+                                                         if (result instanceof PreparedStatement) {
+                                                             return proxy(PreparedStatement.class, (PreparedStatement) result, methodPrefix, nbCalls);
+                                                         } else if (result instanceof Statement) {
+                                                             return proxy(Statement.class, (Statement) result, methodPrefix, nbCalls);
+                                                         } else if (result instanceof Connection) {
+                                                             return proxy(Connection.class, (Connection) result, methodPrefix, nbCalls);
+                                                         } else {
+                                                             return result;
+                                                         }
+                                                     }
+                                                 }));
+    }
 }
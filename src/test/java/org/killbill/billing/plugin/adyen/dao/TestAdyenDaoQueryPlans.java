@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
+import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
+import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
+import org.killbill.billing.plugin.api.PluginProperties;
+import org.killbill.clock.DefaultClock;
+import org.killbill.commons.embeddeddb.EmbeddedDB;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+// Regression test for the indexes: none of the queries on the hot paths should scan a whole table
+public class TestAdyenDaoQueryPlans extends TestWithEmbeddedDBBase {
+
+    @Test(groups = "slow")
+    public void testHotQueriesUseIndexes() throws Exception {
+        final List<RecordedStatement> statements = new LinkedList<RecordedStatement>();
+        final AdyenDao recordingDao = new AdyenDao(record(EmbeddedDbHelper.instance().getDataSource(), statements));
+
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbPaymentMethodId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        final DateTime utcNow = DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC));
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 ImmutableMap.<String, String>of());
+
+        // Payment methods
+        recordingDao.addPaymentMethod(kbAccountId, kbPaymentMethodId, true, ImmutableMap.<String, String>of(), utcNow, kbTenantId);
+        recordingDao.getPaymentMethod(kbPaymentMethodId, kbTenantId);
+        recordingDao.getPaymentMethods(kbAccountId, kbTenantId);
+        recordingDao.setPaymentMethodToken(kbPaymentMethodId.toString(), UUID.randomUUID().toString(), kbTenantId.toString());
+
+        // HPP requests
+        recordingDao.addHppRequest(kbAccountId, kbPaymentId, kbPaymentTransactionId, "merchantReference", ImmutableMap.of(), utcNow, kbTenantId);
+        recordingDao.getHppRequest("merchantReference");
+        recordingDao.getHppRequest(kbPaymentTransactionId);
+        recordingDao.getHppRequests(ImmutableList.<UUID>of(kbPaymentTransactionId, UUID.randomUUID()));
+
+        // Responses
+        recordingDao.addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, utcNow, kbTenantId);
+        recordingDao.getResponses(kbPaymentId, kbTenantId);
+        recordingDao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId);
+        recordingDao.getResponse(purchaseResult.getPspReference());
+        recordingDao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("key", "value")), kbTenantId);
+
+        // Responses, compact identifiers
+        final AdyenDao binaryRecordingDao = new AdyenDao(record(EmbeddedDbHelper.instance().getDataSource(), statements), AdyenDao.UUIDStorage.BINARY);
+        binaryRecordingDao.getResponses(kbPaymentId, kbTenantId);
+        binaryRecordingDao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId);
+        binaryRecordingDao.updateResponse(kbPaymentTransactionId, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("key", "value")), kbTenantId);
+
+        // Notifications
+        recordingDao.getNotification(UUID.randomUUID().toString());
+        final String leaseKey = UUID.randomUUID().toString();
+        recordingDao.tryAcquireNotificationLease(leaseKey, "node1", utcNow, utcNow.plusMinutes(5));
+        recordingDao.tryAcquireNotificationLease(leaseKey, "node2", utcNow, utcNow.plusMinutes(5));
+        recordingDao.releaseNotificationLease(leaseKey, "node1");
+
+        Assert.assertFalse(statements.isEmpty());
+        final Connection connection = EmbeddedDbHelper.instance().getDataSource().getConnection();
+        try {
+            final EmbeddedDB.DBEngine dbEngine = EmbeddedDbHelper.instance().getDBEngine();
+            if (dbEngine == EmbeddedDB.DBEngine.POSTGRESQL) {
+                // Otherwise, PostgreSQL always scans tiny tables
+                final Statement statement = connection.createStatement();
+                statement.execute("set enable_seqscan = off");
+                statement.close();
+            }
+
+            for (final RecordedStatement recordedStatement : statements) {
+                if (recordedStatement.sql.trim().toLowerCase().startsWith("insert")) {
+                    continue;
+                }
+                final String plan = explain(connection, recordedStatement);
+                Assert.assertFalse(isFullScan(dbEngine, plan), String.format("Full scan for %s:\n%s", recordedStatement.sql, plan));
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static boolean isFullScan(final EmbeddedDB.DBEngine dbEngine, final String plan) {
+        switch (dbEngine) {
+            case H2:
+                return plan.contains(".tableScan");
+            case MYSQL:
+                // Access type column
+                return plan.contains("|ALL|");
+            case POSTGRESQL:
+                return plan.contains("Seq Scan");
+            default:
+                throw new IllegalStateException("Unsupported engine " + dbEngine);
+        }
+    }
+
+    private static String explain(final Connection connection, final RecordedStatement recordedStatement) throws Exception {
+        final PreparedStatement explain = connection.prepareStatement("explain " + recordedStatement.sql);
+        try {
+            for (final Object[] parameter : recordedStatement.parameters) {
+                ((Method) parameter[0]).invoke(explain, (Object[]) parameter[1]);
+            }
+
+            final StringBuilder plan = new StringBuilder();
+            final ResultSet resultSet = explain.executeQuery();
+            final int nbColumns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                plan.append('|');
+                for (int i = 1; i <= nbColumns; i++) {
+                    plan.append(resultSet.getString(i)).append('|');
+                }
+                plan.append('\n');
+            }
+            resultSet.close();
+            return plan.toString();
+        } finally {
+            explain.close();
+        }
+    }
+
+    private static final class RecordedStatement {
+
+        private final String sql;
+        // Setter and its arguments
+        private final List<Object[]> parameters = new ArrayList<Object[]>();
+
+        private RecordedStatement(final String sql) {
+            this.sql = sql;
+        }
+    }
+
+    // Records the SQL and bind values of all prepared statements
+    private static DataSource record(final DataSource dataSource, final List<RecordedStatement> statements) {
+        return proxy(DataSource.class, dataSource, new Interceptor() {
+            @Override
+            public Object intercept(final Method method, final Object[] args, final Object result) {
+                if (result instanceof Connection) {
+                    return proxy(Connection.class, (Connection) result, new Interceptor() {
+                        @Override
+                        public Object intercept(final Method method, final Object[] args, final Object result) {
+                            if (!(result instanceof PreparedStatement) || !method.getName().equals("prepareStatement")) {
+                                return result;
+                            }
+
+                            final RecordedStatement recordedStatement = new RecordedStatement((String) args[0]);
+                            statements.add(recordedStatement);
+                            return proxy(PreparedStatement.class, (PreparedStatement) result, new Interceptor() {
+                                @Override
+                                public Object intercept(final Method method, final Object[] args, final Object result) {
+                                    if (method.getName().startsWith("set") && args != null && args.length > 1 && args[0] instanceof Integer) {
+                                        recordedStatement.parameters.add(new Object[]{method, args});
+                                    }
+                                    return result;
+                                }
+                            });
+                        }
+                    });
+                }
+                return result;
+            }
+        });
+    }
+
+    private interface Interceptor {
+
+        Object intercept(Method method, Object[] args, Object result);
+    }
+
+    private static <T> T proxy(final Class<T> clazz, final T delegate, final Interceptor interceptor) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(),
+                                                 new Class[]{clazz},
+                                                 new InvocationHandler() {
+                                                     @Override
+                                                     public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                                                         final Object result;
+                                                         try {
+                                                             result = method.invoke(delegate, args);
+                                                         } catch (final InvocationTargetException e) {
+                                                             throw e.getCause();
+                                                         }
+                                                         return interceptor.intercept(method, args, result);
+                                                     }
+                                                 }));
+    }
+}
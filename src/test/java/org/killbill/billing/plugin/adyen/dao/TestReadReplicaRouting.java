@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014-2018 Groupon, Inc
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.TestWithEmbeddedDBBase;
+import org.killbill.billing.plugin.adyen.client.model.PaymentServiceProviderResult;
+import org.killbill.billing.plugin.adyen.client.model.PurchaseResult;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.UnitOfWork;
+import org.killbill.billing.plugin.adyen.dao.ReadReplicaRouter.Route;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.killbill.billing.plugin.api.PluginProperties;
+import org.killbill.clock.DefaultClock;
+import org.killbill.commons.embeddeddb.h2.H2EmbeddedDB;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+// The replica is a second, independent, database: replication is simulated by copying rows by hand
+public class TestReadReplicaRouting extends TestWithEmbeddedDBBase {
+
+    private static final long READ_YOUR_WRITES_WINDOW_MILLIS = 200;
+
+    private H2EmbeddedDB replicaDB;
+    private DataSource primary;
+    private DataSource replica;
+    private AdyenDao replicaDao;
+
+    @BeforeMethod(groups = "slow")
+    public void setUpReplica() throws Exception {
+        replicaDB = new H2EmbeddedDB("adyen_replica_" + System.nanoTime(), "root", "root");
+        replicaDB.initialize();
+        replicaDB.start();
+        replicaDB.executeScript(TestUtils.toString("ddl.sql"));
+
+        primary = EmbeddedDbHelper.instance().getDataSource();
+        replica = replicaDB.getDataSource();
+        replicaDao = new AdyenDao(replica);
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDownReplica() throws Exception {
+        replicaDB.stop();
+    }
+
+    @Test(groups = "slow")
+    public void testReadYourWrites() throws Exception {
+        final ReadReplicaRouter router = new ReadReplicaRouter(primary, replica, READ_YOUR_WRITES_WINDOW_MILLIS, 60000, 60000);
+        replicateHeartbeats(router);
+        final AdyenDao routingDao = new AdyenDao(primary, AdyenDao.UUIDStorage.CHAR, false, router);
+
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbPaymentTransactionId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        addResponse(routingDao, kbAccountId, kbPaymentId, kbPaymentTransactionId, kbTenantId);
+
+        // Just written by this node: read from the primary
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.PRIMARY_RECENT_WRITE, 1);
+
+        // Once the window has elapsed, read from the replica, which doesn't have the row yet
+        Thread.sleep(READ_YOUR_WRITES_WINDOW_MILLIS * 2);
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 0);
+        addResponse(replicaDao, kbAccountId, kbPaymentId, kbPaymentTransactionId, kbTenantId);
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.REPLICA, 2);
+
+        // Writes are never routed
+        Assert.assertNotNull(routingDao.updateResponse(kbPaymentTransactionId, PaymentServiceProviderResult.REFUSED, PluginProperties.buildPluginProperties(ImmutableMap.<String, Object>of("key", "value")), kbTenantId));
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).get(0).getPspResult(), PaymentServiceProviderResult.REFUSED.toString());
+        assertRouteCount(router, Route.PRIMARY_RECENT_WRITE, 2);
+    }
+
+    @Test(groups = "slow")
+    public void testReplicaLag() throws Exception {
+        final ReadReplicaRouter router = new ReadReplicaRouter(primary, replica, 0, 50, 0);
+        final AdyenDao routingDao = new AdyenDao(primary, AdyenDao.UUIDStorage.CHAR, false, router);
+
+        final UUID kbPaymentId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        addResponse(dao, UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), kbTenantId);
+
+        // Not probed yet
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.PRIMARY_REPLICA_LAG, 1);
+        Assert.assertEquals(router.getLagMillis(), -1);
+
+        // The heartbeat hasn't been replicated yet
+        router.probeLag();
+        Assert.assertEquals(router.getLagMillis(), -1);
+
+        // The replica has just started lagging
+        copyHeartbeats();
+        router.probeLag();
+        Assert.assertTrue(router.getLagMillis() < 50);
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 0);
+        assertRouteCount(router, Route.REPLICA, 1);
+
+        // Still behind the primary (whatever the writes since, e.g. updates), beyond the maximum lag
+        Thread.sleep(100);
+        router.probeLag();
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.PRIMARY_REPLICA_LAG, 2);
+        Assert.assertTrue(router.getLagMillis() >= 100);
+
+        // Caught up
+        copyHeartbeats();
+        addResponse(replicaDao, UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), kbTenantId);
+        router.probeLag();
+        Assert.assertEquals(getResponses(routingDao, kbPaymentId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.REPLICA, 2);
+        Assert.assertTrue(router.getLagMillis() < 50);
+
+        // The heartbeat of the node is removed on stop
+        router.stop();
+        Assert.assertEquals(countHeartbeats(primary), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testBackgroundLagProbe() throws Exception {
+        final ReadReplicaRouter router = new ReadReplicaRouter(primary, replica, 0, 60000, 10);
+        router.start();
+        try {
+            final long deadlineMillis = System.currentTimeMillis() + 5000;
+            while (router.getLagMillis() == -1 && System.currentTimeMillis() < deadlineMillis) {
+                Thread.sleep(10);
+            }
+            Assert.assertNotEquals(router.getLagMillis(), -1);
+            Assert.assertEquals(router.route(null), Route.REPLICA);
+        } finally {
+            router.stop();
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testFallbackOnReplicaError() throws Exception {
+        final ReadReplicaRouter router = new ReadReplicaRouter(primary, replica, 0, 60000, 60000);
+        replicateHeartbeats(router);
+        final AdyenDao routingDao = new AdyenDao(primary, AdyenDao.UUIDStorage.CHAR, false, router);
+
+        final UUID kbAccountId = UUID.randomUUID();
+        final UUID kbTenantId = UUID.randomUUID();
+        dao.addPaymentMethod(kbAccountId, UUID.randomUUID(), true, ImmutableMap.<String, String>of(), new DateTime(DateTimeZone.UTC), kbTenantId);
+
+        execute(replica, "drop table adyen_payment_methods");
+
+        // Retried on the primary
+        Assert.assertEquals(getPaymentMethods(routingDao, kbAccountId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.PRIMARY_FALLBACK, 1);
+        Assert.assertFalse(router.isReplicaHealthy());
+
+        // Then kept there until the next probe
+        Assert.assertEquals(getPaymentMethods(routingDao, kbAccountId, kbTenantId).size(), 1);
+        assertRouteCount(router, Route.PRIMARY_REPLICA_ERROR, 1);
+        assertRouteCount(router, Route.REPLICA, 0);
+
+        // The replica is still reachable
+        router.probeLag();
+        Assert.assertTrue(router.isReplicaHealthy());
+    }
+
+    private static void addResponse(final AdyenDao adyenDao, final UUID kbAccountId, final UUID kbPaymentId, final UUID kbPaymentTransactionId, final UUID kbTenantId) throws SQLException {
+        final PurchaseResult purchaseResult = new PurchaseResult(PaymentServiceProviderResult.AUTHORISED,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 null,
+                                                                 UUID.randomUUID().toString(),
+                                                                 null,
+                                                                 ImmutableMap.<String, String>of(),
+                                                                 ImmutableMap.<String, String>of());
+        adyenDao.addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN, Currency.EUR, purchaseResult, DefaultClock.truncateMs(new DateTime(DateTimeZone.UTC)), kbTenantId);
+    }
+
+    private static List<AdyenResponsesRecord> getResponses(final AdyenDao adyenDao, final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        return adyenDao.inReadOnlyUnitOfWork(kbPaymentId,
+                                             new UnitOfWork<List<AdyenResponsesRecord>, SQLException>() {
+                                                 @Override
+                                                 public List<AdyenResponsesRecord> execute() throws SQLException {
+                                                     return adyenDao.getResponses(kbPaymentId, kbTenantId);
+                                                 }
+                                             });
+    }
+
+    private static List<AdyenPaymentMethodsRecord> getPaymentMethods(final AdyenDao adyenDao, final UUID kbAccountId, final UUID kbTenantId) throws SQLException {
+        return adyenDao.inReadOnlyUnitOfWork(kbAccountId,
+                                             new UnitOfWork<List<AdyenPaymentMethodsRecord>, SQLException>() {
+                                                 @Override
+                                                 public List<AdyenPaymentMethodsRecord> execute() throws SQLException {
+                                                     return adyenDao.getPaymentMethods(kbAccountId, kbTenantId);
+                                                 }
+                                             });
+    }
+
+    private static void execute(final DataSource dataSource, final String sql) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    // Probe twice, to see the first heartbeat on the replica
+    private void replicateHeartbeats(final ReadReplicaRouter router) throws SQLException {
+        router.probeLag();
+        copyHeartbeats();
+        router.probeLag();
+    }
+
+    private void copyHeartbeats() throws SQLException {
+        execute(replica, "delete from adyen_replica_heartbeats");
+        final Connection connection = primary.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet resultSet = statement.executeQuery("select node_id, beat_millis from adyen_replica_heartbeats");
+            while (resultSet.next()) {
+                execute(replica, "insert into adyen_replica_heartbeats (node_id, beat_millis) values ('" + resultSet.getString(1) + "', " + resultSet.getLong(2) + ")");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static long countHeartbeats(final DataSource dataSource) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet resultSet = statement.executeQuery("select count(*) from adyen_replica_heartbeats");
+            resultSet.next();
+            final long count = resultSet.getLong(1);
+            statement.close();
+            return count;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void assertRouteCount(final ReadReplicaRouter router, final Route route, final long expectedCount) {
+        final Map routes = (Map) router.getSnapshot().get("routes");
+        Assert.assertEquals(((Map) routes.get(route.toString())).get("count"), expectedCount);
+    }
+}